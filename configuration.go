@@ -4,12 +4,14 @@ import (
 	"fmt"
 	"os"
 	"path"
+	"regexp"
 )
 
 // Environment variables
 const apmTokenEnvName = "APM_COLLECTOR_TOKEN"
 const projectDirEnvName = "BITRISEIO_GIT_REPOSITORY_SLUG"
 const stepSrcDirEnvName = "BITRISE_STEP_SOURCE_DIR"
+const javaHomeEnvName = "JAVA_HOME"
 
 // Config file values
 // These configurations should be constant (final and static), code should access them accordingly. The reason for this
@@ -19,19 +21,68 @@ const configFileVersion = "1.0.0"
 
 // Injector Gradle task values
 const injectTraceTaskName = "injectTraceTask"
-const verifyTraceTaskName = "verifyTrace"
-const injectTraceTaskClassName = "io.bitrise.trace.step.InjectTraceTask"
-const injectTraceTaskFileSrcPath = "src/main/java/io/bitrise/trace/step/InjectTraceTask.java"
-const injectTraceTaskFileDstPath = "buildSrc/src/main/java/io/bitrise/trace/step/InjectTraceTask.java"
+const injectTraceTaskVerifyOption = "--verify"
+const injectionModeOption = "--injection-mode="
+const traceRepositoryURLOption = "--trace-repository-url="
 
-// Language dependent values
-const kotlinBuildGradleSuffix = ".gradle.kts"
-const groovyBuildGradleSuffix = ".gradle"
+// Injector Gradle plugin values
+// The version has to match the one in injector/gradle.properties.
+const injectorPluginBuildDir = "injector"
+const injectorPluginJarName = "trace-injector"
+const injectorPluginVersion = "0.0.3"
+const injectorPluginClassName = "io.bitrise.trace.step.TraceInjectorPlugin"
+const injectorInitScriptName = "traceInjector.init.gradle"
+const initScriptOption = "--init-script"
+
+// Standalone injector values
+const injectTraceCliClassName = "io.bitrise.trace.step.InjectTraceCli"
+const injectTraceCliSrcDir = "src/main/java"
+const injectTraceCliSrcFile = "io/bitrise/trace/step/InjectTraceCli.java"
+const injectTraceCliUnresolvableExitCode = 2
+const noIncludedBuildsOption = "--no-included-builds"
+
+// The JFR events of the injector, compiled only when the JDK has the jdk.jfr API, see InjectionEvents of the injector.
+const injectionEventsSrcDir = "src/jfr/java"
+const injectionEventsSrcFile = "io/bitrise/trace/step/FlightRecorderEvents.java"
+
+// The Gradle option that turns off the injection of the included builds, see InjectTraceTask.INCLUDED_BUILDS_PROPERTY.
+const noIncludedBuildsGradleOption = "-Ptrace.includedBuilds=false"
+
+// Init script of the init_script injection mode, written by the Gradle task. The path has to match
+// TraceInitScriptInjector.INIT_SCRIPT_FILE_PATH, relative to the project directory. It is exported for the later builds
+// of the workflow in the traceInitScriptEnvName environment variable.
+const traceInitScriptPath = ".gradle/trace/trace.init.gradle"
+const traceInitScriptEnvName = "TRACE_INIT_SCRIPT"
+const initScriptInjectionMode = "init_script"
+
+// Metrics report of the injection, written by both the Gradle task and the standalone injector. The path has to match
+// InjectionMetrics.REPORT_FILE_PATH, relative to the project directory.
+const injectionMetricsReportPath = "build/trace/injectTraceMetrics.json"
+
+// Gradle daemon values
+// The properties that have to match for a Gradle invocation to reuse the daemon of an earlier one.
+var daemonPropertyNames = []string{"org.gradle.daemon", "org.gradle.java.home", "org.gradle.jvmargs"}
+
+const daemonPropertyName = "org.gradle.daemon"
+const daemonOption = "--daemon"
+const noDaemonOption = "--no-daemon"
+const daemonListOption = "--status"
+const gradlePropertiesFileName = "gradle.properties"
+const gradleUserHomeEnvName = "GRADLE_USER_HOME"
+
+// The info log line of a build that runs in a daemon which has already run builds, for example "Starting 2nd build in
+// daemon". The first build of a daemon logs "Starting build in new daemon" instead.
+var daemonReusedPattern = regexp.MustCompile(`Starting \d+(st|nd|rd|th) build in daemon`)
+
+// A running daemon in the output of "gradlew --status", for example "  1234 IDLE     6.8.1". The group is the PID.
+var runningDaemonPattern = regexp.MustCompile(`^\s*(\d+)\s+(IDLE|BUSY)\b`)
 
 // Configs stores the step's inputs
 type Configs struct {
-	RootProjectPath string `env:"project_path"`
-	GradleOptions   string `env:"gradle_options"`
+	RootProjectPath    string `env:"project_path"`
+	GradleOptions      string `env:"gradle_options"`
+	InjectionMode      string `env:"injection_mode,opt[script_plugin,inline,init_script]"`
+	TraceRepositoryURL string `env:"trace_repository_url,required"`
 }
 
 // Returns the directory for the Android application.
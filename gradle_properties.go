@@ -0,0 +1,211 @@
+package main
+
+import (
+	"bytes"
+	"fmt"
+	"io/ioutil"
+	"os"
+	"os/exec"
+	"path"
+	"sort"
+	"strings"
+)
+
+// Reads the Gradle properties that decide whether a Gradle daemon can be reused, from the gradle.properties of the
+// given project directory, overridden by the gradle.properties of the Gradle user home, like Gradle does. Returns an
+// empty map when neither file sets them.
+func readDaemonProperties(projDir string) (map[string]string, error) {
+	userHome := os.Getenv(gradleUserHomeEnvName)
+	if userHome == "" {
+		home, err := os.UserHomeDir()
+		if err != nil {
+			return nil, err
+		}
+		userHome = path.Join(home, ".gradle")
+	}
+
+	daemonProperties := map[string]string{}
+	files := []string{path.Join(projDir, gradlePropertiesFileName), path.Join(userHome, gradlePropertiesFileName)}
+	for _, file := range files {
+		properties, err := readGradleProperties(file)
+		if err != nil {
+			return nil, err
+		}
+		for _, name := range daemonPropertyNames {
+			if value, ok := properties[name]; ok {
+				daemonProperties[name] = value
+			}
+		}
+	}
+	return daemonProperties, nil
+}
+
+// Reads a gradle.properties file. Returns an empty map when the file does not exist.
+func readGradleProperties(file string) (map[string]string, error) {
+	content, err := ioutil.ReadFile(file)
+	if os.IsNotExist(err) {
+		return map[string]string{}, nil
+	}
+	if err != nil {
+		return nil, fmt.Errorf("failed to read \"%s\". Reason: %s", file, err)
+	}
+	return parseProperties(string(content)), nil
+}
+
+// Parses the content of a Java properties file: "key=value", "key: value" or "key value" lines, "#" and "!" comments,
+// lines continued with a trailing backslash, and backslash escapes.
+func parseProperties(content string) map[string]string {
+	properties := map[string]string{}
+	lines := strings.Split(strings.NewReplacer("\r\n", "\n", "\r", "\n").Replace(content), "\n")
+	for i := 0; i < len(lines); i++ {
+		line := strings.TrimLeft(lines[i], " \t\f")
+		if line == "" || line[0] == '#' || line[0] == '!' {
+			continue
+		}
+		for hasContinuation(line) && i+1 < len(lines) {
+			i++
+			line = line[:len(line)-1] + strings.TrimLeft(lines[i], " \t\f")
+		}
+
+		keyEnd := len(line)
+		for j := 0; j < len(line); j++ {
+			if line[j] == '\\' {
+				j++
+			} else if line[j] == '=' || line[j] == ':' || line[j] == ' ' || line[j] == '\t' || line[j] == '\f' {
+				keyEnd = j
+				break
+			}
+		}
+		value := strings.TrimLeft(line[keyEnd:], " \t\f")
+		if value != "" && (value[0] == '=' || value[0] == ':') {
+			value = strings.TrimLeft(value[1:], " \t\f")
+		}
+		properties[unescapeProperty(line[:keyEnd])] = unescapeProperty(value)
+	}
+	return properties
+}
+
+// Checks if a line of a properties file is continued on the next line: it ends with an odd number of backslashes.
+func hasContinuation(line string) bool {
+	backslashes := 0
+	for i := len(line) - 1; i >= 0 && line[i] == '\\'; i-- {
+		backslashes++
+	}
+	return backslashes%2 == 1
+}
+
+// Replaces the backslash escapes of a key or a value of a properties file.
+func unescapeProperty(s string) string {
+	var b strings.Builder
+	for i := 0; i < len(s); i++ {
+		if s[i] != '\\' || i+1 == len(s) {
+			b.WriteByte(s[i])
+			continue
+		}
+		i++
+		switch s[i] {
+		case 't':
+			b.WriteByte('\t')
+		case 'n':
+			b.WriteByte('\n')
+		case 'r':
+			b.WriteByte('\r')
+		case 'f':
+			b.WriteByte('\f')
+		default:
+			b.WriteByte(s[i])
+		}
+	}
+	return b.String()
+}
+
+// Gets the command line options that set the given daemon properties, sorted by their names, so a Gradle invocation
+// outside of the project directory starts or reuses the same daemon as the builds of the project.
+func daemonPropertyOptions(daemonProperties map[string]string) []string {
+	names := make([]string, 0, len(daemonProperties))
+	for name := range daemonProperties {
+		names = append(names, name)
+	}
+	sort.Strings(names)
+	options := make([]string, 0, len(names))
+	for _, name := range names {
+		options = append(options, "-D"+name+"="+daemonProperties[name])
+	}
+	return options
+}
+
+// Lists the running Gradle daemons of the Gradle version of the given project with "gradlew --status". Returns nil, and
+// prints why, when they cannot be listed.
+func listRunningDaemons(projDir string) map[string]bool {
+	var out bytes.Buffer
+	cmd := exec.Command(path.Join(projDir, "./gradlew"), daemonListOption)
+	cmd.Dir = projDir
+	cmd.Stdout = &out
+	cmd.Stderr = &out
+	if err := cmd.Run(); err != nil {
+		fmt.Printf("The Gradle daemons cannot be listed. Error: %s\nOutput: %s\n", err, out.String())
+		return nil
+	}
+	return parseRunningDaemons(out.String())
+}
+
+// Parses the output of "gradlew --status". Returns the set of the PIDs of the busy and the idle daemons, the stopped
+// ones are left out.
+func parseRunningDaemons(output string) map[string]bool {
+	daemons := map[string]bool{}
+	for _, line := range strings.Split(output, "\n") {
+		if match := runningDaemonPattern.FindStringSubmatch(line); match != nil {
+			daemons[match[1]] = true
+		}
+	}
+	return daemons
+}
+
+// Gets whether a Gradle invocation with the given command line options has reused a daemon, from its console output
+// and the running daemons before and after it, see listRunningDaemons. The daemon is not used when it is disabled by
+// the options or by the daemon properties of the project. Gradle only reports the reuse of a daemon in the info log
+// ("Starting 2nd build in daemon"), so without it a daemon was reused when no new daemon is running after the
+// invocation, and there was a running daemon before it. The status is unknown when the daemons cannot be listed.
+func daemonStatus(output string, options []string, daemonProperties map[string]string,
+	daemonsBefore, daemonsAfter map[string]bool) string {
+	disabled := daemonProperties[daemonPropertyName] == "false"
+	for _, option := range options {
+		switch {
+		case option == noDaemonOption || option == "-D"+daemonPropertyName+"=false":
+			disabled = true
+		case option == daemonOption || option == "-D"+daemonPropertyName+"=true":
+			disabled = false
+		}
+	}
+
+	switch {
+	case strings.Contains(output, "incompatible Daemon"):
+		return "a new daemon was started, an incompatible daemon could not be reused"
+	case strings.Contains(output, "Starting a Gradle Daemon"):
+		return "a new daemon was started"
+	case strings.Contains(output, "a single-use Daemon process will be forked"):
+		return "a single-use daemon was forked, it cannot be reused"
+	case disabled:
+		return "the daemon is disabled, the build ran without it"
+	case daemonReusedPattern.MatchString(output):
+		return "an existing daemon was reused"
+	case daemonsBefore == nil || daemonsAfter == nil:
+		return "unknown, the Gradle daemons could not be listed"
+	case hasNewDaemon(daemonsBefore, daemonsAfter):
+		return "a new daemon was started"
+	case len(daemonsBefore) > 0:
+		return "an existing daemon was reused"
+	default:
+		return "unknown, no Gradle daemon is running after the build"
+	}
+}
+
+// Checks if a daemon is running after an invocation that was not running before it.
+func hasNewDaemon(daemonsBefore, daemonsAfter map[string]bool) bool {
+	for pid := range daemonsAfter {
+		if !daemonsBefore[pid] {
+			return true
+		}
+	}
+	return false
+}
@@ -0,0 +1,93 @@
+package main
+
+import (
+	"reflect"
+	"testing"
+)
+
+func Test_parseProperties(t *testing.T) {
+	tests := []struct {
+		name    string
+		content string
+		want    map[string]string
+	}{
+		{"separators", "a=1\nb: 2\nc 3\n  d = 4  \n", map[string]string{"a": "1", "b": "2", "c": "3", "d": "4  "}},
+		{"comments", "# a=1\n! b=2\n\nc=3", map[string]string{"c": "3"}},
+		{"continuation", "org.gradle.jvmargs=-Xmx4g \\\n    -Dfile.encoding=UTF-8\r\n",
+			map[string]string{"org.gradle.jvmargs": "-Xmx4g -Dfile.encoding=UTF-8"}},
+		{"escapes", "a\\=b=c\\\\d\\te", map[string]string{"a=b": "c\\d\te"}},
+	}
+	for _, tt := range tests {
+		t.Run(tt.name, func(t *testing.T) {
+			if got := parseProperties(tt.content); !reflect.DeepEqual(got, tt.want) {
+				t.Errorf("parseProperties() = %v, want %v", got, tt.want)
+			}
+		})
+	}
+}
+
+func Test_daemonPropertyOptions(t *testing.T) {
+	got := daemonPropertyOptions(map[string]string{
+		"org.gradle.jvmargs":   "-Xmx4g -XX:+UseParallelGC",
+		"org.gradle.java.home": "/opt/jdk",
+	})
+	want := []string{"-Dorg.gradle.java.home=/opt/jdk", "-Dorg.gradle.jvmargs=-Xmx4g -XX:+UseParallelGC"}
+	if !reflect.DeepEqual(got, want) {
+		t.Errorf("daemonPropertyOptions() = %v, want %v", got, want)
+	}
+}
+
+func Test_parseRunningDaemons(t *testing.T) {
+	output := "   PID STATUS   INFO\n" +
+		" 12345 IDLE     6.8.1\n" +
+		" 23456 BUSY     6.8.1\n" +
+		" 34567 STOPPED  (stop command received)\n" +
+		"\n" +
+		"Only Daemons for the current Gradle version are displayed. See https://docs.gradle.org/6.8.1/userguide/gradle_daemon.html#sec:status\n"
+	want := map[string]bool{"12345": true, "23456": true}
+	if got := parseRunningDaemons(output); !reflect.DeepEqual(got, want) {
+		t.Errorf("parseRunningDaemons() = %v, want %v", got, want)
+	}
+}
+
+func Test_daemonStatus(t *testing.T) {
+	idle := map[string]bool{"12345": true}
+	tests := []struct {
+		name       string
+		output     string
+		options    []string
+		properties map[string]string
+		before     map[string]bool
+		after      map[string]bool
+		want       string
+	}{
+		{"reused", "Starting 2nd build in daemon [uptime: 12.5 secs, performance: 98%]\n> Task :injectTraceTask\n",
+			nil, nil, nil, nil, "an existing daemon was reused"},
+		{"reused_without_info", "> Task :injectTraceTask\n", nil, nil, idle, idle, "an existing daemon was reused"},
+		{"new_without_info", "> Task :injectTraceTask\n", nil, nil, idle,
+			map[string]bool{"12345": true, "23456": true}, "a new daemon was started"},
+		{"not_listed", "> Task :injectTraceTask\n", nil, nil, nil, idle,
+			"unknown, the Gradle daemons could not be listed"},
+		{"none_running", "> Task :injectTraceTask\n", nil, nil, map[string]bool{}, map[string]bool{},
+			"unknown, no Gradle daemon is running after the build"},
+		{"started", "Starting a Gradle Daemon (subsequent builds will be faster)\n", nil, nil, nil, nil,
+			"a new daemon was started"},
+		{"incompatible", "Starting a Gradle Daemon, 1 incompatible Daemon could not be reused, use --status for details\n",
+			nil, nil, nil, nil, "a new daemon was started, an incompatible daemon could not be reused"},
+		{"single_use", "To honour the JVM settings for this build a single-use Daemon process will be forked.\n",
+			[]string{noDaemonOption}, nil, nil, nil, "a single-use daemon was forked, it cannot be reused"},
+		{"disabled_by_option", "", []string{noDaemonOption}, nil, idle, idle,
+			"the daemon is disabled, the build ran without it"},
+		{"disabled_by_property", "", nil, map[string]string{daemonPropertyName: "false"}, idle, idle,
+			"the daemon is disabled, the build ran without it"},
+		{"enabled_by_option", "", []string{daemonOption}, map[string]string{daemonPropertyName: "false"}, idle, idle,
+			"an existing daemon was reused"},
+	}
+	for _, tt := range tests {
+		t.Run(tt.name, func(t *testing.T) {
+			if got := daemonStatus(tt.output, tt.options, tt.properties, tt.before, tt.after); got != tt.want {
+				t.Errorf("daemonStatus() = %v, want %v", got, tt.want)
+			}
+		})
+	}
+}
@@ -1,9 +1,8 @@
 package main
 
 import (
-	"bytes"
 	"fmt"
-	"github.com/kballard/go-shellquote"
+	"io/ioutil"
 	"os"
 	"os/exec"
 	"path"
@@ -31,24 +30,44 @@ func main() {
 	}
 	log.Infof("Configuration file successfully created")
 
-	log.Infof("Adding Trace injector to project")
-	if err := addTraceInjectorTask(configs.RootProjectPath); err != nil {
-		failf("Could not add Trace injector to project, aborting build. Reason: %s\n", err)
+	log.Infof("Running Trace injector on project without Gradle")
+	err := runStaticTraceInjector(configs.RootProjectPath, configs.GradleOptions, configs.InjectionMode,
+		configs.TraceRepositoryURL)
+	if err == nil {
+		log.Infof("Trace injector successfully injected and verified the SDK")
+		os.Exit(0)
+	}
+	if _, ok := err.(*staticInjectionUnavailableError); !ok {
+		failf("Error when injecting Trace to project, aborting build. Reason: %s\n", err)
+	}
+	log.Warnf("Could not inject Trace without Gradle, falling back to the Gradle task. Reason: %s", err)
+
+	initScriptDir, err := ioutil.TempDir("", "trace-injector-init")
+	if err != nil {
+		failf("Could not create directory for the Trace injector init script, aborting build. Reason: %s\n", err)
 	}
-	log.Infof("Added Trace injector to project")
+
+	log.Infof("Building Trace injector plugin")
+	initScript, err := addTraceInjectorPlugin(configs.RootProjectPath, initScriptDir)
+	if err != nil {
+		failf("Could not build Trace injector plugin, aborting build. Reason: %s\n", err)
+	}
+	log.Infof("Built Trace injector plugin")
 
 	log.Infof("Running Trace injector on project")
-	if err := runTraceInjector(configs.RootProjectPath, configs.GradleOptions); err != nil {
+	if err := runTraceInjector(configs.RootProjectPath, configs.GradleOptions, configs.InjectionMode,
+		configs.TraceRepositoryURL, initScript); err != nil {
 		failf("Error when injecting Trace to project, aborting build. Reason: %s\n", err)
 	}
-	log.Infof("Trace injector successfully injected the SDK")
+	log.Infof("Trace injector successfully injected and verified the SDK")
 
-	log.Infof("Verifying Trace on project")
-	if err := runVerifyTraceTask(configs.RootProjectPath, configs.GradleOptions); err != nil {
-		failf("Error when verifying Trace in project, aborting build. Please check the logs for details. Reason: %s\n", err)
+	if configs.InjectionMode == initScriptInjectionMode {
+		if err := exportTraceInitScript(configs.RootProjectPath); err != nil {
+			failf("Could not export the Trace init script, aborting build. Reason: %s\n", err)
+		}
 	}
-	log.Infof("Verification was successful")
 
+	_ = os.RemoveAll(initScriptDir)
 	os.Exit(0)
 }
 
@@ -73,78 +92,25 @@ func createConfigurationFile(rootDir string) error {
 	return createConfigFile(fc, p)
 }
 
-// Adds the InjectTraceTask to the given project. Requires the root directory of the project as an input.
-func addTraceInjectorTask(rootDir string) error {
+// Builds the injector plugin for the given project, and writes the init script that applies it into the given
+// directory. Nothing is added to the project. Requires the root directory of the project as an input. Returns the path
+// of the init script.
+func addTraceInjectorPlugin(rootDir, initScriptDir string) (string, error) {
 	projSrc, err := projectDir(rootDir)
 	if err != nil {
-		return err
-	}
-
-	gradlePath, err := findRootGradle(projSrc)
-	if err != nil {
-		return err
-	}
-
-	if err := appendTraceInjectorTaskToProject(gradlePath); err != nil {
-		return fmt.Errorf("failed to append Trace task to root build.gradle. Reason: %s", err)
+		return "", err
 	}
 
 	stepSrc, err := env(stepSrcDirEnvName)
 	if err != nil {
-		return err
-	}
-	if err := addTaskFile(stepSrc, projSrc); err != nil {
-		return fmt.Errorf("failed to add Trace injector task file to project. Reason: %s", err)
+		return "", err
 	}
-	return nil
-}
-
-// Finds and returns the path for the root build.gradle or build.gradle.kts
-func findRootGradle(projectDir string) (string, error) {
-	groovyGradle := path.Join(projectDir, "build.gradle")
-	if _, err := os.Stat(groovyGradle); err == nil {
-		return groovyGradle, nil
-	}
-
-	kotlinGradle := path.Join(projectDir, "build.gradle.kts")
-	if _, err := os.Stat(kotlinGradle); err == nil {
-		return kotlinGradle, nil
-	}
-
-	return "", fmt.Errorf("could not find any suitable build gradle files in %s. Please make sure the input for "+
-		"project path is correctly set and there is a build.gradle or build.gradle.kts file", projectDir)
-
-}
 
-// Runs the VerifyTraceTask. This will verify the required dependencies and plugins are present for Trace.
-func runVerifyTraceTask(rootDir, options string) error {
-	optionSlice, err := shellquote.Split(options)
+	jar, err := buildInjectorPlugin(stepSrc, projSrc)
 	if err != nil {
-		return fmt.Errorf("cannot parse Gradle Task Options, please make sure it is set correctly. Value: \"%s\". Error: %s ", options, err)
+		return "", err
 	}
-
-	projDir, err := projectDir(rootDir)
-	if err != nil {
-		return fmt.Errorf("cannot start verify task. Reason: %s", err)
-	}
-
-	var stdOut bytes.Buffer
-	var stdErr bytes.Buffer
-	cmdSlice := []string{path.Join(projDir, "./gradlew"), verifyTraceTaskName, "-p", projDir}
-	cmdSlice = append(cmdSlice, optionSlice...)
-
-	cmd := exec.Command(cmdSlice[0], cmdSlice[1:]...)
-	printCommand(cmd)
-
-	cmd.Stdout = &stdOut
-	cmd.Stderr = &stdErr
-	e := cmd.Run()
-	if e != nil {
-		return fmt.Errorf("VerifyTraceTask failed. Error: %s\nConsole output: %s\nError output: %s", e, stdOut.String(), stdErr.String())
-	}
-	fmt.Printf("Console output from VerifyTrace task:\n%s", stdOut.String())
-
-	return nil
+	return writeInjectorInitScript(initScriptDir, jar)
 }
 
 func printCommand(cmd *exec.Cmd) {
@@ -0,0 +1,221 @@
+package io.bitrise.trace.step;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Java Flight Recorder implementation of the {@link InjectionEvents}. It is compiled only with a JDK that has the
+ * "jdk.jfr" API, and loaded reflectively by {@link InjectionEvents}, so nothing else depends on it.
+ */
+final class FlightRecorderEvents implements InjectionEvents.Factory {
+
+    private static final String CATEGORY = "Trace Injection";
+
+    @Override
+    public InjectionEvents.ModuleScan moduleScan() {
+        final ModuleScan event = new ModuleScan();
+        return new InjectionEvents.ModuleScan() {
+            @Override
+            void begin() {
+                event.begin();
+            }
+
+            @Override
+            boolean shouldCommit() {
+                return event.shouldCommit();
+            }
+
+            @Override
+            void commit() {
+                event.buildFile = buildFile;
+                event.bytes = bytes;
+                event.outcome = outcome;
+                event.commit();
+            }
+        };
+    }
+
+    @Override
+    public InjectionEvents.ConfigurationScan configurationScan() {
+        final ConfigurationScan event = new ConfigurationScan();
+        return new InjectionEvents.ConfigurationScan() {
+            @Override
+            void begin() {
+                event.begin();
+            }
+
+            @Override
+            boolean shouldCommit() {
+                return event.shouldCommit();
+            }
+
+            @Override
+            void commit() {
+                event.project = project;
+                event.configurationCount = configurationCount;
+                event.dependencyCount = dependencyCount;
+                event.commit();
+            }
+        };
+    }
+
+    @Override
+    public InjectionEvents.BuildScriptIndexing buildScriptIndexing() {
+        final BuildScriptIndexing event = new BuildScriptIndexing();
+        return new InjectionEvents.BuildScriptIndexing() {
+            @Override
+            void begin() {
+                event.begin();
+            }
+
+            @Override
+            boolean shouldCommit() {
+                return event.shouldCommit();
+            }
+
+            @Override
+            void commit() {
+                event.path = path;
+                event.bytes = bytes;
+                event.outcome = outcome;
+                event.commit();
+            }
+        };
+    }
+
+    @Override
+    public InjectionEvents.FileMutation fileMutation() {
+        final FileMutation event = new FileMutation();
+        return new InjectionEvents.FileMutation() {
+            @Override
+            void begin() {
+                event.begin();
+            }
+
+            @Override
+            boolean shouldCommit() {
+                return event.shouldCommit();
+            }
+
+            @Override
+            void commit() {
+                event.path = path;
+                event.bytes = bytes;
+                event.outcome = outcome;
+                event.commit();
+            }
+        };
+    }
+
+    @Override
+    public InjectionEvents.ModuleInjection moduleInjection() {
+        final ModuleInjection event = new ModuleInjection();
+        return new InjectionEvents.ModuleInjection() {
+            @Override
+            void begin() {
+                event.begin();
+            }
+
+            @Override
+            boolean shouldCommit() {
+                return event.shouldCommit();
+            }
+
+            @Override
+            void commit() {
+                event.project = project;
+                event.outcome = outcome;
+                event.commit();
+            }
+        };
+    }
+
+    @Name("io.bitrise.trace.step.ModuleScan")
+    @Label("Module Scan")
+    @Category(CATEGORY)
+    @Description("Scan of the build file of a project for the Android application plugin")
+    static final class ModuleScan extends Event {
+
+        @Label("Build File")
+        String buildFile;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Outcome")
+        @Description("application, other, unresolvable or missing")
+        String outcome;
+    }
+
+    @Name("io.bitrise.trace.step.ConfigurationScan")
+    @Label("Configuration Scan")
+    @Category(CATEGORY)
+    @Description("Indexing of the declared dependencies of the configurations of an application module")
+    static final class ConfigurationScan extends Event {
+
+        @Label("Project")
+        String project;
+
+        @Label("Configuration Count")
+        int configurationCount;
+
+        @Label("Dependency Count")
+        int dependencyCount;
+    }
+
+    @Name("io.bitrise.trace.step.BuildScriptIndexing")
+    @Label("Build Script Indexing")
+    @Category(CATEGORY)
+    @Description("Lexing of a build file into its code, comments, strings and blocks")
+    static final class BuildScriptIndexing extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Outcome")
+        @Description("cached when the file has not been read, reused when its content has not changed, indexed "
+                + "otherwise")
+        String outcome;
+    }
+
+    @Name("io.bitrise.trace.step.FileMutation")
+    @Label("File Mutation")
+    @Category(CATEGORY)
+    @Description("Check and write of a file edited by the injection, while its lock is held")
+    static final class FileMutation extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Outcome")
+        @Description("written, unchanged or failed")
+        String outcome;
+    }
+
+    @Name("io.bitrise.trace.step.ModuleInjection")
+    @Label("Module Injection")
+    @Category(CATEGORY)
+    @Description("Injection of Trace into an application module")
+    static final class ModuleInjection extends Event {
+
+        @Label("Project")
+        String project;
+
+        @Label("Outcome")
+        @Description("success, skipped or failed")
+        String outcome;
+    }
+}
@@ -0,0 +1,85 @@
+package io.bitrise.trace.step;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic Gradle build scripts for the benchmarks. The scripts have a buildscript block at the start, then
+ * dependency declarations with string literals that contain comment markers (URLs), mixed with line comments, single
+ * line and multiline block comments.
+ */
+final class BuildScriptGenerator {
+
+    private BuildScriptGenerator() {
+        // utility class
+    }
+
+    /**
+     * Generates the lines of a build script.
+     *
+     * @param lineCount      the number of lines to generate.
+     * @param kotlin         {@code true} for Kotlin script, {@code false} for Groovy script.
+     * @param commentDensity the ratio of the lines that are or have comments, between 0 and 1.
+     * @return the List of lines.
+     */
+    static List<String> generate(final int lineCount, final boolean kotlin, final double commentDensity) {
+        // fixed seed, so every fork and iteration works on the same script
+        final Random random = new Random(42);
+        final List<String> lines = new ArrayList<>(lineCount);
+        lines.add("buildscript {");
+        lines.add("    repositories {");
+        lines.add(kotlin ? "        maven(url = \"https://maven.example.com/releases\")"
+                : "        maven { url \"https://maven.example.com/releases\" }");
+        lines.add("    }");
+        lines.add("}");
+        lines.add("dependencies {");
+        int moduleIndex = 0;
+        while (lines.size() < lineCount - 1) {
+            if (random.nextDouble() < commentDensity) {
+                addComment(lines, random, moduleIndex);
+            } else {
+                lines.add(getDependencyLine(kotlin, moduleIndex));
+            }
+            moduleIndex++;
+        }
+        lines.add("}");
+        return lines;
+    }
+
+    /**
+     * Generates a build script as a single String.
+     *
+     * @param lineCount      the number of lines to generate.
+     * @param kotlin         {@code true} for Kotlin script, {@code false} for Groovy script.
+     * @param commentDensity the ratio of the lines that are or have comments, between 0 and 1.
+     * @return the content of the script.
+     */
+    static String generateContent(final int lineCount, final boolean kotlin, final double commentDensity) {
+        return String.join("\n", generate(lineCount, kotlin, commentDensity)) + "\n";
+    }
+
+    private static String getDependencyLine(final boolean kotlin, final int moduleIndex) {
+        return kotlin ? String.format("    implementation(\"com.example.group%1$d:module%1$d:1.0.%1$d\")", moduleIndex)
+                : String.format("    implementation \"com.example.group%1$d:module%1$d:1.0.%1$d\"", moduleIndex);
+    }
+
+    private static void addComment(final List<String> lines, final Random random, final int moduleIndex) {
+        switch (random.nextInt(4)) {
+            case 0:
+                lines.add("    // https://example.com/docs/module" + moduleIndex);
+                break;
+            case 1:
+                lines.add("    implementation \"com.example:module" + moduleIndex + ":1.0\" // see https://example.com");
+                break;
+            case 2:
+                lines.add("    /* disabled: implementation \"com.example:module" + moduleIndex + ":1.0\" */");
+                break;
+            default:
+                lines.add("    /*");
+                lines.add("     * Multiline comment for module " + moduleIndex);
+                lines.add("     */");
+                break;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.bitrise.trace.step;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks for the build file rewriting engine of {@link TraceInjector}, on generated Groovy and Kotlin build
+ * scripts with different sizes and comment densities. Run with "./gradlew jmh", the GC profiler reports the
+ * allocation rate next to the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BuildScriptRewriteBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int lineCount;
+
+    @Param({"groovy", "kotlin"})
+    public String language;
+
+    @Param({"0.0", "0.2", "0.5"})
+    public double commentDensity;
+
+    /**
+     * The block comment pattern of the former line based comment removal, kept as the baseline of
+     * {@link GradleScriptLexer#removeComments(CharBuffer, boolean)}.
+     */
+    private static final Pattern GREEDY_COMMENT_BLOCK_PATTERN = Pattern.compile("/\\*.*?\\*/");
+
+    private List<String> lines;
+    private byte[] content;
+    private CharBuffer script;
+    private Path buildFile;
+    private final TraceInjector traceInjector = new TraceInjector(InjectionLogger.NONE);
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        final boolean kotlin = "kotlin".equals(language);
+        lines = BuildScriptGenerator.generate(lineCount, kotlin, commentDensity);
+        content = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        buildFile = Files.createTempFile("benchmark", kotlin ? ".gradle.kts" : ".gradle");
+        Files.write(buildFile, content);
+        script = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(content));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        Files.deleteIfExists(buildFile);
+    }
+
+    /**
+     * State for the benchmarks that modify the build file, restores its original content before every invocation. It
+     * is separate from the benchmark state, so the other benchmarks do not pay for the invocation level setup.
+     */
+    @State(Scope.Thread)
+    public static class OriginalBuildFile {
+
+        @Setup(Level.Invocation)
+        public void reset(final BuildScriptRewriteBenchmark benchmark) throws IOException {
+            Files.write(benchmark.buildFile, benchmark.content);
+        }
+    }
+
+    @Benchmark
+    public String removeComments() {
+        return GradleScriptLexer.removeComments(script.duplicate(), "kotlin".equals(language));
+    }
+
+    @Benchmark
+    public void removeGreedyCommentBlocksFromLine(final Blackhole blackhole) {
+        for (final String line : lines) {
+            blackhole.consume(GREEDY_COMMENT_BLOCK_PATTERN.matcher(line).replaceAll(""));
+        }
+    }
+
+    @Benchmark
+    public BuildScriptIndex buildScriptIndex() {
+        return BuildScriptIndex.of(StandardCharsets.UTF_8.decode(ByteBuffer.wrap(content)), "kotlin".equals(language));
+    }
+
+    @Benchmark
+    public List<Path> updateBuildScriptContent(final OriginalBuildFile originalBuildFile) throws IOException {
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+        traceInjector.updateBuildScriptContent(plan, buildFile.toString());
+        return plan.apply();
+    }
+
+    @Benchmark
+    public String getContentToAppend() {
+        return TraceInjector.getContentToAppend(buildFile.toString(), "traceSdk.gradle");
+    }
+}
@@ -0,0 +1,167 @@
+package io.bitrise.trace.step;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The state of an Android application module that {@link InjectTraceTask} needs for injecting Trace. It is captured
+ * at configuration time, so the task action does not have to access the {@link org.gradle.api.Project} and the task
+ * stays compatible with the configuration cache.
+ * <p>
+ * The modules of included builds are identified by the path of their build and their path in it, the same way Gradle
+ * identifies the tasks of included builds, for example ":feature:app", see {@link #getIdentityPath()}.
+ */
+public class ApplicationModuleModel implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The path of the root build of a composite build.
+     */
+    static final String ROOT_BUILD_PATH = ":";
+
+    private final String buildPath;
+    private final String name;
+    private final String path;
+    private final File projectDir;
+    private final File buildFile;
+    private final Set<String> declaredTraceCoordinates;
+    private final Set<String> buildscriptTraceCoordinates;
+    private final Set<String> appliedPluginIds;
+
+    /**
+     * Constructor for class.
+     *
+     * @param name                        the name of the module.
+     * @param path                        the Gradle path of the module.
+     * @param projectDir                  the directory of the module.
+     * @param buildFile                   the build file of the module.
+     * @param declaredTraceCoordinates    the "group:name" coordinates of the Trace dependencies of the module.
+     * @param buildscriptTraceCoordinates the "group:name" coordinates of the Trace buildscript dependencies.
+     * @param appliedPluginIds            the ids of the relevant plugins that are applied on the module.
+     */
+    ApplicationModuleModel(final String name, final String path, final File projectDir, final File buildFile,
+                           final Set<String> declaredTraceCoordinates, final Set<String> buildscriptTraceCoordinates,
+                           final Set<String> appliedPluginIds) {
+        this(ROOT_BUILD_PATH, name, path, projectDir, buildFile, declaredTraceCoordinates, buildscriptTraceCoordinates,
+                appliedPluginIds);
+    }
+
+    /**
+     * Constructor for class.
+     *
+     * @param buildPath                   the path of the build of the module, {@link #ROOT_BUILD_PATH} or the name of
+     *                                    an included build with a leading ":".
+     * @param name                        the name of the module.
+     * @param path                        the Gradle path of the module in its build.
+     * @param projectDir                  the directory of the module.
+     * @param buildFile                   the build file of the module.
+     * @param declaredTraceCoordinates    the "group:name" coordinates of the Trace dependencies of the module.
+     * @param buildscriptTraceCoordinates the "group:name" coordinates of the Trace buildscript dependencies.
+     * @param appliedPluginIds            the ids of the relevant plugins that are applied on the module.
+     */
+    ApplicationModuleModel(final String buildPath, final String name, final String path, final File projectDir,
+                           final File buildFile, final Set<String> declaredTraceCoordinates,
+                           final Set<String> buildscriptTraceCoordinates, final Set<String> appliedPluginIds) {
+        this.buildPath = buildPath;
+        this.name = name;
+        this.path = path;
+        this.projectDir = projectDir;
+        this.buildFile = buildFile;
+        this.declaredTraceCoordinates = Collections.unmodifiableSet(new LinkedHashSet<>(declaredTraceCoordinates));
+        this.buildscriptTraceCoordinates =
+                Collections.unmodifiableSet(new LinkedHashSet<>(buildscriptTraceCoordinates));
+        this.appliedPluginIds = Collections.unmodifiableSet(new LinkedHashSet<>(appliedPluginIds));
+    }
+
+    /**
+     * Creates a copy of this model in the given build.
+     *
+     * @param buildPath the path of the build, see {@link #getBuildPath()}.
+     * @return the ApplicationModuleModel in the build.
+     */
+    ApplicationModuleModel inBuild(final String buildPath) {
+        return new ApplicationModuleModel(buildPath, name, path, projectDir, buildFile, declaredTraceCoordinates,
+                buildscriptTraceCoordinates, appliedPluginIds);
+    }
+
+    /**
+     * Gets the path of the build of the module.
+     *
+     * @return {@link #ROOT_BUILD_PATH} for the root build, or the name of the included build with a leading ":".
+     */
+    String getBuildPath() {
+        return buildPath;
+    }
+
+    /**
+     * Gets the path that identifies the module in a composite build: the path of the module for the root build, and
+     * the path of the build followed by the path of the module for an included build.
+     *
+     * @return the identity path, for example ":app" or ":feature:app".
+     */
+    String getIdentityPath() {
+        if (ROOT_BUILD_PATH.equals(buildPath)) {
+            return path;
+        }
+        return ROOT_BUILD_PATH.equals(path) ? buildPath : buildPath + path;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    File getProjectDir() {
+        return projectDir;
+    }
+
+    File getBuildFile() {
+        return buildFile;
+    }
+
+    /**
+     * Checks if the module declares a dependency with the given coordinates.
+     *
+     * @param group the group of the dependency.
+     * @param name  the name of the dependency.
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    boolean hasDependency(final String group, final String name) {
+        return declaredTraceCoordinates.contains(group + ":" + name);
+    }
+
+    /**
+     * Checks if the buildscript of the module declares a dependency with the given coordinates.
+     *
+     * @param group the group of the dependency.
+     * @param name  the name of the dependency.
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    boolean hasBuildscriptDependency(final String group, final String name) {
+        return buildscriptTraceCoordinates.contains(group + ":" + name);
+    }
+
+    /**
+     * Checks if the plugin with the given id is applied on the module.
+     *
+     * @param pluginId the id of the plugin.
+     * @return {@code true} if it is, {@code false} otherwise.
+     */
+    boolean hasPlugin(final String pluginId) {
+        return appliedPluginIds.contains(pluginId);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ApplicationModuleModel{path=%s, buildFile=%s, dependencies=%s, " +
+                        "buildscriptDependencies=%s, plugins=%s}", getIdentityPath(), buildFile,
+                declaredTraceCoordinates, buildscriptTraceCoordinates, appliedPluginIds);
+    }
+}
@@ -0,0 +1,289 @@
+package io.bitrise.trace.step;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the edits of the files of a module, and applies them at once with {@link #apply()}. Each file is written
+ * only once, with all of its edits, to a temporary file next to it that is then renamed over the original, so an
+ * interrupted injection never leaves a half-edited file behind. Files whose content would not change are not written.
+ * Each file is checked and written while its lock of {@link FileLocks} is held, so concurrent injections of the same
+ * project either see the edits of each other or fail, instead of overwriting them. The reads and the writes of the
+ * files are recorded in the {@link InjectionMetrics#INDEX} and {@link InjectionMetrics#WRITE} phases, and each file
+ * is an {@link InjectionEvents.FileMutation} event.
+ * <p>
+ * The position of an insertion is an offset of the {@link BuildScriptIndex} of the file when it was first edited, so
+ * all the edits of a plan see the original content, and everything in the file except the inserted content,
+ * including the comments, stays byte-for-byte identical.
+ */
+final class BuildFileEditPlan {
+
+    /**
+     * The suffix of the temporary files that are renamed over the edited files.
+     */
+    static final String TEMP_FILE_SUFFIX = ".trace.tmp";
+
+    private final Map<Path, FileEdit> edits = new LinkedHashMap<>();
+    private final FileLocks fileLocks;
+    private final InjectionMetrics metrics;
+
+    /**
+     * Constructor for class, with {@link FileLocks#DEFAULT}.
+     */
+    BuildFileEditPlan() {
+        this(FileLocks.DEFAULT);
+    }
+
+    /**
+     * Constructor for class, without collecting the metrics.
+     *
+     * @param fileLocks the {@link FileLocks} to lock the files with while they are written.
+     */
+    BuildFileEditPlan(final FileLocks fileLocks) {
+        this(fileLocks, new InjectionMetrics());
+    }
+
+    /**
+     * Constructor for class.
+     *
+     * @param fileLocks the {@link FileLocks} to lock the files with while they are written.
+     * @param metrics   the {@link InjectionMetrics} to record the reads and the writes of the files in.
+     */
+    BuildFileEditPlan(final FileLocks fileLocks, final InjectionMetrics metrics) {
+        this.fileLocks = fileLocks;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the {@link BuildScriptIndex} of the given build file that the insertions of this plan are relative to. It
+     * is the index of the file when it was first used by this plan, so it does not change until the plan is applied.
+     *
+     * @param path the path of the build file.
+     * @return the BuildScriptIndex of the file.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    BuildScriptIndex getIndex(final Path path) throws IOException {
+        final FileEdit edit = getEdit(path);
+        if (edit.index == null) {
+            try (final InjectionMetrics.Timer ignored = metrics.time(InjectionMetrics.INDEX)) {
+                edit.index = BuildScriptIndex.forFile(path);
+            }
+            metrics.addRead(InjectionMetrics.INDEX, edit.index.getSize());
+        }
+        return edit.index;
+    }
+
+    /**
+     * Inserts the given content into a build file at the given offset. Insertions at the same offset keep their
+     * order.
+     *
+     * @param path       the path of the build file.
+     * @param charOffset the offset in the content of {@link #getIndex(Path)} to insert at.
+     * @param insertion  the content to insert.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    void insert(final Path path, final int charOffset, final String insertion) throws IOException {
+        final BuildScriptIndex index = getIndex(path);
+        if (charOffset < 0 || charOffset > index.getContent().length()) {
+            throw new IndexOutOfBoundsException(String.format("Offset %d is out of the content of \"%s\"",
+                    charOffset, path));
+        }
+        getEdit(path).insertions.add(new Insertion(charOffset, insertion));
+    }
+
+    /**
+     * Sets the whole content of the given file, which may not exist yet.
+     *
+     * @param path    the path of the file.
+     * @param content the new content of the file.
+     */
+    void write(final Path path, final byte[] content) {
+        getEdit(path).content = content.clone();
+    }
+
+    /**
+     * Checks if this plan has any edit.
+     *
+     * @return {@code true} if there is nothing to apply, {@code false} otherwise.
+     */
+    boolean isEmpty() {
+        for (final FileEdit edit : edits.values()) {
+            if (edit.content != null || !edit.insertions.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies the edits of this plan, in the order the files were first edited. The plan is empty afterwards. Each
+     * file is locked only while it is checked and written, one at a time, so plans can never wait for each other in a
+     * cycle.
+     *
+     * @return the List of the paths of the files that have been written, the unchanged files are not included.
+     * @throws IOException when any I/O error occurs with the files, or a build file has changed since it was indexed.
+     */
+    List<Path> apply() throws IOException {
+        final List<Path> written = new ArrayList<>();
+        try (final InjectionMetrics.Timer ignored = metrics.time(InjectionMetrics.WRITE)) {
+            for (final Map.Entry<Path, FileEdit> entry : edits.entrySet()) {
+                final InjectionEvents.FileMutation event = InjectionEvents.fileMutation();
+                if (event != null) {
+                    event.begin();
+                }
+                String outcome = "failed";
+                long bytes = 0;
+                try (final FileLocks.Handle ignoredLock = fileLocks.lock(entry.getKey())) {
+                    final byte[] content = entry.getValue().getNewContent(entry.getKey(), metrics);
+                    outcome = "unchanged";
+                    if (content != null) {
+                        replace(entry.getKey(), content);
+                        metrics.addWritten(InjectionMetrics.WRITE, content.length);
+                        written.add(entry.getKey());
+                        outcome = "written";
+                        bytes = content.length;
+                    }
+                } finally {
+                    if (event != null && event.shouldCommit()) {
+                        event.path = entry.getKey().toString();
+                        event.bytes = bytes;
+                        event.outcome = outcome;
+                        event.commit();
+                    }
+                }
+            }
+        } finally {
+            edits.clear();
+        }
+        return written;
+    }
+
+    private FileEdit getEdit(final Path path) {
+        return edits.computeIfAbsent(path.toAbsolutePath().normalize(), key -> new FileEdit());
+    }
+
+    /**
+     * Replaces the content of the given file atomically: the content is written to a temporary file in the same
+     * directory, which is then moved over the file. The permissions of an existing file are kept.
+     *
+     * @param path    the path of the file.
+     * @param content the new content.
+     * @throws IOException when any I/O error occurs with the files.
+     */
+    private static void replace(final Path path, final byte[] content) throws IOException {
+        final Path tempFile = path.resolveSibling("." + path.getFileName() + TEMP_FILE_SUFFIX);
+        try {
+            Files.write(tempFile, content, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            copyPermissions(path, tempFile);
+            try {
+                Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Copies the POSIX permissions of a file to another one, if the file exists and the file system supports them.
+     *
+     * @param source      the path of the file to copy the permissions of.
+     * @param destination the path of the file to set the permissions on.
+     * @throws IOException when any I/O error occurs with the files.
+     */
+    private static void copyPermissions(final Path source, final Path destination) throws IOException {
+        try {
+            Files.setPosixFilePermissions(destination, Files.getPosixFilePermissions(source));
+        } catch (final NoSuchFileException | UnsupportedOperationException e) {
+            // new file, or not a POSIX file system: the defaults are used
+        }
+    }
+
+    /**
+     * The edits of a single file: either insertions into its indexed content, or its whole new content.
+     */
+    private static final class FileEdit {
+
+        private final List<Insertion> insertions = new ArrayList<>();
+        private BuildScriptIndex index;
+        private byte[] content;
+
+        /**
+         * Gets the new content of the file.
+         *
+         * @param path    the path of the file.
+         * @param metrics the {@link InjectionMetrics} to record the comparison with the current content in.
+         * @return the new content, or {@code null} when it would not change.
+         * @throws IOException when any I/O error occurs with the file, or it has changed since it was indexed.
+         */
+        private byte[] getNewContent(final Path path, final InjectionMetrics metrics) throws IOException {
+            if (content != null) {
+                if (Files.isRegularFile(path) && Files.size(path) == content.length) {
+                    final byte[] current = Files.readAllBytes(path);
+                    metrics.addRead(InjectionMetrics.WRITE, current.length);
+                    if (Arrays.equals(current, content)) {
+                        return null;
+                    }
+                }
+                return content;
+            }
+            if (insertions.stream().allMatch(insertion -> insertion.content.isEmpty())) {
+                return null;
+            }
+
+            final long size = Files.size(path);
+            if (size != index.getSize()) {
+                throw new IOException(String.format("\"%s\" has changed since it was indexed: %d bytes instead of %d",
+                        path, size, index.getSize()));
+            }
+            final byte[] current = Files.readAllBytes(path);
+            metrics.addRead(InjectionMetrics.WRITE, current.length);
+            if (!BuildScriptIndex.getContentHash(current).equals(index.getContentHash())) {
+                throw new IOException(String.format("\"%s\" has changed since it was indexed: its content hash differs",
+                        path));
+            }
+            insertions.sort(Comparator.comparingInt(insertion -> insertion.charOffset));
+            final String original = index.getContent();
+            int length = original.length();
+            for (final Insertion insertion : insertions) {
+                length += insertion.content.length();
+            }
+            final StringBuilder stringBuilder = new StringBuilder(length);
+            int start = 0;
+            for (final Insertion insertion : insertions) {
+                stringBuilder.append(original, start, insertion.charOffset).append(insertion.content);
+                start = insertion.charOffset;
+            }
+            stringBuilder.append(original, start, original.length());
+            return stringBuilder.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Content to insert at an offset of a build file.
+     */
+    private static final class Insertion {
+
+        private final int charOffset;
+        private final String content;
+
+        Insertion(final int charOffset, final String content) {
+            this.charOffset = charOffset;
+            this.content = content;
+        }
+    }
+}
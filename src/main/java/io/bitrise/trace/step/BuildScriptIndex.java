@@ -0,0 +1,778 @@
+package io.bitrise.trace.step;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of a Groovy or Kotlin Gradle build script. The script is tokenized once by {@link GradleScriptLexer}, and the
+ * index records the offsets of the named blocks (for example "buildscript", "plugins", "dependencies" or
+ * "buildscript.repositories"), the "apply" statements and the string literals. Comments are never part of the
+ * indexed code.
+ * <p>
+ * Indexes of files are memoized by path, see {@link #forFile(Path)}, so the checks and the insertions for the same
+ * build file do not tokenize it again. The memo lives as long as the class, which is the whole Gradle daemon for the
+ * injector plugin, so it keeps only the {@link #MAX_CACHED_INDEXES} most recently used indexes.
+ */
+final class BuildScriptIndex {
+
+    /**
+     * The maximum depth of the blocks that are recorded, top-level blocks have depth 0.
+     */
+    private static final int MAX_RECORDED_BLOCK_DEPTH = 2;
+
+    /**
+     * Files that were modified in the last this many milliseconds are always verified by their content hash, as a
+     * following modification could keep both their size and modification time.
+     */
+    private static final long RACY_MODIFICATION_WINDOW_MILLIS = 2000;
+
+    /**
+     * The name of the blocks in qualified block names that do not have a name, for example the closure of a method
+     * call with arguments.
+     */
+    private static final String ANONYMOUS_BLOCK_NAME = "?";
+
+    /**
+     * The maximum number of memoized indexes, the least recently used ones are evicted first.
+     */
+    static final int MAX_CACHED_INDEXES = 256;
+
+    private static final Map<Path, BuildScriptIndex> cache = Collections.synchronizedMap(
+            new LinkedHashMap<Path, BuildScriptIndex>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Path, BuildScriptIndex> eldest) {
+                    return size() > MAX_CACHED_INDEXES;
+                }
+            });
+
+    private final String content;
+    private final boolean kotlin;
+    private final List<Block> blocks;
+    private final List<ApplyStatement> applyStatements;
+    private final Spans strings;
+    private final Spans comments;
+    private final long size;
+    private final long lastModified;
+    private final String contentHash;
+
+    private BuildScriptIndex(final String content, final boolean kotlin, final List<Block> blocks,
+                             final List<ApplyStatement> applyStatements, final Spans strings,
+                             final Spans comments, final long size, final long lastModified,
+                             final String contentHash) {
+        this.content = content;
+        this.kotlin = kotlin;
+        this.blocks = blocks;
+        this.applyStatements = applyStatements;
+        this.strings = strings;
+        this.comments = comments;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.contentHash = contentHash;
+    }
+
+    //region Creation
+
+    /**
+     * Gets the index of the build file on the given path. The index is memoized: it is reused while the size and the
+     * modification time of the file are unchanged, and also when they have changed but the content hash of the file
+     * is the same. Each call is recorded as an {@link InjectionEvents.BuildScriptIndexing} event.
+     *
+     * @param path the path of the build file.
+     * @return the BuildScriptIndex of the file.
+     * @throws IOException when any I/O error occurs with the file on the path, or it is not valid UTF-8.
+     */
+    static BuildScriptIndex forFile(final Path path) throws IOException {
+        final InjectionEvents.BuildScriptIndexing event = InjectionEvents.buildScriptIndexing();
+        if (event != null) {
+            event.begin();
+        }
+        final Path key = path.toAbsolutePath().normalize();
+        final BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        final long size = attributes.size();
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        final BuildScriptIndex cached = cache.get(key);
+        if (cached != null && cached.size == size && cached.lastModified == lastModified
+                && System.currentTimeMillis() - lastModified > RACY_MODIFICATION_WINDOW_MILLIS) {
+            commit(event, key, 0, "cached");
+            return cached;
+        }
+
+        final byte[] bytes = Files.readAllBytes(key);
+        final String contentHash = getContentHash(bytes);
+        final BuildScriptIndex index;
+        if (cached != null && cached.contentHash.equals(contentHash)) {
+            index = new BuildScriptIndex(cached.content, cached.kotlin, cached.blocks, cached.applyStatements,
+                    cached.strings, cached.comments, bytes.length, lastModified, contentHash);
+            commit(event, key, bytes.length, "reused");
+        } else {
+            final CharBuffer content = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes));
+            index = create(content, GradleScriptLexer.isKotlinScript(key.toString()), bytes.length, lastModified,
+                    contentHash);
+            commit(event, key, bytes.length, "indexed");
+        }
+        cache.put(key, index);
+        return index;
+    }
+
+    private static void commit(final InjectionEvents.BuildScriptIndexing event, final Path path, final long bytes,
+                               final String outcome) {
+        if (event != null && event.shouldCommit()) {
+            event.path = path.toString();
+            event.bytes = bytes;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    /**
+     * Creates the index of the given script, without memoizing it.
+     *
+     * @param content the CharBuffer of the script.
+     * @param kotlin  {@code true} for Kotlin scripts, {@code false} for Groovy scripts.
+     * @return the created BuildScriptIndex.
+     */
+    static BuildScriptIndex of(final CharBuffer content, final boolean kotlin) {
+        return create(content, kotlin, -1, -1, "");
+    }
+
+    private static BuildScriptIndex create(final CharBuffer content, final boolean kotlin, final long size,
+                                           final long lastModified, final String contentHash) {
+        final GradleScriptLexer lexer = GradleScriptLexer.of(content, kotlin);
+        final Indexer indexer = new Indexer(lexer);
+        lexer.lex(indexer);
+        indexer.finish();
+        return new BuildScriptIndex(content.toString(), kotlin, Collections.unmodifiableList(indexer.blocks),
+                Collections.unmodifiableList(indexer.applyStatements), indexer.strings, indexer.comments, size,
+                lastModified, contentHash);
+    }
+
+    /**
+     * Gets the SHA-256 hash of the given content.
+     *
+     * @param bytes the content.
+     * @return the hex String of the hash.
+     */
+    static String getContentHash(final byte[] bytes) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            final StringBuilder stringBuilder = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                stringBuilder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return stringBuilder.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+    //endregion
+
+    //region Queries
+
+    /**
+     * Gets the content of the script.
+     *
+     * @return the content.
+     */
+    String getContent() {
+        return content;
+    }
+
+    /**
+     * Checks if the script is a Kotlin script.
+     *
+     * @return {@code true} for Kotlin scripts, {@code false} for Groovy scripts.
+     */
+    boolean isKotlin() {
+        return kotlin;
+    }
+
+    /**
+     * Gets the size of the indexed file in bytes.
+     *
+     * @return the size, or -1 if the index is not for a file.
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the SHA-256 hash of the indexed file.
+     *
+     * @return the hex String of the hash, or an empty String if the index is not for a file.
+     */
+    String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Gets the recorded blocks in the order of their opening brace.
+     *
+     * @return the List of the {@link Block}s.
+     */
+    List<Block> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Finds the first block with the given qualified name, for example "buildscript" or "buildscript.dependencies".
+     *
+     * @param qualifiedName the qualified name of the block.
+     * @return the {@link Block}, or {@code null} if there is no such.
+     */
+    Block findBlock(final String qualifiedName) {
+        for (final Block block : blocks) {
+            if (block.getQualifiedName().equals(qualifiedName)) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the "apply" statements of the script, for example {@code apply from: "other.gradle"},
+     * {@code apply plugin: 'java'}, {@code apply(from = "other.gradle")} or {@code apply("other.gradle")}. The
+     * latter is recorded with the "from" kind.
+     *
+     * @return the List of the {@link ApplyStatement}s.
+     */
+    List<ApplyStatement> getApplyStatements() {
+        return applyStatements;
+    }
+
+    /**
+     * Checks if the script has an "apply" statement with the given kind and target.
+     *
+     * @param kind   the kind of the statement, "from" or "plugin".
+     * @param target the applied file or plugin id.
+     * @return {@code true} if it has, {@code false} otherwise.
+     */
+    boolean hasApplyStatement(final String kind, final String target) {
+        for (final ApplyStatement applyStatement : applyStatements) {
+            if (applyStatement.getKind().equals(kind) && applyStatement.getTarget().equals(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any string literal of the script contains the given text.
+     *
+     * @param text the text to search for.
+     * @return {@code true} if there is such, {@code false} otherwise.
+     */
+    boolean hasStringContaining(final String text) {
+        for (int i = 0; i < strings.count; i++) {
+            final int lastStart = strings.ends[i] - text.length();
+            for (int start = strings.starts[i]; start <= lastStart; start++) {
+                if (content.startsWith(text, start)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the script has a string literal with the given content, for example a plugin id.
+     *
+     * @param value the content of the string literal, without quotes.
+     * @return {@code true} if there is such, {@code false} otherwise.
+     */
+    boolean hasString(final String value) {
+        for (int i = 0; i < strings.count; i++) {
+            final int start = strings.starts[i] + 1;
+            if (strings.ends[i] - 1 - start == value.length() && content.startsWith(value, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the contents of the string literals in the given block, for example the plugin ids of a "plugins" block. A
+     * block that is not closed extends to the end of the script.
+     *
+     * @param block the block to get the string literals of.
+     * @return the List of the contents of the string literals, without quotes, in the order of the script.
+     */
+    List<String> getStrings(final Block block) {
+        final int end = block.getCloseBrace() >= 0 ? block.getCloseBrace() : content.length();
+        final List<String> values = new ArrayList<>();
+        for (int i = 0; i < strings.count; i++) {
+            if (strings.starts[i] > block.getOpenBrace() && strings.ends[i] <= end) {
+                values.add(content.substring(strings.starts[i] + 1, strings.ends[i] - 1));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Checks if the given "plugins" block applies a plugin: it has a string literal of the plugin id, and the statement
+     * of the string literal does not end with "apply false", which only adds the plugin to the classpath.
+     *
+     * @param plugins  the "plugins" block.
+     * @param pluginId the id of the plugin.
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    boolean appliesPlugin(final Block plugins, final String pluginId) {
+        return getAppliedPluginIds(plugins).contains(pluginId);
+    }
+
+    /**
+     * Gets the string literals of the given "plugins" block whose statement applies the plugin, see
+     * {@link #isAppliedInPlugins(int, Block)}.
+     *
+     * @param plugins the "plugins" block.
+     * @return the List of the values of the string literals, in their order in the block.
+     */
+    List<String> getAppliedPluginIds(final Block plugins) {
+        final int end = plugins.getCloseBrace() >= 0 ? plugins.getCloseBrace() : content.length();
+        final List<String> pluginIds = new ArrayList<>();
+        for (int i = 0; i < strings.count; i++) {
+            if (strings.starts[i] > plugins.getOpenBrace() && strings.ends[i] <= end
+                    && isAppliedInPlugins(strings.ends[i], plugins)) {
+                pluginIds.add(content.substring(strings.starts[i] + 1, strings.ends[i] - 1));
+            }
+        }
+        return pluginIds;
+    }
+
+    /**
+     * Checks if the statement of the given "plugins" block that continues at the given offset applies its plugin: the
+     * rest of the statement, up to the end of the line or a ";", does not end with "apply false".
+     *
+     * @param offset  the offset in the statement, after the plugin id or alias.
+     * @param plugins the "plugins" block.
+     * @return {@code true} if the statement applies the plugin, {@code false} otherwise.
+     */
+    boolean isAppliedInPlugins(final int offset, final Block plugins) {
+        final int end = plugins.getCloseBrace() >= 0 ? plugins.getCloseBrace() : content.length();
+        int statementEnd = offset;
+        while (statementEnd < end && content.charAt(statementEnd) != '\n' && content.charAt(statementEnd) != ';') {
+            statementEnd++;
+        }
+        final int apply = indexOfCode("apply", offset, statementEnd);
+        return apply < 0 || !content.substring(apply + "apply".length(), statementEnd)
+                .replace("(", " ").trim().startsWith("false");
+    }
+
+    /**
+     * Finds the given text in the code of the script, that is not in a string literal or in a comment.
+     *
+     * @param text the text to search for.
+     * @param from the offset to start the search from.
+     * @param to   the offset the text has to end before.
+     * @return the offset of the text, or -1 if it is not found.
+     */
+    int indexOfCode(final String text, final int from, final int to) {
+        int index = content.indexOf(text, from);
+        while (index >= 0 && index + text.length() <= to) {
+            if (!strings.contains(index) && !comments.contains(index)) {
+                return index;
+            }
+            index = content.indexOf(text, index + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the given text in the code of the given block, that is not in a string literal or in a comment. A block
+     * that is not closed extends to the end of the script.
+     *
+     * @param text  the text to search for.
+     * @param block the block to search in.
+     * @return the offset of the text, or -1 if it is not found.
+     */
+    int indexOfCode(final String text, final Block block) {
+        return indexOfCode(text, block.getOpenBrace() + 1,
+                block.getCloseBrace() >= 0 ? block.getCloseBrace() : content.length());
+    }
+    //endregion
+
+    //region Index entries
+
+    /**
+     * A block of the script, that is a name followed by a closure, like {@code dependencies { ... }}.
+     */
+    static final class Block {
+
+        private final String qualifiedName;
+        private final int depth;
+        private final int start;
+        private final int openBrace;
+        private int closeBrace = -1;
+
+        Block(final String qualifiedName, final int depth, final int start, final int openBrace) {
+            this.qualifiedName = qualifiedName;
+            this.depth = depth;
+            this.start = start;
+            this.openBrace = openBrace;
+        }
+
+        /**
+         * Gets the name of the block, qualified with the names of its enclosing blocks, for example
+         * "buildscript.dependencies".
+         *
+         * @return the qualified name.
+         */
+        String getQualifiedName() {
+            return qualifiedName;
+        }
+
+        /**
+         * Gets the depth of the block, top-level blocks have depth 0.
+         *
+         * @return the depth.
+         */
+        int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Gets the offset of the name of the block.
+         *
+         * @return the offset.
+         */
+        int getStart() {
+            return start;
+        }
+
+        /**
+         * Gets the offset of the opening brace of the block.
+         *
+         * @return the offset.
+         */
+        int getOpenBrace() {
+            return openBrace;
+        }
+
+        /**
+         * Gets the offset of the closing brace of the block.
+         *
+         * @return the offset, or -1 if the block is not closed.
+         */
+        int getCloseBrace() {
+            return closeBrace;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Block{%s, %d..%d}", qualifiedName, openBrace, closeBrace);
+        }
+    }
+
+    /**
+     * An "apply" statement of the script.
+     */
+    static final class ApplyStatement {
+
+        private final String kind;
+        private final String target;
+        private final int start;
+        private final int end;
+
+        ApplyStatement(final String kind, final String target, final int start, final int end) {
+            this.kind = kind;
+            this.target = target;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Gets the kind of the statement, the name of its argument, for example "from" or "plugin".
+         *
+         * @return the kind.
+         */
+        String getKind() {
+            return kind;
+        }
+
+        /**
+         * Gets the target of the statement, the value of its argument without quotes.
+         *
+         * @return the target.
+         */
+        String getTarget() {
+            return target;
+        }
+
+        /**
+         * Gets the offset of the "apply" keyword.
+         *
+         * @return the offset.
+         */
+        int getStart() {
+            return start;
+        }
+
+        /**
+         * Gets the offset after the target of the statement, and the closing parenthesis for Kotlin.
+         *
+         * @return the offset.
+         */
+        int getEnd() {
+            return end;
+        }
+    }
+    //endregion
+
+    /**
+     * Non-overlapping spans of the script in increasing order, stored in arrays, so large scripts do not need an
+     * object for each span.
+     */
+    private static final class Spans {
+
+        private int[] starts = new int[64];
+        private int[] ends = new int[64];
+        private int count;
+
+        void add(final int start, final int end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        /**
+         * Checks if any of the spans contains the given offset.
+         *
+         * @param offset the offset.
+         * @return {@code true} if it does, {@code false} otherwise.
+         */
+        boolean contains(final int offset) {
+            int index = Arrays.binarySearch(starts, 0, count, offset);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return index >= 0 && offset < ends[index];
+        }
+    }
+
+    /**
+     * Builds the index from the spans reported by the {@link GradleScriptLexer}.
+     */
+    private static final class Indexer implements GradleScriptLexer.Listener {
+
+        private static final int APPLY_NONE = 0;
+        private static final int APPLY_KEYWORD = 1;
+        private static final int APPLY_KIND = 2;
+        private static final int APPLY_SEPARATOR = 3;
+
+        private final GradleScriptLexer lexer;
+        private final List<Block> blocks = new ArrayList<>();
+        private final List<ApplyStatement> applyStatements = new ArrayList<>();
+
+        /**
+         * The open blocks, {@code null} for the ones that are not recorded.
+         */
+        private final List<Block> openBlocks = new ArrayList<>();
+        private final List<String> openBlockNames = new ArrayList<>();
+
+        private final Spans strings = new Spans();
+        private final Spans comments = new Spans();
+
+        /**
+         * The last identifier, if only whitespace and comments follow it, or -1.
+         */
+        private int identifierStart = -1;
+        private int identifierEnd = -1;
+
+        private int applyState = APPLY_NONE;
+        private int applyStart;
+        private boolean applyParenthesis;
+        private String applyKind;
+
+        Indexer(final GradleScriptLexer lexer) {
+            this.lexer = lexer;
+        }
+
+        @Override
+        public void onCode(final int start, final int end) {
+            int i = start;
+            while (i < end) {
+                final char c = lexer.charAt(i);
+                if (isIdentifierPart(c)) {
+                    final int tokenStart = i;
+                    while (i < end && isIdentifierPart(lexer.charAt(i))) {
+                        i++;
+                    }
+                    onIdentifier(tokenStart, i);
+                    continue;
+                }
+                if (c == '{') {
+                    openBlock(i);
+                } else if (c == '}') {
+                    closeBlock(i);
+                } else if (!Character.isWhitespace(c)) {
+                    onPunctuation(c);
+                }
+                i++;
+            }
+        }
+
+        @Override
+        public void onString(final int start, final int end) {
+            strings.add(start, end);
+
+            identifierStart = -1;
+            if (applyState == APPLY_KEYWORD && applyParenthesis) {
+                // the short Kotlin form, apply("other.gradle.kts")
+                applyKind = "from";
+                applyState = APPLY_SEPARATOR;
+            }
+            if (applyState == APPLY_SEPARATOR) {
+                final StringBuilder target = new StringBuilder(end - start);
+                lexer.appendTo(target, start, end);
+                applyStatements.add(new ApplyStatement(applyKind, unquote(target.toString()), applyStart,
+                        getApplyEnd(end)));
+            }
+            applyState = APPLY_NONE;
+        }
+
+        @Override
+        public void onComment(final int start, final int end, final boolean multiline) {
+            // comments do not interrupt the tokens around them
+            comments.add(start, end);
+        }
+
+        /**
+         * Closes the blocks that are not closed at the end of the script.
+         */
+        void finish() {
+            openBlocks.clear();
+            openBlockNames.clear();
+        }
+
+        private void onIdentifier(final int start, final int end) {
+            identifierStart = start;
+            identifierEnd = end;
+            if (isToken(start, end, "apply")) {
+                applyState = APPLY_KEYWORD;
+                applyStart = start;
+                applyParenthesis = false;
+            } else if (applyState == APPLY_KEYWORD) {
+                final StringBuilder kind = new StringBuilder(end - start);
+                lexer.appendTo(kind, start, end);
+                applyKind = kind.toString();
+                applyState = APPLY_KIND;
+            } else {
+                applyState = APPLY_NONE;
+            }
+        }
+
+        private void onPunctuation(final char c) {
+            identifierStart = -1;
+            if (applyState == APPLY_KEYWORD && c == '(' && !applyParenthesis) {
+                applyParenthesis = true;
+                return;
+            }
+            if (applyState == APPLY_KIND && (c == ':' || c == '=')) {
+                applyState = APPLY_SEPARATOR;
+                return;
+            }
+            applyState = APPLY_NONE;
+        }
+
+        private void openBlock(final int openBrace) {
+            String name = ANONYMOUS_BLOCK_NAME;
+            int start = openBrace;
+            if (identifierStart >= 0) {
+                final StringBuilder identifier = new StringBuilder(identifierEnd - identifierStart);
+                lexer.appendTo(identifier, identifierStart, identifierEnd);
+                name = identifier.toString();
+                start = identifierStart;
+            }
+            final int depth = openBlocks.size();
+            Block block = null;
+            if (depth <= MAX_RECORDED_BLOCK_DEPTH) {
+                final String qualifiedName = depth == 0 ? name : getQualifiedName(name);
+                block = new Block(qualifiedName, depth, start, openBrace);
+                blocks.add(block);
+            }
+            openBlocks.add(block);
+            openBlockNames.add(name);
+            identifierStart = -1;
+            applyState = APPLY_NONE;
+        }
+
+        private void closeBlock(final int closeBrace) {
+            if (!openBlocks.isEmpty()) {
+                final Block block = openBlocks.remove(openBlocks.size() - 1);
+                openBlockNames.remove(openBlockNames.size() - 1);
+                if (block != null) {
+                    block.closeBrace = closeBrace;
+                }
+            }
+            identifierStart = -1;
+            applyState = APPLY_NONE;
+        }
+
+        private String getQualifiedName(final String name) {
+            final StringBuilder qualifiedName = new StringBuilder();
+            for (final String openBlockName : openBlockNames) {
+                qualifiedName.append(openBlockName).append('.');
+            }
+            return qualifiedName.append(name).toString();
+        }
+
+        /**
+         * Gets the end of an apply statement, that is after the closing parenthesis for Kotlin.
+         *
+         * @param targetEnd the end of the target of the statement.
+         * @return the end of the statement.
+         */
+        private int getApplyEnd(final int targetEnd) {
+            int i = targetEnd;
+            while (i < lexer.length() && (lexer.charAt(i) == ' ' || lexer.charAt(i) == '\t')) {
+                i++;
+            }
+            return i < lexer.length() && lexer.charAt(i) == ')' ? i + 1 : targetEnd;
+        }
+
+        private boolean isToken(final int start, final int end, final String token) {
+            if (end - start != token.length()) {
+                return false;
+            }
+            for (int i = 0; i < token.length(); i++) {
+                if (lexer.charAt(start + i) != token.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isIdentifierPart(final char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+        }
+
+        private static String unquote(final String literal) {
+            int quotes = 1;
+            if (literal.length() >= 6 && (literal.startsWith("\"\"\"") || literal.startsWith("'''"))) {
+                quotes = 3;
+            }
+            final int end = Math.max(quotes, literal.length() - quotes);
+            return literal.substring(quotes, end);
+        }
+    }
+}
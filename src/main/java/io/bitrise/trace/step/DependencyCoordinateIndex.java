@@ -0,0 +1,150 @@
+package io.bitrise.trace.step;
+
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.ConfigurationContainer;
+import org.gradle.api.artifacts.Dependency;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Index of the dependencies that are declared in the configurations of a module, by their "group:name" coordinates.
+ * It is built once for a module, and then every presence check is a single lookup.
+ * <p>
+ * Only the declared dependencies of the configurations are read, nothing is resolved. For the dependencies of a
+ * module only the declarable configurations are indexed (see {@link #isDeclarable(String)}), which are selected by
+ * their names, so the other configurations, for example the classpaths of each variant, are never realized.
+ */
+final class DependencyCoordinateIndex {
+
+    /**
+     * The suffixes of the names of the configurations that dependencies are declared in, in lower case, including the
+     * legacy "compile" and "runtime". The variant specific configurations, for example "freeDebugImplementation",
+     * have the same suffixes.
+     */
+    private static final String[] DECLARABLE_SUFFIXES =
+            {"implementation", "api", "compileonly", "runtimeonly", "compile", "runtime"};
+
+    private final Map<String, Set<String>> configurationNamesByCoordinates = new HashMap<>();
+    private int configurationCount;
+    private int dependencyCount;
+
+    /**
+     * Creates the index of the declarable configurations of a module.
+     *
+     * @param configurations the {@link ConfigurationContainer} of the module.
+     * @return the DependencyCoordinateIndex.
+     */
+    static DependencyCoordinateIndex ofDeclarableConfigurations(final ConfigurationContainer configurations) {
+        final DependencyCoordinateIndex index = new DependencyCoordinateIndex();
+        for (final String name : configurations.getNames()) {
+            if (isDeclarable(name)) {
+                index.add(configurations.getByName(name));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Creates the index of all the given configurations, for example the ones of a buildscript.
+     *
+     * @param configurations the {@link Configuration}s to index.
+     * @return the DependencyCoordinateIndex.
+     */
+    static DependencyCoordinateIndex of(final Iterable<Configuration> configurations) {
+        final DependencyCoordinateIndex index = new DependencyCoordinateIndex();
+        for (final Configuration configuration : configurations) {
+            index.add(configuration);
+        }
+        return index;
+    }
+
+    /**
+     * Checks if dependencies are declared in the configuration with the given name, by the naming conventions of the
+     * Java and Android plugins.
+     *
+     * @param configurationName the name of the configuration.
+     * @return {@code true} if it is a declarable configuration, {@code false} otherwise.
+     */
+    static boolean isDeclarable(final String configurationName) {
+        final String nameLc = configurationName.toLowerCase(Locale.ROOT);
+        for (final String suffix : DECLARABLE_SUFFIXES) {
+            if (nameLc.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the declared dependencies of the given configuration to the index. The dependencies without a group, for
+     * example file dependencies, are not indexed.
+     *
+     * @param configuration the {@link Configuration} to add.
+     */
+    void add(final Configuration configuration) {
+        configurationCount++;
+        for (final Dependency dependency : configuration.getDependencies()) {
+            dependencyCount++;
+            if (dependency.getGroup() != null) {
+                configurationNamesByCoordinates
+                        .computeIfAbsent(dependency.getGroup() + ":" + dependency.getName(), key -> new TreeSet<>())
+                        .add(configuration.getName());
+            }
+        }
+    }
+
+    /**
+     * Checks if any of the indexed configurations declares a dependency with the given coordinates.
+     *
+     * @param group the group of the dependency.
+     * @param name  the name of the dependency.
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    boolean contains(final String group, final String name) {
+        return configurationNamesByCoordinates.containsKey(group + ":" + name);
+    }
+
+    /**
+     * Gets the names of the configurations that declare a dependency with the given coordinates.
+     *
+     * @param group the group of the dependency.
+     * @param name  the name of the dependency.
+     * @return the sorted Set of the names, empty if there is no such configuration.
+     */
+    Set<String> getConfigurationNames(final String group, final String name) {
+        final Set<String> names = configurationNamesByCoordinates.get(group + ":" + name);
+        return names == null ? Collections.emptySet() : Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Gets the number of the indexed coordinates.
+     *
+     * @return the number of the coordinates.
+     */
+    int size() {
+        return configurationNamesByCoordinates.size();
+    }
+
+    /**
+     * Gets the number of the configurations that have been added to the index.
+     *
+     * @return the number of the configurations.
+     */
+    int getConfigurationCount() {
+        return configurationCount;
+    }
+
+    /**
+     * Gets the number of the declared dependencies that have been visited, including the ones without a group.
+     *
+     * @return the number of the dependencies.
+     */
+    int getDependencyCount() {
+        return dependencyCount;
+    }
+}
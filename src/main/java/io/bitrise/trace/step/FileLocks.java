@@ -0,0 +1,131 @@
+package io.bitrise.trace.step;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks the files that the injection writes, so the injections of the same project that run at the same time, in the
+ * parallel or composite builds of a daemon or in separate processes, never interleave their writes. The lock of a file
+ * is held both in the JVM, on one of a fixed number of stripes selected by the path, and across the processes, with a
+ * {@link FileChannel#lock()} on a lock file of the path. The lock files are kept in a directory outside of the project,
+ * as the build files are replaced by renaming, and locking them must not modify the project either.
+ * <p>
+ * The locks are not reentrant: a thread must not lock a file again while it holds its lock.
+ */
+final class FileLocks {
+
+    /**
+     * The FileLocks of the injections, with the lock files in the temporary directory of the system.
+     */
+    static final FileLocks DEFAULT =
+            new FileLocks(Paths.get(System.getProperty("java.io.tmpdir"), "trace-injector-locks"), 64);
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path lockDir;
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Constructor for class.
+     *
+     * @param lockDir     the directory of the lock files.
+     * @param stripeCount the number of the in-JVM locks that the paths are distributed to.
+     */
+    FileLocks(final Path lockDir, final int stripeCount) {
+        this.lockDir = lockDir;
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Locks the given file, waiting until the other threads and processes release it. The file itself is not opened,
+     * it does not have to exist.
+     *
+     * @param path the path of the file.
+     * @return the {@link Handle} that releases the lock when it is closed.
+     * @throws IOException when any I/O error occurs with the lock file.
+     */
+    Handle lock(final Path path) throws IOException {
+        final String target = path.toAbsolutePath().normalize().toString();
+        final ReentrantLock stripe = stripes[Math.floorMod(target.hashCode(), stripes.length)];
+        stripe.lock();
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(lockDir);
+            channel = FileChannel.open(lockDir.resolve(getLockFileName(target)), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            channel.lock();
+            return new Handle(stripe, channel);
+        } catch (final IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            stripe.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the directory of the lock files.
+     *
+     * @return the path of the directory.
+     */
+    Path getLockDir() {
+        return lockDir;
+    }
+
+    /**
+     * Gets the name of the lock file of a path: the SHA-256 digest of the path, so every path has its own lock file in
+     * the same directory.
+     *
+     * @param target the absolute, normalized path.
+     * @return the name of the lock file.
+     */
+    static String getLockFileName(final String target) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(target.getBytes(StandardCharsets.UTF_8));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+        final StringBuilder name = new StringBuilder(digest.length * 2 + 5);
+        for (final byte b : digest) {
+            name.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+        }
+        return name.append(".lock").toString();
+    }
+
+    /**
+     * A held lock of a file, released by {@link #close()}.
+     */
+    static final class Handle implements Closeable {
+
+        private final ReentrantLock stripe;
+        private final FileChannel channel;
+
+        private Handle(final ReentrantLock stripe, final FileChannel channel) {
+            this.stripe = stripe;
+            this.channel = channel;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+}
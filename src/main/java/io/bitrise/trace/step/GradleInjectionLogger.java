@@ -0,0 +1,36 @@
+package io.bitrise.trace.step;
+
+import org.gradle.api.logging.Logger;
+
+/**
+ * {@link InjectionLogger} that logs to a Gradle {@link Logger}, so the messages of the injection follow the log level
+ * of the build.
+ */
+final class GradleInjectionLogger implements InjectionLogger {
+
+    private final Logger logger;
+
+    /**
+     * Constructor for class.
+     *
+     * @param logger the Gradle Logger to log to.
+     */
+    GradleInjectionLogger(final Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void lifecycle(final String message, final Object... args) {
+        logger.lifecycle(message, args);
+    }
+
+    @Override
+    public void info(final String message, final Object... args) {
+        logger.info(message, args);
+    }
+
+    @Override
+    public void debug(final String message, final Object... args) {
+        logger.debug(message, args);
+    }
+}
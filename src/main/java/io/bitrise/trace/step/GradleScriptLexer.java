@@ -0,0 +1,365 @@
+package io.bitrise.trace.step;
+
+import java.nio.CharBuffer;
+
+/**
+ * Single pass, character level lexer for Groovy and Kotlin Gradle build scripts. Splits the script into code, string
+ * literal and comment spans, which are reported to a {@link Listener} as offsets, so no String is created while
+ * lexing.
+ * <p>
+ * Understands line and block comments (nested block comments for Kotlin), single and double quoted strings, Groovy
+ * triple quoted strings, Kotlin raw strings and the "${...}" interpolation of GStrings and Kotlin string templates.
+ * Groovy slashy strings are not recognised, a "/" is always handled as an operator.
+ */
+final class GradleScriptLexer {
+
+    /**
+     * Receives the spans of a script in the order they appear. The offsets are relative to the start of the lexed
+     * content, end offsets are exclusive.
+     */
+    interface Listener {
+
+        /**
+         * Called for a span of code that is not in a string literal or a comment.
+         *
+         * @param start the start offset.
+         * @param end   the end offset.
+         */
+        void onCode(int start, int end);
+
+        /**
+         * Called for a complete string literal, including the quotes and the interpolated expressions.
+         *
+         * @param start the start offset.
+         * @param end   the end offset.
+         */
+        void onString(int start, int end);
+
+        /**
+         * Called for a comment. Line comments do not contain the line break that closes them.
+         *
+         * @param start     the start offset.
+         * @param end       the end offset.
+         * @param multiline {@code true} if the comment contains a line break.
+         */
+        void onComment(int start, int end, boolean multiline);
+    }
+
+    private final char[] chars;
+    private final int offset;
+    private final int length;
+    private final boolean kotlin;
+
+    /**
+     * Set by {@link #skipBlockComment(int)}, {@code true} if the last skipped block comment contained a line break.
+     */
+    private boolean multilineComment;
+
+    /**
+     * Constructor for class.
+     *
+     * @param chars  the array that contains the script.
+     * @param offset the offset of the script in the array.
+     * @param length the length of the script.
+     * @param kotlin {@code true} for Kotlin scripts, {@code false} for Groovy scripts.
+     */
+    GradleScriptLexer(final char[] chars, final int offset, final int length, final boolean kotlin) {
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
+        this.kotlin = kotlin;
+    }
+
+    /**
+     * Creates a lexer for the remaining content of the given CharBuffer. The content is only copied if the buffer is
+     * not backed by an accessible array.
+     *
+     * @param buffer the CharBuffer of the script.
+     * @param kotlin {@code true} for Kotlin scripts, {@code false} for Groovy scripts.
+     * @return the created lexer.
+     */
+    static GradleScriptLexer of(final CharBuffer buffer, final boolean kotlin) {
+        if (buffer.hasArray()) {
+            return new GradleScriptLexer(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+                    kotlin);
+        }
+        final char[] copy = new char[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return new GradleScriptLexer(copy, 0, copy.length, kotlin);
+    }
+
+    /**
+     * Checks if the Gradle build script on the given path is a Kotlin script, based on its extension.
+     *
+     * @param path the path of the script.
+     * @return {@code true} if it is a Kotlin script, {@code false} otherwise.
+     */
+    static boolean isKotlinScript(final String path) {
+        return path.endsWith(".kts");
+    }
+
+    /**
+     * Removes the comments from the given script. Comments that span multiple lines are replaced with a single line
+     * break, so the code before and after them is not joined, all other comments are removed.
+     *
+     * @param buffer the CharBuffer of the script.
+     * @param kotlin {@code true} for Kotlin scripts, {@code false} for Groovy scripts.
+     * @return the code without comments.
+     */
+    static String removeComments(final CharBuffer buffer, final boolean kotlin) {
+        final GradleScriptLexer lexer = of(buffer, kotlin);
+        final StringBuilder stringBuilder = new StringBuilder(lexer.length());
+        lexer.lex(new Listener() {
+            @Override
+            public void onCode(final int start, final int end) {
+                lexer.appendTo(stringBuilder, start, end);
+            }
+
+            @Override
+            public void onString(final int start, final int end) {
+                lexer.appendTo(stringBuilder, start, end);
+            }
+
+            @Override
+            public void onComment(final int start, final int end, final boolean multiline) {
+                if (multiline) {
+                    stringBuilder.append('\n');
+                }
+            }
+        });
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Gets the length of the lexed content.
+     *
+     * @return the length.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Gets the character at the given offset of the lexed content.
+     *
+     * @param index the offset.
+     * @return the character.
+     */
+    char charAt(final int index) {
+        return chars[offset + index];
+    }
+
+    /**
+     * Appends the given span of the lexed content to a StringBuilder.
+     *
+     * @param stringBuilder the StringBuilder to append to.
+     * @param start         the start offset.
+     * @param end           the end offset.
+     */
+    void appendTo(final StringBuilder stringBuilder, final int start, final int end) {
+        stringBuilder.append(chars, offset + start, end - start);
+    }
+
+    /**
+     * Lexes the whole content and reports the spans to the given {@link Listener}. Adjacent code is reported as a
+     * single span.
+     *
+     * @param listener the Listener.
+     */
+    void lex(final Listener listener) {
+        int codeStart = 0;
+        int i = 0;
+        while (i < length) {
+            final char c = chars[offset + i];
+            if (c == '/' && i + 1 < length && (peek(i + 1) == '/' || peek(i + 1) == '*')) {
+                if (codeStart < i) {
+                    listener.onCode(codeStart, i);
+                }
+                final int end;
+                if (peek(i + 1) == '/') {
+                    end = skipLineComment(i);
+                    listener.onComment(i, end, false);
+                } else {
+                    end = skipBlockComment(i);
+                    listener.onComment(i, end, multilineComment);
+                }
+                i = end;
+                codeStart = i;
+            } else if (c == '"' || c == '\'') {
+                if (codeStart < i) {
+                    listener.onCode(codeStart, i);
+                }
+                final int end = skipString(i);
+                listener.onString(i, end);
+                i = end;
+                codeStart = i;
+            } else {
+                i++;
+            }
+        }
+        if (codeStart < length) {
+            listener.onCode(codeStart, length);
+        }
+    }
+
+    /**
+     * Gets the character at the given offset, or 0 when it is out of the content.
+     *
+     * @param index the offset.
+     * @return the character.
+     */
+    private char peek(final int index) {
+        return index < length ? chars[offset + index] : 0;
+    }
+
+    /**
+     * Checks if the content has three times the given character from the given offset.
+     *
+     * @param index the offset.
+     * @param c     the character.
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    private boolean isTriple(final int index, final char c) {
+        return peek(index) == c && peek(index + 1) == c && peek(index + 2) == c;
+    }
+
+    /**
+     * Skips a line comment starting at the given offset.
+     *
+     * @param start the offset of the "//".
+     * @return the offset of the line break that closes the comment, or the length of the content.
+     */
+    private int skipLineComment(final int start) {
+        int i = start + 2;
+        while (i < length && chars[offset + i] != '\n' && chars[offset + i] != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skips a block comment starting at the given offset. Kotlin block comments can be nested, Groovy ones end at the
+     * first "*&#47;". Sets {@link #multilineComment}.
+     *
+     * @param start the offset of the "/*".
+     * @return the offset after the comment, or the length of the content for an unterminated comment.
+     */
+    private int skipBlockComment(final int start) {
+        multilineComment = false;
+        int depth = 1;
+        int i = start + 2;
+        while (i < length) {
+            final char c = chars[offset + i];
+            if (c == '*' && peek(i + 1) == '/') {
+                i += 2;
+                if (--depth == 0) {
+                    return i;
+                }
+            } else if (kotlin && c == '/' && peek(i + 1) == '*') {
+                depth++;
+                i += 2;
+            } else {
+                if (c == '\n' || c == '\r') {
+                    multilineComment = true;
+                }
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Skips a string literal starting at the given offset.
+     *
+     * @param start the offset of the opening quote.
+     * @return the offset after the closing quote, or the end of the line or content for an unterminated literal.
+     */
+    private int skipString(final int start) {
+        final char quote = chars[offset + start];
+        final boolean interpolated = quote == '"';
+        if (isTriple(start, quote) && (interpolated || !kotlin)) {
+            // Kotlin raw strings do not have escapes, Groovy triple quoted strings do
+            return skipMultilineString(start + 3, quote, interpolated, !kotlin);
+        }
+        int i = start + 1;
+        while (i < length) {
+            final char c = chars[offset + i];
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else if (c == '\n' || c == '\r') {
+                return i;
+            } else if (interpolated && c == '$' && peek(i + 1) == '{') {
+                i = skipInterpolation(i + 2);
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Skips the rest of a triple quoted string.
+     *
+     * @param start        the offset after the opening quotes.
+     * @param quote        the quote character.
+     * @param interpolated {@code true} if the string can have "${...}" expressions.
+     * @param escapes      {@code true} if the string can have escape sequences.
+     * @return the offset after the closing quotes, or the length of the content for an unterminated literal.
+     */
+    private int skipMultilineString(final int start, final char quote, final boolean interpolated,
+                                    final boolean escapes) {
+        int i = start;
+        while (i < length) {
+            final char c = chars[offset + i];
+            if (escapes && c == '\\') {
+                i += 2;
+            } else if (c == quote && isTriple(i, quote)) {
+                i += 3;
+                // a raw string can end with more quotes than three, they belong to the content
+                while (peek(i) == quote) {
+                    i++;
+                }
+                return i;
+            } else if (interpolated && c == '$' && peek(i + 1) == '{') {
+                i = skipInterpolation(i + 2);
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Skips the expression of a "${...}" interpolation, including nested blocks, strings and comments.
+     *
+     * @param start the offset after the "${".
+     * @return the offset after the closing "}", or the length of the content for an unterminated expression.
+     */
+    private int skipInterpolation(final int start) {
+        int depth = 1;
+        int i = start;
+        while (i < length) {
+            final char c = chars[offset + i];
+            if (c == '{') {
+                depth++;
+                i++;
+            } else if (c == '}') {
+                i++;
+                if (--depth == 0) {
+                    return i;
+                }
+            } else if (c == '"' || c == '\'') {
+                i = skipString(i);
+            } else if (c == '/' && peek(i + 1) == '/') {
+                i = skipLineComment(i);
+            } else if (c == '/' && peek(i + 1) == '*') {
+                i = skipBlockComment(i);
+            } else {
+                i++;
+            }
+        }
+        return length;
+    }
+}
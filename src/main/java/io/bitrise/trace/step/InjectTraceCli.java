@@ -0,0 +1,201 @@
+package io.bitrise.trace.step;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line entry point that injects Trace without starting Gradle. The application modules are discovered by
+ * {@link StaticModuleDiscovery}, and the same rewrite rules are applied as by {@link InjectTraceTask}. After the
+ * injection the build files are checked again, so a successful run also verifies that Trace is present. The same
+ * metrics report is written as by {@link InjectTraceTask}, see {@link InjectionMetrics}. The application modules of the
+ * builds that the settings script adds with "includeBuild" are injected too, unless {@code --no-included-builds} is
+ * given, like the "trace.includedBuilds" Gradle property of {@link InjectTraceTask}.
+ * <p>
+ * Usage: {@code InjectTraceCli [--info|--debug] [--injection-mode=<mode>] [--refresh-trace-versions]
+ * [--trace-repository-url=<url>] [--no-included-builds] <root project dir>}, see {@link InjectionMode} for the
+ * modes and {@link TraceVersionResolver} for the versions. Exits with {@link #EXIT_UNRESOLVABLE} when the
+ * project cannot be resolved statically, or in {@link InjectionMode#INIT_SCRIPT}, in which case nothing is modified and
+ * {@link InjectTraceTask} should be run instead.
+ * <p>
+ * It only depends on the JDK, so it can be compiled from the sources of the step and run without Gradle.
+ */
+public final class InjectTraceCli {
+
+    /**
+     * Exit code of a successful injection.
+     */
+    static final int EXIT_SUCCESS = 0;
+
+    /**
+     * Exit code of a failed injection or verification.
+     */
+    static final int EXIT_FAILURE = 1;
+
+    /**
+     * Exit code when the project cannot be resolved without Gradle.
+     */
+    static final int EXIT_UNRESOLVABLE = 2;
+
+    private static final String INJECTION_MODE_OPTION = "--injection-mode=";
+    private static final String REFRESH_TRACE_VERSIONS_OPTION = "--refresh-trace-versions";
+    private static final String TRACE_REPOSITORY_URL_OPTION = "--trace-repository-url=";
+    private static final String NO_INCLUDED_BUILDS_OPTION = "--no-included-builds";
+    private static final String USAGE = "Usage: InjectTraceCli [--info|--debug] [--injection-mode=<mode>] "
+            + "[--refresh-trace-versions] [--trace-repository-url=<url>] [--no-included-builds] <root project dir>";
+
+    private static final int LEVEL_LIFECYCLE = 0;
+    private static final int LEVEL_INFO = 1;
+    private static final int LEVEL_DEBUG = 2;
+
+    private InjectTraceCli() {
+        // entry point
+    }
+
+    public static void main(final String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the injection with the given arguments.
+     *
+     * @param args the command line arguments.
+     * @param out  the PrintStream for the log.
+     * @param err  the PrintStream for the errors.
+     * @return the exit code.
+     */
+    static int run(final String[] args, final PrintStream out, final PrintStream err) {
+        int level = LEVEL_LIFECYCLE;
+        InjectionMode injectionMode = InjectionMode.SCRIPT_PLUGIN;
+        boolean refreshTraceVersions = false;
+        boolean includedBuilds = true;
+        String traceRepositoryUrl = TraceVersionResolver.DEFAULT_REPOSITORY_URL;
+        File rootDir = null;
+        for (final String arg : args) {
+            if ("--info".equals(arg)) {
+                level = LEVEL_INFO;
+            } else if ("--debug".equals(arg)) {
+                level = LEVEL_DEBUG;
+            } else if (arg.startsWith(INJECTION_MODE_OPTION)) {
+                try {
+                    injectionMode = InjectionMode.of(arg.substring(INJECTION_MODE_OPTION.length()));
+                } catch (final IllegalArgumentException e) {
+                    err.println(e.getMessage());
+                    return EXIT_FAILURE;
+                }
+            } else if (REFRESH_TRACE_VERSIONS_OPTION.equals(arg)) {
+                refreshTraceVersions = true;
+            } else if (arg.startsWith(TRACE_REPOSITORY_URL_OPTION)) {
+                traceRepositoryUrl = arg.substring(TRACE_REPOSITORY_URL_OPTION.length());
+            } else if (NO_INCLUDED_BUILDS_OPTION.equals(arg)) {
+                includedBuilds = false;
+            } else if (rootDir == null && !arg.startsWith("--")) {
+                rootDir = new File(arg);
+            } else {
+                err.println("Unknown argument: " + arg);
+                return EXIT_FAILURE;
+            }
+        }
+        if (rootDir == null || !rootDir.isDirectory()) {
+            err.println(USAGE);
+            return EXIT_FAILURE;
+        }
+
+        if (injectionMode == InjectionMode.INIT_SCRIPT) {
+            err.println("The project cannot be injected without Gradle in injection mode " + injectionMode);
+            return EXIT_UNRESOLVABLE;
+        }
+
+        final InjectionLogger logger = new ConsoleInjectionLogger(out, level);
+        final InjectionMetrics discoveryMetrics = new InjectionMetrics();
+        final StaticModuleDiscovery discovery = new StaticModuleDiscovery(rootDir, logger, discoveryMetrics);
+        try {
+            final List<ApplicationModuleModel> applicationModules;
+            try (final InjectionMetrics.Timer ignored = discoveryMetrics.time(InjectionMetrics.DISCOVERY)) {
+                applicationModules = discovery.discoverApplicationModules(includedBuilds);
+            } catch (final StaticModuleDiscovery.UnresolvableProjectException e) {
+                err.println("The project cannot be resolved without Gradle: " + e.getMessage());
+                return EXIT_UNRESOLVABLE;
+            }
+            final TraceVersions traceVersions = new TraceVersionResolver(traceRepositoryUrl, logger)
+                    .resolve(new File(rootDir, TraceVersionResolver.LOCK_FILE_NAME), refreshTraceVersions);
+            final TraceInjector traceInjector = new TraceInjector(logger, injectionMode, traceVersions,
+                    traceRepositoryUrl);
+
+            final File stateDir = new File(rootDir, "build/" + TraceInjector.INJECTION_STATE_DIR_PATH);
+            boolean verified = true;
+            for (final ApplicationModuleModel appModule : applicationModules) {
+                final Map<String, String> injectionState = traceInjector.injectTrace(appModule);
+                injectionState.put(TraceInjector.INJECTION_RESULT_KEY,
+                        TraceInjector.getInjectionResult(injectionState));
+                final List<String> missing = traceInjector.verifyTrace(appModule);
+                injectionState.put(TraceInjector.VERIFICATION_RESULT_KEY,
+                        TraceInjector.getVerificationResult(missing));
+                traceInjector.writeInjectionState(
+                        new File(stateDir, TraceInjector.getInjectionStateFileName(appModule)), appModule,
+                        injectionState);
+                logger.lifecycle("Trace injection for project \"{}\": {}", appModule.getIdentityPath(),
+                        injectionState.get(TraceInjector.INJECTION_RESULT_KEY));
+                if (!missing.isEmpty()) {
+                    err.println("Verification failed for project \"" + appModule.getIdentityPath() + "\", missing: "
+                            + missing);
+                    verified = false;
+                }
+            }
+            final InjectionMetrics metrics = traceInjector.getMetrics();
+            metrics.merge(discoveryMetrics);
+            metrics.writeReport(new File(rootDir, "build/" + InjectionMetrics.REPORT_FILE_PATH));
+            return verified ? EXIT_SUCCESS : EXIT_FAILURE;
+        } catch (final IOException | RuntimeException e) {
+            err.println("Failed to inject Trace: " + e);
+            return EXIT_FAILURE;
+        }
+    }
+
+    /**
+     * {@link InjectionLogger} that prints the messages up to a given level.
+     */
+    private static final class ConsoleInjectionLogger implements InjectionLogger {
+
+        private final PrintStream out;
+        private final int level;
+
+        ConsoleInjectionLogger(final PrintStream out, final int level) {
+            this.out = out;
+            this.level = level;
+        }
+
+        @Override
+        public void lifecycle(final String message, final Object... args) {
+            log(LEVEL_LIFECYCLE, message, args);
+        }
+
+        @Override
+        public void info(final String message, final Object... args) {
+            log(LEVEL_INFO, message, args);
+        }
+
+        @Override
+        public void debug(final String message, final Object... args) {
+            log(LEVEL_DEBUG, message, args);
+        }
+
+        private void log(final int messageLevel, final String message, final Object... args) {
+            if (messageLevel > level) {
+                return;
+            }
+            final StringBuilder stringBuilder = new StringBuilder(message.length());
+            int argIndex = 0;
+            int start = 0;
+            int placeholder = message.indexOf("{}");
+            while (placeholder >= 0 && argIndex < args.length) {
+                stringBuilder.append(message, start, placeholder).append(args[argIndex++]);
+                start = placeholder + 2;
+                placeholder = message.indexOf("{}", start);
+            }
+            out.println(stringBuilder.append(message, start, message.length()));
+        }
+    }
+}
@@ -1,561 +1,770 @@
 package io.bitrise.trace.step;
 
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
 import org.gradle.api.Project;
-import org.gradle.api.artifacts.Configuration;
-import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.initialization.IncludedBuild;
 import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TreeMap;
 
 import javax.inject.Inject;
 
 /**
- * Task will inject the required gradle file changes to add Trace to the given Android application. For the versions
- * see 'traceSdk.gradle' and {@link #TRACE_GRADLE_PLUGIN_VERSION}.
+ * Task will inject the required gradle file changes to add Trace to the given Android application. The versions are
+ * resolved once and pinned in {@link TraceVersionResolver#LOCK_FILE_NAME} of the root project, later runs use the
+ * pinned versions until {@code --refresh-trace-versions} is set.
+ * <p>
+ * Every Android application module of the project is injected, each of them in a separate
+ * {@link InjectTraceWorkAction}.
+ * <p>
+ * The task declares the Gradle files of the step and the files of the application modules as inputs and outputs, so
+ * re-running it on a workspace that has already been injected reports UP-TO-DATE without injecting the modules again.
+ * The state of the application modules is captured in {@link ApplicationModuleModel}s at configuration time, so the
+ * task is compatible with the configuration cache.
+ * <p>
+ * With {@code --verify} the modules are also verified after the injection, see
+ * {@link TraceInjector#verifyTrace(ApplicationModuleModel)}, so no separate Gradle invocation is required for it.
+ * With {@code --injection-mode=INLINE} the dependency and the plugin are written directly into the build files, see
+ * {@link InjectionMode}. With {@code --injection-mode=INIT_SCRIPT} no file of the project is modified, an init script
+ * adds Trace to the application modules at configuration time instead, see {@link TraceInitScriptInjector}.
+ * <p>
+ * With the {@value #MODULE_DISCOVERY_PROPERTY} Gradle property set to {@value #STATIC_MODULE_DISCOVERY}, the build
+ * files of the projects are scanned with {@link StaticModuleDiscovery} first, and only the application modules are
+ * configured. Together with {@code --configure-on-demand} the other projects are not configured at all.
+ * <p>
+ * The application modules of the included builds of a composite build are injected in the same run. Their projects are
+ * not accessible from the root build, so they are discovered with {@link StaticModuleDiscovery}, all the included
+ * builds concurrently, and the results are reported for each build. Set the {@value #INCLUDED_BUILDS_PROPERTY} Gradle
+ * property to {@code false} to inject only the root build.
  */
 public class InjectTraceTask extends DefaultTask {
 
-    static Logger logger;
-
-    @Inject
-    public InjectTraceTask() {
-        super();
-        logger = getProject().getLogger();
-    }
-
-    //region Constants
-    /**
-     * The name of the  dependency for the 'trace-sdk'.
-     */
-    private static final String TRACE_SDK_DEPENDENCY_NAME = "trace-sdk";
-
-    /**
-     * The group of the  dependency for {@link #TRACE_SDK_DEPENDENCY_NAME}.
-     */
-    private static final String TRACE_SDK_DEPENDENCY_GROUP_NAME = "io.bitrise.trace";
+    private static final Logger logger = Logging.getLogger(InjectTraceTask.class);
 
     /**
-     * The name of the Gradle file that contains the dependency for the {@link #TRACE_SDK_DEPENDENCY_NAME} project.
+     * The Gradle property that selects how the application modules are discovered. It is a property instead of a
+     * task option, because the candidates are configured when the task is created, before the options are applied.
      */
-    private static final String TRACE_SDK_GRADLE_FILE_NAME = "traceSdk.gradle";
+    static final String MODULE_DISCOVERY_PROPERTY = "trace.moduleDiscovery";
 
     /**
-     * The name of the  dependency for the 'trace-gradle-plugin'.
+     * The value of {@link #MODULE_DISCOVERY_PROPERTY} for the static discovery of the application modules.
      */
-    private static final String TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME = "trace-gradle-plugin";
+    static final String STATIC_MODULE_DISCOVERY = "static";
 
     /**
-     * The group of the  dependency for {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     * The Gradle property that selects whether the application modules of the included builds are injected too. They
+     * are by default.
      */
-    private static final String TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME = "io.bitrise.trace.plugin";
+    static final String INCLUDED_BUILDS_PROPERTY = "trace.includedBuilds";
 
+    private final WorkerExecutor workerExecutor;
+    private final ListProperty<ApplicationModuleModel> applicationModules;
+    private final Provider<List<String>> applicationModulePaths;
+    private final ConfigurableFileCollection traceGradleFiles;
+    private final ConfigurableFileCollection applicationModuleFiles;
+    private final DirectoryProperty injectionStateDir;
+    private final Property<Boolean> verify;
+    private final Property<InjectionMode> injectionMode;
+    private final Property<Boolean> refreshTraceVersions;
+    private final Property<String> traceRepositoryUrl;
+    private final RegularFileProperty traceVersionsLockFile;
+    private final RegularFileProperty initScriptFile;
+    private final Provider<RegularFile> initScriptOutput;
+    private final File rootDir;
+    private final Map<String, File> includedBuildDirs;
+    private final RegularFileProperty metricsReportFile;
     /**
-     * The name of the Gradle file that contains the dependency for the {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}
-     * project.
+     * The metrics of the discovery of the application modules. They are not stored in the configuration cache, as the
+     * discovery does not run when the models are loaded from it, so the discovery is missing from the report when the
+     * configuration cache is used.
      */
-    private static final String TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME = "tracePlugin.gradle";
+    private transient InjectionMetrics discoveryMetrics = new InjectionMetrics();
 
-    /**
-     * The version of {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}, which will be injected project. Note: for the
-     * version of {@link #TRACE_SDK_DEPENDENCY_NAME} check traceSdk.gradle.
-     */
-    private static final String TRACE_GRADLE_PLUGIN_VERSION = "+";
-
-    /**
-     * Environment variable name for the source code of the step.
-     */
-    private static final String BITRISE_STEP_SRC_ENV = "BITRISE_STEP_SOURCE_DIR";
-    //endregion
+    @Inject
+    public InjectTraceTask(final WorkerExecutor workerExecutor) {
+        super();
+        this.workerExecutor = workerExecutor;
+        final Project rootProject = getProject();
+        final ObjectFactory objects = rootProject.getObjects();
+
+        includedBuildDirs = getIncludedBuildDirs(rootProject);
+        applicationModules = objects.listProperty(ApplicationModuleModel.class);
+        final Set<Project> candidates = isStaticModuleDiscovery(rootProject)
+                ? configureApplicationModuleCandidates(rootProject, discoveryMetrics) : rootProject.getSubprojects();
+        applicationModules.set(rootProject.provider(() -> {
+            final List<ApplicationModuleModel> models;
+            try (final InjectionMetrics.Timer ignored = discoveryMetrics.time(InjectionMetrics.DISCOVERY)) {
+                models = createApplicationModuleModels(getApplicationModules(candidates), discoveryMetrics);
+                models.addAll(StaticModuleDiscovery.discoverIncludedBuildModules(includedBuildDirs,
+                        new GradleInjectionLogger(logger), discoveryMetrics));
+            }
+            if (models.isEmpty()) {
+                throw new IllegalStateException("No module with \"com.android.application\" plugin found. You must "
+                        + "have at least one Android application module in your project to install Trace SDK!");
+            }
+            return models;
+        }));
+        applicationModules.finalizeValueOnRead();
+        applicationModulePaths = applicationModules.map(modules -> {
+            final List<String> paths = new ArrayList<>();
+            for (final ApplicationModuleModel module : modules) {
+                paths.add(module.getIdentityPath());
+            }
+            return paths;
+        });
+
+        final Provider<String> stepSrcDir =
+                rootProject.getProviders().environmentVariable(TraceInjector.BITRISE_STEP_SRC_ENV);
+        traceGradleFiles = objects.fileCollection().from(stepSrcDir.map(dir -> Arrays.asList(
+                new File(dir, TraceInjector.TRACE_SDK_GRADLE_FILE_NAME),
+                new File(dir, TraceInjector.TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME))).orElse(Collections.emptyList()));
+
+        applicationModuleFiles = objects.fileCollection().from(applicationModules.map(modules -> {
+            final List<File> files = new ArrayList<>();
+            for (final ApplicationModuleModel module : modules) {
+                files.add(module.getBuildFile());
+                files.add(new File(module.getProjectDir(), TraceInjector.TRACE_SDK_GRADLE_FILE_NAME));
+                files.add(new File(module.getProjectDir(), TraceInjector.TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME));
+            }
+            return files;
+        }));
+
+        injectionStateDir = objects.directoryProperty()
+                .convention(rootProject.getLayout().getBuildDirectory().dir(TraceInjector.INJECTION_STATE_DIR_PATH));
+        metricsReportFile = objects.fileProperty()
+                .convention(rootProject.getLayout().getBuildDirectory().file(InjectionMetrics.REPORT_FILE_PATH));
+
+        verify = objects.property(Boolean.class).convention(false);
+        injectionMode = objects.property(InjectionMode.class).convention(InjectionMode.SCRIPT_PLUGIN);
+        refreshTraceVersions = objects.property(Boolean.class).convention(false);
+        traceRepositoryUrl = objects.property(String.class).convention(TraceVersionResolver.DEFAULT_REPOSITORY_URL);
+        // the source tree is not modified in INIT_SCRIPT mode, so the versions are pinned in the build directory
+        final RegularFileProperty projectLockFile = objects.fileProperty()
+                .value(rootProject.getLayout().getProjectDirectory().file(TraceVersionResolver.LOCK_FILE_NAME));
+        final Provider<RegularFile> buildLockFile =
+                rootProject.getLayout().getBuildDirectory().file(TraceVersionResolver.LOCK_FILE_NAME);
+        traceVersionsLockFile = objects.fileProperty().convention(injectionMode.flatMap(
+                mode -> mode == InjectionMode.INIT_SCRIPT ? buildLockFile : projectLockFile));
+
+        initScriptFile = objects.fileProperty().convention(rootProject.getLayout().getProjectDirectory()
+                .file(TraceInitScriptInjector.INIT_SCRIPT_FILE_PATH));
+        final RegularFileProperty noInitScript = objects.fileProperty();
+        initScriptOutput = injectionMode.flatMap(
+                mode -> mode == InjectionMode.INIT_SCRIPT ? initScriptFile : noInitScript);
+        rootDir = rootProject.getProjectDir();
+    }
 
-    //region Task action
+    //region Task inputs and outputs
 
     /**
-     * The action that will be performed when this task is run. Does the following:
-     * <ul>
-     *     <li>ensures {@link #TRACE_SDK_DEPENDENCY_NAME} is a dependency to the app module</li>
-     *     <li>ensures {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} is a buildscript dependency for the app module</li>
-     *     <li>ensures that {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} is applied as a plugin on the app</li>
-     * </ul>
+     * Gets the models of the application modules, which are captured after all the projects have been configured. They
+     * are the only state of the projects that the task action uses. They are not an input of the task, as they record
+     * the Trace dependencies and plugins of the modules, which the injection itself changes. The build files are
+     * tracked by {@link #getApplicationModuleFiles()} instead, and the modules by {@link #getApplicationModulePaths()}.
      *
-     * @throws IOException when any I/O error occurs with the file on the path.
+     * @return the ListProperty of the {@link ApplicationModuleModel}s.
      */
-    @TaskAction
-    public void taskAction() throws IOException {
-        final Project rootProject = getProject();
-        final Project applicationModule = getApplicationModule(rootProject.getSubprojects());
-
-        // TODO check prerequirements: APM-2341 (example: com.android.tools.build:gradle)
-        ensureTraceSdkDependency(applicationModule);
-        ensureTraceGradlePluginDependency(applicationModule);
-        ensureTraceGradlePluginIsApplied(applicationModule);
+    @Internal
+    public ListProperty<ApplicationModuleModel> getApplicationModules() {
+        return applicationModules;
     }
 
     /**
-     * Gets the application module. Throws IllegalStateException when there is no such.
+     * Gets the identity paths of the application modules, see {@link ApplicationModuleModel#getIdentityPath()}. The
+     * task is out of date when a module is added or removed.
      *
-     * @param projectSet the Set of the {@link Project}s which should contain the application.
-     * @return the Project that is the application.
+     * @return the Provider of the paths.
      */
-    private Project getApplicationModule(final Set<Project> projectSet) {
-        for (final Project project : projectSet) {
-            final String projectName = project.getName();
-            logger.debug("Checking project \"{}\" if it is an Android application", projectName);
-            if (project.getPlugins().hasPlugin("com.android.application")) {
-                logger.lifecycle(
-                        "Project \"{}\" is an Android application! Task will ensure it has all the required Trace" +
-                                " dependencies", projectName);
-                return project;
-            }
-            logger.debug("Project \"{}\" is not an Android application!", projectName);
-        }
-        throw new IllegalStateException("No module with \"com.android.application\" plugin found. You must have at " +
-                "least one Android application module in your project to install Trace SDK!");
+    @Input
+    public Provider<List<String>> getApplicationModulePaths() {
+        return applicationModulePaths;
     }
-    //endregion
-
-    //region Ensure dependency for 'trace-sdk'
 
     /**
-     * Ensures that the given module has dependency on {@link #TRACE_SDK_DEPENDENCY_NAME}.
+     * Gets the Gradle files of the step ({@link TraceInjector#TRACE_SDK_GRADLE_FILE_NAME} and
+     * {@link TraceInjector#TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME}) that are copied to the application module. Empty
+     * when the step source directory is not set.
      *
-     * @param appModule the {@link Project} of the app.
-     * @throws IOException when any I/O error occurs with the file on the path.
-     */
-    private void ensureTraceSdkDependency(final Project appModule) throws IOException {
-        if (hasTraceSdkDependency(appModule)) {
-            logger.lifecycle("Skipping injecting the dependency. Please make sure that in your build.gradle files the " +
-                    "dependency is defined for all the required configurations! For more information please " +
-                    "check the README.md of \"trace-android-sdk\" " +
-                    "(https://github.com/bitrise-io/trace-android-sdk/blob/main/README.md)");
-        } else {
-            logger.lifecycle("Adding dependency on  \"{}\" for project \"{}\".", TRACE_SDK_DEPENDENCY_NAME,
-                    appModule.getName());
-            addTraceSdkDependency(appModule);
-        }
+     * @return the FileCollection of the Gradle files.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public FileCollection getTraceGradleFiles() {
+        return traceGradleFiles;
     }
 
     /**
-     * Checks if the given {@link Project} has dependency on {@link #TRACE_SDK_DEPENDENCY_NAME} or not. If any
-     * {@link org.gradle.api.artifacts.Configuration} that should have it as a dependency do have it, {@code true} is
-     * returned.
+     * Gets whether the pinned Trace versions should be resolved again from {@link #getTraceRepositoryUrl()}.
      *
-     * @param appModule the given Project.
-     * @return {@code true} if it has, {@code false} otherwise.
+     * @return the Property of the flag, {@code false} by default.
      */
-    private boolean hasTraceSdkDependency(final Project appModule) {
-        for (final Configuration configuration : appModule.getConfigurations()) {
-            logger.debug("Checking configuration \"{}\" for dependency on \"{}\".", configuration.getName(),
-                    TRACE_SDK_DEPENDENCY_NAME);
-            final String configurationNameLc = configuration.getName().toLowerCase();
-            if (configurationNameLc.contains("compileclasspath") || configurationNameLc.contains("runtimeclasspath")) {
-                if (hasDependency(configuration, TRACE_SDK_DEPENDENCY_NAME, TRACE_SDK_DEPENDENCY_GROUP_NAME)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    @Input
+    @Option(option = "refresh-trace-versions", description = "Resolves the newest Trace versions again, instead of "
+            + "using the ones pinned in the lock file.")
+    public Property<Boolean> getRefreshTraceVersions() {
+        return refreshTraceVersions;
     }
 
     /**
-     * Injects the code for adding {@link #TRACE_SDK_DEPENDENCY_NAME} as a dependency to the given Android
-     * application and copies {@link #TRACE_SDK_GRADLE_FILE_NAME} to the project.
+     * Gets the URL of the Maven repository of the Trace artifacts. The versions are resolved from it, and it is
+     * added to the application modules as the only repository of the Trace groups.
      *
-     * @param appModule the {@link Project} of the Android app.
-     * @throws IOException when any I/O error occurs with the file on the path.
+     * @return the Property of the URL, {@link TraceVersionResolver#DEFAULT_REPOSITORY_URL} by default.
      */
-    private void addTraceSdkDependency(final Project appModule) throws IOException {
-        copyGradleFile(appModule.getProjectDir().getPath(), TRACE_SDK_GRADLE_FILE_NAME);
-        appendTraceDependency(appModule.getBuildFile().getPath(), TRACE_SDK_GRADLE_FILE_NAME);
+    @Input
+    @Option(option = "trace-repository-url", description = "The Maven repository of the Trace artifacts.")
+    public Property<String> getTraceRepositoryUrl() {
+        return traceRepositoryUrl;
     }
-    //endregion
-
-    //region Ensure dependency for 'trace-gradle-plugin'
 
     /**
-     * Ensures that the given module has dependency on {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     * Gets the lock file that pins the injected Trace versions, see {@link TraceVersionResolver}.
      *
-     * @param appModule the {@link Project} of the app.
-     * @throws IOException when any I/O error occurs with the file on the path.
-     */
-    private void ensureTraceGradlePluginDependency(final Project appModule) throws IOException {
-        if (hasTraceGradlePluginDependency(appModule)) {
-            logger.lifecycle(
-                    "Skipping injecting the dependency. Please make sure that in your build.gradle files the " +
-                            "dependency is defined for all the required configurations! For more information please " +
-                            "check the README.md of \"trace-android-sdk\"");
-        } else {
-            logger.lifecycle("Adding dependency on  \"{}\" for project \"{}\".", TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME,
-                    appModule.getName());
-            addTraceGradlePluginDependency(appModule.getBuildFile().getPath());
-        }
+     * @return the Property of the file.
+     */
+    @OutputFile
+    public RegularFileProperty getTraceVersionsLockFile() {
+        return traceVersionsLockFile;
     }
 
     /**
-     * Checks if the given {@link Project} has dependency on {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} or not. If any
-     * {@link org.gradle.api.artifacts.Configuration} that should have it as a dependency do not have it, {@code
-     * false} is returned.
+     * Gets the init script that adds Trace to the application modules in {@link InjectionMode#INIT_SCRIPT}. By
+     * default it is {@value TraceInitScriptInjector#INIT_SCRIPT_FILE_PATH} in the root project, so it does not affect
+     * other projects, and the later builds apply it with the "--init-script" option.
      *
-     * @param appModule the given Project.
-     * @return {@code true} if it has, {@code false} otherwise.
+     * @return the Property of the file.
      */
-    private boolean hasTraceGradlePluginDependency(final Project appModule) {
-        for (final Configuration configuration : appModule.getBuildscript().getConfigurations()) {
-            if (hasDependency(configuration, TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME,
-                    TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME)) {
-                return true;
-            }
-        }
-        return false;
+    @Internal
+    public RegularFileProperty getInitScriptFile() {
+        return initScriptFile;
     }
 
     /**
-     * Injects the code for adding {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} as a plugin to the given Android
-     * application.
+     * Gets the init script that the task writes, {@link #getInitScriptFile()} in {@link InjectionMode#INIT_SCRIPT},
+     * and no file in the other modes.
      *
-     * @param buildGradlePath the path of the build.gradle file in the app module.
-     * @throws IOException when any I/O error occurs with the file on the path.
-     */
-    private void addTraceGradlePluginDependency(final String buildGradlePath) throws IOException {
-        if (updateBuildScriptContent(buildGradlePath)) {
-            logger.info("Updated buildscript block of \"{}\".", buildGradlePath);
-        } else {
-            logger.debug(" \"{}\" does not have a buildscript block, adding it.", buildGradlePath);
-            insertDependencyWithBuildScriptClosure(buildGradlePath);
-        }
+     * @return the Provider of the file.
+     */
+    @Optional
+    @OutputFile
+    public Provider<RegularFile> getInitScriptOutput() {
+        return initScriptOutput;
     }
 
     /**
-     * When adding {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} to the given project and it does have a buildscript
-     * block in it's build.gradle, this method updates the buildscript closure. Injects the dependency on the
-     * {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} and adds JCenter as repository. If the buildscript closure is not
-     * present does nothing and returns {@code false}.
+     * Gets the files of the application modules that may be modified or created by the task: the build files and the
+     * copies of the Gradle files of the step.
      *
-     * @param path the path of the file.
-     * @return {@code true} if the buildscript block has been updated, {@code false otherwise}.
-     * @throws IOException when any I/O error occurs with the file on the path.
-     */
-    static boolean updateBuildScriptContent(final String path) throws IOException {
-        final String codeContent = getCodeContent(path);
-        final String regex = "buildscript[ \\t\\n\\r]*\\{";
-        final Pattern pattern = Pattern.compile(regex);
-        final Matcher matcher = pattern.matcher(codeContent);
-        if (matcher.find()) {
-            final String updatedContent = matcher.replaceFirst(getUpdatedBuildScriptContent());
-            try (final FileWriter fileWriter = new FileWriter(path, false)) {
-                logger.debug("Updating \"{}\" with new content: \n\"{}\"", path, updatedContent);
-                fileWriter.append(updatedContent);
-            }
-            return true;
-        }
-        return false;
+     * @return the FileCollection of the files.
+     */
+    @OutputFiles
+    public FileCollection getApplicationModuleFiles() {
+        return applicationModuleFiles;
     }
 
     /**
-     * When adding {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} to the given project and it does not have a
-     * buildscript block in it's build.gradle, this method updates the given build.gradle file, inserts the dependency
-     * for {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} with a new buildscript closure.
+     * Gets the directory that stores the state of the last injection. It has a file for each application module, that
+     * records the result and which changes have been injected and which have been skipped for the module.
      *
-     * @param buildGradlePath the path of the build.gradle.
-     * @throws IOException when any I/O error occurs with the file on the buildGradlePath.
-     */
-    private void insertDependencyWithBuildScriptClosure(final String buildGradlePath) throws IOException {
-        final String buildscriptClosure = "\nbuildscript {\n" +
-                "%s\n" +
-                "%s\n" +
-                "}";
-        appendContentToFile(buildGradlePath, String.format(buildscriptClosure,
-                getTraceGradlePluginDependency(), getBuildScriptRepositoryContent()));
+     * @return the Property of the directory.
+     */
+    @OutputDirectory
+    public DirectoryProperty getInjectionStateDir() {
+        return injectionStateDir;
     }
 
-
     /**
-     * Gets the content for updating the buildscript with a new dependency on
-     * {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     * Gets the JSON report of the time and the I/O of the phases of the injection, see
+     * {@link InjectionMetrics#toJson()}.
      *
-     * @return @return the content that should be in the build.gradle.
+     * @return the Property of the file.
      */
-    private static String getUpdatedBuildScriptContent() {
-        return String.format("buildscript {" +
-                        "%s" +
-                        "%s"
-                , getTraceGradlePluginDependency(), getBuildScriptRepositoryContent());
+    @OutputFile
+    public RegularFileProperty getMetricsReportFile() {
+        return metricsReportFile;
     }
 
     /**
-     * Gets the content for adding a buildscript dependency on {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     * Gets whether the application modules should be verified after the injection. When it is set, the task fails if
+     * any of them is missing a Trace dependency or plugin. In {@link InjectionMode#INIT_SCRIPT}, where Trace is only
+     * added when the modules are configured by a later build, the written init script is verified instead, see
+     * {@link TraceInitScriptInjector#verifyInitScript(File, Map)}.
      *
-     * @return the content that should be in the build.gradle.
+     * @return the Property of the flag, {@code false} by default.
      */
-    static String getTraceGradlePluginDependency() {
-        return String.format(
-                "\n   dependencies.add(\"classpath\", \"io.bitrise.trace.plugin:trace-gradle-plugin:%s\")\n",
-                TRACE_GRADLE_PLUGIN_VERSION);
+    @Input
+    @Option(option = "verify", description = "Verifies that Trace is present in the application modules after the "
+            + "injection.")
+    public Property<Boolean> getVerify() {
+        return verify;
     }
 
     /**
-     * Gets the content for adding repositories to the buildscript.
+     * Gets how the Trace dependency and plugin are added to the build files of the application modules.
      *
-     * @return the content that should be in the build.gradle.
-     */
-    static String getBuildScriptRepositoryContent() {
-        return "   repositories {\n" +
-                "      jcenter()\n" +
-                "      google()\n" +
-                "    }";
+     * @return the Property of the {@link InjectionMode}, {@link InjectionMode#SCRIPT_PLUGIN} by default.
+     */
+    @Input
+    @Option(option = "injection-mode", description = "How Trace is added to the build files: SCRIPT_PLUGIN (default) "
+            + "applies the Gradle files of the step, INLINE writes the dependency and the plugin directly, "
+            + "INIT_SCRIPT adds them with an init script without modifying the project.")
+    public Property<InjectionMode> getInjectionMode() {
+        return injectionMode;
     }
-
     //endregion
 
-    //region Ensure to apply 'trace-gradle-plugin'
+    //region Task action
 
     /**
-     * Ensures that the given module has applied {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} as a plugin.
+     * The action that will be performed when this task is run. For each application module submits a
+     * {@link InjectTraceWorkAction}, so the modules are injected concurrently. Each of them ensures the Trace
+     * dependencies and plugins with {@link TraceInjector#injectTrace(ApplicationModuleModel)}, and verifies them when
+     * {@link #getVerify()} is set. Works only on {@link #getApplicationModules()}, it does not access the
+     * {@link Project}.
      *
-     * @param appModule the {@link Project} of the app.
-     * @throws IOException when any I/O error occurs with the file on the path.
+     * @throws IOException     when any I/O error occurs with the state files.
+     * @throws GradleException when the verification of any module failed.
      */
-    private void ensureTraceGradlePluginIsApplied(final Project appModule) throws IOException {
-        if (isTraceGradlePluginApplied(appModule)) {
-            logger.lifecycle(
-                    "Project \"{}\" has already applied \"{}\" as a plugin, skipping injecting the plugin apply. " +
-                            "For more information please check the README.md of \"trace-android-sdk\"",
-                    appModule.getName(), TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME);
-        } else {
-            injectTraceGradlePluginApply(appModule);
-            logger.lifecycle("Applied plugin \"{}\" on project \"{}\"", TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME,
-                    appModule.getName());
+    @TaskAction
+    public void taskAction() throws IOException {
+        final File stateDir = injectionStateDir.get().getAsFile();
+        deleteInjectionStates(stateDir);
+        final TraceVersions traceVersions = new TraceVersionResolver(traceRepositoryUrl.get(),
+                new GradleInjectionLogger(logger)).resolve(traceVersionsLockFile.get().getAsFile(),
+                refreshTraceVersions.get());
+        if (injectionMode.get() == InjectionMode.INIT_SCRIPT) {
+            writeInitScript(traceVersions);
+            return;
+        }
+
+        // TODO check prerequirements: APM-2341 (example: com.android.tools.build:gradle)
+        final WorkQueue workQueue = workerExecutor.noIsolation();
+        for (final ApplicationModuleModel appModule : applicationModules.get()) {
+            workQueue.submit(InjectTraceWorkAction.class, parameters -> {
+                parameters.getApplicationModule().set(appModule);
+                parameters.getStateFile().set(
+                        new File(stateDir, TraceInjector.getInjectionStateFileName(appModule)));
+                parameters.getVerify().set(verify);
+                parameters.getInjectionMode().set(injectionMode);
+                parameters.getTraceVersions().set(traceVersions);
+                parameters.getTraceRepositoryUrl().set(traceRepositoryUrl);
+            });
+        }
+        final List<String> failedModules;
+        try {
+            workQueue.await();
+        } finally {
+            failedModules = logInjectionResults(stateDir);
+            writeMetricsReport(stateDir);
+        }
+        if (!failedModules.isEmpty()) {
+            throw new GradleException("Trace verification failed for " + failedModules + ", see the log for details.");
         }
     }
 
     /**
-     * Checks if the given {@link Project} has the {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} applied as a plugin or
-     * not.
+     * Writes the init script of {@link InjectionMode#INIT_SCRIPT} for the application modules. When the task is loaded
+     * from a jar, the jar is copied next to the init script, so the init script does not depend on where the step is.
+     * The files are written with a {@link BuildFileEditPlan}, so they are locked while they are written, and they are
+     * not touched when their content would not change.
      *
-     * @param appModule the given Project.
-     * @return {@code true} if it is, {@code false} otherwise.
-     */
-    private boolean isTraceGradlePluginApplied(final Project appModule) {
-        return appModule.getPlugins().hasPlugin(TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME);
+     * @param traceVersions the {@link TraceVersions} to add.
+     * @throws IOException when any I/O error occurs with the files.
+     */
+    private void writeInitScript(final TraceVersions traceVersions) throws IOException {
+        final File initScript = initScriptFile.get().getAsFile();
+        Files.createDirectories(initScript.getParentFile().toPath());
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+        File injectorClasspath;
+        try {
+            injectorClasspath = new File(
+                    TraceInitScriptInjector.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (final URISyntaxException e) {
+            throw new IOException("Cannot locate the classes of the Trace injector", e);
+        }
+        if (injectorClasspath.isFile()) {
+            final File jar = new File(initScript.getParentFile(), injectorClasspath.getName());
+            plan.write(jar.toPath(), Files.readAllBytes(injectorClasspath.toPath()));
+            injectorClasspath = jar;
+        }
+
+        final Map<File, List<String>> modulePathsByRootDir = new LinkedHashMap<>();
+        for (final ApplicationModuleModel appModule : applicationModules.get()) {
+            final File buildRootDir = ApplicationModuleModel.ROOT_BUILD_PATH.equals(appModule.getBuildPath())
+                    ? rootDir : includedBuildDirs.get(appModule.getBuildPath());
+            modulePathsByRootDir.computeIfAbsent(buildRootDir, key -> new ArrayList<>()).add(appModule.getPath());
+        }
+        plan.write(initScript.toPath(), TraceInitScriptInjector.getInitScriptContent(injectorClasspath,
+                modulePathsByRootDir, traceVersions, traceRepositoryUrl.get()).getBytes(StandardCharsets.UTF_8));
+        if (plan.apply().isEmpty()) {
+            logger.info("The init script \"{}\" is up to date.", initScript);
+        }
+        for (final ApplicationModuleModel appModule : applicationModules.get()) {
+            logger.lifecycle("Trace injection for project \"{}\": added by the init script \"{}\"",
+                    appModule.getIdentityPath(), initScript);
+        }
+        if (verify.get()) {
+            final List<String> missing = TraceInitScriptInjector.verifyInitScript(initScript, modulePathsByRootDir);
+            if (!missing.isEmpty()) {
+                throw new GradleException("Trace verification failed, the init script \"" + initScript
+                        + "\" does not add Trace to " + missing + ".");
+            }
+        }
+        logger.lifecycle("Run the later builds with \"--init-script {}\" to add Trace to them.", initScript);
     }
 
     /**
-     * Injects the code for adding {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} as a dependency to the given Android
-     * application.
+     * Writes the metrics report of the injection: the metrics of the discovery merged with the ones that the
+     * {@link InjectTraceWorkAction}s have written next to the state files.
      *
-     * @param appModule the {@link Project} of the Android app.
-     * @throws IOException when any I/O error occurs with the files on the path.
+     * @param stateDir the directory of the state files.
+     * @throws IOException when any I/O error occurs with the files.
      */
-    private void injectTraceGradlePluginApply(final Project appModule) throws IOException {
-        copyGradleFile(appModule.getProjectDir().getPath(), TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME);
-        appendTraceDependency(appModule.getBuildFile().getPath(), TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME);
+    private void writeMetricsReport(final File stateDir) throws IOException {
+        final InjectionMetrics metrics = new InjectionMetrics();
+        if (discoveryMetrics != null) {
+            metrics.merge(discoveryMetrics);
+        }
+        final File[] metricsFiles = stateDir.listFiles(
+                (dir, name) -> name.endsWith(InjectionMetrics.METRICS_FILE_EXTENSION));
+        if (metricsFiles != null) {
+            for (final File metricsFile : metricsFiles) {
+                metrics.merge(InjectionMetrics.read(metricsFile));
+            }
+        }
+        final File reportFile = metricsReportFile.get().getAsFile();
+        metrics.writeReport(reportFile);
+        logger.info("Wrote the metrics of the injection to \"{}\".", reportFile);
     }
-    //endregion
 
-    //region Common helper
+    /**
+     * Deletes the state files and the metrics files of the previous injection, so modules that are no longer present
+     * do not have a state.
+     *
+     * @param stateDir the directory of the state files.
+     * @throws IOException when any I/O error occurs with the files.
+     */
+    private static void deleteInjectionStates(final File stateDir) throws IOException {
+        final File[] stateFiles = stateDir.listFiles(
+                (dir, name) -> name.endsWith(TraceInjector.INJECTION_STATE_FILE_EXTENSION)
+                        || name.endsWith(InjectionMetrics.METRICS_FILE_EXTENSION));
+        if (stateFiles != null) {
+            for (final File stateFile : stateFiles) {
+                Files.delete(stateFile.toPath());
+            }
+        }
+    }
 
     /**
-     * Gets an environment variable. Throws IllegalStateException if the environment variable is not present.
+     * Logs the result of the injection and of the verification for each module, based on the state files. When any
+     * module is in an included build, the number of the results is logged for each build too.
      *
-     * @param envName the name of the environment variable.
-     * @return the value of the environment variable.
-     */
-    private static String getEnv(final String envName) {
-        final String env = System.getenv(envName);
-        if (env == null) {
-            throw new IllegalStateException(
-                    String.format("%s is not set as env variable, aborting build. Please set it " +
-                            "as env variable before running this step", envName));
+     * @param stateDir the directory of the state files.
+     * @return the List of the paths of the modules that failed the verification.
+     * @throws IOException when any I/O error occurs with the files.
+     */
+    private static List<String> logInjectionResults(final File stateDir) throws IOException {
+        final List<String> failedModules = new ArrayList<>();
+        final File[] stateFiles = stateDir.listFiles(
+                (dir, name) -> name.endsWith(TraceInjector.INJECTION_STATE_FILE_EXTENSION));
+        if (stateFiles == null) {
+            return failedModules;
         }
-        logger.debug("Environment variable \"{}\" is present with value \"{}\".", envName, env);
-        return env;
+        Arrays.sort(stateFiles);
+        final Map<String, Map<String, Integer>> resultCountsByBuild = new TreeMap<>();
+        for (final File stateFile : stateFiles) {
+            final Properties state = new Properties();
+            try (final InputStream inputStream = Files.newInputStream(stateFile.toPath())) {
+                state.load(inputStream);
+            }
+            final String module = state.getProperty("module");
+            final String result = state.getProperty(TraceInjector.INJECTION_RESULT_KEY);
+            logger.lifecycle("Trace injection for project \"{}\": {}", module, result);
+            resultCountsByBuild.computeIfAbsent(state.getProperty(TraceInjector.INJECTION_BUILD_KEY,
+                    ApplicationModuleModel.ROOT_BUILD_PATH), key -> new TreeMap<>()).merge(result, 1, Integer::sum);
+            final String verification = state.getProperty(TraceInjector.VERIFICATION_RESULT_KEY);
+            if (verification != null) {
+                logger.lifecycle("Trace verification for project \"{}\": {}", module, verification);
+                if (!"passed".equals(verification)) {
+                    failedModules.add(module);
+                }
+            }
+        }
+        if (!resultCountsByBuild.keySet().equals(Collections.singleton(ApplicationModuleModel.ROOT_BUILD_PATH))) {
+            for (final Map.Entry<String, Map<String, Integer>> entry : resultCountsByBuild.entrySet()) {
+                logger.lifecycle("Trace injection for build \"{}\": {}", entry.getKey(), entry.getValue());
+            }
+        }
+        return failedModules;
     }
 
     /**
-     * Copies the given Gradle file from the Bitrise step source directory to the given Android application.
+     * Creates the {@link ApplicationModuleModel}s of the given application modules.
      *
-     * @param appModuleDir the path of the {@link Project} of the Android application.
-     * @throws IOException when any I/O error occurs with the files on the path.
-     */
-    private static void copyGradleFile(final String appModuleDir, final String buildFileName) throws IOException {
-        final Path traceSdkGradleFilePath = Paths.get(getEnv(BITRISE_STEP_SRC_ENV) + "/" + buildFileName);
-        final Path destinationPath = Paths.get(appModuleDir + "/" + buildFileName);
-        Files.copy(traceSdkGradleFilePath, destinationPath);
-        logger.debug("Copied \"{}\" to \"{}\".", traceSdkGradleFilePath, destinationPath);
+     * @param appModules the List of the {@link Project}s of the apps.
+     * @param metrics    the {@link InjectionMetrics} to count the indexed configurations and dependencies in.
+     * @return the List of the created ApplicationModuleModels.
+     */
+    static List<ApplicationModuleModel> createApplicationModuleModels(final List<Project> appModules,
+                                                                      final InjectionMetrics metrics) {
+        final List<ApplicationModuleModel> models = new ArrayList<>();
+        for (final Project appModule : appModules) {
+            models.add(createApplicationModuleModel(appModule, metrics));
+        }
+        return models;
     }
 
     /**
-     * Appends the given Gradle build file the apply of the given Gradle build file.
+     * Creates the {@link ApplicationModuleModel} of the given application module. Checks which of the Trace
+     * dependencies and plugins the module already has, so later it is not required to access the {@link Project}.
+     * The declared dependencies are read once into a {@link DependencyCoordinateIndex} for the module and one for its
+     * buildscript.
      *
-     * @param appBuildGradlePath the path of the Gradle build file, which should be extended.
-     * @param buildFileName      the given Gradle build file path to apply.
-     * @throws IOException when any I/O error occurs with the file on the path.
-     */
-    private static void appendTraceDependency(final String appBuildGradlePath, final String buildFileName)
-            throws IOException {
-        appendContentToFile(appBuildGradlePath, getContentToAppend(appBuildGradlePath, buildFileName));
+     * @param appModule the {@link Project} of the app.
+     * @param metrics   the {@link InjectionMetrics} to count the indexed configurations and dependencies in.
+     * @return the created ApplicationModuleModel.
+     */
+    static ApplicationModuleModel createApplicationModuleModel(final Project appModule,
+                                                               final InjectionMetrics metrics) {
+        final InjectionEvents.ConfigurationScan event = InjectionEvents.configurationScan();
+        if (event != null) {
+            event.begin();
+        }
+        final DependencyCoordinateIndex dependencies =
+                DependencyCoordinateIndex.ofDeclarableConfigurations(appModule.getConfigurations());
+        final DependencyCoordinateIndex buildscriptDependencies =
+                DependencyCoordinateIndex.of(appModule.getBuildscript().getConfigurations());
+        if (event != null && event.shouldCommit()) {
+            event.project = appModule.getPath();
+            event.configurationCount =
+                    dependencies.getConfigurationCount() + buildscriptDependencies.getConfigurationCount();
+            event.dependencyCount = dependencies.getDependencyCount() + buildscriptDependencies.getDependencyCount();
+            event.commit();
+        }
+        metrics.increment(InjectionMetrics.CONFIGURATIONS_SCANNED,
+                dependencies.getConfigurationCount() + buildscriptDependencies.getConfigurationCount());
+        metrics.increment(InjectionMetrics.DEPENDENCIES_VISITED,
+                dependencies.getDependencyCount() + buildscriptDependencies.getDependencyCount());
+        logger.debug("Indexed {} declared and {} buildscript dependencies of project \"{}\".", dependencies.size(),
+                buildscriptDependencies.size(), appModule.getName());
+
+        final Set<String> declaredTraceCoordinates = new LinkedHashSet<>();
+        if (hasTraceSdkDependency(dependencies)) {
+            declaredTraceCoordinates.add(
+                    TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME + ":" + TraceInjector.TRACE_SDK_DEPENDENCY_NAME);
+        }
+        final Set<String> buildscriptTraceCoordinates = new LinkedHashSet<>();
+        if (hasTraceGradlePluginDependency(buildscriptDependencies)) {
+            buildscriptTraceCoordinates.add(TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME + ":"
+                    + TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME);
+        }
+        final Set<String> appliedPluginIds = new LinkedHashSet<>();
+        appliedPluginIds.add(TraceInjector.ANDROID_APPLICATION_PLUGIN_ID);
+        if (isTraceGradlePluginApplied(appModule)) {
+            appliedPluginIds.add(TraceInjector.TRACE_GRADLE_PLUGIN_ID);
+        }
+        final ApplicationModuleModel model = new ApplicationModuleModel(appModule.getName(), appModule.getPath(),
+                appModule.getProjectDir(), appModule.getBuildFile(), declaredTraceCoordinates,
+                buildscriptTraceCoordinates, appliedPluginIds);
+        logger.debug("Captured {}", model);
+        return model;
     }
 
     /**
-     * Appends the given content to a given file.
+     * Checks if the {@value #MODULE_DISCOVERY_PROPERTY} Gradle property of the given project selects the static
+     * discovery of the application modules.
      *
-     * @param path    the path of the file.
-     * @param content the content to append.
-     * @throws IOException when any I/O error occurs with the file on the path.
+     * @param rootProject the root {@link Project}.
+     * @return {@code true} if it does, {@code false} otherwise.
      */
-    private static void appendContentToFile(final String path, final String content) throws IOException {
-        logger.debug("Appending to \"{}\" content:\n\"{}\"", path, content);
-        Files.write(Paths.get(path), content.getBytes(), StandardOpenOption.APPEND);
+    static boolean isStaticModuleDiscovery(final Project rootProject) {
+        return STATIC_MODULE_DISCOVERY.equals(
+                Objects.toString(rootProject.findProperty(MODULE_DISCOVERY_PROPERTY), null));
     }
 
     /**
-     * Gets the content to append for the given Gradle build file based on the extension (language) of the file. The
-     * content is to apply the given Gradle build file, the name of this file is an argument.
+     * Scans the build files of the subprojects with {@link StaticModuleDiscovery}, and configures only the ones that
+     * may be Android applications: the ones that apply the Android application plugin, and the ones that cannot be
+     * decided without Gradle. The rest of the subprojects are left as they are, so with {@code --configure-on-demand}
+     * they are never configured.
      *
-     * @param appBuildGradlePath the path of the Gradle build file, which should be extended.
-     * @param buildFileName      the given Gradle build file path to apply.
-     * @return the content to append to the Gradle build file.
-     */
-    static String getContentToAppend(final String appBuildGradlePath, final String buildFileName) {
-        if (appBuildGradlePath.endsWith(".kts")) {
-            logger.debug("\"{}\" is a Kotlin file.", appBuildGradlePath);
-            return String.format("\napply(\"%s\")", buildFileName);
-        } else if (appBuildGradlePath.endsWith(".gradle")) {
-            logger.debug("\"{}\" is a Groovy file.", appBuildGradlePath);
-            return String.format("\napply from: \"%s\"", buildFileName);
-        } else {
-            throw new IllegalStateException(String.format("Could not determine language for %s",
-                    appBuildGradlePath));
+     * @param rootProject the root {@link Project}.
+     * @param metrics     the {@link InjectionMetrics} to record the scan in.
+     * @return the Set of the configured subprojects, the candidates for {@link #getApplicationModules(Set)}.
+     */
+    private static Set<Project> configureApplicationModuleCandidates(final Project rootProject,
+                                                                    final InjectionMetrics metrics) {
+        final List<Project> subprojects = new ArrayList<>(rootProject.getSubprojects());
+        final List<File> buildFiles = new ArrayList<>();
+        for (final Project subproject : subprojects) {
+            buildFiles.add(subproject.getBuildFile());
+        }
+        final List<StaticModuleDiscovery.BuildFileScan> scans;
+        try (final InjectionMetrics.Timer ignored = metrics.time(InjectionMetrics.DISCOVERY)) {
+            scans = new StaticModuleDiscovery(rootProject.getProjectDir(), new GradleInjectionLogger(logger), metrics)
+                    .scanBuildFiles(buildFiles);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        final Set<Project> candidates = new LinkedHashSet<>();
+        for (int i = 0; i < subprojects.size(); i++) {
+            final StaticModuleDiscovery.BuildFileScan scan = scans.get(i);
+            if (scan.isApplication() || scan.isUnresolvable()) {
+                final Project subproject = subprojects.get(i);
+                logger.debug("Configuring project \"{}\" as a candidate Android application.",
+                        subproject.getPath());
+                rootProject.evaluationDependsOn(subproject.getPath());
+                candidates.add(subproject);
+            }
         }
+        logger.lifecycle("Configuring {} of {} projects for the Trace injection.", candidates.size(),
+                subprojects.size());
+        return candidates;
     }
 
     /**
-     * Checks if the given {@link Configuration} has dependency on the given dependency or not.
+     * Gets the application modules of the root build.
      *
-     * @param configuration       the given Configuration.
-     * @param dependencyName      the name of the dependency to check for.
-     * @param dependencyGroupName the group of the dependency to check for.
-     * @return {@code true} if it has, {@code false} otherwise.
+     * @param projectSet the Set of the {@link Project}s which should contain the applications.
+     * @return the List of the Projects that are applications.
      */
-    static boolean hasDependency(final Configuration configuration, final String dependencyName,
-                                 final String dependencyGroupName) {
-        for (final Dependency dependency : configuration.getAllDependencies()) {
-            if (dependency.getName().equals(dependencyName) &&
-                    dependency.getGroup() != null &&
-                    dependency.getGroup().equals(dependencyGroupName)) {
-                logger.info("Configuration \"{}\" already contains \"{}\" as dependency with version {}.",
-                        configuration.getName(), dependencyName, dependency.getVersion());
-                return true;
+    private static List<Project> getApplicationModules(final Set<Project> projectSet) {
+        final List<Project> applicationModules = new ArrayList<>();
+        for (final Project project : projectSet) {
+            final String projectName = project.getName();
+            logger.debug("Checking project \"{}\" if it is an Android application", projectName);
+            if (project.getPlugins().hasPlugin(TraceInjector.ANDROID_APPLICATION_PLUGIN_ID)) {
+                logger.lifecycle(
+                        "Project \"{}\" is an Android application! Task will ensure it has all the required Trace" +
+                                " dependencies", projectName);
+                applicationModules.add(project);
+            } else {
+                logger.debug("Project \"{}\" is not an Android application!", projectName);
             }
         }
-        logger.info("Configuration \"{}\" does not have a dependency on \"{}:{}\".", configuration.getName(),
-                dependencyGroupName, dependencyName);
-        return false;
+        return applicationModules;
     }
 
     /**
-     * Removes all the commented code from a file and returns it as a String.
+     * Gets the root directories of the included builds of the given root project, unless the
+     * {@value #INCLUDED_BUILDS_PROPERTY} Gradle property is {@code false}.
      *
-     * @param path the path of the file to get the code from.
-     * @return the String value of the code.
-     * @throws IOException when any I/O error occurs with the file on the path.
+     * @param rootProject the root {@link Project}.
+     * @return the Map of the root directories, by the paths of the builds, for example ":feature".
      */
-    private static String getCodeContent(final String path) throws IOException {
-        final List<String> lines = Files.readAllLines(new File(path).toPath());
-        return removeCommentedCode(lines);
+    private static Map<String, File> getIncludedBuildDirs(final Project rootProject) {
+        final Map<String, File> includedBuildDirs = new LinkedHashMap<>();
+        if ("false".equals(Objects.toString(rootProject.findProperty(INCLUDED_BUILDS_PROPERTY), null))) {
+            return includedBuildDirs;
+        }
+        for (final IncludedBuild includedBuild : rootProject.getGradle().getIncludedBuilds()) {
+            if (!includedBuild.getProjectDir().equals(rootProject.getProjectDir())) {
+                includedBuildDirs.put(ApplicationModuleModel.ROOT_BUILD_PATH + includedBuild.getName(),
+                        includedBuild.getProjectDir());
+            }
+        }
+        return includedBuildDirs;
     }
+    //endregion
+
+    //region Gradle state of the modules
 
     /**
-     * Removes all the commented code from a List of Strings.
+     * Checks if the given module declares a dependency on {@link TraceInjector#TRACE_SDK_DEPENDENCY_NAME} or not, in
+     * any of its declarable configurations.
      *
-     * @param lines the List of lines
-     * @return the String value of the code.
-     */
-    static String removeCommentedCode(final List<String> lines) {
-        final String currentLineComment = "//";
-        final String greedyCommentStart = "/*";
-        final String greedyCommentEnd = "*/";
-        final Pattern pattern = getGreedyCommentBlockPattern();
-
-        final StringBuilder stringBuilder = new StringBuilder();
-        boolean isGreedyCommented = false;
-        for (final String line : lines) {
-            logger.debug("Removing comments from line \"{}\"", line);
-            String reducedLine = removeGreedyCommentBlocksFromLine(line, pattern);
-            logger.debug("Removed complete greedy comments: \"{}\"", reducedLine);
-            final int gceIndex = reducedLine.indexOf(greedyCommentEnd);
-            if (gceIndex >= 0) {
-                reducedLine = reducedLine.substring(reducedLine.indexOf(greedyCommentEnd) + greedyCommentEnd.length());
-                isGreedyCommented = false;
-                logger.debug("Removed greedy comment ends: \"{}\"", reducedLine);
-            } else {
-                if (isGreedyCommented) {
-                    logger.debug("Skipping full line as it is greedy commented.");
-                    continue;
-                }
-            }
-
-            final int clcIndex = reducedLine.indexOf(currentLineComment);
-            final int gcsIndex = reducedLine.indexOf(greedyCommentStart);
-            final int csIndex = getSmallestNonNegativeNumber(clcIndex, gcsIndex);
-            if (csIndex >= 0) {
-                if (csIndex == gcsIndex) {
-                    isGreedyCommented = true;
-                }
-                reducedLine = reducedLine.substring(0, csIndex);
-                logger.debug("Removed greedy comment starts and line comments: \"{}\"", reducedLine);
-            }
-
-            stringBuilder.append(reducedLine).append("\n");
-        }
-        return stringBuilder.toString();
+     * @param dependencies the {@link DependencyCoordinateIndex} of the declarable configurations of the module.
+     * @return {@code true} if it has, {@code false} otherwise.
+     */
+    static boolean hasTraceSdkDependency(final DependencyCoordinateIndex dependencies) {
+        return hasDependency(dependencies, TraceInjector.TRACE_SDK_DEPENDENCY_NAME,
+                TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME);
     }
 
     /**
-     * Removes complete greedy comment blocks from a line.
+     * Checks if the buildscript of the given module declares a dependency on
+     * {@link TraceInjector#TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} or not.
      *
-     * @param line    the given line.
-     * @param pattern the Pattern to use for removing.
-     * @return the line without greedy comment blocks.
-     */
-    static String removeGreedyCommentBlocksFromLine(final String line, final Pattern pattern) {
-        final Matcher matcher = pattern.matcher(line);
-        if (matcher.find()) {
-            return matcher.replaceAll("");
-        }
-        return line;
+     * @param buildscriptDependencies the {@link DependencyCoordinateIndex} of the buildscript of the module.
+     * @return {@code true} if it has, {@code false} otherwise.
+     */
+    static boolean hasTraceGradlePluginDependency(final DependencyCoordinateIndex buildscriptDependencies) {
+        return hasDependency(buildscriptDependencies, TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME,
+                TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME);
     }
 
     /**
-     * Gets the Pattern for getting greedy comment blocks.
+     * Checks if the given {@link Project} has the {@link TraceInjector#TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} applied as
+     * a plugin or not.
      *
-     * @return the compiled pattern.
+     * @param appModule the given Project.
+     * @return {@code true} if it is, {@code false} otherwise.
      */
-    static Pattern getGreedyCommentBlockPattern() {
-        final String regex = "/\\*.*?\\*/";
-        return Pattern.compile(regex);
+    static boolean isTraceGradlePluginApplied(final Project appModule) {
+        return appModule.getPlugins().hasPlugin(TraceInjector.TRACE_GRADLE_PLUGIN_ID);
     }
 
     /**
-     * Gets the smallest non-negative number from the given numbers.
+     * Checks if the given {@link DependencyCoordinateIndex} has a dependency on the given dependency or not.
      *
-     * @param numbers the numbers.
-     * @return the smallest non-negative number, or -1 if there is no positive.
+     * @param dependencies        the DependencyCoordinateIndex to look up the dependency in.
+     * @param dependencyName      the name of the dependency to check for.
+     * @param dependencyGroupName the group of the dependency to check for.
+     * @return {@code true} if it has, {@code false} otherwise.
      */
-    static int getSmallestNonNegativeNumber(final int... numbers) {
-        return Arrays.stream(numbers).filter(i -> i >= 0).min().orElse(-1);
+    static boolean hasDependency(final DependencyCoordinateIndex dependencies, final String dependencyName,
+                                 final String dependencyGroupName) {
+        final Set<String> configurationNames = dependencies.getConfigurationNames(dependencyGroupName, dependencyName);
+        if (configurationNames.isEmpty()) {
+            logger.info("No configuration has a dependency on \"{}:{}\".", dependencyGroupName, dependencyName);
+            return false;
+        }
+        logger.info("Configurations {} already contain \"{}:{}\" as dependency.", configurationNames,
+                dependencyGroupName, dependencyName);
+        return true;
     }
     //endregion
 }
@@ -0,0 +1,126 @@
+package io.bitrise.trace.step;
+
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Injects Trace to a single Android application module. {@link InjectTraceTask} submits one for each application
+ * module, so the modules are checked and rewritten concurrently. The result of the module (injected, skipped or
+ * failed) is written to {@link Parameters#getStateFile()}, together with the result of the verification when
+ * {@link Parameters#getVerify()} is set. The {@link InjectionMetrics} of the module are written next to the state
+ * file, with {@link InjectionMetrics#METRICS_FILE_EXTENSION}.
+ */
+public abstract class InjectTraceWorkAction implements WorkAction<InjectTraceWorkAction.Parameters> {
+
+    private static final Logger logger = Logging.getLogger(InjectTraceWorkAction.class);
+
+    private static final InjectionLogger injectionLogger =
+            new GradleInjectionLogger(Logging.getLogger(TraceInjector.class));
+
+    /**
+     * The parameters of an {@link InjectTraceWorkAction}.
+     */
+    public interface Parameters extends WorkParameters {
+
+        /**
+         * Gets the application module to inject.
+         *
+         * @return the Property of the {@link ApplicationModuleModel}.
+         */
+        Property<ApplicationModuleModel> getApplicationModule();
+
+        /**
+         * Gets the file to write the state of the injection to.
+         *
+         * @return the Property of the file.
+         */
+        RegularFileProperty getStateFile();
+
+        /**
+         * Gets whether the module should be verified after the injection.
+         *
+         * @return the Property of the flag.
+         */
+        Property<Boolean> getVerify();
+
+        /**
+         * Gets how the module should be injected.
+         *
+         * @return the Property of the {@link InjectionMode}.
+         */
+        Property<InjectionMode> getInjectionMode();
+
+        /**
+         * Gets the versions of Trace to inject.
+         *
+         * @return the Property of the {@link TraceVersions}.
+         */
+        Property<TraceVersions> getTraceVersions();
+
+        /**
+         * Gets the URL of the Maven repository of the Trace artifacts.
+         *
+         * @return the Property of the URL.
+         */
+        Property<String> getTraceRepositoryUrl();
+    }
+
+    @Override
+    public void execute() {
+        final ApplicationModuleModel appModule = getParameters().getApplicationModule().get();
+        final File stateFile = getParameters().getStateFile().get().getAsFile();
+        final TraceInjector traceInjector = new TraceInjector(injectionLogger,
+                getParameters().getInjectionMode().get(), getParameters().getTraceVersions().get(),
+                getParameters().getTraceRepositoryUrl().get());
+        Map<String, String> injectionState = new LinkedHashMap<>();
+        try {
+            injectionState = traceInjector.injectTrace(appModule);
+            injectionState.put(TraceInjector.INJECTION_RESULT_KEY, TraceInjector.getInjectionResult(injectionState));
+            if (getParameters().getVerify().get()) {
+                injectionState.put(TraceInjector.VERIFICATION_RESULT_KEY,
+                        TraceInjector.getVerificationResult(traceInjector.verifyTrace(appModule)));
+            }
+        } catch (final IOException | RuntimeException e) {
+            logger.error("Failed to inject Trace to project \"{}\".", appModule.getIdentityPath(), e);
+            injectionState.put(TraceInjector.INJECTION_RESULT_KEY, "failed");
+            writeInjectionState(traceInjector, stateFile, appModule, injectionState);
+            if (e instanceof IOException) {
+                throw new UncheckedIOException((IOException) e);
+            }
+            throw (RuntimeException) e;
+        }
+        writeInjectionState(traceInjector, stateFile, appModule, injectionState);
+    }
+
+    /**
+     * Writes the state of the injection, see {@link TraceInjector#writeInjectionState(File, ApplicationModuleModel,
+     * Map)}.
+     *
+     * @param traceInjector  the {@link TraceInjector} of the module.
+     * @param stateFile      the file to write.
+     * @param appModule      the {@link ApplicationModuleModel} of the app.
+     * @param injectionState the Map of the injected changes and their outcome.
+     */
+    private static void writeInjectionState(final TraceInjector traceInjector, final File stateFile,
+                                            final ApplicationModuleModel appModule,
+                                            final Map<String, String> injectionState) {
+        try {
+            traceInjector.writeInjectionState(stateFile, appModule, injectionState);
+            final String stateFileName = stateFile.getName();
+            traceInjector.getMetrics().write(new File(stateFile.getParentFile(), stateFileName.substring(0,
+                    stateFileName.lastIndexOf('.')) + InjectionMetrics.METRICS_FILE_EXTENSION));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package io.bitrise.trace.step;
+
+/**
+ * The Java Flight Recorder events of the hot paths of the injection. Record a build with "-XX:StartFlightRecording" in
+ * "org.gradle.jvmargs" (or in the options of the java command of {@link InjectTraceCli}), and the events show which
+ * module or build file the time was spent on.
+ * <p>
+ * The "jdk.jfr" API is in Java 11 and later, and in Java 8 from update 262, so neither this class nor the sites of the
+ * events depend on it. The events are implemented by {@link #FLIGHT_RECORDER_EVENTS_CLASS_NAME} in "src/jfr/java",
+ * which the builds of the injector compile only with a JDK that has the API, and which is loaded reflectively. Without
+ * it the factory methods return {@code null} and the sites record nothing. With it the events cost next to nothing
+ * while no recording is running: each site checks {@link Event#shouldCommit()} before it fills the fields of the event.
+ * <p>
+ * The events are enabled by default, with no threshold, in the "Trace Injection" category.
+ */
+final class InjectionEvents {
+
+    /**
+     * The name of the {@link Factory} of the Flight Recorder events.
+     */
+    static final String FLIGHT_RECORDER_EVENTS_CLASS_NAME = "io.bitrise.trace.step.FlightRecorderEvents";
+
+    private static final Factory FACTORY = loadFactory();
+
+    private InjectionEvents() {
+        // holder of the event classes
+    }
+
+    /**
+     * Creates a {@link ModuleScan} event.
+     *
+     * @return the event, or {@code null} when the Flight Recorder events are not available.
+     */
+    static ModuleScan moduleScan() {
+        return FACTORY == null ? null : FACTORY.moduleScan();
+    }
+
+    /**
+     * Creates a {@link ConfigurationScan} event.
+     *
+     * @return the event, or {@code null} when the Flight Recorder events are not available.
+     */
+    static ConfigurationScan configurationScan() {
+        return FACTORY == null ? null : FACTORY.configurationScan();
+    }
+
+    /**
+     * Creates a {@link BuildScriptIndexing} event.
+     *
+     * @return the event, or {@code null} when the Flight Recorder events are not available.
+     */
+    static BuildScriptIndexing buildScriptIndexing() {
+        return FACTORY == null ? null : FACTORY.buildScriptIndexing();
+    }
+
+    /**
+     * Creates a {@link FileMutation} event.
+     *
+     * @return the event, or {@code null} when the Flight Recorder events are not available.
+     */
+    static FileMutation fileMutation() {
+        return FACTORY == null ? null : FACTORY.fileMutation();
+    }
+
+    /**
+     * Creates a {@link ModuleInjection} event.
+     *
+     * @return the event, or {@code null} when the Flight Recorder events are not available.
+     */
+    static ModuleInjection moduleInjection() {
+        return FACTORY == null ? null : FACTORY.moduleInjection();
+    }
+
+    /**
+     * Loads the {@link Factory} of the Flight Recorder events, when both the JVM has the "jdk.jfr" API and the events
+     * were compiled.
+     *
+     * @return the Factory, or {@code null} when the events are not available.
+     */
+    private static Factory loadFactory() {
+        final ClassLoader classLoader = InjectionEvents.class.getClassLoader();
+        try {
+            Class.forName("jdk.jfr.Event", false, classLoader);
+            return (Factory) Class.forName(FLIGHT_RECORDER_EVENTS_CLASS_NAME, true, classLoader)
+                    .getDeclaredConstructor().newInstance();
+        } catch (final ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates the events, implemented by {@link #FLIGHT_RECORDER_EVENTS_CLASS_NAME}.
+     */
+    interface Factory {
+
+        ModuleScan moduleScan();
+
+        ConfigurationScan configurationScan();
+
+        BuildScriptIndexing buildScriptIndexing();
+
+        FileMutation fileMutation();
+
+        ModuleInjection moduleInjection();
+    }
+
+    /**
+     * An event, with the lifecycle of "jdk.jfr.Event". The fields of the subclasses are copied to the Flight Recorder
+     * event on {@link #commit()}.
+     */
+    abstract static class Event {
+
+        /**
+         * Starts the timing of the event.
+         */
+        abstract void begin();
+
+        /**
+         * Checks if the event is recorded, so its fields have to be filled before {@link #commit()}.
+         *
+         * @return {@code true} if it is, {@code false} otherwise.
+         */
+        abstract boolean shouldCommit();
+
+        /**
+         * Ends the timing of the event, and writes it to the recordings.
+         */
+        abstract void commit();
+    }
+
+    /**
+     * The scan of the build file of a project by {@link StaticModuleDiscovery}, which decides whether the project is
+     * an Android application.
+     */
+    abstract static class ModuleScan extends Event {
+
+        String buildFile;
+
+        long bytes;
+
+        /**
+         * Application, other, unresolvable or missing.
+         */
+        String outcome;
+    }
+
+    /**
+     * The indexing of the declared dependencies of the configurations of an application module, when its
+     * {@link ApplicationModuleModel} is captured.
+     */
+    abstract static class ConfigurationScan extends Event {
+
+        String project;
+
+        int configurationCount;
+
+        int dependencyCount;
+    }
+
+    /**
+     * The indexing of a build file by {@link BuildScriptIndex}, which separates the code from the comments and the
+     * strings.
+     */
+    abstract static class BuildScriptIndexing extends Event {
+
+        String path;
+
+        long bytes;
+
+        /**
+         * Cached when the file has not been read, reused when its content has not changed, indexed otherwise.
+         */
+        String outcome;
+    }
+
+    /**
+     * The check and the write of a file of a {@link BuildFileEditPlan}.
+     */
+    abstract static class FileMutation extends Event {
+
+        String path;
+
+        long bytes;
+
+        /**
+         * Written, unchanged or failed.
+         */
+        String outcome;
+    }
+
+    /**
+     * The injection of an application module by {@link TraceInjector#injectTrace(ApplicationModuleModel)}.
+     */
+    abstract static class ModuleInjection extends Event {
+
+        String project;
+
+        /**
+         * Success, skipped or failed.
+         */
+        String outcome;
+    }
+}
@@ -0,0 +1,53 @@
+package io.bitrise.trace.step;
+
+/**
+ * The logger of {@link TraceInjector}. It does not depend on Gradle, so the injection can run both in
+ * {@link InjectTraceTask} and in {@link InjectTraceCli}. The messages use "{}" placeholders for the arguments, like
+ * the Gradle logger.
+ */
+interface InjectionLogger {
+
+    /**
+     * Logger that drops every message.
+     */
+    InjectionLogger NONE = new InjectionLogger() {
+        @Override
+        public void lifecycle(final String message, final Object... args) {
+            // no-op
+        }
+
+        @Override
+        public void info(final String message, final Object... args) {
+            // no-op
+        }
+
+        @Override
+        public void debug(final String message, final Object... args) {
+            // no-op
+        }
+    };
+
+    /**
+     * Logs a message that is shown by default.
+     *
+     * @param message the message, with "{}" placeholders.
+     * @param args    the arguments of the placeholders.
+     */
+    void lifecycle(String message, Object... args);
+
+    /**
+     * Logs a message that is shown on info level.
+     *
+     * @param message the message, with "{}" placeholders.
+     * @param args    the arguments of the placeholders.
+     */
+    void info(String message, Object... args);
+
+    /**
+     * Logs a message that is shown on debug level.
+     *
+     * @param message the message, with "{}" placeholders.
+     * @param args    the arguments of the placeholders.
+     */
+    void debug(String message, Object... args);
+}
@@ -0,0 +1,291 @@
+package io.bitrise.trace.step;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The wall time and the I/O of the phases of an injection, and the counters of the work done in them. Each injection
+ * collects its own InjectionMetrics: {@link TraceInjector} for the modules it injects, and {@link InjectTraceTask} for
+ * the discovery of the modules. They are merged into a JSON report, see {@link #toJson()}, written to
+ * {@link #REPORT_FILE_PATH} of the build directory, which the step prints as a summary.
+ * <p>
+ * The phases may be nested, for example the {@link #INDEX} phase of a build file is part of the ensure phase that first
+ * reads it, so the times of the phases do not add up to the total. The methods are thread-safe.
+ * <p>
+ * It only depends on the JDK, so {@link InjectTraceCli} writes the same report.
+ */
+final class InjectionMetrics {
+
+    /**
+     * The path of the report, relative to the build directory of the root project.
+     */
+    static final String REPORT_FILE_PATH = "trace/injectTraceMetrics.json";
+
+    /**
+     * The extension of the files that the metrics of a single module are written to, next to its state file.
+     */
+    static final String METRICS_FILE_EXTENSION = ".metrics";
+
+    /**
+     * The phase that discovers the application modules and captures their models.
+     */
+    static final String DISCOVERY = "discovery";
+
+    /**
+     * The phase that reads and indexes a build file, see {@link BuildScriptIndex}.
+     */
+    static final String INDEX = "index";
+
+    /**
+     * The phase that compares the new content of the files with their current content, and writes the changed ones.
+     */
+    static final String WRITE = "write";
+
+    /**
+     * The phase that verifies a module after its injection.
+     */
+    static final String VERIFICATION = "verification";
+
+    /**
+     * The counter of the configurations whose declared dependencies are indexed.
+     */
+    static final String CONFIGURATIONS_SCANNED = "configurationsScanned";
+
+    /**
+     * The counter of the declared dependencies visited while indexing the configurations.
+     */
+    static final String DEPENDENCIES_VISITED = "dependenciesVisited";
+
+    /**
+     * The counter of the injected application modules.
+     */
+    static final String APPLICATION_MODULES = "applicationModules";
+
+    private static final String PHASE_PREFIX = "phase.";
+    private static final String COUNTER_PREFIX = "counter.";
+    private static final String[] PHASE_FIELDS =
+            {"count", "wallNanos", "filesRead", "bytesRead", "filesWritten", "bytesWritten"};
+
+    private final Map<String, long[]> phases = new TreeMap<>();
+    private final Map<String, Long> counters = new TreeMap<>();
+
+    /**
+     * Starts timing a run of the given phase. The time is recorded when the returned {@link Timer} is closed.
+     *
+     * @param phase the name of the phase.
+     * @return the Timer of the run.
+     */
+    Timer time(final String phase) {
+        return new Timer(phase, System.nanoTime());
+    }
+
+    /**
+     * Records a file read in the given phase.
+     *
+     * @param phase the name of the phase.
+     * @param bytes the number of the bytes read.
+     */
+    synchronized void addRead(final String phase, final long bytes) {
+        final long[] values = getPhase(phase);
+        values[2]++;
+        values[3] += bytes;
+    }
+
+    /**
+     * Records a file written in the given phase.
+     *
+     * @param phase the name of the phase.
+     * @param bytes the number of the bytes written.
+     */
+    synchronized void addWritten(final String phase, final long bytes) {
+        final long[] values = getPhase(phase);
+        values[4]++;
+        values[5] += bytes;
+    }
+
+    /**
+     * Adds to the given counter.
+     *
+     * @param counter the name of the counter.
+     * @param delta   the value to add.
+     */
+    synchronized void increment(final String counter, final long delta) {
+        counters.merge(counter, delta, Long::sum);
+    }
+
+    /**
+     * Adds the phases and the counters of the given metrics to these.
+     *
+     * @param other the InjectionMetrics to add.
+     */
+    void merge(final InjectionMetrics other) {
+        final Properties properties = other.toProperties();
+        synchronized (this) {
+            addProperties(properties);
+        }
+    }
+
+    /**
+     * Writes these metrics to the given file, to be merged by {@link #read(File)} later.
+     *
+     * @param file the file to write.
+     * @throws IOException when any I/O error occurs with the file.
+     */
+    void write(final File file) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        try (final OutputStream outputStream = Files.newOutputStream(file.toPath())) {
+            toProperties().store(outputStream, null);
+        }
+    }
+
+    /**
+     * Reads the metrics that {@link #write(File)} has written to the given file.
+     *
+     * @param file the file to read.
+     * @return the InjectionMetrics.
+     * @throws IOException when any I/O error occurs with the file.
+     */
+    static InjectionMetrics read(final File file) throws IOException {
+        final Properties properties = new Properties();
+        try (final InputStream inputStream = Files.newInputStream(file.toPath())) {
+            properties.load(inputStream);
+        }
+        final InjectionMetrics metrics = new InjectionMetrics();
+        metrics.addProperties(properties);
+        return metrics;
+    }
+
+    /**
+     * Writes the JSON report of these metrics to the given file, see {@link #toJson()}.
+     *
+     * @param reportFile the report file.
+     * @throws IOException when any I/O error occurs with the file.
+     */
+    void writeReport(final File reportFile) throws IOException {
+        Files.createDirectories(reportFile.getParentFile().toPath());
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+        plan.write(reportFile.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+        plan.apply();
+    }
+
+    /**
+     * Gets the JSON report of these metrics: the phases by their names, with the number of their runs, their total
+     * wall time in nanoseconds, and the number of the files and bytes they read and wrote, and the counters by their
+     * names, both sorted by the names. For example:
+     * <pre>{@code
+     * {
+     *   "phases": {
+     *     "index": {"count": 2, "wallNanos": 1520000, "filesRead": 2, "bytesRead": 3400, "filesWritten": 0,
+     *               "bytesWritten": 0}
+     *   },
+     *   "counters": {
+     *     "applicationModules": 1
+     *   }
+     * }
+     * }</pre>
+     *
+     * @return the JSON report.
+     */
+    synchronized String toJson() {
+        final StringBuilder json = new StringBuilder("{\n  \"phases\": {");
+        String separator = "\n";
+        for (final Map.Entry<String, long[]> phase : phases.entrySet()) {
+            json.append(separator).append("    ").append(toJsonString(phase.getKey())).append(": {");
+            for (int i = 0; i < PHASE_FIELDS.length; i++) {
+                json.append(i > 0 ? ", " : "").append('"').append(PHASE_FIELDS[i]).append("\": ")
+                        .append(phase.getValue()[i]);
+            }
+            json.append('}');
+            separator = ",\n";
+        }
+        json.append(phases.isEmpty() ? "" : "\n  ").append("},\n  \"counters\": {");
+        separator = "\n";
+        for (final Map.Entry<String, Long> counter : counters.entrySet()) {
+            json.append(separator).append("    ").append(toJsonString(counter.getKey())).append(": ")
+                    .append(counter.getValue());
+            separator = ",\n";
+        }
+        return json.append(counters.isEmpty() ? "" : "\n  ").append("}\n}\n").toString();
+    }
+
+    private synchronized Properties toProperties() {
+        final Properties properties = new Properties();
+        for (final Map.Entry<String, long[]> phase : phases.entrySet()) {
+            for (int i = 0; i < PHASE_FIELDS.length; i++) {
+                properties.setProperty(PHASE_PREFIX + phase.getKey() + "." + PHASE_FIELDS[i],
+                        String.valueOf(phase.getValue()[i]));
+            }
+        }
+        for (final Map.Entry<String, Long> counter : counters.entrySet()) {
+            properties.setProperty(COUNTER_PREFIX + counter.getKey(), String.valueOf(counter.getValue()));
+        }
+        return properties;
+    }
+
+    private void addProperties(final Properties properties) {
+        for (final String key : properties.stringPropertyNames()) {
+            final long value = Long.parseLong(properties.getProperty(key));
+            if (key.startsWith(COUNTER_PREFIX)) {
+                counters.merge(key.substring(COUNTER_PREFIX.length()), value, Long::sum);
+            } else if (key.startsWith(PHASE_PREFIX)) {
+                final int dot = key.lastIndexOf('.');
+                final String field = key.substring(dot + 1);
+                for (int i = 0; i < PHASE_FIELDS.length; i++) {
+                    if (PHASE_FIELDS[i].equals(field)) {
+                        getPhase(key.substring(PHASE_PREFIX.length(), dot))[i] += value;
+                    }
+                }
+            }
+        }
+    }
+
+    private long[] getPhase(final String phase) {
+        return phases.computeIfAbsent(phase, key -> new long[PHASE_FIELDS.length]);
+    }
+
+    private static String toJsonString(final String value) {
+        final StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * A run of a phase, which records its wall time when it is closed.
+     */
+    final class Timer implements AutoCloseable {
+
+        private final String phase;
+        private final long startNanos;
+
+        private Timer(final String phase, final long startNanos) {
+            this.phase = phase;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void close() {
+            final long wallNanos = System.nanoTime() - startNanos;
+            synchronized (InjectionMetrics.this) {
+                final long[] values = getPhase(phase);
+                values[0]++;
+                values[1] += wallNanos;
+            }
+        }
+    }
+}
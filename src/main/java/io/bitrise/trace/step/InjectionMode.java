@@ -0,0 +1,46 @@
+package io.bitrise.trace.step;
+
+/**
+ * The ways {@link TraceInjector} can add the Trace SDK dependency and apply the Trace Gradle plugin on an application
+ * module.
+ */
+enum InjectionMode {
+
+    /**
+     * Copies {@link TraceInjector#TRACE_SDK_GRADLE_FILE_NAME} and
+     * {@link TraceInjector#TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME} next to the build file of the module, and applies them
+     * as script plugins. This is the default.
+     */
+    SCRIPT_PLUGIN,
+
+    /**
+     * Writes the repository, the dependency and the plugin apply directly into the build file of the module, in its
+     * own language. No script plugin has to be compiled and loaded when the module is configured, and Kotlin build
+     * files do not depend on the Groovy DSL.
+     */
+    INLINE,
+
+    /**
+     * Writes an init script into the ".gradle" directory of the root project, that adds the dependency and applies
+     * the plugin at configuration time to the later builds that are started with "--init-script" pointing to it, see
+     * {@link TraceInitScriptInjector}. The files of the project are not modified, so the compiled build scripts stay
+     * in the caches of Gradle. Requires Gradle, it is not supported by {@link InjectTraceCli}.
+     */
+    INIT_SCRIPT;
+
+    /**
+     * Gets the mode with the given name, case insensitively, for example "inline".
+     *
+     * @param name the name of the mode.
+     * @return the InjectionMode.
+     * @throws IllegalArgumentException when there is no mode with the given name.
+     */
+    static InjectionMode of(final String name) {
+        for (final InjectionMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.replace('-', '_'))) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown injection mode: " + name);
+    }
+}
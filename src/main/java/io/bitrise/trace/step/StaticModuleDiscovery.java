@@ -0,0 +1,730 @@
+package io.bitrise.trace.step;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Discovers the Android application modules of a Gradle project without starting Gradle. The included projects are
+ * read from the settings script, and the build file of each of them is checked with its {@link BuildScriptIndex}, in
+ * parallel. A module is an application when it applies {@link TraceInjector#ANDROID_APPLICATION_PLUGIN_ID}, a
+ * convention plugin named after it (see {@link #isApplicationPluginId(String)}), or a plugin alias of the version
+ * catalog ("gradle/libs.versions.toml") with such an id.
+ * <p>
+ * {@link InjectTraceTask} uses the same scan of the build files to configure only the application modules, see
+ * {@link #scanBuildFiles(List)}, and the same discovery for the builds that the settings script adds with
+ * "includeBuild", see {@link #discoverIncludedBuildModules(Map, InjectionLogger)}.
+ * <p>
+ * Only the common, declarative project layouts can be resolved this way. When the settings script computes the
+ * included projects or their directories, or a module applies plugins in a way that cannot be decided without
+ * evaluating it, an {@link UnresolvableProjectException} is thrown, and {@link InjectTraceTask} has to be used instead.
+ * <p>
+ * The reads of the settings script, the version catalog and the build files are recorded in the
+ * {@link InjectionMetrics#DISCOVERY} phase.
+ */
+final class StaticModuleDiscovery {
+
+    /**
+     * The names of the settings scripts, in the order Gradle looks for them.
+     */
+    private static final List<String> SETTINGS_FILE_NAMES = Arrays.asList("settings.gradle", "settings.gradle.kts");
+
+    /**
+     * The names of the build scripts, in the order Gradle looks for them.
+     */
+    private static final List<String> BUILD_FILE_NAMES = Arrays.asList("build.gradle", "build.gradle.kts");
+
+    /**
+     * The identifiers in settings scripts that change the project layout, so the directories of the projects cannot
+     * be derived from their paths.
+     */
+    private static final Set<String> LAYOUT_CHANGING_IDENTIFIERS =
+            new LinkedHashSet<>(Arrays.asList("projectDir", "buildFileName", "includeFlat"));
+
+    /**
+     * The path of the default version catalog, relative to the root directory.
+     */
+    private static final String VERSION_CATALOG_PATH = "gradle/libs.versions.toml";
+
+    /**
+     * A plugin alias of the default version catalog in a "plugins" block, for example
+     * {@code alias(libs.plugins.android.application)}, the group is the accessor after "libs.plugins.".
+     */
+    private static final Pattern PLUGIN_ALIAS_PATTERN =
+            Pattern.compile("alias\\s*\\(\\s*libs\\.plugins\\.([A-Za-z0-9_.]+)\\s*\\)");
+
+    /**
+     * The number of build files that a single task of {@link #scanBuildFiles(List)} scans without splitting.
+     */
+    private static final int SCAN_THRESHOLD = 8;
+
+    private final File rootDir;
+    private final InjectionLogger logger;
+    private final InjectionMetrics metrics;
+
+    /**
+     * Constructor for class, without collecting the metrics.
+     *
+     * @param rootDir the root directory of the Gradle project.
+     * @param logger  the {@link InjectionLogger} to log the discovery to.
+     */
+    StaticModuleDiscovery(final File rootDir, final InjectionLogger logger) {
+        this(rootDir, logger, new InjectionMetrics());
+    }
+
+    /**
+     * Constructor for class.
+     *
+     * @param rootDir the root directory of the Gradle project.
+     * @param logger  the {@link InjectionLogger} to log the discovery to.
+     * @param metrics the {@link InjectionMetrics} to record the reads of the files in.
+     */
+    StaticModuleDiscovery(final File rootDir, final InjectionLogger logger, final InjectionMetrics metrics) {
+        this.rootDir = rootDir;
+        this.logger = logger;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Discovers the Android application modules of the project. The builds that the settings script includes are not
+     * discovered.
+     *
+     * @return the List of the {@link ApplicationModuleModel}s of the application modules, never empty.
+     * @throws IOException                   when any I/O error occurs with the files of the project.
+     * @throws UnresolvableProjectException when the application modules cannot be discovered without Gradle.
+     */
+    List<ApplicationModuleModel> discoverApplicationModules() throws IOException, UnresolvableProjectException {
+        return discoverApplicationModules(false);
+    }
+
+    /**
+     * Discovers the Android application modules of the project, and optionally the ones of the builds that its
+     * settings script includes, like {@link InjectTraceTask} does with the included builds of Gradle.
+     *
+     * @param includedBuilds {@code true} to discover the included builds too, {@code false} otherwise.
+     * @return the List of the {@link ApplicationModuleModel}s of the application modules, never empty.
+     * @throws IOException                   when any I/O error occurs with the files of the project.
+     * @throws UnresolvableProjectException when the application modules cannot be discovered without Gradle.
+     */
+    List<ApplicationModuleModel> discoverApplicationModules(final boolean includedBuilds)
+            throws IOException, UnresolvableProjectException {
+        final List<ApplicationModuleModel> applicationModules = discoverProjectModules();
+        if (includedBuilds) {
+            applicationModules.addAll(discoverIncludedBuildModules(getIncludedBuildDirs(), logger, metrics));
+        }
+        if (applicationModules.isEmpty()) {
+            throw new UnresolvableProjectException(
+                    "no module with the \"com.android.application\" plugin found in the build files");
+        }
+        return applicationModules;
+    }
+
+    private List<ApplicationModuleModel> discoverProjectModules() throws IOException, UnresolvableProjectException {
+        final List<String> projectPaths = getIncludedProjectPaths();
+        final List<File> buildFiles = new ArrayList<>();
+        for (final String projectPath : projectPaths) {
+            buildFiles.add(findBuildFile(getProjectDir(projectPath)));
+        }
+        final List<BuildFileScan> scans = scanBuildFiles(buildFiles);
+
+        final List<ApplicationModuleModel> applicationModules = new ArrayList<>();
+        for (int i = 0; i < projectPaths.size(); i++) {
+            final ApplicationModuleModel model = createApplicationModuleModel(projectPaths.get(i), scans.get(i));
+            if (model != null) {
+                logger.lifecycle("Project \"{}\" is an Android application! Trace will be ensured for it.",
+                        model.getName());
+                applicationModules.add(model);
+            }
+        }
+        return applicationModules;
+    }
+
+    /**
+     * Discovers the application modules of the given included builds, the builds concurrently. An included build
+     * without application modules, for example one of convention plugins, or one that cannot be discovered without
+     * Gradle, is logged and skipped.
+     *
+     * @param includedBuildDirs the Map of the root directories of the included builds, by the paths of the builds.
+     * @param logger            the {@link InjectionLogger} to log the discovery to.
+     * @param metrics           the {@link InjectionMetrics} to record the reads of the files in.
+     * @return the List of the {@link ApplicationModuleModel}s, in the order of the builds.
+     */
+    static List<ApplicationModuleModel> discoverIncludedBuildModules(final Map<String, File> includedBuildDirs,
+                                                                     final InjectionLogger logger,
+                                                                     final InjectionMetrics metrics) {
+        final List<List<ApplicationModuleModel>> modulesByBuild = includedBuildDirs.entrySet().parallelStream()
+                .map(build -> discoverIncludedBuildModules(build.getKey(), build.getValue(), logger, metrics))
+                .collect(Collectors.toList());
+        final List<ApplicationModuleModel> applicationModules = new ArrayList<>();
+        for (final List<ApplicationModuleModel> modules : modulesByBuild) {
+            applicationModules.addAll(modules);
+        }
+        return applicationModules;
+    }
+
+    /**
+     * Discovers the application modules of an included build.
+     *
+     * @param buildPath the path of the included build.
+     * @param buildDir  the root directory of the included build.
+     * @param logger    the {@link InjectionLogger} to log the discovery to.
+     * @param metrics   the {@link InjectionMetrics} to record the reads of the files in.
+     * @return the List of the {@link ApplicationModuleModel}s in the build, empty when it has none or they cannot be
+     * discovered.
+     */
+    private static List<ApplicationModuleModel> discoverIncludedBuildModules(final String buildPath,
+                                                                             final File buildDir,
+                                                                             final InjectionLogger logger,
+                                                                             final InjectionMetrics metrics) {
+        final List<ApplicationModuleModel> applicationModules = new ArrayList<>();
+        final StaticModuleDiscovery discovery = new StaticModuleDiscovery(buildDir, logger, metrics);
+        try {
+            for (final ApplicationModuleModel model : discovery.discoverApplicationModules()) {
+                applicationModules.add(model.inBuild(buildPath));
+            }
+        } catch (final UnresolvableProjectException e) {
+            logger.lifecycle("Trace is not injected into included build \"{}\": {}", buildPath, e.getMessage());
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return applicationModules;
+    }
+
+    /**
+     * Gets the paths of the projects that the settings script includes, including the parents of nested projects.
+     *
+     * @return the List of the Gradle paths, for example ":app".
+     * @throws IOException                   when any I/O error occurs with the settings script.
+     * @throws UnresolvableProjectException when there is no settings script, or it is not declarative.
+     */
+    List<String> getIncludedProjectPaths() throws IOException, UnresolvableProjectException {
+        final SettingsParser parser = parseSettings();
+        final Set<String> projectPaths = new LinkedHashSet<>();
+        for (final String include : parser.includes) {
+            final String projectPath = include.startsWith(":") ? include : ":" + include;
+            for (int i = projectPath.indexOf(':', 1); i > 0; i = projectPath.indexOf(':', i + 1)) {
+                projectPaths.add(projectPath.substring(0, i));
+            }
+            projectPaths.add(projectPath);
+        }
+        logger.debug("Projects included by the settings script of \"{}\": {}", rootDir, projectPaths);
+        return new ArrayList<>(projectPaths);
+    }
+
+    /**
+     * Gets the root directories of the builds that the settings script includes with "includeBuild", relative to the
+     * root directory. The path of a build is named after its directory, like Gradle names the included builds.
+     *
+     * @return the Map of the root directories, by the paths of the builds, for example ":feature".
+     * @throws IOException                   when any I/O error occurs with the settings script.
+     * @throws UnresolvableProjectException when there is no settings script, or it is not declarative.
+     */
+    Map<String, File> getIncludedBuildDirs() throws IOException, UnresolvableProjectException {
+        final Map<String, File> includedBuildDirs = new LinkedHashMap<>();
+        final File root = rootDir.getCanonicalFile();
+        for (final String includedBuild : parseSettings().includedBuilds) {
+            final File buildDir = new File(root, includedBuild).getCanonicalFile();
+            if (!buildDir.equals(root)) {
+                includedBuildDirs.put(ApplicationModuleModel.ROOT_BUILD_PATH + buildDir.getName(), buildDir);
+            }
+        }
+        logger.debug("Builds included by the settings script of \"{}\": {}", rootDir, includedBuildDirs);
+        return includedBuildDirs;
+    }
+
+    private SettingsParser parseSettings() throws IOException, UnresolvableProjectException {
+        final File settingsFile = findFile(rootDir, SETTINGS_FILE_NAMES);
+        if (settingsFile == null) {
+            throw new UnresolvableProjectException("no settings script found in " + rootDir);
+        }
+        final byte[] bytes = Files.readAllBytes(settingsFile.toPath());
+        metrics.addRead(InjectionMetrics.DISCOVERY, bytes.length);
+        final CharBuffer content = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(bytes));
+        final GradleScriptLexer lexer = GradleScriptLexer.of(content,
+                GradleScriptLexer.isKotlinScript(settingsFile.getName()));
+        final SettingsParser parser = new SettingsParser(lexer);
+        lexer.lex(parser);
+        if (parser.unresolvableReason != null) {
+            throw new UnresolvableProjectException(
+                    String.format("\"%s\" %s", settingsFile.getName(), parser.unresolvableReason));
+        }
+        return parser;
+    }
+
+    /**
+     * Creates the {@link ApplicationModuleModel} of the project on the given path, if it is an Android application.
+     * The Trace dependencies and plugins of the module are looked up in its build file.
+     *
+     * @param projectPath the Gradle path of the project.
+     * @return the created ApplicationModuleModel, or {@code null} if the project is not an Android application.
+     * @throws IOException                   when any I/O error occurs with the build file.
+     * @throws UnresolvableProjectException when it cannot be decided if the project is an Android application.
+     */
+    ApplicationModuleModel createApplicationModuleModel(final String projectPath)
+            throws IOException, UnresolvableProjectException {
+        final File buildFile = findBuildFile(getProjectDir(projectPath));
+        return createApplicationModuleModel(projectPath,
+                scanBuildFile(buildFile, buildFile == null ? Collections.emptyMap() : readCatalogPluginIds(), metrics));
+    }
+
+    /**
+     * Creates the {@link ApplicationModuleModel} of the project on the given path from the scan of its build file.
+     *
+     * @param projectPath the Gradle path of the project.
+     * @param scan        the {@link BuildFileScan} of the build file of the project.
+     * @return the created ApplicationModuleModel, or {@code null} if the project is not an Android application.
+     * @throws IOException                   when any I/O error occurs with the build file.
+     * @throws UnresolvableProjectException when it cannot be decided if the project is an Android application.
+     */
+    private ApplicationModuleModel createApplicationModuleModel(final String projectPath, final BuildFileScan scan)
+            throws IOException, UnresolvableProjectException {
+        if (scan.getBuildFile() == null) {
+            logger.debug("Project \"{}\" does not have a build file.", projectPath);
+            return null;
+        }
+        if (scan.isUnresolvable()) {
+            throw new UnresolvableProjectException(scan.getUnresolvableReason());
+        }
+        if (!scan.isApplication()) {
+            logger.debug("Project \"{}\" is not an Android application!", projectPath);
+            return null;
+        }
+        final File buildFile = scan.getBuildFile();
+        final File projectDir = buildFile.getParentFile();
+        final BuildScriptIndex index = BuildScriptIndex.forFile(buildFile.toPath());
+
+        final Set<String> declaredTraceCoordinates = new LinkedHashSet<>();
+        if (TraceInjector.declaresTraceSdkDependency(index)) {
+            declaredTraceCoordinates.add(
+                    TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME + ":" + TraceInjector.TRACE_SDK_DEPENDENCY_NAME);
+        }
+        final Set<String> buildscriptTraceCoordinates = new LinkedHashSet<>();
+        if (TraceInjector.declaresTraceGradlePluginDependency(index)) {
+            buildscriptTraceCoordinates.add(TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME + ":"
+                    + TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME);
+        }
+        final Set<String> appliedPluginIds = new LinkedHashSet<>();
+        appliedPluginIds.add(TraceInjector.ANDROID_APPLICATION_PLUGIN_ID);
+        if (TraceInjector.appliesTraceGradlePlugin(index)) {
+            appliedPluginIds.add(TraceInjector.TRACE_GRADLE_PLUGIN_ID);
+        }
+
+        final String name = projectPath.substring(projectPath.lastIndexOf(':') + 1);
+        final ApplicationModuleModel model = new ApplicationModuleModel(name, projectPath, projectDir, buildFile,
+                declaredTraceCoordinates, buildscriptTraceCoordinates, appliedPluginIds);
+        logger.debug("Captured {}", model);
+        return model;
+    }
+
+    /**
+     * Scans the given build files for the Android application plugin, in parallel with the common
+     * {@link ForkJoinPool}. The version catalog of the project is read once for all of them.
+     *
+     * @param buildFiles the List of the build files, the elements can be {@code null} or missing files for projects
+     *                   without a build file.
+     * @return the List of the {@link BuildFileScan}s, in the order of the build files.
+     * @throws IOException when any I/O error occurs with the build files or the version catalog.
+     */
+    List<BuildFileScan> scanBuildFiles(final List<File> buildFiles) throws IOException {
+        final Map<String, String> catalogPluginIds = readCatalogPluginIds();
+        final BuildFileScan[] scans = new BuildFileScan[buildFiles.size()];
+        try {
+            ForkJoinPool.commonPool().invoke(
+                    new ScanAction(buildFiles, catalogPluginIds, metrics, scans, 0, scans.length));
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return Arrays.asList(scans);
+    }
+
+    /**
+     * Scans a build file for the Android application plugin. The plugin can be applied with an "apply" statement or
+     * in the "plugins" block, by its id, by the id of a convention plugin, or by a plugin alias of the version
+     * catalog. A "plugins" block statement with "apply false" only adds the plugin to the classpath, and other mentions
+     * of the plugin id, for example in a "plugins.withId" callback, do not apply it.
+     *
+     * @param buildFile        the build file, or {@code null}.
+     * @param catalogPluginIds the plugin ids of the version catalog, by their accessors, see
+     *                         {@link #readCatalogPluginIds()}.
+     * @return the {@link BuildFileScan}.
+     * @throws IOException when any I/O error occurs with the build file.
+     */
+    private static BuildFileScan scanBuildFile(final File buildFile, final Map<String, String> catalogPluginIds,
+                                               final InjectionMetrics metrics) throws IOException {
+        final InjectionEvents.ModuleScan event = InjectionEvents.moduleScan();
+        if (event != null) {
+            event.begin();
+        }
+        final BuildFileScan scan = scanBuildFileContent(buildFile, catalogPluginIds, metrics);
+        if (event != null && event.shouldCommit()) {
+            event.buildFile = buildFile == null ? null : buildFile.getPath();
+            event.bytes = scan.getBuildFile() == null ? 0 : buildFile.length();
+            event.outcome = scan.getBuildFile() == null ? "missing" : scan.isUnresolvable() ? "unresolvable"
+                    : scan.isApplication() ? "application" : "other";
+            event.commit();
+        }
+        return scan;
+    }
+
+    private static BuildFileScan scanBuildFileContent(final File buildFile, final Map<String, String> catalogPluginIds,
+                                                      final InjectionMetrics metrics) throws IOException {
+        if (buildFile == null || !buildFile.isFile()) {
+            return new BuildFileScan(null, false, null);
+        }
+        final BuildScriptIndex index = BuildScriptIndex.forFile(buildFile.toPath());
+        metrics.addRead(InjectionMetrics.DISCOVERY, index.getSize());
+        for (final BuildScriptIndex.ApplyStatement applyStatement : index.getApplyStatements()) {
+            if ("plugin".equals(applyStatement.getKind()) && isApplicationPluginId(applyStatement.getTarget())) {
+                return new BuildFileScan(buildFile, true, null);
+            }
+        }
+        final BuildScriptIndex.Block plugins = index.findBlock("plugins");
+        if (plugins == null) {
+            return new BuildFileScan(buildFile, false, null);
+        }
+        for (final String pluginId : index.getAppliedPluginIds(plugins)) {
+            if (isApplicationPluginId(pluginId)) {
+                return new BuildFileScan(buildFile, true, null);
+            }
+        }
+
+        final String content = index.getContent();
+        final int end = plugins.getCloseBrace() >= 0 ? plugins.getCloseBrace() : content.length();
+        final Matcher matcher = PLUGIN_ALIAS_PATTERN.matcher(content);
+        for (int i = index.indexOfCode("alias", plugins); i >= 0; i = index.indexOfCode("alias", i + 1, end)) {
+            matcher.region(i, end);
+            final boolean alias = matcher.lookingAt();
+            if (alias && !index.isAppliedInPlugins(matcher.end(), plugins)) {
+                continue;
+            }
+            final String pluginId = alias ? catalogPluginIds.get(matcher.group(1)) : null;
+            if (pluginId == null) {
+                return new BuildFileScan(buildFile, false, String.format(
+                        "\"%s\" applies a plugin alias that is not in \"%s\"", buildFile, VERSION_CATALOG_PATH));
+            }
+            if (isApplicationPluginId(pluginId)) {
+                return new BuildFileScan(buildFile, true, null);
+            }
+        }
+        return new BuildFileScan(buildFile, false, null);
+    }
+
+    /**
+     * Checks if the given plugin id is {@link TraceInjector#ANDROID_APPLICATION_PLUGIN_ID}, or a convention plugin for
+     * Android applications, by the common naming of convention plugins, for example "convention.android.application"
+     * or "buildlogic.android-application".
+     *
+     * @param pluginId the id of the plugin.
+     * @return {@code true} if it applies the Android application plugin, {@code false} otherwise.
+     */
+    static boolean isApplicationPluginId(final String pluginId) {
+        final String normalized = pluginId.replace('-', '.').replace('_', '.');
+        return normalized.equals(TraceInjector.ANDROID_APPLICATION_PLUGIN_ID)
+                || normalized.endsWith(".android.application")
+                || normalized.contains(".android.application.");
+    }
+
+    /**
+     * Reads the plugins of the default version catalog of the project, if there is one. Only the declarative
+     * "[plugins]" table is read, for example {@code android-application = { id = "com.android.application" }} or
+     * {@code android-application = "com.android.application:7.0.0"}.
+     *
+     * @return the Map of the plugin ids by their accessors, for example "android.application".
+     * @throws IOException when any I/O error occurs with the version catalog.
+     */
+    Map<String, String> readCatalogPluginIds() throws IOException {
+        final File catalog = new File(rootDir, VERSION_CATALOG_PATH);
+        if (!catalog.isFile()) {
+            return Collections.emptyMap();
+        }
+        final List<String> lines = Files.readAllLines(catalog.toPath(), StandardCharsets.UTF_8);
+        metrics.addRead(InjectionMetrics.DISCOVERY, catalog.length());
+        final Map<String, String> pluginIds = new HashMap<>();
+        boolean inPlugins = false;
+        for (final String rawLine : lines) {
+            final String line = rawLine.trim();
+            if (line.startsWith("[")) {
+                inPlugins = "[plugins]".equals(line.replace(" ", ""));
+                continue;
+            }
+            final int equals = line.indexOf('=');
+            if (!inPlugins || line.startsWith("#") || equals < 0) {
+                continue;
+            }
+            final String accessor = line.substring(0, equals).trim().replace('-', '.').replace('_', '.');
+            final String value = line.substring(equals + 1).trim();
+            final Matcher id = Pattern.compile("\\bid\\s*=\\s*\"([^\"]+)\"").matcher(value);
+            if (value.startsWith("{") && id.find()) {
+                pluginIds.put(accessor, id.group(1));
+            } else if (value.startsWith("\"") && value.indexOf('"', 1) > 0) {
+                final String notation = value.substring(1, value.indexOf('"', 1));
+                pluginIds.put(accessor, notation.contains(":") ? notation.substring(0, notation.indexOf(':'))
+                        : notation);
+            }
+        }
+        logger.debug("Plugins of \"{}\": {}", catalog, pluginIds);
+        return pluginIds;
+    }
+
+    private File getProjectDir(final String projectPath) {
+        return new File(rootDir, projectPath.substring(1).replace(':', File.separatorChar));
+    }
+
+    private static File findBuildFile(final File projectDir) {
+        return findFile(projectDir, BUILD_FILE_NAMES);
+    }
+
+    /**
+     * Finds the first existing file with the given names in a directory.
+     *
+     * @param dir   the directory.
+     * @param names the names of the file, in the order of preference.
+     * @return the file, or {@code null} if none of them exists.
+     */
+    private static File findFile(final File dir, final List<String> names) {
+        for (final String name : names) {
+            final File file = new File(dir, name);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The result of scanning a build file for the Android application plugin.
+     */
+    static final class BuildFileScan {
+
+        private final File buildFile;
+        private final boolean application;
+        private final String unresolvableReason;
+
+        BuildFileScan(final File buildFile, final boolean application, final String unresolvableReason) {
+            this.buildFile = buildFile;
+            this.application = application;
+            this.unresolvableReason = unresolvableReason;
+        }
+
+        /**
+         * Gets the scanned build file.
+         *
+         * @return the build file, or {@code null} if the project does not have one.
+         */
+        File getBuildFile() {
+            return buildFile;
+        }
+
+        /**
+         * Checks if the build file applies the Android application plugin.
+         *
+         * @return {@code true} if it does, {@code false} if it does not, or it cannot be decided.
+         */
+        boolean isApplication() {
+            return application;
+        }
+
+        /**
+         * Checks if it cannot be decided without Gradle whether the build file applies the Android application plugin.
+         *
+         * @return {@code true} if it cannot be decided, {@code false} otherwise.
+         */
+        boolean isUnresolvable() {
+            return unresolvableReason != null;
+        }
+
+        String getUnresolvableReason() {
+            return unresolvableReason;
+        }
+    }
+
+    /**
+     * Scans a range of build files, splitting it while it is larger than {@link #SCAN_THRESHOLD}.
+     */
+    private static final class ScanAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<File> buildFiles;
+        private final transient Map<String, String> catalogPluginIds;
+        private final transient InjectionMetrics metrics;
+        private final transient BuildFileScan[] scans;
+        private final int from;
+        private final int to;
+
+        ScanAction(final List<File> buildFiles, final Map<String, String> catalogPluginIds,
+                   final InjectionMetrics metrics, final BuildFileScan[] scans, final int from, final int to) {
+            this.buildFiles = buildFiles;
+            this.catalogPluginIds = catalogPluginIds;
+            this.metrics = metrics;
+            this.scans = scans;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SCAN_THRESHOLD) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new ScanAction(buildFiles, catalogPluginIds, metrics, scans, from, middle),
+                        new ScanAction(buildFiles, catalogPluginIds, metrics, scans, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                try {
+                    scans[i] = scanBuildFile(buildFiles.get(i), catalogPluginIds, metrics);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown when the application modules of a project cannot be discovered without Gradle.
+     */
+    static final class UnresolvableProjectException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        UnresolvableProjectException(final String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Collects the project paths of the "include" statements of a settings script, for example
+     * {@code include ':app', ':lib'} or {@code include(":app")}, and the directories of the "includeBuild" statements,
+     * for example {@code includeBuild("../feature")}. Sets {@link #unresolvableReason} when an include has an argument
+     * that is not a plain string literal, or the script changes the project layout.
+     */
+    private static final class SettingsParser implements GradleScriptLexer.Listener {
+
+        private final GradleScriptLexer lexer;
+        private final List<String> includes = new ArrayList<>();
+        private final List<String> includedBuilds = new ArrayList<>();
+        private String unresolvableReason;
+
+        private boolean including;
+        private List<String> includeTarget;
+        private String includeKind;
+        private boolean expectingArgument;
+        private int parenthesisDepth;
+
+        SettingsParser(final GradleScriptLexer lexer) {
+            this.lexer = lexer;
+        }
+
+        @Override
+        public void onCode(final int start, final int end) {
+            int i = start;
+            while (i < end) {
+                final char c = lexer.charAt(i);
+                if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.') {
+                    final int tokenStart = i;
+                    while (i < end && (Character.isLetterOrDigit(lexer.charAt(i)) || lexer.charAt(i) == '_'
+                            || lexer.charAt(i) == '$' || lexer.charAt(i) == '.')) {
+                        i++;
+                    }
+                    onIdentifier(getText(tokenStart, i));
+                    continue;
+                }
+                if (including) {
+                    onIncludePunctuation(c);
+                }
+                i++;
+            }
+        }
+
+        @Override
+        public void onString(final int start, final int end) {
+            if (!including) {
+                return;
+            }
+            final String literal = getText(start, end);
+            if (!expectingArgument || literal.length() < 2 || (literal.charAt(0) == '"' && literal.indexOf('$') >= 0)) {
+                unresolvable("includes a computed " + includeKind + ": " + literal);
+                return;
+            }
+            includeTarget.add(literal.substring(1, literal.length() - 1));
+            expectingArgument = false;
+        }
+
+        @Override
+        public void onComment(final int start, final int end, final boolean multiline) {
+            if (multiline && including && parenthesisDepth == 0 && !expectingArgument) {
+                including = false;
+            }
+        }
+
+        private void onIdentifier(final String identifier) {
+            if (LAYOUT_CHANGING_IDENTIFIERS.contains(identifier.substring(identifier.lastIndexOf('.') + 1))) {
+                unresolvable("changes the project layout with \"" + identifier + "\"");
+            } else if ("include".equals(identifier)) {
+                startInclude(includes, "project path");
+            } else if ("includeBuild".equals(identifier)) {
+                startInclude(includedBuilds, "build path");
+            } else if (including) {
+                unresolvable("includes a computed " + includeKind + ": " + identifier);
+            }
+        }
+
+        private void startInclude(final List<String> target, final String kind) {
+            including = true;
+            includeTarget = target;
+            includeKind = kind;
+            expectingArgument = true;
+            parenthesisDepth = 0;
+        }
+
+        private void onIncludePunctuation(final char c) {
+            if (c == '(') {
+                parenthesisDepth++;
+            } else if (c == ')') {
+                parenthesisDepth--;
+                if (parenthesisDepth <= 0) {
+                    including = false;
+                }
+            } else if (c == ',') {
+                expectingArgument = true;
+            } else if (c == '\n' || c == '\r' || c == ';') {
+                if (parenthesisDepth == 0 && !expectingArgument) {
+                    including = false;
+                }
+            } else if (!Character.isWhitespace(c)) {
+                unresolvable("includes a computed " + includeKind + " with \"" + c + "\"");
+            }
+        }
+
+        private void unresolvable(final String reason) {
+            if (unresolvableReason == null) {
+                unresolvableReason = reason;
+            }
+            including = false;
+        }
+
+        private String getText(final int start, final int end) {
+            final StringBuilder stringBuilder = new StringBuilder(end - start);
+            lexer.appendTo(stringBuilder, start, end);
+            return stringBuilder.toString();
+        }
+    }
+}
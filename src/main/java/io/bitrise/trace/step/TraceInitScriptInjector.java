@@ -0,0 +1,285 @@
+package io.bitrise.trace.step;
+
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.dsl.RepositoryHandler;
+import org.gradle.api.initialization.dsl.ScriptHandler;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adds Trace to an Android application module at configuration time, from the init script that {@link InjectTraceTask}
+ * writes in {@link InjectionMode#INIT_SCRIPT}. Nothing is written into the build files of the project, so their
+ * compiled scripts stay in the caches of Gradle.
+ * <p>
+ * The Trace Gradle plugin is added to the buildscript classpath of the module when the classpath is resolved, unless
+ * the buildscript already declares it. The Trace Gradle plugin is applied as soon as the Android application plugin
+ * is, so it sees the module like when the build file applies it, and it can register its own "afterEvaluate" callbacks.
+ * After the module has been evaluated, the Trace SDK dependency is added, unless the module already declares it, with
+ * the same check as {@link InjectTraceTask#hasTraceSdkDependency(DependencyCoordinateIndex)}. The Trace repository is
+ * added with {@code exclusiveContent}, like in the other modes.
+ * <p>
+ * With the {@link TraceOverheadService#MEASURE_OVERHEAD_PROPERTY} Gradle property, the overhead of Trace on the
+ * configuration and the tasks of the modules is measured by a {@link TraceOverheadService}. The configuration time is
+ * the time of applying the Trace Gradle plugin, of its "afterEvaluate" and "projectsEvaluated" callbacks, and of
+ * adding the Trace SDK dependency.
+ */
+public final class TraceInitScriptInjector {
+
+    /**
+     * The default path of the init script, relative to the root project. It is in the project cache directory of
+     * Gradle, so it is not part of the sources, it survives "clean", and it is only applied by the builds that are
+     * started with "--init-script" pointing to it.
+     */
+    static final String INIT_SCRIPT_FILE_PATH = ".gradle/trace/trace.init.gradle";
+
+    private static final Logger logger = Logging.getLogger(TraceInitScriptInjector.class);
+
+    private final TraceVersions traceVersions;
+    private final String repositoryUrl;
+
+    /**
+     * Constructor for class, called from the init script.
+     *
+     * @param sdkVersion          the version of {@link TraceInjector#TRACE_SDK_DEPENDENCY_NAME}.
+     * @param gradlePluginVersion the version of {@link TraceInjector#TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     * @param repositoryUrl       the URL of the Maven repository of the Trace artifacts.
+     */
+    public TraceInitScriptInjector(final String sdkVersion, final String gradlePluginVersion,
+                                   final String repositoryUrl) {
+        this.traceVersions = new TraceVersions(sdkVersion, gradlePluginVersion);
+        this.repositoryUrl = repositoryUrl;
+    }
+
+    /**
+     * Registers the injection on the given project. It has to be called before the project is evaluated, the init
+     * script calls it from {@code gradle.beforeProject}.
+     *
+     * @param project the {@link Project} of the application module.
+     */
+    public void apply(final Project project) {
+        final Provider<TraceOverheadService> overhead =
+                TraceOverheadService.isOverheadMeasured(project) ? TraceOverheadService.register(project) : null;
+        final ScriptHandler buildscript = project.getBuildscript();
+        final Configuration classpath =
+                buildscript.getConfigurations().getByName(ScriptHandler.CLASSPATH_CONFIGURATION);
+        classpath.withDependencies(dependencies -> {
+            if (!InjectTraceTask.hasTraceGradlePluginDependency(
+                    DependencyCoordinateIndex.of(buildscript.getConfigurations()))) {
+                addTraceRepository(buildscript.getRepositories());
+                dependencies.add(buildscript.getDependencies().create(
+                        TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME + ":"
+                                + TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME + ":"
+                                + traceVersions.getGradlePluginVersion()));
+            }
+        });
+        project.getPluginManager().withPlugin(TraceInjector.ANDROID_APPLICATION_PLUGIN_ID, androidPlugin -> {
+            if (!InjectTraceTask.isTraceGradlePluginApplied(project)) {
+                applyTraceGradlePlugin(project, overhead);
+            }
+        });
+        project.afterEvaluate(evaluated -> {
+            if (evaluated.getState().getFailure() == null) {
+                final long start = System.nanoTime();
+                final boolean application = ensureTraceSdkDependency(evaluated);
+                if (overhead != null && application) {
+                    overhead.get().addConfigurationTime(evaluated, System.nanoTime() - start);
+                    collectTraceTasksWhenEvaluated(evaluated, overhead);
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the Trace Gradle plugin to the given project. When the overhead is measured, the callbacks that the
+     * plugin registers with "afterEvaluate" and "projectsEvaluated" are timed too: Gradle runs the callbacks in the
+     * order of their registration, so the plugin's ones run between a callback registered right before it is applied
+     * and one registered right after. The callbacks that those register in turn are not timed.
+     *
+     * @param project  the {@link Project} of the application module.
+     * @param overhead the Provider of the {@link TraceOverheadService}, or {@code null} when the overhead is not
+     *                 measured.
+     */
+    private static void applyTraceGradlePlugin(final Project project, final Provider<TraceOverheadService> overhead) {
+        if (overhead == null) {
+            project.getPluginManager().apply(TraceInjector.TRACE_GRADLE_PLUGIN_ID);
+            return;
+        }
+        final long[] callbackStarts = new long[2];
+        project.afterEvaluate(evaluated -> callbackStarts[0] = System.nanoTime());
+        project.getGradle().projectsEvaluated(gradle -> callbackStarts[1] = System.nanoTime());
+        final long start = System.nanoTime();
+        project.getPluginManager().apply(TraceInjector.TRACE_GRADLE_PLUGIN_ID);
+        overhead.get().addConfigurationTime(project, System.nanoTime() - start);
+        project.afterEvaluate(evaluated ->
+                overhead.get().addConfigurationTime(evaluated, System.nanoTime() - callbackStarts[0]));
+        project.getGradle().projectsEvaluated(gradle ->
+                overhead.get().addConfigurationTime(project, System.nanoTime() - callbackStarts[1]));
+    }
+
+    /**
+     * Adds the Trace SDK dependency to the evaluated project, when it is an Android application and it does not
+     * declare the dependency yet.
+     *
+     * @param project the evaluated {@link Project}.
+     * @return {@code true} if the project is an Android application, {@code false} otherwise.
+     */
+    private boolean ensureTraceSdkDependency(final Project project) {
+        if (!project.getPluginManager().hasPlugin(TraceInjector.ANDROID_APPLICATION_PLUGIN_ID)) {
+            logger.info("Project \"{}\" is not an Android application, Trace is not added to it.", project.getPath());
+            return false;
+        }
+        if (!InjectTraceTask.hasTraceSdkDependency(
+                DependencyCoordinateIndex.ofDeclarableConfigurations(project.getConfigurations()))) {
+            addTraceRepository(project.getRepositories());
+            project.getDependencies().add("implementation", TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME + ":"
+                    + TraceInjector.TRACE_SDK_DEPENDENCY_NAME + ":" + traceVersions.getSdkVersion());
+        }
+        logger.info("Trace is added to project \"{}\" by the init script.", project.getPath());
+        return true;
+    }
+
+    /**
+     * Collects the tasks of the Trace Gradle plugin in the given project for the {@link TraceOverheadService}, when
+     * all the projects have been evaluated, so the tasks of the variants are registered.
+     *
+     * @param project  the evaluated {@link Project}.
+     * @param overhead the Provider of the TraceOverheadService.
+     */
+    private static void collectTraceTasksWhenEvaluated(final Project project,
+                                                       final Provider<TraceOverheadService> overhead) {
+        final Object plugin = project.getPlugins().findPlugin(TraceInjector.TRACE_GRADLE_PLUGIN_ID);
+        final String pluginClassName = plugin == null ? "" : plugin.getClass().getName();
+        final String pluginPackage = pluginClassName.substring(0, pluginClassName.lastIndexOf('.') + 1);
+        if (pluginPackage.isEmpty()) {
+            logger.info("The tasks of the Trace Gradle plugin are not counted in project \"{}\".", project.getPath());
+            return;
+        }
+        project.getGradle().projectsEvaluated(gradle -> overhead.get().collectTraceTasks(project, pluginPackage));
+    }
+
+    /**
+     * Adds the Trace repository as the only repository of the Trace groups.
+     *
+     * @param repositories the {@link RepositoryHandler} to add the repository to.
+     */
+    private void addTraceRepository(final RepositoryHandler repositories) {
+        repositories.exclusiveContent(exclusiveContent -> {
+            exclusiveContent.forRepository(() -> repositories.maven(repository -> repository.setUrl(repositoryUrl)));
+            exclusiveContent.filter(filter -> {
+                filter.includeGroup(TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME);
+                filter.includeGroup(TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME);
+            });
+        });
+    }
+
+    /**
+     * Gets the content of the init script that adds Trace to the given application modules of a project with a
+     * TraceInitScriptInjector. The modules are given by the root directories of their builds, the root build and its
+     * included builds, and the init script only acts on the builds of those directories, so it has no effect on the
+     * other builds that it is passed to.
+     *
+     * @param injectorClasspath    the classpath of the TraceInitScriptInjector, a jar or a classes directory.
+     * @param modulePathsByRootDir the Gradle paths of the application modules, by the root directories of their
+     *                             builds, the root build first.
+     * @param traceVersions        the {@link TraceVersions} to add.
+     * @param repositoryUrl        the URL of the Maven repository of the Trace artifacts.
+     * @return the content of the init script.
+     */
+    static String getInitScriptContent(final File injectorClasspath, final Map<File, List<String>> modulePathsByRootDir,
+                                       final TraceVersions traceVersions, final String repositoryUrl) {
+        final StringBuilder modules = new StringBuilder();
+        for (final Map.Entry<File, List<String>> entry : modulePathsByRootDir.entrySet()) {
+            modules.append("    (new File(").append(TraceInjector.toStringLiteral(entry.getKey().getAbsolutePath()))
+                    .append(")): [");
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                modules.append(i > 0 ? ", " : "").append(TraceInjector.toStringLiteral(entry.getValue().get(i)));
+            }
+            modules.append("],\n");
+        }
+        final String projectName = modulePathsByRootDir.isEmpty()
+                ? "the project" : modulePathsByRootDir.keySet().iterator().next().getName();
+        return "// Generated by InjectTraceTask. Adds Trace to the Android application modules of " + projectName
+                + " at configuration\n"
+                + "// time, without modifying their build files. Delete this file to remove Trace from the builds.\n"
+                + "initscript {\n"
+                + "    dependencies {\n"
+                + "        classpath files(" + TraceInjector.toStringLiteral(injectorClasspath.getAbsolutePath())
+                + ")\n"
+                + "    }\n"
+                + "}\n"
+                + "\n"
+                + "def traceApplicationModules = [\n"
+                + modules
+                + "]\n"
+                + "def traceInjector = new " + TraceInitScriptInjector.class.getName() + "("
+                + TraceInjector.toStringLiteral(traceVersions.getSdkVersion()) + ", "
+                + TraceInjector.toStringLiteral(traceVersions.getGradlePluginVersion()) + ", "
+                + TraceInjector.toStringLiteral(repositoryUrl) + ")\n"
+                + "\n"
+                + "gradle.beforeProject { project ->\n"
+                + "    if (traceApplicationModules[project.rootDir]?.contains(project.path)) {\n"
+                + "        traceInjector.apply(project)\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    /**
+     * Verifies that the given init script adds Trace to the given application modules: that it exists, its injector
+     * classpath exists, and it lists each module under the root directory of its build.
+     *
+     * @param initScript           the init script.
+     * @param modulePathsByRootDir the Gradle paths of the application modules, by the root directories of their
+     *                             builds.
+     * @return the modules that the init script does not add Trace to, by their paths and the root directories of
+     * their builds, empty if there is none.
+     * @throws IOException when the init script cannot be read.
+     */
+    static List<String> verifyInitScript(final File initScript, final Map<File, List<String>> modulePathsByRootDir)
+            throws IOException {
+        final List<String> lines = initScript.isFile()
+                ? Files.readAllLines(initScript.toPath(), StandardCharsets.UTF_8) : new ArrayList<>();
+        final boolean hasInjector = lines.stream()
+                .filter(line -> line.trim().startsWith("classpath files("))
+                .map(line -> line.trim().substring("classpath files(".length(), line.trim().length() - 1))
+                .anyMatch(literal -> new File(fromStringLiteral(literal)).exists());
+        final List<String> missing = new ArrayList<>();
+        for (final Map.Entry<File, List<String>> entry : modulePathsByRootDir.entrySet()) {
+            final String rootDirPrefix =
+                    "    (new File(" + TraceInjector.toStringLiteral(entry.getKey().getAbsolutePath()) + ")): [";
+            final String moduleLine = lines.stream().filter(line -> line.startsWith(rootDirPrefix)).findFirst()
+                    .orElse(null);
+            for (final String modulePath : entry.getValue()) {
+                if (!hasInjector || moduleLine == null
+                        || !moduleLine.contains(TraceInjector.toStringLiteral(modulePath))) {
+                    missing.add(modulePath + " of " + entry.getKey());
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Gets the value of a string literal written by {@link TraceInjector#toStringLiteral(String)}.
+     *
+     * @param literal the string literal, with its quotes.
+     * @return the value of the literal.
+     */
+    private static String fromStringLiteral(final String literal) {
+        final StringBuilder value = new StringBuilder(literal.length());
+        for (int i = 1; i < literal.length() - 1; i++) {
+            final char c = literal.charAt(i);
+            value.append(c == '\\' && i + 1 < literal.length() - 1 ? literal.charAt(++i) : c);
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,876 @@
+package io.bitrise.trace.step;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Injects the required Gradle file changes to add Trace to an Android application module. The injected versions are
+ * given by {@link TraceVersions}, which are either pinned by {@link TraceVersionResolver}, or the dynamic versions
+ * of 'traceSdk.gradle' and {@link #TRACE_GRADLE_PLUGIN_VERSION}.
+ * <p>
+ * It works only on {@link ApplicationModuleModel}s and the files of the modules, and does not depend on Gradle, so
+ * the same rewrite rules are used by {@link InjectTraceTask} and by {@link InjectTraceCli}, which runs without
+ * starting Gradle. The dependency and the plugin are added as configured by the {@link InjectionMode}.
+ */
+final class TraceInjector {
+
+    //region Constants
+    /**
+     * The name of the  dependency for the 'trace-sdk'.
+     */
+    static final String TRACE_SDK_DEPENDENCY_NAME = "trace-sdk";
+
+    /**
+     * The group of the  dependency for {@link #TRACE_SDK_DEPENDENCY_NAME}.
+     */
+    static final String TRACE_SDK_DEPENDENCY_GROUP_NAME = "io.bitrise.trace";
+
+    /**
+     * The name of the Gradle file that contains the dependency for the {@link #TRACE_SDK_DEPENDENCY_NAME} project.
+     */
+    static final String TRACE_SDK_GRADLE_FILE_NAME = "traceSdk.gradle";
+
+    /**
+     * The name of the  dependency for the 'trace-gradle-plugin'.
+     */
+    static final String TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME = "trace-gradle-plugin";
+
+    /**
+     * The group of the  dependency for {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     */
+    static final String TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME = "io.bitrise.trace.plugin";
+
+    /**
+     * The name of the Gradle file that contains the dependency for the {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}
+     * project.
+     */
+    static final String TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME = "tracePlugin.gradle";
+
+    /**
+     * The dynamic version of {@link #TRACE_SDK_DEPENDENCY_NAME}, which is injected when no version is pinned. It is
+     * the same as the version in {@link #TRACE_SDK_GRADLE_FILE_NAME}.
+     */
+    static final String TRACE_SDK_VERSION = "+";
+
+    /**
+     * The dynamic version of {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}, which is injected when no version is
+     * pinned. Note: for the version of {@link #TRACE_SDK_DEPENDENCY_NAME} check traceSdk.gradle.
+     */
+    static final String TRACE_GRADLE_PLUGIN_VERSION = "+";
+
+    /**
+     * The id of the {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} plugin.
+     */
+    static final String TRACE_GRADLE_PLUGIN_ID = TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME;
+
+    /**
+     * The id of the plugin that Android application modules apply.
+     */
+    static final String ANDROID_APPLICATION_PLUGIN_ID = "com.android.application";
+
+    /**
+     * Environment variable name for the source code of the step.
+     */
+    static final String BITRISE_STEP_SRC_ENV = "BITRISE_STEP_SOURCE_DIR";
+
+    /**
+     * The path of the directory, relative to the build directory of the root project, that stores the state of the
+     * last injection for each application module.
+     */
+    static final String INJECTION_STATE_DIR_PATH = "trace/injectTrace";
+
+    /**
+     * The extension of the files in {@link #INJECTION_STATE_DIR_PATH}.
+     */
+    static final String INJECTION_STATE_FILE_EXTENSION = ".state";
+
+    /**
+     * The key of the overall result of the injection for a module in its state file.
+     */
+    static final String INJECTION_RESULT_KEY = "result";
+
+    /**
+     * The key of the path of the build of a module in its state file, see
+     * {@link ApplicationModuleModel#getBuildPath()}.
+     */
+    static final String INJECTION_BUILD_KEY = "build";
+
+    /**
+     * The key of the result of the verification for a module in its state file, see
+     * {@link #verifyTrace(ApplicationModuleModel)}.
+     */
+    static final String VERIFICATION_RESULT_KEY = "verification";
+    //endregion
+
+    private final InjectionLogger logger;
+    private final InjectionMode mode;
+    private final TraceVersions versions;
+    private final String repositoryUrl;
+    private final FileLocks fileLocks;
+    private final InjectionMetrics metrics = new InjectionMetrics();
+
+    /**
+     * Constructor for class, with {@link InjectionMode#SCRIPT_PLUGIN}, {@link TraceVersions#DYNAMIC} and
+     * {@link TraceVersionResolver#DEFAULT_REPOSITORY_URL}.
+     *
+     * @param logger the {@link InjectionLogger} to log the steps of the injection to.
+     */
+    TraceInjector(final InjectionLogger logger) {
+        this(logger, InjectionMode.SCRIPT_PLUGIN, TraceVersions.DYNAMIC, TraceVersionResolver.DEFAULT_REPOSITORY_URL);
+    }
+
+    /**
+     * Constructor for class.
+     *
+     * @param logger        the {@link InjectionLogger} to log the steps of the injection to.
+     * @param mode          the {@link InjectionMode} of the injection.
+     * @param versions      the {@link TraceVersions} to inject.
+     * @param repositoryUrl the URL of the Maven repository of the Trace artifacts, see
+     *                      {@link #getTraceRepository(String, String)}.
+     */
+    TraceInjector(final InjectionLogger logger, final InjectionMode mode, final TraceVersions versions,
+                  final String repositoryUrl) {
+        this(logger, mode, versions, repositoryUrl, FileLocks.DEFAULT);
+    }
+
+    /**
+     * Constructor for class.
+     *
+     * @param logger        the {@link InjectionLogger} to log the steps of the injection to.
+     * @param mode          the {@link InjectionMode} of the injection.
+     * @param versions      the {@link TraceVersions} to inject.
+     * @param repositoryUrl the URL of the Maven repository of the Trace artifacts, see
+     *                      {@link #getTraceRepository(String, String)}.
+     * @param fileLocks     the {@link FileLocks} to lock the written files with.
+     */
+    TraceInjector(final InjectionLogger logger, final InjectionMode mode, final TraceVersions versions,
+                  final String repositoryUrl, final FileLocks fileLocks) {
+        this.logger = logger;
+        this.mode = mode;
+        this.versions = versions;
+        this.repositoryUrl = repositoryUrl;
+        this.fileLocks = fileLocks;
+    }
+
+    /**
+     * Gets the {@link InjectionMetrics} of the injections and the verifications of this TraceInjector.
+     *
+     * @return the InjectionMetrics.
+     */
+    InjectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    //region Injection
+
+    /**
+     * Ensures that the given application module has all the required Trace dependencies and plugins:
+     * <ul>
+     *     <li>ensures {@link #TRACE_SDK_DEPENDENCY_NAME} is a dependency to the app module</li>
+     *     <li>ensures {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} is a buildscript dependency for the app module</li>
+     *     <li>ensures that {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} is applied as a plugin on the app</li>
+     * </ul>
+     * The changes are collected in a {@link BuildFileEditPlan}, so each file of the module is written at most once,
+     * after all the changes are known. Each change is timed as a phase of {@link #getMetrics()}, named after its
+     * method, and the whole injection is an {@link InjectionEvents.ModuleInjection} event.
+     *
+     * @param appModule the {@link ApplicationModuleModel} of the app.
+     * @return the Map of the changes and their outcome, "injected" or "present".
+     * @throws IOException when any I/O error occurs with the files of the module.
+     */
+    Map<String, String> injectTrace(final ApplicationModuleModel appModule) throws IOException {
+        final InjectionEvents.ModuleInjection event = InjectionEvents.moduleInjection();
+        if (event != null) {
+            event.begin();
+        }
+        String outcome = "failed";
+        try {
+            final Map<String, String> injectionState = ensureTrace(appModule);
+            outcome = getInjectionResult(injectionState);
+            return injectionState;
+        } finally {
+            if (event != null && event.shouldCommit()) {
+                event.project = appModule.getIdentityPath();
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    private Map<String, String> ensureTrace(final ApplicationModuleModel appModule) throws IOException {
+        final Map<String, String> injectionState = new LinkedHashMap<>();
+        final BuildFileEditPlan plan = new BuildFileEditPlan(fileLocks, metrics);
+        metrics.increment(InjectionMetrics.APPLICATION_MODULES, 1);
+        try (final InjectionMetrics.Timer ignored = metrics.time("ensureTraceSdkDependency")) {
+            ensureTraceSdkDependency(plan, appModule, injectionState);
+        }
+        try (final InjectionMetrics.Timer ignored = metrics.time("ensureTraceGradlePluginDependency")) {
+            ensureTraceGradlePluginDependency(plan, appModule, injectionState);
+        }
+        try (final InjectionMetrics.Timer ignored = metrics.time("ensureTraceGradlePluginIsApplied")) {
+            ensureTraceGradlePluginIsApplied(plan, appModule, injectionState);
+        }
+        for (final Path file : plan.apply()) {
+            logger.debug("Wrote \"{}\".", file);
+        }
+        return injectionState;
+    }
+
+    /**
+     * Gets the overall result of an injection from its changes: "success" if anything has been injected, "skipped"
+     * otherwise.
+     *
+     * @param injectionState the Map of the changes and their outcome.
+     * @return the result.
+     */
+    static String getInjectionResult(final Map<String, String> injectionState) {
+        return injectionState.containsValue("injected") ? "success" : "skipped";
+    }
+
+    /**
+     * Verifies that the given application module has all the Trace dependencies and plugins after the injection. Each
+     * of them has to be either present in the module before the injection, or declared in the current content of its
+     * build file, so only the build file of the module is read again.
+     *
+     * @param appModule the {@link ApplicationModuleModel} of the app, captured before the injection.
+     * @return the List of the names of the missing dependencies and plugins, empty if the verification passed.
+     * @throws IOException when any I/O error occurs with the build file of the module.
+     */
+    List<String> verifyTrace(final ApplicationModuleModel appModule) throws IOException {
+        try (final InjectionMetrics.Timer ignored = metrics.time(InjectionMetrics.VERIFICATION)) {
+            return verifyTraceTimed(appModule);
+        }
+    }
+
+    private List<String> verifyTraceTimed(final ApplicationModuleModel appModule) throws IOException {
+        final BuildScriptIndex index = BuildScriptIndex.forFile(appModule.getBuildFile().toPath());
+        metrics.addRead(InjectionMetrics.VERIFICATION, index.getSize());
+        final List<String> missing = new ArrayList<>();
+        if (!appModule.hasDependency(TRACE_SDK_DEPENDENCY_GROUP_NAME, TRACE_SDK_DEPENDENCY_NAME)
+                && !declaresTraceSdkDependency(index)) {
+            missing.add(TRACE_SDK_DEPENDENCY_NAME);
+        }
+        if (!appModule.hasBuildscriptDependency(TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME,
+                TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME) && !declaresTraceGradlePluginDependency(index)) {
+            missing.add(TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME);
+        }
+        if (!appModule.hasPlugin(TRACE_GRADLE_PLUGIN_ID) && !appliesTraceGradlePlugin(index)) {
+            missing.add(TRACE_GRADLE_PLUGIN_ID);
+        }
+        if (missing.isEmpty()) {
+            logger.info("Verified Trace for project \"{}\".", appModule.getIdentityPath());
+        } else {
+            logger.lifecycle("Trace verification failed for project \"{}\", missing: {}",
+                    appModule.getIdentityPath(), missing);
+        }
+        return missing;
+    }
+
+    /**
+     * Gets the result of a verification for the state file, "passed" or "failed" with the missing items.
+     *
+     * @param missing the List of the missing dependencies and plugins, see
+     *                {@link #verifyTrace(ApplicationModuleModel)}.
+     * @return the result.
+     */
+    static String getVerificationResult(final List<String> missing) {
+        return missing.isEmpty() ? "passed" : "failed " + missing;
+    }
+
+    /**
+     * Checks if the given build script declares a dependency on {@link #TRACE_SDK_DEPENDENCY_NAME}, directly or by
+     * applying {@link #TRACE_SDK_GRADLE_FILE_NAME}.
+     *
+     * @param index the {@link BuildScriptIndex} of the build script.
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    static boolean declaresTraceSdkDependency(final BuildScriptIndex index) {
+        return index.hasStringContaining(TRACE_SDK_DEPENDENCY_GROUP_NAME + ":" + TRACE_SDK_DEPENDENCY_NAME)
+                || index.hasApplyStatement("from", TRACE_SDK_GRADLE_FILE_NAME);
+    }
+
+    /**
+     * Checks if the given build script declares a buildscript dependency on
+     * {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     *
+     * @param index the {@link BuildScriptIndex} of the build script.
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    static boolean declaresTraceGradlePluginDependency(final BuildScriptIndex index) {
+        return index.hasStringContaining(
+                TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME + ":" + TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME);
+    }
+
+    /**
+     * Checks if the given build script applies {@link #TRACE_GRADLE_PLUGIN_ID}, with an "apply" statement, in the
+     * top level "plugins" block without "apply false", or by applying {@link #TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME}.
+     * Other string literals of the id do not count, for example the group filter of the Trace repository, which has
+     * the same value. It decides both the injection and its verification.
+     *
+     * @param index the {@link BuildScriptIndex} of the build script.
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    static boolean appliesTraceGradlePlugin(final BuildScriptIndex index) {
+        if (index.hasApplyStatement("plugin", TRACE_GRADLE_PLUGIN_ID)
+                || index.hasApplyStatement("from", TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME)) {
+            return true;
+        }
+        for (final BuildScriptIndex.Block block : index.getBlocks()) {
+            if (block.getQualifiedName().equals("plugins") && index.appliesPlugin(block, TRACE_GRADLE_PLUGIN_ID)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the state of the injection of a module to the given file. The content only depends on the result of the
+     * injection, so the file is identical between runs that did the same.
+     *
+     * @param stateFile the file to write.
+     * @param appModule the {@link ApplicationModuleModel} of the app.
+     * @param state     the Map of the injected changes and their outcome.
+     * @throws IOException when any I/O error occurs with the file.
+     */
+    void writeInjectionState(final File stateFile, final ApplicationModuleModel appModule,
+                             final Map<String, String> state) throws IOException {
+        final StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("module=").append(appModule.getIdentityPath()).append("\n");
+        stringBuilder.append(INJECTION_BUILD_KEY).append("=").append(appModule.getBuildPath()).append("\n");
+        stringBuilder.append("buildFile=").append(appModule.getBuildFile().getName()).append("\n");
+        for (final Map.Entry<String, String> entry : state.entrySet()) {
+            stringBuilder.append(entry.getKey()).append("=").append(entry.getValue()).append("\n");
+        }
+        Files.createDirectories(stateFile.getParentFile().toPath());
+        try (final FileLocks.Handle ignored = fileLocks.lock(stateFile.toPath())) {
+            Files.write(stateFile.toPath(), stringBuilder.toString().getBytes());
+        }
+        logger.debug("Wrote injection state to \"{}\".", stateFile);
+    }
+
+    /**
+     * Gets the name of the state file for the given module, in {@link #INJECTION_STATE_DIR_PATH}.
+     *
+     * @param appModule the {@link ApplicationModuleModel} of the app.
+     * @return the name of the file.
+     */
+    static String getInjectionStateFileName(final ApplicationModuleModel appModule) {
+        return appModule.getIdentityPath().replaceFirst("^:", "").replace(':', '_') + INJECTION_STATE_FILE_EXTENSION;
+    }
+    //endregion
+
+    //region Ensure dependency for 'trace-sdk'
+
+    /**
+     * Ensures that the given module has dependency on {@link #TRACE_SDK_DEPENDENCY_NAME}. A dependency that the build
+     * file already declares is kept, even when the model was captured before it was injected, so a repeated injection
+     * never duplicates it.
+     *
+     * @param plan           the {@link BuildFileEditPlan} to add the changes to.
+     * @param appModule      the {@link ApplicationModuleModel} of the app.
+     * @param injectionState the Map to record the outcome in.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    private void ensureTraceSdkDependency(final BuildFileEditPlan plan, final ApplicationModuleModel appModule,
+                                          final Map<String, String> injectionState) throws IOException {
+        if (appModule.hasDependency(TRACE_SDK_DEPENDENCY_GROUP_NAME, TRACE_SDK_DEPENDENCY_NAME)
+                || declaresTraceSdkDependency(plan.getIndex(appModule.getBuildFile().toPath()))) {
+            logger.lifecycle("Skipping injecting the dependency. Please make sure that in your build.gradle files the " +
+                    "dependency is defined for all the required configurations! For more information please " +
+                    "check the README.md of \"trace-android-sdk\" " +
+                    "(https://github.com/bitrise-io/trace-android-sdk/blob/main/README.md)");
+            injectionState.put(TRACE_SDK_DEPENDENCY_NAME, "present");
+        } else {
+            logger.lifecycle("Adding dependency on  \"{}\" for project \"{}\".", TRACE_SDK_DEPENDENCY_NAME,
+                    appModule.getName());
+            addTraceSdkDependency(plan, appModule);
+            injectionState.put(TRACE_SDK_DEPENDENCY_NAME, "injected");
+        }
+    }
+
+    /**
+     * Injects the code for adding {@link #TRACE_SDK_DEPENDENCY_NAME} as a dependency to the given Android
+     * application. With {@link InjectionMode#SCRIPT_PLUGIN} copies {@link #TRACE_SDK_GRADLE_FILE_NAME} to the project
+     * and applies it, with {@link InjectionMode#INLINE} inserts the dependency into the build file.
+     *
+     * @param plan      the {@link BuildFileEditPlan} to add the changes to.
+     * @param appModule the {@link ApplicationModuleModel} of the Android app.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    private void addTraceSdkDependency(final BuildFileEditPlan plan, final ApplicationModuleModel appModule)
+            throws IOException {
+        if (mode == InjectionMode.INLINE) {
+            insertTraceSdkDependency(plan, appModule.getBuildFile().getPath());
+            return;
+        }
+        copyGradleFile(plan, appModule.getProjectDir().getPath(), TRACE_SDK_GRADLE_FILE_NAME);
+        appendTraceDependency(plan, appModule.getBuildFile().getPath(), TRACE_SDK_GRADLE_FILE_NAME);
+    }
+    //endregion
+
+    //region Ensure dependency for 'trace-gradle-plugin'
+
+    /**
+     * Ensures that the given module has dependency on {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}. A dependency that
+     * the build file already declares is kept, like in
+     * {@link #ensureTraceSdkDependency(BuildFileEditPlan, ApplicationModuleModel, Map)}.
+     *
+     * @param plan           the {@link BuildFileEditPlan} to add the changes to.
+     * @param appModule      the {@link ApplicationModuleModel} of the app.
+     * @param injectionState the Map to record the outcome in.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    private void ensureTraceGradlePluginDependency(final BuildFileEditPlan plan,
+                                                   final ApplicationModuleModel appModule,
+                                                   final Map<String, String> injectionState)
+            throws IOException {
+        if (appModule.hasBuildscriptDependency(TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME,
+                TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME)
+                || declaresTraceGradlePluginDependency(plan.getIndex(appModule.getBuildFile().toPath()))) {
+            logger.lifecycle(
+                    "Skipping injecting the dependency. Please make sure that in your build.gradle files the " +
+                            "dependency is defined for all the required configurations! For more information please " +
+                            "check the README.md of \"trace-android-sdk\"");
+            injectionState.put(TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME, "present");
+        } else {
+            logger.lifecycle("Adding dependency on  \"{}\" for project \"{}\".", TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME,
+                    appModule.getName());
+            addTraceGradlePluginDependency(plan, appModule.getBuildFile().getPath());
+            injectionState.put(TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME, "injected");
+        }
+    }
+
+    /**
+     * Injects the code for adding {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} as a plugin to the given Android
+     * application.
+     *
+     * @param plan            the {@link BuildFileEditPlan} to add the changes to.
+     * @param buildGradlePath the path of the build.gradle file in the app module.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    private void addTraceGradlePluginDependency(final BuildFileEditPlan plan, final String buildGradlePath)
+            throws IOException {
+        if (updateBuildScriptContent(plan, buildGradlePath)) {
+            logger.info("Updated buildscript block of \"{}\".", buildGradlePath);
+        } else {
+            logger.debug(" \"{}\" does not have a buildscript block, adding it.", buildGradlePath);
+            insertDependencyWithBuildScriptClosure(plan, buildGradlePath);
+        }
+    }
+
+    /**
+     * When adding {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} to the given project and it does have a buildscript
+     * block in it's build.gradle, this method updates the buildscript closure. Injects the dependency on the
+     * {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} and adds the Trace repository. If the buildscript closure is not
+     * present does nothing and returns {@code false}. The closure is looked up in the {@link BuildScriptIndex} of the
+     * file, and the content is inserted in the original file when the plan is applied, so the rest of the file,
+     * including its comments, is kept as it is.
+     *
+     * @param plan the {@link BuildFileEditPlan} to add the change to.
+     * @param path the path of the file.
+     * @return {@code true} if the buildscript block has been updated, {@code false otherwise}.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    boolean updateBuildScriptContent(final BuildFileEditPlan plan, final String path) throws IOException {
+        final Path buildFile = Paths.get(path);
+        final BuildScriptIndex.Block buildscript = plan.getIndex(buildFile).findBlock("buildscript");
+        if (buildscript == null) {
+            return false;
+        }
+        final String insertion = getBuildScriptInsertion(versions.getGradlePluginVersion(), repositoryUrl);
+        plan.insert(buildFile, buildscript.getOpenBrace() + 1, insertion);
+        logger.debug("Updated \"{}\" with new buildscript content: \n\"{}\"", path, insertion);
+        return true;
+    }
+
+    /**
+     * When adding {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} to the given project and it does not have a
+     * buildscript block in it's build.gradle, this method updates the given build.gradle file, inserts the dependency
+     * for {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} with a new buildscript closure.
+     *
+     * @param plan            the {@link BuildFileEditPlan} to add the change to.
+     * @param buildGradlePath the path of the build.gradle.
+     * @throws IOException when any I/O error occurs with the file on the buildGradlePath.
+     */
+    private void insertDependencyWithBuildScriptClosure(final BuildFileEditPlan plan, final String buildGradlePath)
+            throws IOException {
+        final String buildscriptClosure = "\nbuildscript {\n" +
+                "%s\n" +
+                "%s\n" +
+                "}";
+        appendContentToFile(plan, buildGradlePath, String.format(buildscriptClosure,
+                getTraceGradlePluginDependency(versions.getGradlePluginVersion()),
+                getBuildScriptRepositoryContent(repositoryUrl)));
+    }
+
+
+    /**
+     * Gets the content for updating the buildscript with a new dependency on
+     * {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}. It is inserted right after the opening of the buildscript block.
+     *
+     * @param version       the version of {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     * @param repositoryUrl the URL of the Trace repository.
+     * @return the content that should be in the build.gradle.
+     */
+    private static String getBuildScriptInsertion(final String version, final String repositoryUrl) {
+        return getTraceGradlePluginDependency(version) + getBuildScriptRepositoryContent(repositoryUrl);
+    }
+
+    /**
+     * Gets the content for adding a buildscript dependency on {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     *
+     * @param version the version of {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     * @return the content that should be in the build.gradle.
+     */
+    static String getTraceGradlePluginDependency(final String version) {
+        return String.format(
+                "\n   dependencies.add(\"classpath\", \"io.bitrise.trace.plugin:trace-gradle-plugin:%s\")\n",
+                version);
+    }
+
+    /**
+     * Gets the content for adding repositories to the buildscript: the Trace repository, and Google and Maven Central
+     * for the dependencies of {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     *
+     * @param repositoryUrl the URL of the Trace repository.
+     * @return the content that should be in the build.gradle.
+     */
+    static String getBuildScriptRepositoryContent(final String repositoryUrl) {
+        return "   repositories {" +
+                getTraceRepository(repositoryUrl, "      ") + "\n" +
+                "      google()\n" +
+                "      mavenCentral()\n" +
+                "    }";
+    }
+
+    /**
+     * Gets the content for adding the Trace repository in a "repositories" block. The repository is declared as
+     * exclusive content for {@link #TRACE_SDK_DEPENDENCY_GROUP_NAME} and
+     * {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME}: these groups are only looked up in it, and it is not looked
+     * up for any other dependency of the module, so adding it does not slow down the resolution of the other
+     * dependencies. The content is the same in Groovy and Kotlin.
+     *
+     * @param repositoryUrl the URL of the Trace repository.
+     * @param indent        the indentation of the lines.
+     * @return the lines of the content, each starting with a line break.
+     */
+    static String getTraceRepository(final String repositoryUrl, final String indent) {
+        return "\n" + indent + "exclusiveContent {\n" +
+                indent + "    forRepository {\n" +
+                indent + "        maven { setUrl(" + toStringLiteral(repositoryUrl) + ") }\n" +
+                indent + "    }\n" +
+                indent + "    filter {\n" +
+                indent + "        includeGroup(" + toStringLiteral(TRACE_SDK_DEPENDENCY_GROUP_NAME) + ")\n" +
+                indent + "        includeGroup(" + toStringLiteral(TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME) + ")\n" +
+                indent + "    }\n" +
+                indent + "}";
+    }
+
+    /**
+     * Gets the double quoted string literal of the given value, that is the same in Groovy and Kotlin.
+     *
+     * @param value the value of the literal.
+     * @return the literal, with the quotes, backslashes and dollar signs escaped.
+     */
+    static String toStringLiteral(final String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("$", "\\$") + "\"";
+    }
+
+    //endregion
+
+    //region Ensure to apply 'trace-gradle-plugin'
+
+    /**
+     * Ensures that the given module has applied {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} as a plugin. A plugin
+     * that the build file already applies is kept, like in
+     * {@link #ensureTraceSdkDependency(BuildFileEditPlan, ApplicationModuleModel, Map)}.
+     *
+     * @param plan           the {@link BuildFileEditPlan} to add the changes to.
+     * @param appModule      the {@link ApplicationModuleModel} of the app.
+     * @param injectionState the Map to record the outcome in.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    private void ensureTraceGradlePluginIsApplied(final BuildFileEditPlan plan,
+                                                  final ApplicationModuleModel appModule,
+                                                  final Map<String, String> injectionState)
+            throws IOException {
+        if (appModule.hasPlugin(TRACE_GRADLE_PLUGIN_ID)
+                || appliesTraceGradlePlugin(plan.getIndex(appModule.getBuildFile().toPath()))) {
+            logger.lifecycle(
+                    "Project \"{}\" has already applied \"{}\" as a plugin, skipping injecting the plugin apply. " +
+                            "For more information please check the README.md of \"trace-android-sdk\"",
+                    appModule.getName(), TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME);
+            injectionState.put(TRACE_GRADLE_PLUGIN_ID, "present");
+        } else {
+            injectTraceGradlePluginApply(plan, appModule);
+            injectionState.put(TRACE_GRADLE_PLUGIN_ID, "injected");
+            logger.lifecycle("Applied plugin \"{}\" on project \"{}\"", TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME,
+                    appModule.getName());
+        }
+    }
+
+    /**
+     * Injects the code for applying {@link #TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME} on the given Android application.
+     * With {@link InjectionMode#SCRIPT_PLUGIN} copies {@link #TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME} to the project and
+     * applies it, with {@link InjectionMode#INLINE} applies the plugin in the build file.
+     *
+     * @param plan      the {@link BuildFileEditPlan} to add the changes to.
+     * @param appModule the {@link ApplicationModuleModel} of the Android app.
+     * @throws IOException when any I/O error occurs with the files on the path.
+     */
+    private void injectTraceGradlePluginApply(final BuildFileEditPlan plan, final ApplicationModuleModel appModule)
+            throws IOException {
+        if (mode == InjectionMode.INLINE) {
+            insertTraceGradlePluginApply(plan, appModule.getBuildFile().getPath());
+            return;
+        }
+        copyGradleFile(plan, appModule.getProjectDir().getPath(), TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME);
+        appendTraceDependency(plan, appModule.getBuildFile().getPath(), TRACE_GRADLE_PLUGIN_GRADLE_FILE_NAME);
+    }
+    //endregion
+
+    //region Inline injection
+
+    /**
+     * Inserts the dependency on {@link #TRACE_SDK_DEPENDENCY_NAME} directly into the given build file, with the Trace
+     * repository, the same as {@link #TRACE_SDK_GRADLE_FILE_NAME} would add them. The top level "repositories" and
+     * "dependencies" blocks are extended, or added to the end of the file when they are not present. The repository
+     * is not added again when the "repositories" block already has exclusive content for
+     * {@link #TRACE_SDK_DEPENDENCY_GROUP_NAME}.
+     *
+     * @param plan            the {@link BuildFileEditPlan} to add the changes to.
+     * @param buildGradlePath the path of the build file.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    private void insertTraceSdkDependency(final BuildFileEditPlan plan, final String buildGradlePath)
+            throws IOException {
+        final Path buildFile = Paths.get(buildGradlePath);
+        final BuildScriptIndex index = plan.getIndex(buildFile);
+
+        final BuildScriptIndex.Block repositories = index.findBlock("repositories");
+        final String traceRepository = getTraceRepository(repositoryUrl, "    ");
+        if (repositories == null) {
+            appendContentToFile(plan, buildGradlePath, "\nrepositories {" + traceRepository + "\n}");
+        } else if (index.indexOfCode("exclusiveContent", repositories) < 0
+                || !index.hasString(TRACE_SDK_DEPENDENCY_GROUP_NAME)) {
+            insertIntoBlock(plan, buildFile, repositories, traceRepository);
+        }
+
+        final String dependency = getTraceSdkDependency(index.isKotlin(), versions.getSdkVersion());
+        final BuildScriptIndex.Block dependencies = index.findBlock("dependencies");
+        if (dependencies == null) {
+            appendContentToFile(plan, buildGradlePath, "\ndependencies {" + dependency + "\n}");
+        } else {
+            insertIntoBlock(plan, buildFile, dependencies, dependency);
+        }
+        logger.debug("Inserted dependency on \"{}\" into \"{}\".", TRACE_SDK_DEPENDENCY_NAME, buildGradlePath);
+    }
+
+    /**
+     * Inserts the given line right after the opening brace of a block. When the block continues on the same line, for
+     * example {@code repositories { google() }}, the line is also terminated, and the rest of the block is moved to
+     * the next line, indented one level deeper than the block. The whitespace after the brace is kept, and counts in
+     * the indentation.
+     *
+     * @param plan      the {@link BuildFileEditPlan} to add the change to.
+     * @param buildFile the path of the build file.
+     * @param block     the block to insert into.
+     * @param line      the line to insert, starting with a line break.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    private static void insertIntoBlock(final BuildFileEditPlan plan, final Path buildFile,
+                                        final BuildScriptIndex.Block block, final String line) throws IOException {
+        final String content = plan.getIndex(buildFile).getContent();
+        final int afterBrace = block.getOpenBrace() + 1;
+        int i = afterBrace;
+        while (i < content.length() && (content.charAt(i) == ' ' || content.charAt(i) == '\t')) {
+            i++;
+        }
+        if (i == content.length() || content.charAt(i) == '\n' || content.charAt(i) == '\r') {
+            plan.insert(buildFile, afterBrace, line);
+            return;
+        }
+        final String indent = getLineIndent(content, block.getOpenBrace()) + "    ";
+        plan.insert(buildFile, afterBrace, line + "\n" + indent.substring(Math.min(i - afterBrace, indent.length())));
+    }
+
+    /**
+     * Gets the leading whitespace of the line of the given offset.
+     *
+     * @param content the content.
+     * @param offset  the offset in the content.
+     * @return the spaces and tabs at the start of the line.
+     */
+    private static String getLineIndent(final String content, final int offset) {
+        final int lineStart = content.lastIndexOf('\n', offset - 1) + 1;
+        int i = lineStart;
+        while (i < offset && (content.charAt(i) == ' ' || content.charAt(i) == '\t')) {
+            i++;
+        }
+        return content.substring(lineStart, i);
+    }
+
+    /**
+     * Applies {@link #TRACE_GRADLE_PLUGIN_ID} directly in the given build file. The plugin is loaded from the
+     * buildscript classpath of the module, so it is applied with an "apply" statement after the buildscript block,
+     * instead of in the "plugins" block, which would look it up in the plugin repositories.
+     *
+     * @param plan            the {@link BuildFileEditPlan} to add the change to.
+     * @param buildGradlePath the path of the build file.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    private void insertTraceGradlePluginApply(final BuildFileEditPlan plan, final String buildGradlePath)
+            throws IOException {
+        final BuildScriptIndex index = plan.getIndex(Paths.get(buildGradlePath));
+        if (index.hasApplyStatement("plugin", TRACE_GRADLE_PLUGIN_ID)) {
+            logger.info("\"{}\" already applies \"{}\".", buildGradlePath, TRACE_GRADLE_PLUGIN_ID);
+            return;
+        }
+        appendContentToFile(plan, buildGradlePath, getTraceGradlePluginApply(index.isKotlin()));
+    }
+
+    /**
+     * Gets the content for adding a dependency on {@link #TRACE_SDK_DEPENDENCY_NAME} in a "dependencies" block. In
+     * Kotlin the configuration is referenced by its name, as the type-safe accessors are only generated for plugins
+     * that are applied in the "plugins" block.
+     *
+     * @param kotlin  {@code true} for Kotlin build files, {@code false} for Groovy build files.
+     * @param version the version of {@link #TRACE_SDK_DEPENDENCY_NAME}.
+     * @return the content that should be in the build file.
+     */
+    static String getTraceSdkDependency(final boolean kotlin, final String version) {
+        final String notation = getTraceSdkNotation(version);
+        return kotlin
+                ? String.format("\n    \"implementation\"(\"%s\")", notation)
+                : String.format("\n    implementation \"%s\"", notation);
+    }
+
+    /**
+     * Gets the dependency notation of {@link #TRACE_SDK_DEPENDENCY_NAME}.
+     *
+     * @param version the version of the dependency.
+     * @return the "group:name:version" notation.
+     */
+    private static String getTraceSdkNotation(final String version) {
+        return TRACE_SDK_DEPENDENCY_GROUP_NAME + ":" + TRACE_SDK_DEPENDENCY_NAME + ":" + version;
+    }
+
+    /**
+     * Gets the content for applying {@link #TRACE_GRADLE_PLUGIN_ID} at the end of a build file.
+     *
+     * @param kotlin {@code true} for Kotlin build files, {@code false} for Groovy build files.
+     * @return the content that should be in the build file.
+     */
+    static String getTraceGradlePluginApply(final boolean kotlin) {
+        return kotlin
+                ? String.format("\napply(plugin = \"%s\")", TRACE_GRADLE_PLUGIN_ID)
+                : String.format("\napply plugin: \"%s\"", TRACE_GRADLE_PLUGIN_ID);
+    }
+    //endregion
+
+    //region Common helper
+
+    /**
+     * Gets an environment variable. Throws IllegalStateException if the environment variable is not present.
+     *
+     * @param envName the name of the environment variable.
+     * @return the value of the environment variable.
+     */
+    private String getEnv(final String envName) {
+        final String env = System.getenv(envName);
+        if (env == null) {
+            throw new IllegalStateException(
+                    String.format("%s is not set as env variable, aborting build. Please set it " +
+                            "as env variable before running this step", envName));
+        }
+        logger.debug("Environment variable \"{}\" is present with value \"{}\".", envName, env);
+        return env;
+    }
+
+    /**
+     * Copies the given Gradle file from the Bitrise step source directory to the given Android application. An
+     * existing copy is replaced, or kept as it is when it is identical. The dynamic version of
+     * {@link #TRACE_SDK_DEPENDENCY_NAME} in {@link #TRACE_SDK_GRADLE_FILE_NAME} is replaced with the pinned one, and
+     * its repository URL with the configured one.
+     *
+     * @param plan          the {@link BuildFileEditPlan} to add the change to.
+     * @param appModuleDir  the directory of the Android application module.
+     * @param buildFileName the name of the Gradle file to copy.
+     * @throws IOException when any I/O error occurs with the files on the path.
+     */
+    private void copyGradleFile(final BuildFileEditPlan plan, final String appModuleDir, final String buildFileName)
+            throws IOException {
+        final Path traceSdkGradleFilePath = Paths.get(getEnv(BITRISE_STEP_SRC_ENV) + "/" + buildFileName);
+        final Path destinationPath = Paths.get(appModuleDir + "/" + buildFileName);
+        byte[] content = Files.readAllBytes(traceSdkGradleFilePath);
+        if (TRACE_SDK_GRADLE_FILE_NAME.equals(buildFileName)) {
+            content = new String(content, StandardCharsets.UTF_8)
+                    .replace(getTraceSdkNotation(TRACE_SDK_VERSION), getTraceSdkNotation(versions.getSdkVersion()))
+                    .replace(toStringLiteral(TraceVersionResolver.DEFAULT_REPOSITORY_URL),
+                            toStringLiteral(repositoryUrl))
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+        plan.write(destinationPath, content);
+        logger.debug("Copying \"{}\" to \"{}\".", traceSdkGradleFilePath, destinationPath);
+    }
+
+    /**
+     * Appends the given Gradle build file the apply of the given Gradle build file.
+     *
+     * @param plan               the {@link BuildFileEditPlan} to add the change to.
+     * @param appBuildGradlePath the path of the Gradle build file, which should be extended.
+     * @param buildFileName      the given Gradle build file path to apply.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    private void appendTraceDependency(final BuildFileEditPlan plan, final String appBuildGradlePath,
+                                       final String buildFileName) throws IOException {
+        if (plan.getIndex(Paths.get(appBuildGradlePath)).hasApplyStatement("from", buildFileName)) {
+            logger.info("\"{}\" already applies \"{}\".", appBuildGradlePath, buildFileName);
+            return;
+        }
+        appendContentToFile(plan, appBuildGradlePath, getContentToAppend(appBuildGradlePath, buildFileName));
+    }
+
+    /**
+     * Appends the given content to a given file, at the end of the content of its {@link BuildScriptIndex}.
+     *
+     * @param plan    the {@link BuildFileEditPlan} to add the change to.
+     * @param path    the path of the file.
+     * @param content the content to append.
+     * @throws IOException when any I/O error occurs with the file on the path.
+     */
+    private void appendContentToFile(final BuildFileEditPlan plan, final String path, final String content)
+            throws IOException {
+        logger.debug("Appending to \"{}\" content:\n\"{}\"", path, content);
+        final Path file = Paths.get(path);
+        plan.insert(file, plan.getIndex(file).getContent().length(), content);
+    }
+
+    /**
+     * Gets the content to append for the given Gradle build file based on the extension (language) of the file. The
+     * content is to apply the given Gradle build file, the name of this file is an argument.
+     *
+     * @param appBuildGradlePath the path of the Gradle build file, which should be extended.
+     * @param buildFileName      the given Gradle build file path to apply.
+     * @return the content to append to the Gradle build file.
+     */
+    static String getContentToAppend(final String appBuildGradlePath, final String buildFileName) {
+        if (appBuildGradlePath.endsWith(".kts")) {
+            return String.format("\napply(\"%s\")", buildFileName);
+        } else if (appBuildGradlePath.endsWith(".gradle")) {
+            return String.format("\napply from: \"%s\"", buildFileName);
+        } else {
+            throw new IllegalStateException(String.format("Could not determine language for %s",
+                    appBuildGradlePath));
+        }
+    }
+    //endregion
+}
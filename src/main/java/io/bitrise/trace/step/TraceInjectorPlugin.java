@@ -0,0 +1,45 @@
+package io.bitrise.trace.step;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.util.GradleVersion;
+
+/**
+ * Plugin that registers {@link InjectTraceTask} on the root project as {@link #INJECT_TRACE_TASK_NAME}. The step
+ * packages it into a versioned jar (see "injector/build.gradle") and applies it with an init script, so the buildSrc
+ * and the build files of the project are not modified to run the task.
+ * <p>
+ * Requires Gradle {@value #MINIMUM_GRADLE_VERSION} or later, for the build event listeners of
+ * {@link TraceOverheadService}, and a JDK with the Flight Recorder API to compile, see {@link InjectionEvents}.
+ */
+public class TraceInjectorPlugin implements Plugin<Project> {
+
+    /**
+     * The id of the plugin.
+     */
+    static final String PLUGIN_ID = "io.bitrise.trace.injector";
+
+    /**
+     * The name of the registered {@link InjectTraceTask}.
+     */
+    static final String INJECT_TRACE_TASK_NAME = "injectTraceTask";
+
+    /**
+     * The oldest Gradle version the plugin and the init script of {@link InjectionMode#INIT_SCRIPT} work with.
+     */
+    static final String MINIMUM_GRADLE_VERSION = "6.2";
+
+    @Override
+    public void apply(final Project project) {
+        if (GradleVersion.current().compareTo(GradleVersion.version(MINIMUM_GRADLE_VERSION)) < 0) {
+            throw new GradleException(String.format("Plugin \"%s\" requires Gradle %s or later, the project uses %s.",
+                    PLUGIN_ID, MINIMUM_GRADLE_VERSION, GradleVersion.current().getVersion()));
+        }
+        if (project != project.getRootProject()) {
+            throw new GradleException(String.format("Plugin \"%s\" can only be applied on the root project, not on "
+                    + "\"%s\".", PLUGIN_ID, project.getPath()));
+        }
+        project.getTasks().register(INJECT_TRACE_TASK_NAME, InjectTraceTask.class);
+    }
+}
@@ -0,0 +1,145 @@
+package io.bitrise.trace.step;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The overhead that the Trace Gradle plugin adds to the builds of the application modules, collected by
+ * {@link TraceOverheadService}: for each module the configuration time spent on adding Trace and the number of the
+ * tasks that the plugin has registered, and for each variant the histogram of the execution times of those tasks.
+ * The methods are thread-safe.
+ * <p>
+ * It only depends on the JDK.
+ */
+final class TraceOverheadReport {
+
+    /**
+     * The upper bounds of the buckets of the histograms, in milliseconds, exclusive. The last bucket has no bound.
+     */
+    private static final long[] BUCKET_BOUNDS_MILLIS = {10, 100, 1_000, 10_000};
+    private static final String[] BUCKET_NAMES = {"<10ms", "<100ms", "<1s", "<10s", ">=10s"};
+
+    private final Map<String, long[]> modules = new TreeMap<>();
+    private final Map<String, long[]> histogramsByVariant = new TreeMap<>();
+    private final Map<String, Long> taskMillisByVariant = new TreeMap<>();
+
+    /**
+     * Adds configuration time spent on adding Trace to a module.
+     *
+     * @param project the path of the project of the module.
+     * @param nanos   the time in nanoseconds.
+     */
+    synchronized void addConfigurationTime(final String project, final long nanos) {
+        getModule(project)[0] += nanos;
+    }
+
+    /**
+     * Sets the number of the tasks that the Trace Gradle plugin has registered in a module.
+     *
+     * @param project   the path of the project of the module.
+     * @param taskCount the number of the tasks.
+     */
+    synchronized void setTraceTaskCount(final String project, final int taskCount) {
+        getModule(project)[1] = taskCount;
+    }
+
+    /**
+     * Adds the execution of a task of the Trace Gradle plugin to the histogram of its variant.
+     *
+     * @param variant the name of the variant of the task.
+     * @param millis  the execution time of the task in milliseconds.
+     */
+    synchronized void addTaskExecution(final String variant, final long millis) {
+        histogramsByVariant.computeIfAbsent(variant, key -> new long[BUCKET_NAMES.length])[getBucket(millis)]++;
+        taskMillisByVariant.merge(variant, millis, Long::sum);
+    }
+
+    /**
+     * Gets the JSON of this report, for example:
+     * <pre>{@code
+     * {
+     *   "modules": {
+     *     ":app": {"configurationNanos": 5300000, "traceTasks": 2}
+     *   },
+     *   "variants": {
+     *     "debug": {"tasks": 1, "totalMillis": 40, "histogram": {"<10ms": 0, "<100ms": 1, "<1s": 0, "<10s": 0,
+     *               ">=10s": 0}}
+     *   }
+     * }
+     * }</pre>
+     *
+     * @return the JSON report.
+     */
+    synchronized String toJson() {
+        final StringBuilder json = new StringBuilder("{\n  \"modules\": {");
+        String separator = "\n";
+        for (final Map.Entry<String, long[]> module : modules.entrySet()) {
+            json.append(separator).append("    ").append(toJsonString(module.getKey()))
+                    .append(": {\"configurationNanos\": ").append(module.getValue()[0])
+                    .append(", \"traceTasks\": ").append(module.getValue()[1]).append('}');
+            separator = ",\n";
+        }
+        json.append(modules.isEmpty() ? "" : "\n  ").append("},\n  \"variants\": {");
+        separator = "\n";
+        for (final Map.Entry<String, long[]> variant : histogramsByVariant.entrySet()) {
+            long tasks = 0;
+            final StringBuilder histogram = new StringBuilder();
+            for (int i = 0; i < BUCKET_NAMES.length; i++) {
+                tasks += variant.getValue()[i];
+                histogram.append(i > 0 ? ", " : "").append('"').append(BUCKET_NAMES[i]).append("\": ")
+                        .append(variant.getValue()[i]);
+            }
+            json.append(separator).append("    ").append(toJsonString(variant.getKey()))
+                    .append(": {\"tasks\": ").append(tasks)
+                    .append(", \"totalMillis\": ").append(taskMillisByVariant.get(variant.getKey()))
+                    .append(", \"histogram\": {").append(histogram).append("}}");
+            separator = ",\n";
+        }
+        return json.append(histogramsByVariant.isEmpty() ? "" : "\n  ").append("}\n}\n").toString();
+    }
+
+    /**
+     * Gets the variant of a task from its name: the longest of the given variant names that the task name contains,
+     * ignoring the case, for example "freeDebug" for "uploadFreeDebugTraceMapping".
+     *
+     * @param taskName the name of the task.
+     * @param variants the names of the variants of the module.
+     * @return the name of the variant, or "other" when the task name does not contain any.
+     */
+    static String getVariant(final String taskName, final Collection<String> variants) {
+        final String taskNameLc = taskName.toLowerCase(Locale.ROOT);
+        String match = "other";
+        int matchLength = 0;
+        for (final String variant : variants) {
+            if (variant.length() > matchLength && taskNameLc.contains(variant.toLowerCase(Locale.ROOT))) {
+                match = variant;
+                matchLength = variant.length();
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Gets the bucket of the histograms that an execution time falls into.
+     *
+     * @param millis the execution time in milliseconds.
+     * @return the index of the bucket.
+     */
+    static int getBucket(final long millis) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MILLIS.length && millis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private long[] getModule(final String project) {
+        return modules.computeIfAbsent(project, key -> new long[2]);
+    }
+
+    private static String toJsonString(final String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,181 @@
+package io.bitrise.trace.step;
+
+import org.gradle.api.NamedDomainObjectCollectionSchema;
+import org.gradle.api.Project;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.build.event.BuildEventsListenerRegistry;
+import org.gradle.tooling.events.FinishEvent;
+import org.gradle.tooling.events.OperationCompletionListener;
+import org.gradle.tooling.events.task.TaskFinishEvent;
+import org.gradle.tooling.events.task.TaskOperationResult;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measures the overhead that the Trace Gradle plugin adds to the builds of the application modules, when
+ * {@link TraceInitScriptInjector} adds Trace and the {@link #MEASURE_OVERHEAD_PROPERTY} Gradle property is set, so
+ * only in {@link InjectionMode#INIT_SCRIPT}. The configuration time of adding Trace is measured by
+ * TraceInitScriptInjector, up to the "projectsEvaluated" callbacks of the plugin. The tasks that the plugin registers
+ * are counted from the schema of the task container, without realizing them, and the executions of those tasks are
+ * received as task completion events. At the end of the build the {@link TraceOverheadReport} is written to
+ * {@link #REPORT_FILE_PATH} of the build directory of the root project.
+ */
+public abstract class TraceOverheadService
+        implements BuildService<TraceOverheadService.Parameters>, OperationCompletionListener, AutoCloseable {
+
+    /**
+     * The Gradle property that turns on the measurement, for example "-Ptrace.measureOverhead=true".
+     */
+    static final String MEASURE_OVERHEAD_PROPERTY = "trace.measureOverhead";
+
+    /**
+     * The path of the report, relative to the build directory of the root project.
+     */
+    static final String REPORT_FILE_PATH = "trace/traceOverhead.json";
+
+    private static final String SERVICE_NAME = "traceOverhead";
+    private static final String ASSEMBLE_TASK_PREFIX = "assemble";
+
+    private static final Logger logger = Logging.getLogger(TraceOverheadService.class);
+
+    private final TraceOverheadReport report = new TraceOverheadReport();
+    private final Map<String, String> variantsByTaskPath = new ConcurrentHashMap<>();
+
+    /**
+     * The parameters of a {@link TraceOverheadService}.
+     */
+    public interface Parameters extends BuildServiceParameters {
+
+        /**
+         * Gets the file to write the {@link TraceOverheadReport} to.
+         *
+         * @return the Property of the file.
+         */
+        RegularFileProperty getReportFile();
+    }
+
+    /**
+     * Gives access to the {@link BuildEventsListenerRegistry}, which can only be injected.
+     */
+    public abstract static class ListenerRegistrar {
+
+        /**
+         * Gets the registry of the build event listeners.
+         *
+         * @return the BuildEventsListenerRegistry.
+         */
+        @Inject
+        public abstract BuildEventsListenerRegistry getListenerRegistry();
+    }
+
+    /**
+     * Checks if the overhead should be measured in the build of the given project.
+     *
+     * @param project the {@link Project}.
+     * @return {@code true} if {@link #MEASURE_OVERHEAD_PROPERTY} is set to "true", {@code false} otherwise.
+     */
+    static boolean isOverheadMeasured(final Project project) {
+        return "true".equals(Objects.toString(project.findProperty(MEASURE_OVERHEAD_PROPERTY), null));
+    }
+
+    /**
+     * Registers the TraceOverheadService of the build of the given project, and its task completion listener, when
+     * they are not registered yet.
+     *
+     * @param project the {@link Project} of an application module.
+     * @return the Provider of the TraceOverheadService.
+     */
+    static Provider<TraceOverheadService> register(final Project project) {
+        final Gradle gradle = project.getGradle();
+        final boolean registered = gradle.getSharedServices().getRegistrations().findByName(SERVICE_NAME) != null;
+        final Provider<TraceOverheadService> service = gradle.getSharedServices().registerIfAbsent(SERVICE_NAME,
+                TraceOverheadService.class, spec -> spec.getParameters().getReportFile().set(
+                        project.getRootProject().getLayout().getBuildDirectory().file(REPORT_FILE_PATH)));
+        if (!registered) {
+            project.getObjects().newInstance(ListenerRegistrar.class).getListenerRegistry().onTaskCompletion(service);
+        }
+        return service;
+    }
+
+    /**
+     * Adds configuration time spent on adding Trace to a module.
+     *
+     * @param project the {@link Project} of the module.
+     * @param nanos   the time in nanoseconds.
+     */
+    void addConfigurationTime(final Project project, final long nanos) {
+        report.addConfigurationTime(project.getPath(), nanos);
+    }
+
+    /**
+     * Collects the tasks of the given plugin in a module, from the schema of its task container, so the tasks are not
+     * realized. A task belongs to the plugin when its public type is in the package of the plugin class. The variant
+     * of a task is selected by {@link TraceOverheadReport#getVariant(String, java.util.Collection)}, from the names of
+     * the "assemble" tasks of the variants.
+     *
+     * @param project       the evaluated {@link Project} of the module.
+     * @param pluginPackage the package of the plugin class, with a trailing dot.
+     */
+    void collectTraceTasks(final Project project, final String pluginPackage) {
+        final List<String> variants = new ArrayList<>();
+        final List<String> traceTasks = new ArrayList<>();
+        for (final NamedDomainObjectCollectionSchema.NamedDomainObjectSchema element
+                : project.getTasks().getCollectionSchema().getElements()) {
+            final String name = element.getName();
+            if (name.startsWith(ASSEMBLE_TASK_PREFIX) && name.length() > ASSEMBLE_TASK_PREFIX.length()) {
+                variants.add(Character.toLowerCase(name.charAt(ASSEMBLE_TASK_PREFIX.length()))
+                        + name.substring(ASSEMBLE_TASK_PREFIX.length() + 1));
+            }
+            if (element.getPublicType().getConcreteClass().getName().startsWith(pluginPackage)) {
+                traceTasks.add(name);
+            }
+        }
+        final String pathPrefix = project.getPath().equals(":") ? ":" : project.getPath() + ":";
+        for (final String task : traceTasks) {
+            variantsByTaskPath.put(pathPrefix + task, TraceOverheadReport.getVariant(task, variants));
+        }
+        report.setTraceTaskCount(project.getPath(), traceTasks.size());
+    }
+
+    @Override
+    public void onFinish(final FinishEvent event) {
+        if (!(event instanceof TaskFinishEvent)) {
+            return;
+        }
+        final String variant = variantsByTaskPath.get(((TaskFinishEvent) event).getDescriptor().getTaskPath());
+        if (variant != null) {
+            final TaskOperationResult result = ((TaskFinishEvent) event).getResult();
+            report.addTaskExecution(variant, result.getEndTime() - result.getStartTime());
+        }
+    }
+
+    @Override
+    public void close() {
+        final File reportFile = getParameters().getReportFile().get().getAsFile();
+        try {
+            Files.createDirectories(reportFile.getParentFile().toPath());
+            final BuildFileEditPlan plan = new BuildFileEditPlan();
+            plan.write(reportFile.toPath(), report.toJson().getBytes(StandardCharsets.UTF_8));
+            plan.apply();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logger.lifecycle("The overhead of Trace is written to \"{}\".", reportFile);
+    }
+}
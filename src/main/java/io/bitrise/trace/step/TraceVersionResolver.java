@@ -0,0 +1,214 @@
+package io.bitrise.trace.step;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Resolves the concrete versions of the Trace SDK and the Trace Gradle plugin, so the injected build files do not
+ * use dynamic versions that Gradle would have to look up in the repositories on every build.
+ * <p>
+ * The newest version is read from the "maven-metadata.xml" of the artifact in a Maven repository, and pinned in a
+ * lock file ({@link #LOCK_FILE_NAME}) in the root project, by the name of the artifact, for example
+ * {@code trace-sdk=1.2.3}. Later runs use the pinned versions without accessing the repository, until they are
+ * refreshed. When a version cannot be resolved, the dynamic "+" version is used and nothing is pinned for it.
+ * <p>
+ * It only depends on the JDK, so any repository URL that {@link URL} supports can be used, including "file:" URLs
+ * of local repositories.
+ */
+final class TraceVersionResolver {
+
+    /**
+     * The URL of the repository that the injected code adds for the Trace artifacts.
+     */
+    static final String DEFAULT_REPOSITORY_URL = "https://jcenter.bintray.com/";
+
+    /**
+     * The name of the lock file in the root project directory.
+     */
+    static final String LOCK_FILE_NAME = "trace-versions.lock";
+
+    private static final int TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * The versions that can be written into a build file as they are.
+     */
+    private static final Pattern VERSION_PATTERN = Pattern.compile("[A-Za-z0-9._+-]+");
+
+    private final String repositoryUrl;
+    private final InjectionLogger logger;
+
+    /**
+     * Constructor for class.
+     *
+     * @param repositoryUrl the URL of the Maven repository.
+     * @param logger        the {@link InjectionLogger} to log the resolution to.
+     */
+    TraceVersionResolver(final String repositoryUrl, final InjectionLogger logger) {
+        this.repositoryUrl = repositoryUrl.endsWith("/") ? repositoryUrl : repositoryUrl + "/";
+        this.logger = logger;
+    }
+
+    /**
+     * Gets the versions to inject. The versions pinned in the lock file are used, unless they are refreshed or the
+     * lock file does not have them, in which case they are resolved from the repository and pinned. The lock file is
+     * locked with {@link FileLocks#DEFAULT} while it is read and written, so concurrent injections of the same project
+     * resolve the versions only once, and pin the same versions.
+     *
+     * @param lockFile the lock file.
+     * @param refresh  {@code true} to resolve the versions again even if they are pinned.
+     * @return the {@link TraceVersions}.
+     * @throws IOException when any I/O error occurs with the lock file.
+     */
+    TraceVersions resolve(final File lockFile, final boolean refresh) throws IOException {
+        try (final FileLocks.Handle ignored = FileLocks.DEFAULT.lock(lockFile.toPath())) {
+            return resolveLocked(lockFile, refresh);
+        }
+    }
+
+    private TraceVersions resolveLocked(final File lockFile, final boolean refresh) throws IOException {
+        final Properties pinned = new Properties();
+        if (!refresh && lockFile.isFile()) {
+            try (final InputStream inputStream = Files.newInputStream(lockFile.toPath())) {
+                pinned.load(inputStream);
+            }
+        }
+        final String sdkVersion = getVersion(pinned, TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME,
+                TraceInjector.TRACE_SDK_DEPENDENCY_NAME, TraceInjector.TRACE_SDK_VERSION);
+        final String gradlePluginVersion = getVersion(pinned, TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME,
+                TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME, TraceInjector.TRACE_GRADLE_PLUGIN_VERSION);
+        final TraceVersions versions = new TraceVersions(sdkVersion, gradlePluginVersion);
+        writeLockFile(lockFile, versions);
+        return versions;
+    }
+
+    /**
+     * Gets the version of the given artifact, from the pinned versions or from the repository.
+     *
+     * @param pinned         the pinned versions, by the name of the artifact.
+     * @param group          the group of the artifact.
+     * @param name           the name of the artifact.
+     * @param dynamicVersion the version to use when it cannot be resolved.
+     * @return the version.
+     */
+    private String getVersion(final Properties pinned, final String group, final String name,
+                              final String dynamicVersion) {
+        final String coordinates = group + ":" + name;
+        final String pinnedVersion = pinned.getProperty(name);
+        if (pinnedVersion != null && VERSION_PATTERN.matcher(pinnedVersion).matches()) {
+            logger.info("Using pinned version {} of \"{}\".", pinnedVersion, coordinates);
+            return pinnedVersion;
+        }
+        try {
+            final String version = resolveLatestVersion(group, name);
+            logger.lifecycle("Resolved version {} of \"{}\".", version, coordinates);
+            return version;
+        } catch (final IOException e) {
+            logger.lifecycle("Could not resolve the version of \"{}\", using \"{}\". Reason: {}", coordinates,
+                    dynamicVersion, e.getMessage());
+            return dynamicVersion;
+        }
+    }
+
+    /**
+     * Resolves the newest release version of the given artifact from the "maven-metadata.xml" of the repository.
+     *
+     * @param group the group of the artifact.
+     * @param name  the name of the artifact.
+     * @return the version.
+     * @throws IOException when the metadata cannot be read, or it does not have a version.
+     */
+    String resolveLatestVersion(final String group, final String name) throws IOException {
+        final URL metadataUrl = new URL(repositoryUrl + group.replace('.', '/') + "/" + name + "/maven-metadata.xml");
+        logger.debug("Reading \"{}\".", metadataUrl);
+        final URLConnection connection = metadataUrl.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        final Document metadata;
+        try (final InputStream inputStream = connection.getInputStream()) {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            metadata = factory.newDocumentBuilder().parse(inputStream);
+        } catch (final ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid metadata " + metadataUrl, e);
+        }
+
+        final String release = getText(metadata, "release");
+        if (release != null && VERSION_PATTERN.matcher(release).matches()) {
+            return release;
+        }
+        final NodeList versions = metadata.getElementsByTagName("version");
+        for (int i = versions.getLength() - 1; i >= 0; i--) {
+            final String version = versions.item(i).getTextContent().trim();
+            if (VERSION_PATTERN.matcher(version).matches() && !version.endsWith("-SNAPSHOT")) {
+                return version;
+            }
+        }
+        throw new IOException("No release version in " + metadataUrl);
+    }
+
+    /**
+     * Gets the text of the first element with the given name.
+     *
+     * @param document the XML Document.
+     * @param tagName  the name of the element.
+     * @return the trimmed text, or {@code null} if there is no such element or it is empty.
+     */
+    private static String getText(final Document document, final String tagName) {
+        final NodeList elements = document.getElementsByTagName(tagName);
+        if (elements.getLength() == 0) {
+            return null;
+        }
+        final String text = elements.item(0).getTextContent().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * Writes the concrete versions to the lock file, if its content would change. Dynamic versions are not pinned, and
+     * no lock file is created when there is nothing to pin.
+     *
+     * @param lockFile the lock file.
+     * @param versions the {@link TraceVersions} to pin.
+     * @throws IOException when any I/O error occurs with the file.
+     */
+    private void writeLockFile(final File lockFile, final TraceVersions versions) throws IOException {
+        final StringBuilder stringBuilder = new StringBuilder("# Versions of Trace pinned by the add-trace-sdk step. ")
+                .append("Delete this file, or refresh the versions, to update them.\n");
+        appendPinnedVersion(stringBuilder, TraceInjector.TRACE_SDK_DEPENDENCY_NAME, versions.getSdkVersion(),
+                TraceInjector.TRACE_SDK_VERSION);
+        appendPinnedVersion(stringBuilder, TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME,
+                versions.getGradlePluginVersion(), TraceInjector.TRACE_GRADLE_PLUGIN_VERSION);
+        if (versions.equals(TraceVersions.DYNAMIC) && !lockFile.exists()) {
+            return;
+        }
+        final byte[] content = stringBuilder.toString().getBytes(StandardCharsets.UTF_8);
+        if (lockFile.isFile() && Arrays.equals(Files.readAllBytes(lockFile.toPath()), content)) {
+            return;
+        }
+        Files.write(lockFile.toPath(), content);
+        logger.debug("Wrote the pinned versions to \"{}\".", lockFile);
+    }
+
+    private static void appendPinnedVersion(final StringBuilder stringBuilder, final String name,
+                                            final String version, final String dynamicVersion) {
+        if (!version.equals(dynamicVersion)) {
+            stringBuilder.append(name).append('=').append(version).append('\n');
+        }
+    }
+}
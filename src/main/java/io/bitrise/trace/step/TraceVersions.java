@@ -0,0 +1,63 @@
+package io.bitrise.trace.step;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The versions of the Trace SDK and the Trace Gradle plugin that {@link TraceInjector} writes into the build files.
+ * They are either concrete versions pinned by {@link TraceVersionResolver}, or the dynamic "+" version.
+ */
+public class TraceVersions implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The dynamic versions, which are resolved by Gradle on every build.
+     */
+    static final TraceVersions DYNAMIC =
+            new TraceVersions(TraceInjector.TRACE_SDK_VERSION, TraceInjector.TRACE_GRADLE_PLUGIN_VERSION);
+
+    private final String sdkVersion;
+    private final String gradlePluginVersion;
+
+    /**
+     * Constructor for class.
+     *
+     * @param sdkVersion          the version of {@link TraceInjector#TRACE_SDK_DEPENDENCY_NAME}.
+     * @param gradlePluginVersion the version of {@link TraceInjector#TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME}.
+     */
+    TraceVersions(final String sdkVersion, final String gradlePluginVersion) {
+        this.sdkVersion = sdkVersion;
+        this.gradlePluginVersion = gradlePluginVersion;
+    }
+
+    String getSdkVersion() {
+        return sdkVersion;
+    }
+
+    String getGradlePluginVersion() {
+        return gradlePluginVersion;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TraceVersions)) {
+            return false;
+        }
+        final TraceVersions that = (TraceVersions) o;
+        return sdkVersion.equals(that.sdkVersion) && gradlePluginVersion.equals(that.gradlePluginVersion);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sdkVersion, gradlePluginVersion);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TraceVersions{sdk=%s, gradlePlugin=%s}", sdkVersion, gradlePluginVersion);
+    }
+}
@@ -0,0 +1,303 @@
+package io.bitrise.trace.step;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Scale tests of {@link InjectTraceTask} and {@link InjectTraceCli}, run them with "./gradlew scaleTest". Each test
+ * generates a {@link ScaleFixture} with the given number of modules, and runs the injection end to end like the step
+ * does. The task is run with Gradle TestKit, after an untimed build that warms up the daemon, and the wall time, the
+ * configuration time and the peak live heap of the build are recorded into "build/reports/scaleTest". InjectTraceCli
+ * is run in a new JVM, and its wall time is recorded. The build fails when any of them is over the budget of the
+ * fixture size.
+ */
+public class InjectTraceScaleTest {
+
+    /**
+     * The system property with the classpath of {@link TraceInjectorPlugin}, for the init script.
+     */
+    private static final String INJECTOR_CLASSPATH_PROPERTY = "trace.scaleTest.injectorClasspath";
+
+    /**
+     * The system property with the classpath of {@link StubAndroidApplicationPlugin} and {@link ScaleHeapSampler}.
+     */
+    private static final String FIXTURE_CLASSPATH_PROPERTY = "trace.scaleTest.fixtureClasspath";
+
+    /**
+     * The system property with the source directory of the step, that has the Gradle files of Trace.
+     */
+    private static final String STEP_SRC_DIR_PROPERTY = "trace.scaleTest.stepSrcDir";
+
+    /**
+     * The system property with the directory of the reports.
+     */
+    private static final String REPORTS_DIR_PROPERTY = "trace.scaleTest.reportsDir";
+
+    private static final long MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void injectTrace_10Modules() throws IOException {
+        runFixture(10, new Budget(4_000, 2_000, 288 * MB));
+    }
+
+    @Test
+    public void injectTrace_100Modules() throws IOException {
+        runFixture(100, new Budget(6_000, 3_500, 320 * MB));
+    }
+
+    @Test
+    public void injectTrace_1000Modules() throws IOException {
+        runFixture(1000, new Budget(30_000, 24_000, 576 * MB));
+    }
+
+    @Test
+    public void injectTraceCli_10Modules() throws IOException, InterruptedException {
+        runCliFixture(10, new CliBudget(2_500, 64 * MB));
+    }
+
+    @Test
+    public void injectTraceCli_100Modules() throws IOException, InterruptedException {
+        runCliFixture(100, new CliBudget(3_000, 64 * MB));
+    }
+
+    @Test
+    public void injectTraceCli_1000Modules() throws IOException, InterruptedException {
+        runCliFixture(1000, new CliBudget(4_000, 96 * MB));
+    }
+
+    /**
+     * Generates a fixture, runs {@link InjectTraceTask} on it, writes the report and checks the budget.
+     *
+     * @param moduleCount the number of the modules of the fixture.
+     * @param budget      the {@link Budget} of the fixture.
+     * @throws IOException when any I/O error occurs with the fixture or the report.
+     */
+    private void runFixture(final int moduleCount, final Budget budget) throws IOException {
+        final File rootDir = tempFolder.newFolder("fixture");
+        final File repository = tempFolder.newFolder("repository");
+        final File initScript = new File(tempFolder.getRoot(), "traceInjector.init.gradle");
+        final List<String> applications =
+                ScaleFixture.generate(rootDir, moduleCount, System.getProperty(FIXTURE_CLASSPATH_PROPERTY));
+        ScaleFixture.writeInitScript(initScript, System.getProperty(INJECTOR_CLASSPATH_PROPERTY));
+        ScaleFixture.writeTraceRepository(repository);
+
+        final Map<String, String> environment = new HashMap<>(System.getenv());
+        environment.put(TraceInjector.BITRISE_STEP_SRC_ENV, System.getProperty(STEP_SRC_DIR_PROPERTY));
+        final GradleRunner runner = GradleRunner.create()
+                .withProjectDir(rootDir)
+                .withEnvironment(environment);
+
+        // warms up the daemon, so the measured build does not pay for its start and for compiling the scripts
+        runner.withArguments("help", "--init-script", initScript.getAbsolutePath()).build();
+        runner.withArguments(":injectTraceTask", "--verify", "--injection-mode=SCRIPT_PLUGIN",
+                "--trace-repository-url=" + repository.toURI(), "--init-script", initScript.getAbsolutePath(),
+                "--stacktrace");
+
+        final long start = System.nanoTime();
+        final BuildResult result = runner.build();
+        final long wallMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertThat(result.task(":injectTraceTask").getOutcome(), equalTo(TaskOutcome.SUCCESS));
+        for (final String application : applications) {
+            assertThat(result.getOutput(), containsString(
+                    String.format("Trace verification for project \":%s\": passed", application)));
+        }
+        final Measurement measurement = new Measurement(wallMillis,
+                parseValue(result.getOutput(), ScaleFixture.CONFIGURATION_MILLIS_KEY),
+                parseValue(result.getOutput(), ScaleFixture.PEAK_HEAP_BYTES_KEY));
+        writeReport(moduleCount, measurement, budget);
+
+        assertThat("wall time (ms) of " + moduleCount + " modules", measurement.wallMillis,
+                lessThanOrEqualTo(budget.wallMillis));
+        assertThat("configuration time (ms) of " + moduleCount + " modules", measurement.configurationMillis,
+                lessThanOrEqualTo(budget.configurationMillis));
+        assertThat("peak heap (bytes) of " + moduleCount + " modules", measurement.peakHeapBytes,
+                lessThanOrEqualTo(budget.peakHeapBytes));
+
+        // the injection changes the Trace state of the models, but not the inputs of the task
+        assertThat(runner.build().task(":injectTraceTask").getOutcome(), equalTo(TaskOutcome.UP_TO_DATE));
+    }
+
+    /**
+     * Generates a fixture, runs {@link InjectTraceCli} on it in a new JVM like the step does, writes the report and
+     * checks the budget. The JVM gets the heap of the budget as its maximum heap, so the run fails when it needs more.
+     *
+     * @param moduleCount the number of the modules of the fixture.
+     * @param budget      the {@link CliBudget} of the fixture.
+     * @throws IOException          when any I/O error occurs with the fixture, the process or the report.
+     * @throws InterruptedException when the thread is interrupted while waiting for the process.
+     */
+    private void runCliFixture(final int moduleCount, final CliBudget budget)
+            throws IOException, InterruptedException {
+        final File rootDir = tempFolder.newFolder("fixture");
+        final File repository = tempFolder.newFolder("repository");
+        final File output = new File(tempFolder.getRoot(), "injectTraceCli.log");
+        final List<String> applications =
+                ScaleFixture.generate(rootDir, moduleCount, System.getProperty(FIXTURE_CLASSPATH_PROPERTY));
+        ScaleFixture.writeTraceRepository(repository);
+
+        final ProcessBuilder processBuilder = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+                "-Xmx" + budget.maxHeapBytes / MB + "m",
+                "-cp", System.getProperty(INJECTOR_CLASSPATH_PROPERTY), InjectTraceCli.class.getName(),
+                "--injection-mode=script_plugin", "--trace-repository-url=" + repository.toURI(),
+                rootDir.getAbsolutePath())
+                .redirectErrorStream(true)
+                .redirectOutput(output);
+        processBuilder.environment().put(TraceInjector.BITRISE_STEP_SRC_ENV,
+                System.getProperty(STEP_SRC_DIR_PROPERTY));
+
+        final long start = System.nanoTime();
+        final int exitCode = processBuilder.start().waitFor();
+        final long wallMillis = (System.nanoTime() - start) / 1_000_000;
+
+        final String log = new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+        assertThat("exit code of InjectTraceCli, output:\n" + log, exitCode, equalTo(InjectTraceCli.EXIT_SUCCESS));
+        for (final String application : applications) {
+            assertThat(log, containsString(String.format("Trace injection for project \":%s\": ", application)));
+        }
+        writeCliReport(moduleCount, wallMillis, budget);
+
+        assertThat("wall time (ms) of InjectTraceCli on " + moduleCount + " modules", wallMillis,
+                lessThanOrEqualTo(budget.wallMillis));
+    }
+
+    /**
+     * Parses a value that the fixture printed as "key=value".
+     *
+     * @param output the output of the build.
+     * @param key    the key of the value.
+     * @return the value.
+     */
+    private static long parseValue(final String output, final String key) {
+        final Matcher matcher = Pattern.compile(Pattern.quote(key) + "=(\\d+)").matcher(output);
+        if (!matcher.find()) {
+            throw new AssertionError(String.format("\"%s\" is missing from the output:%n%s", key, output));
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    /**
+     * Writes the measurement and the budget of a fixture as JSON into "&lt;moduleCount&gt;-modules.json" of the
+     * reports directory.
+     *
+     * @param moduleCount the number of the modules of the fixture.
+     * @param measurement the {@link Measurement} of the fixture.
+     * @param budget      the {@link Budget} of the fixture.
+     * @throws IOException when any I/O error occurs with the report.
+     */
+    private static void writeReport(final int moduleCount, final Measurement measurement, final Budget budget)
+            throws IOException {
+        final File reportsDir = new File(System.getProperty(REPORTS_DIR_PROPERTY, "build/reports/scaleTest"));
+        Files.createDirectories(reportsDir.toPath());
+        final String report = String.format("{%n"
+                        + "  \"modules\": %d,%n"
+                        + "  \"wallMillis\": %d,%n"
+                        + "  \"configurationMillis\": %d,%n"
+                        + "  \"peakHeapBytes\": %d,%n"
+                        + "  \"budget\": {%n"
+                        + "    \"wallMillis\": %d,%n"
+                        + "    \"configurationMillis\": %d,%n"
+                        + "    \"peakHeapBytes\": %d%n"
+                        + "  }%n"
+                        + "}%n", moduleCount, measurement.wallMillis, measurement.configurationMillis,
+                measurement.peakHeapBytes, budget.wallMillis, budget.configurationMillis, budget.peakHeapBytes);
+        Files.write(new File(reportsDir, moduleCount + "-modules.json").toPath(),
+                report.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the wall time and the budget of a run of {@link InjectTraceCli} on a fixture as JSON into
+     * "&lt;moduleCount&gt;-modules-cli.json" of the reports directory.
+     *
+     * @param moduleCount the number of the modules of the fixture.
+     * @param wallMillis  the wall time of the run, in milliseconds.
+     * @param budget      the {@link CliBudget} of the fixture.
+     * @throws IOException when any I/O error occurs with the report.
+     */
+    private static void writeCliReport(final int moduleCount, final long wallMillis, final CliBudget budget)
+            throws IOException {
+        final File reportsDir = new File(System.getProperty(REPORTS_DIR_PROPERTY, "build/reports/scaleTest"));
+        Files.createDirectories(reportsDir.toPath());
+        final String report = String.format("{%n"
+                + "  \"modules\": %d,%n"
+                + "  \"wallMillis\": %d,%n"
+                + "  \"budget\": {%n"
+                + "    \"wallMillis\": %d,%n"
+                + "    \"maxHeapBytes\": %d%n"
+                + "  }%n"
+                + "}%n", moduleCount, wallMillis, budget.wallMillis, budget.maxHeapBytes);
+        Files.write(new File(reportsDir, moduleCount + "-modules-cli.json").toPath(),
+                report.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The measured values of a fixture.
+     */
+    private static final class Measurement {
+
+        private final long wallMillis;
+        private final long configurationMillis;
+        private final long peakHeapBytes;
+
+        Measurement(final long wallMillis, final long configurationMillis, final long peakHeapBytes) {
+            this.wallMillis = wallMillis;
+            this.configurationMillis = configurationMillis;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+    }
+
+    /**
+     * The upper limits of the measured values of a fixture: about twice the measured times and a third more than the
+     * measured heap. Raise them only together with the change that makes the injection slower on purpose.
+     */
+    private static final class Budget {
+
+        private final long wallMillis;
+        private final long configurationMillis;
+        private final long peakHeapBytes;
+
+        Budget(final long wallMillis, final long configurationMillis, final long peakHeapBytes) {
+            this.wallMillis = wallMillis;
+            this.configurationMillis = configurationMillis;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+    }
+
+    /**
+     * The upper limits of a run of {@link InjectTraceCli} on a fixture: about twice the measured wall time, and the
+     * maximum heap of its JVM. Raise them only together with the change that makes the injection slower on purpose.
+     */
+    private static final class CliBudget {
+
+        private final long wallMillis;
+        private final long maxHeapBytes;
+
+        CliBudget(final long wallMillis, final long maxHeapBytes) {
+            this.wallMillis = wallMillis;
+            this.maxHeapBytes = maxHeapBytes;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package io.bitrise.trace.step;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates synthetic multi-project Gradle builds for {@link InjectTraceScaleTest}. One in every hundred modules (at
+ * least one) is an Android application with {@link StubAndroidApplicationPlugin}, the rest are "java-library" modules
+ * that depend on the previous library. The root build file prints the configuration time and the peak live heap of the
+ * build, see {@link #CONFIGURATION_MILLIS_KEY} and {@link #PEAK_HEAP_BYTES_KEY}. {@link InjectTraceTask} is applied
+ * with an init script, like the step does, see {@link #writeInitScript(File, String)}.
+ * <p>
+ * The Trace artifacts are served from a local file based Maven repository, see {@link #writeTraceRepository(File)}.
+ */
+final class ScaleFixture {
+
+    /**
+     * The key of the configuration time in the output of the build, in milliseconds, from the evaluation of the
+     * settings until the task graph is ready.
+     */
+    static final String CONFIGURATION_MILLIS_KEY = "scaleTest.configurationMillis";
+
+    /**
+     * The key of the peak live heap in the output of the build, in bytes, sampled with {@link ScaleHeapSampler} from
+     * the configuration of the root project until the end of {@link InjectTraceTask}.
+     */
+    static final String PEAK_HEAP_BYTES_KEY = "scaleTest.peakHeapBytes";
+
+    /**
+     * The version of the Trace artifacts in the local repository.
+     */
+    static final String TRACE_VERSION = "1.0.0";
+
+    private static final int MODULES_PER_APPLICATION = 100;
+    private static final int LIBRARIES_PER_APPLICATION = 5;
+
+    private ScaleFixture() {
+        // utility class
+    }
+
+    /**
+     * Generates a multi-project build.
+     *
+     * @param rootDir           the root directory of the build.
+     * @param moduleCount       the number of the modules, including the applications.
+     * @param fixtureClasspath  the classpath of {@link StubAndroidApplicationPlugin} and {@link ScaleHeapSampler}, for
+     *                          the buildscript of the root project.
+     * @return the List of the names of the application modules.
+     * @throws IOException when any I/O error occurs with the files.
+     */
+    static List<String> generate(final File rootDir, final int moduleCount, final String fixtureClasspath)
+            throws IOException {
+        final int applicationCount = Math.max(1, moduleCount / MODULES_PER_APPLICATION);
+        final List<String> applications = new ArrayList<>();
+        final List<String> libraries = new ArrayList<>();
+        for (int i = 1; i <= applicationCount; i++) {
+            applications.add(String.format("app%d", i));
+        }
+        for (int i = 1; i <= moduleCount - applicationCount; i++) {
+            libraries.add(String.format("lib%04d", i));
+        }
+
+        final StringBuilder settings = new StringBuilder()
+                .append("gradle.ext.scaleTestStart = System.nanoTime()\n\n")
+                .append("rootProject.name = 'scale-fixture'\n");
+        for (final String module : applications) {
+            settings.append("include ':").append(module).append("'\n");
+        }
+        for (final String module : libraries) {
+            settings.append("include ':").append(module).append("'\n");
+        }
+        write(new File(rootDir, "settings.gradle"), settings.toString());
+        write(new File(rootDir, "gradle.properties"), "org.gradle.jvmargs=-Xmx2g\n");
+        write(new File(rootDir, "build.gradle"), getRootBuildFileContent(fixtureClasspath));
+
+        for (int i = 0; i < applications.size(); i++) {
+            final StringBuilder content = new StringBuilder("apply plugin: 'com.android.application'\n\n")
+                    .append("dependencies {\n");
+            for (int j = 0; j < LIBRARIES_PER_APPLICATION && j < libraries.size(); j++) {
+                content.append("    implementation project(':")
+                        .append(libraries.get((i * LIBRARIES_PER_APPLICATION + j) % libraries.size()))
+                        .append("')\n");
+            }
+            content.append("}\n");
+            write(new File(rootDir, applications.get(i) + "/build.gradle"), content.toString());
+        }
+        for (int i = 0; i < libraries.size(); i++) {
+            final StringBuilder content = new StringBuilder("apply plugin: 'java-library'\n");
+            if (i > 0) {
+                content.append("\ndependencies {\n    api project(':").append(libraries.get(i - 1)).append("')\n}\n");
+            }
+            write(new File(rootDir, libraries.get(i) + "/build.gradle"), content.toString());
+        }
+        return applications;
+    }
+
+    /**
+     * Writes a local file based Maven repository with the Trace SDK and the Trace Gradle plugin, in
+     * {@link #TRACE_VERSION}.
+     *
+     * @param repository the root directory of the repository.
+     * @throws IOException when any I/O error occurs with the files.
+     */
+    static void writeTraceRepository(final File repository) throws IOException {
+        writeArtifact(repository, TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME,
+                TraceInjector.TRACE_SDK_DEPENDENCY_NAME);
+        writeArtifact(repository, TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME,
+                TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME);
+    }
+
+    /**
+     * Writes the init script that applies {@link TraceInjectorPlugin}, the same as the one of the step.
+     *
+     * @param initScript        the init script file.
+     * @param injectorClasspath the classpath of {@link TraceInjectorPlugin}.
+     * @throws IOException when any I/O error occurs with the file.
+     */
+    static void writeInitScript(final File initScript, final String injectorClasspath) throws IOException {
+        write(initScript, "initscript {\n"
+                + "    dependencies {\n"
+                + "        classpath files(" + toFileList(injectorClasspath) + ")\n"
+                + "    }\n"
+                + "}\n\n"
+                + "rootProject {\n"
+                + "    apply plugin: " + TraceInjectorPlugin.class.getName() + "\n"
+                + "}\n");
+    }
+
+    private static String toFileList(final String classpath) {
+        final StringBuilder files = new StringBuilder();
+        for (final String entry : classpath.split(File.pathSeparator)) {
+            if (files.length() > 0) {
+                files.append(", ");
+            }
+            files.append('\'').append(entry.replace("\\", "\\\\").replace("'", "\\'")).append('\'');
+        }
+        return files.toString();
+    }
+
+    private static String getRootBuildFileContent(final String fixtureClasspath) {
+        return "buildscript {\n"
+                + "    dependencies {\n"
+                + "        classpath files(" + toFileList(fixtureClasspath) + ")\n"
+                + "    }\n"
+                + "}\n\n"
+                + "io.bitrise.trace.step.ScaleHeapSampler.start()\n\n"
+                + "gradle.taskGraph.whenReady {\n"
+                + "    println \"" + CONFIGURATION_MILLIS_KEY + "=${(System.nanoTime() - gradle.scaleTestStart)"
+                + ".intdiv(1000000)}\"\n"
+                + "}\n\n"
+                + "tasks.named('" + TraceInjectorPlugin.INJECT_TRACE_TASK_NAME + "') {\n"
+                + "    doLast {\n"
+                + "        println \"" + PEAK_HEAP_BYTES_KEY + "=${io.bitrise.trace.step.ScaleHeapSampler.stop()}\"\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    private static void writeArtifact(final File repository, final String group, final String name)
+            throws IOException {
+        final File directory = new File(repository, group.replace('.', '/') + "/" + name);
+        write(new File(directory, "maven-metadata.xml"), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<metadata>\n"
+                + "  <groupId>" + group + "</groupId>\n"
+                + "  <artifactId>" + name + "</artifactId>\n"
+                + "  <versioning>\n"
+                + "    <release>" + TRACE_VERSION + "</release>\n"
+                + "    <versions>\n"
+                + "      <version>" + TRACE_VERSION + "</version>\n"
+                + "    </versions>\n"
+                + "  </versioning>\n"
+                + "</metadata>\n");
+        write(new File(directory, TRACE_VERSION + "/" + name + "-" + TRACE_VERSION + ".pom"),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<project>\n"
+                        + "  <modelVersion>4.0.0</modelVersion>\n"
+                        + "  <groupId>" + group + "</groupId>\n"
+                        + "  <artifactId>" + name + "</artifactId>\n"
+                        + "  <version>" + TRACE_VERSION + "</version>\n"
+                        + "  <packaging>pom</packaging>\n"
+                        + "</project>\n");
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
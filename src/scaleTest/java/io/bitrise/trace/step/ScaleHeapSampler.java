@@ -0,0 +1,96 @@
+package io.bitrise.trace.step;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Samples the live heap of the Gradle daemon for the fixtures of {@link ScaleFixture}: the heap usage after each
+ * garbage collection, from {@link #start()} until {@link #stop()}. Unlike the peak usage of the memory pools, it does
+ * not depend on how much garbage the collector lets pile up before it runs.
+ */
+public final class ScaleHeapSampler implements NotificationListener {
+
+    private static ScaleHeapSampler current;
+
+    private final Set<String> heapPoolNames = new HashSet<>();
+    private final AtomicLong peakBytes = new AtomicLong();
+
+    private ScaleHeapSampler() {
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPoolNames.add(pool.getName());
+            }
+        }
+    }
+
+    /**
+     * Starts sampling, stops the previous sampling of the daemon if it has not been stopped.
+     */
+    public static synchronized void start() {
+        if (current != null) {
+            stop();
+        }
+        current = new ScaleHeapSampler();
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener(current, null, null);
+        }
+    }
+
+    /**
+     * Stops sampling. The heap is collected once more, so the live heap at the end is sampled too.
+     *
+     * @return the peak of the sampled live heap, in bytes.
+     */
+    public static synchronized long stop() {
+        if (current == null) {
+            throw new IllegalStateException("The sampling has not been started.");
+        }
+        System.gc();
+        current.sample(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            try {
+                ((NotificationEmitter) collector).removeNotificationListener(current);
+            } catch (final ListenerNotFoundException e) {
+                // the collector was added after the sampling has been started
+            }
+        }
+        final long peakBytes = current.peakBytes.get();
+        current = null;
+        return peakBytes;
+    }
+
+    @Override
+    public void handleNotification(final Notification notification, final Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        final GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long usedBytes = 0;
+        for (final Map.Entry<String, MemoryUsage> entry : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+            if (heapPoolNames.contains(entry.getKey())) {
+                usedBytes += entry.getValue().getUsed();
+            }
+        }
+        sample(usedBytes);
+    }
+
+    private void sample(final long usedBytes) {
+        peakBytes.accumulateAndGet(usedBytes, Math::max);
+    }
+}
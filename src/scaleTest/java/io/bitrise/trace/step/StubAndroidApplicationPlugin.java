@@ -0,0 +1,17 @@
+package io.bitrise.trace.step;
+
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+
+/**
+ * Stands in for {@link TraceInjector#ANDROID_APPLICATION_PLUGIN_ID} in the fixtures of {@link InjectTraceScaleTest},
+ * so no Android SDK and no Android Gradle plugin is required. It only creates the "implementation" configuration that
+ * the application modules declare their dependencies in.
+ */
+public class StubAndroidApplicationPlugin implements Plugin<Project> {
+
+    @Override
+    public void apply(final Project project) {
+        project.getConfigurations().maybeCreate("implementation");
+    }
+}
@@ -0,0 +1,16 @@
+package io.bitrise.trace.step;
+
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+
+/**
+ * Stands in for the Trace Gradle plugin in the fixtures of {@link InjectTraceScaleTest}, so the injected application
+ * modules can be configured again by a later build. It does nothing.
+ */
+public class StubTraceGradlePlugin implements Plugin<Project> {
+
+    @Override
+    public void apply(final Project project) {
+        // the injected modules only have to be configurable
+    }
+}
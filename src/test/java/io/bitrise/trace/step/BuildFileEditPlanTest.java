@@ -0,0 +1,163 @@
+package io.bitrise.trace.step;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test cases for {@link BuildFileEditPlan}.
+ */
+public class BuildFileEditPlanTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    //region insert tests
+    @Test
+    public void insert_keepsComments() throws IOException {
+        final String content = "// comment with buildscript {\n" +
+                "buildscript /* inline */ { // trailing\n" +
+                "}\n" +
+                "/* tail */";
+        final File file = writeFile("build.gradle", content);
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+
+        plan.insert(file.toPath(), plan.getIndex(file.toPath()).findBlock("buildscript").getOpenBrace() + 1,
+                "INSERTED");
+        plan.apply();
+
+        assertThat(readFile(file), equalTo(content.replace("/* inline */ {", "/* inline */ {INSERTED")));
+    }
+
+    @Test
+    public void insert_multiByteCharactersBeforeOffset() throws IOException {
+        final String content = "def name = \"\u00e9\u20ac\uD83D\uDE00\"\nbuildscript {\n}";
+        final File file = writeFile("build.gradle", content);
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+
+        plan.insert(file.toPath(), plan.getIndex(file.toPath()).findBlock("buildscript").getOpenBrace() + 1,
+                "INSERTED");
+        plan.apply();
+
+        assertThat(readFile(file), equalTo(content.replace("buildscript {", "buildscript {INSERTED")));
+    }
+
+    @Test
+    public void insert_severalEditsAreWrittenOnce() throws IOException {
+        final String content = "buildscript {\n}\napply plugin: 'java'";
+        final File file = writeFile("build.gradle", content);
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+        final BuildScriptIndex index = plan.getIndex(file.toPath());
+
+        plan.insert(file.toPath(), content.length(), "\nFIRST");
+        plan.insert(file.toPath(), index.findBlock("buildscript").getOpenBrace() + 1, "BUILDSCRIPT");
+        plan.insert(file.toPath(), content.length(), "\nSECOND");
+        // the index of the plan does not change until it is applied
+        assertThat(plan.getIndex(file.toPath()), is(index));
+
+        assertThat(plan.apply(), equalTo(Collections.singletonList(file.toPath())));
+        assertThat(readFile(file), equalTo("buildscript {BUILDSCRIPT\n}\napply plugin: 'java'\nFIRST\nSECOND"));
+        assertThat(plan.isEmpty(), is(true));
+    }
+
+    @Test(expected = IOException.class)
+    public void insert_changedSinceIndexed() throws IOException {
+        final File file = writeFile("build.gradle", "apply plugin: 'java'");
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+        plan.insert(file.toPath(), 0, "INSERTED");
+        Files.write(file.toPath(), "apply plugin: 'java-library'".getBytes(StandardCharsets.UTF_8));
+
+        plan.apply();
+    }
+
+    @Test(expected = IOException.class)
+    public void insert_changedWithTheSameSizeSinceIndexed() throws IOException {
+        final File file = writeFile("build.gradle", "apply plugin: 'java'");
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+        plan.insert(file.toPath(), 0, "INSERTED");
+        Files.write(file.toPath(), "apply plugin: 'jaxa'".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            plan.apply();
+        } finally {
+            assertThat(readFile(file), equalTo("apply plugin: 'jaxa'"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void insert_concurrentPlanHasWrittenTheFile() throws IOException {
+        final File file = writeFile("build.gradle", "apply plugin: 'java'");
+        final BuildFileEditPlan first = new BuildFileEditPlan();
+        final BuildFileEditPlan second = new BuildFileEditPlan();
+        first.insert(file.toPath(), 0, "FIRST\n");
+        second.insert(file.toPath(), 0, "SECOND\n");
+        first.apply();
+
+        try {
+            second.apply();
+        } finally {
+            assertThat(readFile(file), equalTo("FIRST\napply plugin: 'java'"));
+        }
+    }
+    //endregion
+
+    //region write tests
+    @Test
+    public void write_newFile() throws IOException {
+        final Path path = tempFolder.getRoot().toPath().resolve("traceSdk.gradle");
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+
+        plan.write(path, "content".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(plan.apply(), equalTo(Collections.singletonList(path)));
+        assertThat(readFile(path.toFile()), equalTo("content"));
+    }
+
+    @Test
+    public void write_existingFileIsReplaced() throws IOException {
+        final File file = writeFile("traceSdk.gradle", "old content");
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+
+        plan.write(file.toPath(), "new content".getBytes(StandardCharsets.UTF_8));
+        plan.apply();
+
+        assertThat(readFile(file), equalTo("new content"));
+        assertThat(Arrays.asList(tempFolder.getRoot().list()), equalTo(Collections.singletonList("traceSdk.gradle")));
+    }
+
+    @Test
+    public void write_unchangedFileIsNotWritten() throws IOException {
+        final File file = writeFile("traceSdk.gradle", "content");
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(10_000));
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+
+        plan.write(file.toPath(), "content".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(plan.apply(), equalTo(Collections.<Path>emptyList()));
+        assertThat(Files.getLastModifiedTime(file.toPath()).toMillis(), is(10_000L));
+    }
+    //endregion
+
+    private File writeFile(final String name, final String content) throws IOException {
+        final File file = tempFolder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String readFile(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,250 @@
+package io.bitrise.trace.step;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * Test cases for {@link BuildScriptIndex}.
+ */
+public class BuildScriptIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    //region Block tests
+    @Test
+    public void findBlock_topLevel() {
+        final String content = "buildscript {\n" +
+                "    repositories { jcenter() }\n" +
+                "}\n" +
+                "dependencies {\n" +
+                "}";
+        final BuildScriptIndex index = groovy(content);
+
+        final BuildScriptIndex.Block buildscript = index.findBlock("buildscript");
+        assertThat(buildscript.getDepth(), is(0));
+        assertThat(buildscript.getStart(), is(0));
+        assertThat(buildscript.getOpenBrace(), is(content.indexOf('{')));
+        assertThat(buildscript.getCloseBrace(), is(content.indexOf("}\ndependencies")));
+
+        final BuildScriptIndex.Block dependencies = index.findBlock("dependencies");
+        assertThat(dependencies.getStart(), is(content.indexOf("dependencies")));
+        assertThat(dependencies.getCloseBrace(), is(content.length() - 1));
+    }
+
+    @Test
+    public void findBlock_nested() {
+        final String content = "buildscript {\n" +
+                "    repositories { jcenter() }\n" +
+                "}";
+        final BuildScriptIndex index = groovy(content);
+
+        assertThat(index.findBlock("repositories"), is(nullValue()));
+        final BuildScriptIndex.Block repositories = index.findBlock("buildscript.repositories");
+        assertThat(repositories.getDepth(), is(1));
+        assertThat(repositories.getOpenBrace(), is(content.indexOf("{ jcenter")));
+    }
+
+    @Test
+    public void findBlock_commentsAndStringsAreIgnored() {
+        final String content = "// buildscript {\n" +
+                "def text = \"buildscript {\"\n" +
+                "/* buildscript { */ buildscript /* inline */ {\n" +
+                "}";
+        final BuildScriptIndex index = groovy(content);
+
+        assertThat(index.findBlock("buildscript").getOpenBrace(), is(content.indexOf("/* inline */ {") + 13));
+    }
+
+    @Test
+    public void findBlock_anonymousParent() {
+        final String content = "tasks.register(\"foo\") {\n" +
+                "    dependencies {\n" +
+                "    }\n" +
+                "}";
+        final BuildScriptIndex index = kotlin(content);
+
+        assertThat(index.findBlock("dependencies"), is(nullValue()));
+        assertThat(index.findBlock("?.dependencies").getDepth(), is(1));
+    }
+
+    @Test
+    public void findBlock_unterminated() {
+        final BuildScriptIndex index = groovy("plugins {\n    id 'java'\n");
+
+        assertThat(index.findBlock("plugins").getCloseBrace(), is(-1));
+    }
+    //endregion
+
+    //region Apply statement tests
+    @Test
+    public void getApplyStatements_groovy() {
+        final String content = "apply plugin: 'com.android.application'\n" +
+                "apply from: \"traceSdk.gradle\"\n" +
+                "// apply from: \"commented.gradle\"";
+        final BuildScriptIndex index = groovy(content);
+
+        assertThat(index.getApplyStatements().size(), is(2));
+        final BuildScriptIndex.ApplyStatement applyFrom = index.getApplyStatements().get(1);
+        assertThat(applyFrom.getKind(), equalTo("from"));
+        assertThat(applyFrom.getTarget(), equalTo("traceSdk.gradle"));
+        assertThat(applyFrom.getStart(), is(content.indexOf("apply from")));
+        assertThat(applyFrom.getEnd(), is(content.indexOf("\n// apply")));
+        assertThat(index.hasApplyStatement("plugin", "com.android.application"), is(true));
+        assertThat(index.hasApplyStatement("from", "commented.gradle"), is(false));
+    }
+
+    @Test
+    public void getApplyStatements_kotlin() {
+        final String content = "apply(from = \"traceSdk.gradle\")\n" +
+                "apply(\"tracePlugin.gradle\")\n";
+        final BuildScriptIndex index = kotlin(content);
+
+        assertThat(index.hasApplyStatement("from", "traceSdk.gradle"), is(true));
+        assertThat(index.hasApplyStatement("from", "tracePlugin.gradle"), is(true));
+        assertThat(index.getApplyStatements().get(0).getEnd(), is(content.indexOf('\n')));
+    }
+    //endregion
+
+    //region String tests
+    @Test
+    public void hasStringContaining() {
+        final BuildScriptIndex index = groovy("// \"io.bitrise.trace:trace-sdk\"\n" +
+                "implementation \"io.bitrise.trace.plugin:trace-gradle-plugin:+\"");
+
+        assertThat(index.hasStringContaining("io.bitrise.trace.plugin:trace-gradle-plugin"), is(true));
+        assertThat(index.hasStringContaining("io.bitrise.trace:trace-sdk"), is(false));
+    }
+
+    @Test
+    public void getStrings_inBlock() {
+        final BuildScriptIndex index = kotlin("plugins {\n    id(\"com.android.application\")\n" +
+                "    // id(\"commented.out\")\n    kotlin(\"android\")\n}\nversion = \"1.0\"");
+
+        assertThat(index.getStrings(index.findBlock("plugins")),
+                equalTo(Arrays.asList("com.android.application", "android")));
+    }
+
+    @Test
+    public void appliesPlugin_applyFalseIsNotApplied() {
+        final BuildScriptIndex groovy = groovy("plugins {\n    id 'a' version '1.0' apply false\n    id 'b'\n" +
+                "    id 'c' apply false; id 'd' // apply false\n}");
+        final BuildScriptIndex kotlin = kotlin("plugins {\n    id(\"a\") version \"1.0\" apply false\n" +
+                "    id(\"b\").apply(false)\n    id(\"c\") apply true\n}");
+
+        assertThat(groovy.appliesPlugin(groovy.findBlock("plugins"), "a"), is(false));
+        assertThat(groovy.appliesPlugin(groovy.findBlock("plugins"), "b"), is(true));
+        assertThat(groovy.appliesPlugin(groovy.findBlock("plugins"), "c"), is(false));
+        assertThat(groovy.appliesPlugin(groovy.findBlock("plugins"), "d"), is(true));
+        assertThat(groovy.appliesPlugin(groovy.findBlock("plugins"), "1.0"), is(false));
+        assertThat(kotlin.appliesPlugin(kotlin.findBlock("plugins"), "a"), is(false));
+        assertThat(kotlin.appliesPlugin(kotlin.findBlock("plugins"), "b"), is(false));
+        assertThat(kotlin.appliesPlugin(kotlin.findBlock("plugins"), "c"), is(true));
+    }
+    //endregion
+
+    //region Memoization tests
+    @Test
+    public void forFile_unchangedFileIsMemoized() throws IOException {
+        final File file = writeFile("build.gradle", "buildscript {\n}");
+        setLastModified(file, 10_000);
+
+        final BuildScriptIndex first = BuildScriptIndex.forFile(file.toPath());
+        final BuildScriptIndex second = BuildScriptIndex.forFile(file.toPath());
+
+        assertThat(second, is(sameInstance(first)));
+    }
+
+    @Test
+    public void forFile_changedFileIsIndexedAgain() throws IOException {
+        final File file = writeFile("build.gradle", "buildscript {\n}");
+        setLastModified(file, 10_000);
+        final BuildScriptIndex first = BuildScriptIndex.forFile(file.toPath());
+
+        Files.write(file.toPath(), "plugins {\n}".getBytes(StandardCharsets.UTF_8));
+        setLastModified(file, 20_000);
+        final BuildScriptIndex second = BuildScriptIndex.forFile(file.toPath());
+
+        assertThat(second.getContentHash(), not(equalTo(first.getContentHash())));
+        assertThat(second.findBlock("plugins"), not(nullValue()));
+        assertThat(second.findBlock("buildscript"), is(nullValue()));
+    }
+
+    @Test
+    public void forFile_touchedFileKeepsBlocks() throws IOException {
+        final File file = writeFile("build.gradle", "buildscript {\n}");
+        setLastModified(file, 10_000);
+        final BuildScriptIndex first = BuildScriptIndex.forFile(file.toPath());
+
+        setLastModified(file, 20_000);
+        final BuildScriptIndex second = BuildScriptIndex.forFile(file.toPath());
+
+        assertThat(second, not(sameInstance(first)));
+        assertThat(second.getBlocks(), is(sameInstance(first.getBlocks())));
+    }
+
+    @Test
+    public void forFile_recentlyModifiedFileIsVerified() throws IOException {
+        final File file = writeFile("build.gradle", "buildscript {\n}");
+        final long now = System.currentTimeMillis();
+        setLastModified(file, now);
+        BuildScriptIndex.forFile(file.toPath());
+
+        // same size and modification time, but different content
+        Files.write(file.toPath(), "dependencies {\n}".substring(0, 15).getBytes(StandardCharsets.UTF_8));
+        setLastModified(file, now);
+        final BuildScriptIndex actual = BuildScriptIndex.forFile(file.toPath());
+
+        assertThat(actual.findBlock("buildscript"), is(nullValue()));
+    }
+
+    @Test
+    public void forFile_leastRecentlyUsedIndexIsEvicted() throws IOException {
+        final File file = writeFile("build.gradle", "buildscript {\n}");
+        setLastModified(file, 10_000);
+        final BuildScriptIndex first = BuildScriptIndex.forFile(file.toPath());
+
+        for (int i = 0; i < BuildScriptIndex.MAX_CACHED_INDEXES; i++) {
+            BuildScriptIndex.forFile(writeFile("build" + i + ".gradle", "plugins {\n}").toPath());
+        }
+        final BuildScriptIndex second = BuildScriptIndex.forFile(file.toPath());
+
+        assertThat(second, not(sameInstance(first)));
+        assertThat(second.getBlocks(), not(sameInstance(first.getBlocks())));
+    }
+    //endregion
+
+    private static BuildScriptIndex groovy(final String content) {
+        return BuildScriptIndex.of(CharBuffer.wrap(content), false);
+    }
+
+    private static BuildScriptIndex kotlin(final String content) {
+        return BuildScriptIndex.of(CharBuffer.wrap(content), true);
+    }
+
+    private File writeFile(final String name, final String content) throws IOException {
+        final File file = tempFolder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static void setLastModified(final File file, final long millis) throws IOException {
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(millis));
+    }
+}
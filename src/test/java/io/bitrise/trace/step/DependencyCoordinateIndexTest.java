@@ -0,0 +1,98 @@
+package io.bitrise.trace.step;
+
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.ConfigurationContainer;
+import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.DependencySet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for {@link DependencyCoordinateIndex}.
+ */
+public class DependencyCoordinateIndexTest {
+
+    private static final String GROUP = "io.bitrise.dummy";
+
+    //region isDeclarable tests
+    @Test
+    public void isDeclarable_buckets() {
+        for (final String name : Arrays.asList("implementation", "api", "compileOnly", "runtimeOnly",
+                "freeDebugImplementation", "releaseApi", "testImplementation", "compile")) {
+            assertThat(name, DependencyCoordinateIndex.isDeclarable(name), is(true));
+        }
+    }
+
+    @Test
+    public void isDeclarable_notBuckets() {
+        for (final String name : Arrays.asList("debugCompileClasspath", "freeReleaseRuntimeClasspath", "kapt",
+                "annotationProcessor", "lintChecks", "debugApiElements")) {
+            assertThat(name, DependencyCoordinateIndex.isDeclarable(name), is(false));
+        }
+    }
+    //endregion
+
+    //region ofDeclarableConfigurations tests
+    @Test
+    public void ofDeclarableConfigurations_onlyBucketsAreRealized() {
+        final Configuration implementation = mockConfiguration("implementation", mockDependency(GROUP, "a"));
+        final Configuration freeDebugImplementation = mockConfiguration("freeDebugImplementation",
+                mockDependency(GROUP, "a"), mockDependency(GROUP, "b"));
+        final ConfigurationContainer configurations = mock(ConfigurationContainer.class);
+        when(configurations.getNames()).thenReturn(new TreeSet<>(Arrays.asList("implementation",
+                "freeDebugImplementation", "freeDebugCompileClasspath", "freeDebugRuntimeClasspath")));
+        when(configurations.getByName("implementation")).thenReturn(implementation);
+        when(configurations.getByName("freeDebugImplementation")).thenReturn(freeDebugImplementation);
+
+        final DependencyCoordinateIndex index = DependencyCoordinateIndex.ofDeclarableConfigurations(configurations);
+
+        verify(configurations, never()).getByName("freeDebugCompileClasspath");
+        verify(configurations, never()).getByName("freeDebugRuntimeClasspath");
+        assertThat(index.size(), is(2));
+        assertThat(index.getConfigurationNames(GROUP, "a"),
+                equalTo(new TreeSet<>(Arrays.asList("freeDebugImplementation", "implementation"))));
+        assertThat(index.contains(GROUP, "b"), is(true));
+        assertThat(index.contains(GROUP, "c"), is(false));
+    }
+    //endregion
+
+    //region add tests
+    @Test
+    public void add_dependencyWithoutGroupIsSkipped() {
+        final DependencyCoordinateIndex index = DependencyCoordinateIndex.of(Collections.singletonList(
+                mockConfiguration("implementation", mockDependency(null, "files"))));
+
+        assertThat(index.size(), is(0));
+        assertThat(index.getConfigurationNames(GROUP, "files"), equalTo(Collections.<String>emptySet()));
+        assertThat(index.getConfigurationCount(), is(1));
+        assertThat(index.getDependencyCount(), is(1));
+    }
+    //endregion
+
+    private static Configuration mockConfiguration(final String name, final Dependency... dependencies) {
+        final Configuration configuration = mock(Configuration.class);
+        final DependencySet dependencySet = mock(DependencySet.class);
+        when(dependencySet.iterator()).thenReturn(Arrays.asList(dependencies).iterator());
+        when(configuration.getDependencies()).thenReturn(dependencySet);
+        when(configuration.getName()).thenReturn(name);
+        return configuration;
+    }
+
+    private static Dependency mockDependency(final String group, final String name) {
+        final Dependency dependency = mock(Dependency.class);
+        when(dependency.getGroup()).thenReturn(group);
+        when(dependency.getName()).thenReturn(name);
+        return dependency;
+    }
+}
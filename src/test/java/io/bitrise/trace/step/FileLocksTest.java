@@ -0,0 +1,110 @@
+package io.bitrise.trace.step;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Test cases for {@link FileLocks}.
+ */
+public class FileLocksTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void lock_excludesConcurrentWriters() throws Exception {
+        final FileLocks fileLocks = new FileLocks(tempFolder.newFolder("locks").toPath(), 4);
+        final Path counter = tempFolder.newFile("counter").toPath();
+        Files.write(counter, "0".getBytes(StandardCharsets.UTF_8));
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 50; j++) {
+                        try (final FileLocks.Handle ignored = fileLocks.lock(counter)) {
+                            final int value = Integer.parseInt(
+                                    new String(Files.readAllBytes(counter), StandardCharsets.UTF_8));
+                            Thread.yield();
+                            Files.write(counter, String.valueOf(value + 1).getBytes(StandardCharsets.UTF_8));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(new String(Files.readAllBytes(counter), StandardCharsets.UTF_8), equalTo("400"));
+    }
+
+    @Test
+    public void lock_waitsForRelease() throws Exception {
+        final FileLocks fileLocks = new FileLocks(tempFolder.newFolder("locks").toPath(), 4);
+        final Path path = tempFolder.getRoot().toPath().resolve("build.gradle");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Void> future;
+            try (final FileLocks.Handle ignored = fileLocks.lock(path)) {
+                future = executor.submit(() -> {
+                    fileLocks.lock(path).close();
+                    return null;
+                });
+                try {
+                    future.get(200, TimeUnit.MILLISECONDS);
+                    throw new AssertionError("The lock has been acquired while it was held.");
+                } catch (final TimeoutException e) {
+                    // expected, the lock is held
+                }
+            }
+            future.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void lock_lockFilesAreOutsideOfTheProject() throws IOException {
+        final File lockDir = tempFolder.newFolder("locks");
+        final File projectDir = tempFolder.newFolder("project");
+        final FileLocks fileLocks = new FileLocks(lockDir.toPath(), 4);
+
+        fileLocks.lock(projectDir.toPath().resolve("build.gradle")).close();
+        fileLocks.lock(projectDir.toPath().resolve("app/build.gradle")).close();
+
+        assertThat(projectDir.list().length, is(0));
+        assertThat(lockDir.list().length, is(2));
+    }
+
+    @Test
+    public void getLockFileName_dependsOnlyOnThePath() {
+        assertThat(FileLocks.getLockFileName("/project/build.gradle"),
+                equalTo(FileLocks.getLockFileName("/project/build.gradle")));
+        assertThat(FileLocks.getLockFileName("/project/build.gradle"),
+                not(equalTo(FileLocks.getLockFileName("/project/app/build.gradle"))));
+        assertThat(FileLocks.getLockFileName("/project/build.gradle").length(), is(64 + ".lock".length()));
+    }
+}
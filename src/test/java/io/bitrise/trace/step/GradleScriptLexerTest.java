@@ -0,0 +1,125 @@
+package io.bitrise.trace.step;
+
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test cases for {@link GradleScriptLexer}.
+ */
+public class GradleScriptLexerTest {
+
+    private static String removeGroovyComments(final String content) {
+        return GradleScriptLexer.removeComments(CharBuffer.wrap(content), false);
+    }
+
+    private static String removeKotlinComments(final String content) {
+        return GradleScriptLexer.removeComments(CharBuffer.wrap(content), true);
+    }
+
+    //region removeComments tests
+    @Test
+    public void removeComments_lineCommentMarkerInString() {
+        final String actual = removeGroovyComments("maven { url \"https://example.com\" } // comment\n");
+        assertThat(actual, equalTo("maven { url \"https://example.com\" } \n"));
+    }
+
+    @Test
+    public void removeComments_blockCommentMarkerInSingleQuotedString() {
+        final String actual = removeGroovyComments("def pattern = '/*' /* comment */");
+        assertThat(actual, equalTo("def pattern = '/*' "));
+    }
+
+    @Test
+    public void removeComments_escapedQuoteInString() {
+        final String actual = removeGroovyComments("println \"\\\" // not a comment\" // comment");
+        assertThat(actual, equalTo("println \"\\\" // not a comment\" "));
+    }
+
+    @Test
+    public void removeComments_gStringInterpolation() {
+        final String actual = removeGroovyComments("def s = \"${map[\"}\"] /* in expression */}\" // comment");
+        assertThat(actual, equalTo("def s = \"${map[\"}\"] /* in expression */}\" "));
+    }
+
+    @Test
+    public void removeComments_groovyTripleQuotedString() {
+        final String actual = removeGroovyComments("def s = '''it's\n// not a comment\n''' // comment");
+        assertThat(actual, equalTo("def s = '''it's\n// not a comment\n''' "));
+    }
+
+    @Test
+    public void removeComments_kotlinRawString() {
+        final String actual = removeKotlinComments("val s = \"\"\"C:\\ // not a comment\"\"\" // comment");
+        assertThat(actual, equalTo("val s = \"\"\"C:\\ // not a comment\"\"\" "));
+    }
+
+    @Test
+    public void removeComments_kotlinCharLiteral() {
+        final String actual = removeKotlinComments("val c = '\"' // comment");
+        assertThat(actual, equalTo("val c = '\"' "));
+    }
+
+    @Test
+    public void removeComments_kotlinNestedBlockComment() {
+        final String actual = removeKotlinComments("a /* b /* c */ d */ e");
+        assertThat(actual, equalTo("a  e"));
+    }
+
+    @Test
+    public void removeComments_groovyBlockCommentIsNotNested() {
+        final String actual = removeGroovyComments("a /* b /* c */ d */ e");
+        assertThat(actual, equalTo("a  d */ e"));
+    }
+
+    @Test
+    public void removeComments_multilineBlockCommentKeepsLineBreak() {
+        final String actual = removeGroovyComments("a /* b\nc */ d");
+        assertThat(actual, equalTo("a \n d"));
+    }
+
+    @Test
+    public void removeComments_unterminatedBlockComment() {
+        final String actual = removeGroovyComments("a /* b");
+        assertThat(actual, equalTo("a "));
+    }
+    //endregion
+
+    //region lex tests
+    @Test
+    public void lex_spans() {
+        final String content = "a 'b' /* c */ d";
+        final StringBuilder spans = new StringBuilder();
+        final GradleScriptLexer lexer = GradleScriptLexer.of(CharBuffer.wrap(content), false);
+        lexer.lex(new GradleScriptLexer.Listener() {
+            @Override
+            public void onCode(final int start, final int end) {
+                spans.append("code[").append(content, start, end).append("]");
+            }
+
+            @Override
+            public void onString(final int start, final int end) {
+                spans.append("string[").append(content, start, end).append("]");
+            }
+
+            @Override
+            public void onComment(final int start, final int end, final boolean multiline) {
+                spans.append("comment[").append(content, start, end).append("]");
+            }
+        });
+        assertThat(spans.toString(), equalTo("code[a ]string['b']code[ ]comment[/* c */]code[ d]"));
+    }
+
+    @Test
+    public void lex_arrayBackedBufferIsNotCopied() {
+        final char[] content = "x = 1".toCharArray();
+        final GradleScriptLexer lexer = GradleScriptLexer.of(CharBuffer.wrap(content, 2, 3), false);
+        assertThat(lexer.length(), is(3));
+        assertThat(lexer.charAt(0), is('='));
+    }
+    //endregion
+}
@@ -0,0 +1,83 @@
+package io.bitrise.trace.step;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test cases for {@link InjectTraceCli}.
+ */
+public class InjectTraceCliTest {
+
+    private static final String APPLICATION_BUILD_FILE = "apply plugin: 'com.android.application'\n";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void run_includedBuildsAreInjected() throws IOException {
+        writeCompositeBuild();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        final int exitCode = run(out);
+
+        assertThat(exitCode, is(InjectTraceCli.EXIT_SUCCESS));
+        assertThat(readFile("app/build.gradle"), containsString(TraceInjector.getTraceGradlePluginApply(false)));
+        assertThat(readFile("wear/watch/build.gradle"),
+                containsString(TraceInjector.getTraceGradlePluginApply(false)));
+        assertThat(new File(tempFolder.getRoot(), "build/trace/injectTrace/wear_watch.state").isFile(), is(true));
+        assertThat(out.toString("UTF-8"), containsString("Trace injection for project \":wear:watch\": success"));
+    }
+
+    @Test
+    public void run_includedBuildsAreNotInjected() throws IOException {
+        writeCompositeBuild();
+
+        final int exitCode = run(new ByteArrayOutputStream(), "--no-included-builds");
+
+        assertThat(exitCode, is(InjectTraceCli.EXIT_SUCCESS));
+        assertThat(readFile("app/build.gradle"), containsString(TraceInjector.getTraceGradlePluginApply(false)));
+        assertThat(readFile("wear/watch/build.gradle"), equalTo(APPLICATION_BUILD_FILE));
+    }
+
+    private void writeCompositeBuild() throws IOException {
+        writeFile("settings.gradle", "include ':app'\nincludeBuild 'wear'\n");
+        writeFile("app/build.gradle", APPLICATION_BUILD_FILE);
+        writeFile("wear/settings.gradle", "include ':watch'\n");
+        writeFile("wear/watch/build.gradle", APPLICATION_BUILD_FILE);
+    }
+
+    private int run(final ByteArrayOutputStream out, final String... options) throws IOException {
+        // a local repository without the Trace artifacts, so the dynamic versions are injected
+        final String repositoryUrl = tempFolder.newFolder("repository").toURI().toString();
+        final String[] args = new String[options.length + 3];
+        System.arraycopy(options, 0, args, 0, options.length);
+        args[options.length] = "--injection-mode=inline";
+        args[options.length + 1] = "--trace-repository-url=" + repositoryUrl;
+        args[options.length + 2] = tempFolder.getRoot().getPath();
+        return InjectTraceCli.run(args, new PrintStream(out, true, "UTF-8"),
+                new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"));
+    }
+
+    private String readFile(final String path) throws IOException {
+        return new String(Files.readAllBytes(new File(tempFolder.getRoot(), path).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private void writeFile(final String path, final String content) throws IOException {
+        final File file = new File(tempFolder.getRoot(), path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,91 @@
+package io.bitrise.trace.step;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+/**
+ * Test cases for {@link InjectionEvents}.
+ */
+public class InjectionEventsTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void fileMutation_isRecorded() throws IOException {
+        final Path file = tempFolder.getRoot().toPath().resolve("trace.init.gradle");
+        final byte[] content = "// init script\n".getBytes(StandardCharsets.UTF_8);
+
+        final List<RecordedEvent> events;
+        try (final Recording recording = new Recording()) {
+            recording.enable("io.bitrise.trace.step.FileMutation");
+            recording.start();
+            writeFile(file, content);
+            writeFile(file, content);
+            recording.stop();
+            events = readEvents(recording);
+        }
+
+        assertThat(events, hasSize(2));
+        assertThat(events.get(0).getString("path"), equalTo(file.toAbsolutePath().normalize().toString()));
+        assertThat(events.get(0).getLong("bytes"), equalTo((long) content.length));
+        assertThat(events.get(0).getString("outcome"), equalTo("written"));
+        assertThat(events.get(1).getLong("bytes"), equalTo(0L));
+        assertThat(events.get(1).getString("outcome"), equalTo("unchanged"));
+    }
+
+    @Test
+    public void buildScriptIndexing_isRecorded() throws IOException {
+        final Path buildFile = tempFolder.newFile("build.gradle").toPath();
+        Files.write(buildFile, "apply plugin: 'com.android.application'\n".getBytes(StandardCharsets.UTF_8));
+
+        final List<RecordedEvent> events;
+        try (final Recording recording = new Recording()) {
+            recording.enable("io.bitrise.trace.step.BuildScriptIndexing");
+            recording.start();
+            BuildScriptIndex.forFile(buildFile);
+            recording.stop();
+            events = readEvents(recording);
+        }
+
+        assertThat(events, hasSize(1));
+        assertThat(events.get(0).getString("outcome"), equalTo("indexed"));
+        assertThat(events.get(0).getLong("bytes"), equalTo(Files.size(buildFile)));
+    }
+
+    private static void writeFile(final Path file, final byte[] content) throws IOException {
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+        plan.write(file, content);
+        plan.apply();
+    }
+
+    private List<RecordedEvent> readEvents(final Recording recording) throws IOException {
+        final Path dump = tempFolder.newFile("recording.jfr").toPath();
+        recording.dump(dump);
+        final List<RecordedEvent> events = new ArrayList<>();
+        try (final RecordingFile recordingFile = new RecordingFile(dump)) {
+            while (recordingFile.hasMoreEvents()) {
+                final RecordedEvent event = recordingFile.readEvent();
+                if (event.getEventType().getName().startsWith("io.bitrise.trace.step.")) {
+                    events.add(event);
+                }
+            }
+        }
+        return events;
+    }
+}
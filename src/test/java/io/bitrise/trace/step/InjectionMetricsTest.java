@@ -0,0 +1,111 @@
+package io.bitrise.trace.step;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Test cases for {@link InjectionMetrics}.
+ */
+public class InjectionMetricsTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void toJson_empty() {
+        assertThat(new InjectionMetrics().toJson(), equalTo("{\n  \"phases\": {},\n  \"counters\": {}\n}\n"));
+    }
+
+    @Test
+    public void toJson_phasesAndCounters() {
+        final InjectionMetrics metrics = new InjectionMetrics();
+        metrics.addRead(InjectionMetrics.INDEX, 100);
+        metrics.addRead(InjectionMetrics.INDEX, 20);
+        metrics.addWritten(InjectionMetrics.WRITE, 150);
+        metrics.increment(InjectionMetrics.DEPENDENCIES_VISITED, 7);
+        metrics.increment(InjectionMetrics.APPLICATION_MODULES, 1);
+
+        assertThat(metrics.toJson(), equalTo("{\n"
+                + "  \"phases\": {\n"
+                + "    \"index\": {\"count\": 0, \"wallNanos\": 0, \"filesRead\": 2, \"bytesRead\": 120, "
+                + "\"filesWritten\": 0, \"bytesWritten\": 0},\n"
+                + "    \"write\": {\"count\": 0, \"wallNanos\": 0, \"filesRead\": 0, \"bytesRead\": 0, "
+                + "\"filesWritten\": 1, \"bytesWritten\": 150}\n"
+                + "  },\n"
+                + "  \"counters\": {\n"
+                + "    \"applicationModules\": 1,\n"
+                + "    \"dependenciesVisited\": 7\n"
+                + "  }\n"
+                + "}\n"));
+    }
+
+    @Test
+    public void time_countsTheRuns() {
+        final InjectionMetrics metrics = new InjectionMetrics();
+        try (final InjectionMetrics.Timer ignored = metrics.time(InjectionMetrics.DISCOVERY)) {
+            metrics.increment(InjectionMetrics.CONFIGURATIONS_SCANNED, 1);
+        }
+        try (final InjectionMetrics.Timer ignored = metrics.time(InjectionMetrics.DISCOVERY)) {
+            metrics.increment(InjectionMetrics.CONFIGURATIONS_SCANNED, 1);
+        }
+
+        assertThat(metrics.toJson(), containsString("\"discovery\": {\"count\": 2, "));
+        assertThat(metrics.toJson(), containsString("\"configurationsScanned\": 2"));
+    }
+
+    @Test
+    public void merge_addsTheValues() {
+        final InjectionMetrics metrics = new InjectionMetrics();
+        metrics.addRead(InjectionMetrics.INDEX, 100);
+        metrics.increment(InjectionMetrics.APPLICATION_MODULES, 1);
+        final InjectionMetrics other = new InjectionMetrics();
+        other.addRead(InjectionMetrics.INDEX, 50);
+        other.addWritten(InjectionMetrics.WRITE, 10);
+        other.increment(InjectionMetrics.APPLICATION_MODULES, 1);
+
+        metrics.merge(other);
+
+        final InjectionMetrics expected = new InjectionMetrics();
+        expected.addRead(InjectionMetrics.INDEX, 100);
+        expected.addRead(InjectionMetrics.INDEX, 50);
+        expected.addWritten(InjectionMetrics.WRITE, 10);
+        expected.increment(InjectionMetrics.APPLICATION_MODULES, 2);
+        assertThat(metrics.toJson(), equalTo(expected.toJson()));
+    }
+
+    @Test
+    public void write_readBack() throws IOException {
+        final InjectionMetrics metrics = new InjectionMetrics();
+        try (final InjectionMetrics.Timer ignored = metrics.time("ensureTraceSdkDependency")) {
+            metrics.addRead(InjectionMetrics.INDEX, 42);
+        }
+        metrics.increment(InjectionMetrics.DEPENDENCIES_VISITED, 3);
+        final File file = new File(tempFolder.getRoot(), "state/app.metrics");
+
+        metrics.write(file);
+
+        assertThat(InjectionMetrics.read(file).toJson(), equalTo(metrics.toJson()));
+    }
+
+    @Test
+    public void writeReport() throws IOException {
+        final InjectionMetrics metrics = new InjectionMetrics();
+        metrics.increment(InjectionMetrics.APPLICATION_MODULES, 1);
+        final Path reportFile = tempFolder.getRoot().toPath().resolve("build/" + InjectionMetrics.REPORT_FILE_PATH);
+
+        metrics.writeReport(reportFile.toFile());
+
+        assertThat(new String(Files.readAllBytes(reportFile), StandardCharsets.UTF_8), equalTo(metrics.toJson()));
+    }
+}
@@ -0,0 +1,324 @@
+package io.bitrise.trace.step;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Test cases for {@link StaticModuleDiscovery}.
+ */
+public class StaticModuleDiscoveryTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    //region getIncludedProjectPaths tests
+    @Test
+    public void getIncludedProjectPaths_groovy() throws Exception {
+        writeFile("settings.gradle", "// include ':commented'\n" +
+                "rootProject.name = \"demo\"\n" +
+                "include ':app', 'lib',\n" +
+                "        ':feature:app'\n" +
+                "include \":other\"");
+
+        final List<String> actual = discovery().getIncludedProjectPaths();
+
+        assertThat(actual, equalTo(Arrays.asList(":app", ":lib", ":feature", ":feature:app", ":other")));
+    }
+
+    @Test
+    public void getIncludedProjectPaths_kotlin() throws Exception {
+        writeFile("settings.gradle.kts", "include(\n    \":app\",\n    \":lib\"\n)\ninclude(\":other\")");
+
+        final List<String> actual = discovery().getIncludedProjectPaths();
+
+        assertThat(actual, equalTo(Arrays.asList(":app", ":lib", ":other")));
+    }
+
+    @Test(expected = StaticModuleDiscovery.UnresolvableProjectException.class)
+    public void getIncludedProjectPaths_computedPath() throws Exception {
+        writeFile("settings.gradle.kts", "listOf(\"app\").forEach { include(it) }");
+
+        discovery().getIncludedProjectPaths();
+    }
+
+    @Test(expected = StaticModuleDiscovery.UnresolvableProjectException.class)
+    public void getIncludedProjectPaths_interpolatedPath() throws Exception {
+        writeFile("settings.gradle", "include \":${name}\"");
+
+        discovery().getIncludedProjectPaths();
+    }
+
+    @Test(expected = StaticModuleDiscovery.UnresolvableProjectException.class)
+    public void getIncludedProjectPaths_customProjectDir() throws Exception {
+        writeFile("settings.gradle", "include ':app'\nproject(':app').projectDir = file('application')");
+
+        discovery().getIncludedProjectPaths();
+    }
+
+    @Test(expected = StaticModuleDiscovery.UnresolvableProjectException.class)
+    public void getIncludedProjectPaths_noSettings() throws Exception {
+        discovery().getIncludedProjectPaths();
+    }
+    //endregion
+
+    //region Included build tests
+    @Test
+    public void getIncludedBuildDirs() throws Exception {
+        writeFile("settings.gradle.kts", "pluginManagement {\n    includeBuild(\"build-logic\")\n}\n" +
+                "include(\":app\")\nincludeBuild(\"../wear\") {\n    dependencySubstitution {}\n}\nincludeBuild(\".\")");
+
+        final Map<String, File> actual = discovery().getIncludedBuildDirs();
+
+        final Map<String, File> expected = new LinkedHashMap<>();
+        expected.put(":build-logic", new File(tempFolder.getRoot(), "build-logic").getCanonicalFile());
+        expected.put(":wear", new File(tempFolder.getRoot().getParentFile(), "wear").getCanonicalFile());
+        assertThat(actual, equalTo(expected));
+        assertThat(discovery().getIncludedProjectPaths(), equalTo(Collections.singletonList(":app")));
+    }
+
+    @Test(expected = StaticModuleDiscovery.UnresolvableProjectException.class)
+    public void getIncludedBuildDirs_computedPath() throws Exception {
+        writeFile("settings.gradle", "include ':app'\nincludeBuild file('../wear')");
+
+        discovery().getIncludedBuildDirs();
+    }
+
+    @Test
+    public void discoverApplicationModules_includedBuilds() throws Exception {
+        writeFile("settings.gradle", "include ':lib'\nincludeBuild 'wear'\n");
+        writeFile("lib/build.gradle", "apply plugin: 'com.android.library'\n");
+        writeFile("wear/settings.gradle", "include ':watch'\n");
+        writeFile("wear/watch/build.gradle", "apply plugin: 'com.android.application'\n");
+
+        final List<String> identityPaths = new ArrayList<>();
+        for (final ApplicationModuleModel model : discovery().discoverApplicationModules(true)) {
+            identityPaths.add(model.getIdentityPath());
+        }
+
+        assertThat(identityPaths, equalTo(Collections.singletonList(":wear:watch")));
+    }
+
+    @Test(expected = StaticModuleDiscovery.UnresolvableProjectException.class)
+    public void discoverApplicationModules_includedBuildsAreNotDiscovered() throws Exception {
+        writeFile("settings.gradle", "include ':lib'\nincludeBuild 'wear'\n");
+        writeFile("lib/build.gradle", "apply plugin: 'com.android.library'\n");
+        writeFile("wear/settings.gradle", "include ':watch'\n");
+        writeFile("wear/watch/build.gradle", "apply plugin: 'com.android.application'\n");
+
+        discovery().discoverApplicationModules(false);
+    }
+
+    @Test
+    public void discoverIncludedBuildModules() throws IOException {
+        writeFile("feature/settings.gradle", "include ':demo', ':lib'\n");
+        writeFile("feature/demo/build.gradle", "apply plugin: 'com.android.application'\n");
+        writeFile("feature/lib/build.gradle", "apply plugin: 'com.android.library'\n");
+        writeFile("build-logic/settings.gradle", "rootProject.name = 'build-logic'\n");
+        writeFile("build-logic/build.gradle", "plugins { id 'groovy-gradle-plugin' }\n");
+        writeFile("wear/settings.gradle", "include ':watch'\n");
+        writeFile("wear/watch/build.gradle", "apply plugin: 'com.android.application'\n");
+        final Map<String, File> includedBuildDirs = new LinkedHashMap<>();
+        includedBuildDirs.put(":feature", new File(tempFolder.getRoot(), "feature"));
+        includedBuildDirs.put(":build-logic", new File(tempFolder.getRoot(), "build-logic"));
+        includedBuildDirs.put(":wear", new File(tempFolder.getRoot(), "wear"));
+
+        final List<String> identityPaths = new ArrayList<>();
+        for (final ApplicationModuleModel model
+                : StaticModuleDiscovery.discoverIncludedBuildModules(includedBuildDirs, InjectionLogger.NONE,
+                        new InjectionMetrics())) {
+            identityPaths.add(model.getIdentityPath());
+        }
+
+        assertThat(identityPaths, equalTo(Arrays.asList(":feature:demo", ":wear:watch")));
+    }
+    //endregion
+
+    //region createApplicationModuleModel tests
+    @Test
+    public void createApplicationModuleModel_application() throws Exception {
+        writeFile("app/build.gradle", "plugins {\n    id 'com.android.application'\n}");
+
+        final ApplicationModuleModel actual = discovery().createApplicationModuleModel(":app");
+
+        assertThat(actual.getName(), equalTo("app"));
+        assertThat(actual.getBuildFile().getName(), equalTo("build.gradle"));
+        assertThat(actual.hasDependency(TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME,
+                TraceInjector.TRACE_SDK_DEPENDENCY_NAME), is(false));
+        assertThat(actual.hasPlugin(TraceInjector.TRACE_GRADLE_PLUGIN_ID), is(false));
+    }
+
+    @Test
+    public void createApplicationModuleModel_library() throws Exception {
+        writeFile("lib/build.gradle.kts", "plugins {\n    id(\"com.android.library\")\n}\n" +
+                "// apply(plugin = \"com.android.application\")");
+
+        assertThat(discovery().createApplicationModuleModel(":lib"), is(nullValue()));
+    }
+
+    @Test
+    public void createApplicationModuleModel_noBuildFile() throws Exception {
+        tempFolder.newFolder("empty");
+
+        assertThat(discovery().createApplicationModuleModel(":empty"), is(nullValue()));
+    }
+
+    @Test
+    public void createApplicationModuleModel_injected() throws Exception {
+        writeFile("app/build.gradle", "apply plugin: 'com.android.application'\n" +
+                "apply from: \"traceSdk.gradle\"\n" +
+                "buildscript {\n" +
+                "    dependencies.add(\"classpath\", \"io.bitrise.trace.plugin:trace-gradle-plugin:+\")\n" +
+                "}\n" +
+                "apply from: \"tracePlugin.gradle\"");
+
+        final ApplicationModuleModel actual = discovery().createApplicationModuleModel(":app");
+
+        assertThat(actual.hasDependency(TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME,
+                TraceInjector.TRACE_SDK_DEPENDENCY_NAME), is(true));
+        assertThat(actual.hasBuildscriptDependency(TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME,
+                TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME), is(true));
+        assertThat(actual.hasPlugin(TraceInjector.TRACE_GRADLE_PLUGIN_ID), is(true));
+    }
+
+    @Test(expected = StaticModuleDiscovery.UnresolvableProjectException.class)
+    public void createApplicationModuleModel_versionCatalogPlugin() throws Exception {
+        writeFile("app/build.gradle.kts", "plugins {\n    alias(libs.plugins.android.application)\n}");
+
+        discovery().createApplicationModuleModel(":app");
+    }
+
+    @Test
+    public void createApplicationModuleModel_conventionPlugin() throws Exception {
+        writeFile("app/build.gradle.kts", "plugins {\n    id(\"buildlogic.android-application\")\n}");
+
+        assertThat(discovery().createApplicationModuleModel(":app").getName(), equalTo("app"));
+    }
+
+    @Test
+    public void createApplicationModuleModel_versionCatalogApplication() throws Exception {
+        writeFile("gradle/libs.versions.toml", "[versions]\nagp = \"7.0.0\"\n\n[plugins]\n" +
+                "android-application = { id = \"com.android.application\", version.ref = \"agp\" }\n" +
+                "android-library = \"com.android.library:7.0.0\"\n");
+        writeFile("app/build.gradle.kts", "plugins {\n    alias(libs.plugins.android.application)\n}");
+
+        assertThat(discovery().createApplicationModuleModel(":app").getName(), equalTo("app"));
+    }
+
+    @Test
+    public void createApplicationModuleModel_versionCatalogLibrary() throws Exception {
+        writeFile("gradle/libs.versions.toml", "[plugins]\nandroid-library = \"com.android.library:7.0.0\"\n");
+        writeFile("lib/build.gradle.kts", "plugins {\n    alias(libs.plugins.android.library)\n}");
+
+        assertThat(discovery().createApplicationModuleModel(":lib"), is(nullValue()));
+    }
+
+    @Test
+    public void createApplicationModuleModel_libraryWithApplicationCallback() throws Exception {
+        writeFile("lib/build.gradle.kts", "plugins {\n    id(\"com.android.library\")\n}\n" +
+                "plugins.withId(\"com.android.application\") {\n    println(\"application\")\n}");
+
+        assertThat(discovery().createApplicationModuleModel(":lib"), is(nullValue()));
+    }
+
+    @Test
+    public void createApplicationModuleModel_applyFalse() throws Exception {
+        writeFile("lib/build.gradle", "plugins {\n    id 'com.android.application' version '7.0.0' apply false\n" +
+                "    id 'com.android.library'\n}");
+
+        assertThat(discovery().createApplicationModuleModel(":lib"), is(nullValue()));
+    }
+
+    @Test
+    public void createApplicationModuleModel_versionCatalogApplyFalse() throws Exception {
+        writeFile("gradle/libs.versions.toml", "[plugins]\n" +
+                "android-application = \"com.android.application:7.0.0\"\n" +
+                "android-library = \"com.android.library:7.0.0\"\n");
+        writeFile("lib/build.gradle.kts", "plugins {\n    alias(libs.plugins.android.application) apply false\n" +
+                "    alias(libs.plugins.android.library)\n}");
+
+        assertThat(discovery().createApplicationModuleModel(":lib"), is(nullValue()));
+    }
+    //endregion
+
+    //region Metrics tests
+    @Test
+    public void discoverApplicationModules_recordsReads() throws Exception {
+        final String settings = "include ':app', ':lib'\n";
+        final String catalog = "[plugins]\nandroid-application = \"com.android.application:7.0.0\"\n";
+        final String app = "plugins {\n    alias(libs.plugins.android.application)\n}";
+        final String lib = "apply plugin: 'com.android.library'\n";
+        writeFile("settings.gradle", settings);
+        writeFile("gradle/libs.versions.toml", catalog);
+        writeFile("app/build.gradle", app);
+        writeFile("lib/build.gradle", lib);
+        final InjectionMetrics metrics = new InjectionMetrics();
+
+        new StaticModuleDiscovery(tempFolder.getRoot(), InjectionLogger.NONE, metrics).discoverApplicationModules();
+
+        assertThat(metrics.toJson(), containsString("\"filesRead\": 4, \"bytesRead\": "
+                + (settings.length() + catalog.length() + app.length() + lib.length()) + ","));
+    }
+    //endregion
+
+    //region scanBuildFiles tests
+    @Test
+    public void scanBuildFiles_keepsOrder() throws Exception {
+        final List<File> buildFiles = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            final String plugin = i % 3 == 0 ? "com.android.application" : "com.android.library";
+            writeFile("module" + i + "/build.gradle", "plugins {\n    id '" + plugin + "'\n}");
+            buildFiles.add(new File(tempFolder.getRoot(), "module" + i + "/build.gradle"));
+        }
+        buildFiles.add(null);
+
+        final List<StaticModuleDiscovery.BuildFileScan> actual = discovery().scanBuildFiles(buildFiles);
+
+        assertThat(actual.size(), equalTo(41));
+        for (int i = 0; i < 40; i++) {
+            assertThat(actual.get(i).getBuildFile(), equalTo(buildFiles.get(i)));
+            assertThat(actual.get(i).isApplication(), is(i % 3 == 0));
+        }
+        assertThat(actual.get(40).getBuildFile(), is(nullValue()));
+    }
+    //endregion
+
+    //region isApplicationPluginId tests
+    @Test
+    public void isApplicationPluginId_conventionPlugins() {
+        assertThat(StaticModuleDiscovery.isApplicationPluginId("com.android.application"), is(true));
+        assertThat(StaticModuleDiscovery.isApplicationPluginId("convention.android.application"), is(true));
+        assertThat(StaticModuleDiscovery.isApplicationPluginId("nowinandroid.android.application.compose"),
+                is(true));
+        assertThat(StaticModuleDiscovery.isApplicationPluginId("com.android.library"), is(false));
+        assertThat(StaticModuleDiscovery.isApplicationPluginId("org.jetbrains.kotlin.android"), is(false));
+    }
+    //endregion
+
+    private StaticModuleDiscovery discovery() {
+        return new StaticModuleDiscovery(tempFolder.getRoot(), InjectionLogger.NONE);
+    }
+
+    private void writeFile(final String path, final String content) throws IOException {
+        final File file = new File(tempFolder.getRoot(), path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
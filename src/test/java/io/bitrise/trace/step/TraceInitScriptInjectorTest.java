@@ -0,0 +1,124 @@
+package io.bitrise.trace.step;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+
+/**
+ * Test cases for {@link TraceInitScriptInjector}.
+ */
+public class TraceInitScriptInjectorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    //region getInitScriptContent tests
+    @Test
+    public void getInitScriptContent() {
+        final Map<File, List<String>> modulePathsByRootDir = new LinkedHashMap<>();
+        modulePathsByRootDir.put(new File("/projects/app"), Arrays.asList(":app", ":wear"));
+        final String actual = TraceInitScriptInjector.getInitScriptContent(
+                new File("/projects/app/.gradle/trace/trace-injector-0.0.3.jar"), modulePathsByRootDir,
+                new TraceVersions("1.2.0", "0.3.0"), "https://repo.example.com/");
+
+        assertThat(actual, containsString(
+                "classpath files(\"" + new File("/projects/app/.gradle/trace/trace-injector-0.0.3.jar")
+                        .getAbsolutePath() + "\")"));
+        assertThat(actual, containsString("(new File(\"" + new File("/projects/app").getAbsolutePath()
+                + "\")): [\":app\", \":wear\"],"));
+        assertThat(actual, containsString("new io.bitrise.trace.step.TraceInitScriptInjector(\"1.2.0\", \"0.3.0\", "
+                + "\"https://repo.example.com/\")"));
+        assertThat(actual, containsString("traceApplicationModules[project.rootDir]?.contains(project.path)"));
+    }
+
+    @Test
+    public void getInitScriptContent_includedBuilds() {
+        final Map<File, List<String>> modulePathsByRootDir = new LinkedHashMap<>();
+        modulePathsByRootDir.put(new File("/projects/app"), Collections.singletonList(":app"));
+        modulePathsByRootDir.put(new File("/projects/feature"), Collections.singletonList(":demo"));
+        final String actual = TraceInitScriptInjector.getInitScriptContent(new File("/tmp/injector"),
+                modulePathsByRootDir, TraceVersions.DYNAMIC, "https://repo.example.com/");
+
+        assertThat(actual, containsString("(new File(\"" + new File("/projects/app").getAbsolutePath()
+                + "\")): [\":app\"],\n    (new File(\"" + new File("/projects/feature").getAbsolutePath()
+                + "\")): [\":demo\"],\n]"));
+    }
+
+    @Test
+    public void getInitScriptContent_specialCharactersAreEscaped() {
+        final String actual = TraceInitScriptInjector.getInitScriptContent(new File("/tmp/injector"),
+                Collections.singletonMap(new File("/projects/$app"), Collections.singletonList(":app")),
+                TraceVersions.DYNAMIC, "https://repo.example.com/\"${x}\"");
+
+        assertThat(actual, containsString("\\$app"));
+        assertThat(actual, containsString("\"https://repo.example.com/\\\"\\${x}\\\"\""));
+    }
+    //endregion
+
+    //region verifyInitScript tests
+    @Test
+    public void verifyInitScript() throws IOException {
+        final File injector = temporaryFolder.newFile("trace injector $1.jar");
+        final File initScript = new File(temporaryFolder.getRoot(), TraceInitScriptInjector.INIT_SCRIPT_FILE_PATH);
+        final Map<File, List<String>> modulePathsByRootDir = new LinkedHashMap<>();
+        modulePathsByRootDir.put(new File("/projects/app"), Arrays.asList(":app", ":wear"));
+        modulePathsByRootDir.put(new File("/projects/feature"), Collections.singletonList(":demo"));
+        Files.createDirectories(initScript.getParentFile().toPath());
+        Files.write(initScript.toPath(), TraceInitScriptInjector.getInitScriptContent(injector, modulePathsByRootDir,
+                TraceVersions.DYNAMIC, "https://repo.example.com/").getBytes(StandardCharsets.UTF_8));
+
+        assertThat(TraceInitScriptInjector.verifyInitScript(initScript, modulePathsByRootDir), empty());
+    }
+
+    @Test
+    public void verifyInitScript_missingModule() throws IOException {
+        final File injector = temporaryFolder.newFile("injector.jar");
+        final File initScript = temporaryFolder.newFile("trace.init.gradle");
+        Files.write(initScript.toPath(), TraceInitScriptInjector.getInitScriptContent(injector,
+                Collections.singletonMap(new File("/projects/app"), Collections.singletonList(":app")),
+                TraceVersions.DYNAMIC, "https://repo.example.com/").getBytes(StandardCharsets.UTF_8));
+        final Map<File, List<String>> modulePathsByRootDir = new LinkedHashMap<>();
+        modulePathsByRootDir.put(new File("/projects/app"), Arrays.asList(":app", ":wear"));
+
+        assertThat(TraceInitScriptInjector.verifyInitScript(initScript, modulePathsByRootDir),
+                contains(":wear of " + new File("/projects/app")));
+    }
+
+    @Test
+    public void verifyInitScript_missingInjector() throws IOException {
+        final File initScript = temporaryFolder.newFile("trace.init.gradle");
+        final Map<File, List<String>> modulePathsByRootDir =
+                Collections.singletonMap(new File("/projects/app"), Collections.singletonList(":app"));
+        Files.write(initScript.toPath(), TraceInitScriptInjector.getInitScriptContent(
+                new File(temporaryFolder.getRoot(), "missing.jar"), modulePathsByRootDir, TraceVersions.DYNAMIC,
+                "https://repo.example.com/").getBytes(StandardCharsets.UTF_8));
+
+        assertThat(TraceInitScriptInjector.verifyInitScript(initScript, modulePathsByRootDir),
+                contains(":app of " + new File("/projects/app")));
+    }
+
+    @Test
+    public void verifyInitScript_missingInitScript() throws IOException {
+        final Map<File, List<String>> modulePathsByRootDir =
+                Collections.singletonMap(new File("/projects/app"), Collections.singletonList(":app"));
+
+        assertThat(TraceInitScriptInjector.verifyInitScript(new File(temporaryFolder.getRoot(), "trace.init.gradle"),
+                modulePathsByRootDir), contains(":app of " + new File("/projects/app")));
+    }
+    //endregion
+}
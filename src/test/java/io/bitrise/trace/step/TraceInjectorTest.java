@@ -0,0 +1,433 @@
+package io.bitrise.trace.step;
+
+import org.gradle.internal.impldep.org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+/**
+ * Test cases for {@link TraceInjector}.
+ */
+public class TraceInjectorTest {
+
+    //region getContentToAppend tests
+    private static final String DUMMY_GRADLE_FILE_NAME = "dummy.gradle";
+
+    @Test
+    public void getContentToAppend_Groovy() {
+        final String actual = TraceInjector.getContentToAppend("build.gradle", DUMMY_GRADLE_FILE_NAME);
+        assertThat(actual, equalTo(String.format("\napply from: \"%s\"", DUMMY_GRADLE_FILE_NAME)));
+    }
+
+    @Test
+    public void getContentToAppend_Kotlin() {
+        final String actual = TraceInjector.getContentToAppend("build.gradle.kts", DUMMY_GRADLE_FILE_NAME);
+        assertThat(actual, equalTo(String.format("\napply(\"%s\")", DUMMY_GRADLE_FILE_NAME)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getContentToAppend_None() {
+        TraceInjector.getContentToAppend("README.md", DUMMY_GRADLE_FILE_NAME);
+    }
+    //endregion
+
+    //region updateBuildScriptContent
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String DYNAMIC_PLUGIN_DEPENDENCY =
+            TraceInjector.getTraceGradlePluginDependency(TraceInjector.TRACE_GRADLE_PLUGIN_VERSION);
+    private static final String BUILDSCRIPT_REPOSITORIES =
+            TraceInjector.getBuildScriptRepositoryContent(TraceVersionResolver.DEFAULT_REPOSITORY_URL);
+    private static final String TRACE_REPOSITORY =
+            TraceInjector.getTraceRepository(TraceVersionResolver.DEFAULT_REPOSITORY_URL, "    ");
+    private final TraceInjector traceInjector = new TraceInjector(InjectionLogger.NONE);
+
+    @Test
+    public void updateBuildScriptContent_BuildScriptShouldBeUpdated() throws IOException {
+        final File tempFile = tempFolder.newFile("build.gradle");
+
+        final String gradleFileContent = "\n" +
+                "someContent\n" +
+                "buildscript {" +
+                "%s" +
+                "    repositories {\n" +
+                "        mavenLocal()\n" +
+                "        google()\n" +
+                "        jcenter()\n" +
+                "    }\n" +
+                "    dependencies {\n" +
+                "        classpath 'com.android.tools.build:gradle:4.0.2'\n" +
+                "    }\n" +
+                "} " +
+                "\nsomeContent";
+
+        FileUtils.writeStringToFile(tempFile, String.format(gradleFileContent, "\n"),
+                Charset.defaultCharset());
+
+        updateBuildScriptContent(tempFile);
+
+        final String actual = FileUtils.readFileToString(tempFile, Charset.defaultCharset());
+        final String expected = String.format(gradleFileContent,
+                DYNAMIC_PLUGIN_DEPENDENCY + BUILDSCRIPT_REPOSITORIES + "\n");
+
+        assertThat(actual, equalTo(expected));
+    }
+
+    @Test
+    public void updateBuildScriptContent_CommentsShouldBeKept() throws IOException {
+        final File tempFile = tempFolder.newFile("build.gradle");
+
+        final String gradleFileContent = "// buildscript {\n" +
+                "buildscript { // the buildscript block\n" +
+                "    /* repositories {\n" +
+                "        mavenLocal()\n" +
+                "    } */\n" +
+                "}\n";
+
+        FileUtils.writeStringToFile(tempFile, gradleFileContent, Charset.defaultCharset());
+
+        final boolean updated = updateBuildScriptContent(tempFile);
+
+        final String actual = FileUtils.readFileToString(tempFile, Charset.defaultCharset());
+        final String expected = gradleFileContent.replace("buildscript { //", "buildscript {" +
+                DYNAMIC_PLUGIN_DEPENDENCY + BUILDSCRIPT_REPOSITORIES +
+                " //");
+
+        assertThat(updated, is(true));
+        assertThat(actual, equalTo(expected));
+    }
+
+    @Test
+    public void updateBuildScriptContent_NoBuildScript() throws IOException {
+        final File tempFile = tempFolder.newFile("build.gradle");
+        final String gradleFileContent = "// buildscript {\napply plugin: 'java'\n";
+        FileUtils.writeStringToFile(tempFile, gradleFileContent, Charset.defaultCharset());
+
+        final boolean updated = updateBuildScriptContent(tempFile);
+
+        assertThat(updated, is(false));
+        assertThat(FileUtils.readFileToString(tempFile, Charset.defaultCharset()), equalTo(gradleFileContent));
+    }
+
+    private boolean updateBuildScriptContent(final File buildFile) throws IOException {
+        final BuildFileEditPlan plan = new BuildFileEditPlan();
+        final boolean updated = traceInjector.updateBuildScriptContent(plan, buildFile.getPath());
+        plan.apply();
+        return updated;
+    }
+    //endregion
+
+    //region verifyTrace tests
+    @Test
+    public void verifyTrace_injected() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle");
+        FileUtils.writeStringToFile(buildFile, "apply plugin: 'com.android.application'\n" +
+                "apply from: \"traceSdk.gradle\"\n" +
+                "buildscript {\n" +
+                "    dependencies.add(\"classpath\", \"io.bitrise.trace.plugin:trace-gradle-plugin:+\")\n" +
+                "}\n" +
+                "apply from: \"tracePlugin.gradle\"", Charset.defaultCharset());
+
+        final List<String> actual = traceInjector.verifyTrace(createApplicationModuleModel(buildFile));
+
+        assertThat(actual, equalTo(Collections.<String>emptyList()));
+        assertThat(TraceInjector.getVerificationResult(actual), equalTo("passed"));
+    }
+
+    @Test
+    public void verifyTrace_missing() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle");
+        FileUtils.writeStringToFile(buildFile, "apply plugin: 'com.android.application'\n" +
+                "// apply from: \"traceSdk.gradle\"\n", Charset.defaultCharset());
+
+        final List<String> actual = traceInjector.verifyTrace(createApplicationModuleModel(buildFile));
+
+        assertThat(actual, equalTo(Arrays.asList(TraceInjector.TRACE_SDK_DEPENDENCY_NAME,
+                TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME, TraceInjector.TRACE_GRADLE_PLUGIN_ID)));
+        assertThat(TraceInjector.getVerificationResult(actual), equalTo("failed " + actual));
+    }
+
+    @Test
+    public void verifyTrace_pluginIdOutsideOfApplyIsMissing() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle");
+        FileUtils.writeStringToFile(buildFile, "plugins {\n" +
+                "    id 'com.android.application'\n" +
+                "    id 'io.bitrise.trace.plugin' version '1.0' apply false\n" +
+                "}\n" +
+                "apply from: \"traceSdk.gradle\"\n" +
+                "buildscript {\n" +
+                "    dependencies.add(\"classpath\", \"io.bitrise.trace.plugin:trace-gradle-plugin:+\")\n" +
+                BUILDSCRIPT_REPOSITORIES + "\n" +
+                "}\n" +
+                "println 'io.bitrise.trace.plugin'\n", Charset.defaultCharset());
+
+        final List<String> actual = traceInjector.verifyTrace(createApplicationModuleModel(buildFile));
+
+        assertThat(actual, equalTo(Collections.singletonList(TraceInjector.TRACE_GRADLE_PLUGIN_ID)));
+    }
+
+    @Test
+    public void verifyTrace_presentBeforeInjection() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle");
+        FileUtils.writeStringToFile(buildFile, "apply plugin: 'com.android.application'\n", Charset.defaultCharset());
+        final ApplicationModuleModel appModule = new ApplicationModuleModel("app", ":app", tempFolder.getRoot(),
+                buildFile,
+                Collections.singleton(
+                        TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME + ":" + TraceInjector.TRACE_SDK_DEPENDENCY_NAME),
+                Collections.singleton(TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME + ":"
+                        + TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME),
+                Collections.singleton(TraceInjector.TRACE_GRADLE_PLUGIN_ID));
+
+        assertThat(traceInjector.verifyTrace(appModule), equalTo(Collections.<String>emptyList()));
+    }
+
+    private ApplicationModuleModel createApplicationModuleModel(final File buildFile) {
+        return new ApplicationModuleModel("app", ":app", tempFolder.getRoot(), buildFile, Collections.emptySet(),
+                Collections.emptySet(), Collections.singleton(TraceInjector.ANDROID_APPLICATION_PLUGIN_ID));
+    }
+    //endregion
+
+    //region Injection state tests
+    @Test
+    public void getInjectionStateFileName_includedBuild() throws IOException {
+        final ApplicationModuleModel appModule =
+                createApplicationModuleModel(tempFolder.newFile("build.gradle")).inBuild(":feature");
+
+        assertThat(appModule.getIdentityPath(), equalTo(":feature:app"));
+        assertThat(TraceInjector.getInjectionStateFileName(appModule),
+                equalTo("feature_app" + TraceInjector.INJECTION_STATE_FILE_EXTENSION));
+    }
+
+    @Test
+    public void writeInjectionState_includedBuild() throws IOException {
+        final ApplicationModuleModel appModule =
+                createApplicationModuleModel(tempFolder.newFile("build.gradle")).inBuild(":feature");
+        final File stateFile = new File(tempFolder.getRoot(), "state/feature_app.properties");
+
+        traceInjector.writeInjectionState(stateFile, appModule,
+                Collections.singletonMap(TraceInjector.INJECTION_RESULT_KEY, "injected"));
+
+        assertThat(FileUtils.readFileToString(stateFile, Charset.defaultCharset()), equalTo("module=:feature:app\n"
+                + "build=:feature\nbuildFile=build.gradle\nresult=injected\n"));
+    }
+    //endregion
+
+    //region Inline injection tests
+    @Test
+    public void injectTrace_inlineGroovy() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle");
+        final String content = "plugins {\n" +
+                "    id 'com.android.application'\n" +
+                "}\n" +
+                "repositories { google() }\n" +
+                "dependencies {\n" +
+                "}\n";
+        FileUtils.writeStringToFile(buildFile, content, Charset.defaultCharset());
+
+        new TraceInjector(InjectionLogger.NONE, InjectionMode.INLINE, TraceVersions.DYNAMIC,
+                TraceVersionResolver.DEFAULT_REPOSITORY_URL).injectTrace(createApplicationModuleModel(buildFile));
+
+        final String expected = content
+                .replace("repositories { google() }", "repositories {" + TRACE_REPOSITORY + "\n    google() }")
+                .replace("dependencies {", "dependencies {\n    implementation \"io.bitrise.trace:trace-sdk:+\"")
+                + "\nbuildscript {\n" + DYNAMIC_PLUGIN_DEPENDENCY + "\n"
+                + BUILDSCRIPT_REPOSITORIES + "\n}"
+                + "\napply plugin: \"io.bitrise.trace.plugin\"";
+        assertThat(FileUtils.readFileToString(buildFile, Charset.defaultCharset()), equalTo(expected));
+        assertThat(tempFolder.getRoot().list().length, is(1));
+    }
+
+    @Test
+    public void injectTrace_inlineOneLineBlocks() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle");
+        final String content = "apply plugin: 'com.android.application'\n" +
+                "repositories {google()}\n" +
+                "dependencies {      implementation 'com.example:lib:1.0' }\n";
+        FileUtils.writeStringToFile(buildFile, content, Charset.defaultCharset());
+
+        new TraceInjector(InjectionLogger.NONE, InjectionMode.INLINE, TraceVersions.DYNAMIC,
+                TraceVersionResolver.DEFAULT_REPOSITORY_URL).injectTrace(createApplicationModuleModel(buildFile));
+
+        assertThat(FileUtils.readFileToString(buildFile, Charset.defaultCharset()), startsWith(
+                "apply plugin: 'com.android.application'\n"
+                        + "repositories {" + TRACE_REPOSITORY + "\n    google()}\n"
+                        + "dependencies {\n    implementation \"io.bitrise.trace:trace-sdk:+\"\n"
+                        + "      implementation 'com.example:lib:1.0' }\n"));
+    }
+
+    @Test
+    public void injectTrace_inlineKotlin() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle.kts");
+        final String content = "plugins {\n" +
+                "    id(\"com.android.application\")\n" +
+                "}\n" +
+                "buildscript {\n" +
+                "}\n" +
+                "repositories {\n" +
+                "    jcenter()\n" +
+                "}\n";
+        FileUtils.writeStringToFile(buildFile, content, Charset.defaultCharset());
+
+        final TraceInjector inlineInjector = new TraceInjector(InjectionLogger.NONE, InjectionMode.INLINE,
+                TraceVersions.DYNAMIC, TraceVersionResolver.DEFAULT_REPOSITORY_URL);
+        final ApplicationModuleModel appModule = createApplicationModuleModel(buildFile);
+        inlineInjector.injectTrace(appModule);
+
+        final String expected = content
+                .replace("buildscript {", "buildscript {" + DYNAMIC_PLUGIN_DEPENDENCY
+                        + BUILDSCRIPT_REPOSITORIES)
+                .replace("repositories {\n    jcenter()", "repositories {" + TRACE_REPOSITORY + "\n    jcenter()")
+                + "\ndependencies {\n    \"implementation\"(\"io.bitrise.trace:trace-sdk:+\")\n}"
+                + "\napply(plugin = \"io.bitrise.trace.plugin\")";
+        assertThat(FileUtils.readFileToString(buildFile, Charset.defaultCharset()), equalTo(expected));
+        assertThat(inlineInjector.verifyTrace(appModule), equalTo(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void injectTrace_metricsAreRecorded() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle");
+        final String content = "apply plugin: 'com.android.application'\n";
+        FileUtils.writeStringToFile(buildFile, content, Charset.defaultCharset());
+        final TraceInjector inlineInjector = new TraceInjector(InjectionLogger.NONE, InjectionMode.INLINE,
+                TraceVersions.DYNAMIC, TraceVersionResolver.DEFAULT_REPOSITORY_URL);
+        final ApplicationModuleModel appModule = createApplicationModuleModel(buildFile);
+
+        inlineInjector.injectTrace(appModule);
+        inlineInjector.verifyTrace(appModule);
+
+        final String json = inlineInjector.getMetrics().toJson();
+        assertThat(json, containsString("\"ensureTraceSdkDependency\": {\"count\": 1, "));
+        assertThat(json, containsString("\"ensureTraceGradlePluginIsApplied\": {\"count\": 1, "));
+        assertThat(json, containsString(String.format("\"filesRead\": 1, \"bytesRead\": %d, \"filesWritten\": 0",
+                content.length())));
+        assertThat(json, containsString(String.format("\"filesWritten\": 1, \"bytesWritten\": %d}",
+                buildFile.length())));
+        assertThat(json, containsString("\"verification\": {\"count\": 1, "));
+        assertThat(json, containsString("\"applicationModules\": 1"));
+    }
+
+    @Test
+    public void injectTrace_inlineTraceRepositoryIsNotDuplicated() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle");
+        final String repositoryUrl = "https://example.com/$trace/";
+        final String content = "apply plugin: 'com.android.application'\n" +
+                "repositories {" + TraceInjector.getTraceRepository(repositoryUrl, "    ") + "\n" +
+                "    google()\n" +
+                "}\n";
+        FileUtils.writeStringToFile(buildFile, content, Charset.defaultCharset());
+
+        new TraceInjector(InjectionLogger.NONE, InjectionMode.INLINE, TraceVersions.DYNAMIC, repositoryUrl)
+                .injectTrace(createApplicationModuleModel(buildFile));
+
+        final String actual = FileUtils.readFileToString(buildFile, Charset.defaultCharset());
+        assertThat(actual.startsWith(content), is(true));
+        // once in the "repositories" block, and once in the added "buildscript" block
+        assertThat(actual.split("exclusiveContent", -1).length, is(3));
+        assertThat(actual.contains("maven { setUrl(\"https://example.com/\\$trace/\") }"), is(true));
+    }
+
+    @Test
+    public void injectTrace_inlineTraceRepositoryIsNotAnApply() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle");
+        final String content = "apply plugin: 'com.android.application'\n" +
+                "buildscript {\n" +
+                "    dependencies.add(\"classpath\", \"io.bitrise.trace.plugin:trace-gradle-plugin:+\")\n" +
+                BUILDSCRIPT_REPOSITORIES + "\n" +
+                "}\n";
+        FileUtils.writeStringToFile(buildFile, content, Charset.defaultCharset());
+        final TraceInjector inlineInjector = new TraceInjector(InjectionLogger.NONE, InjectionMode.INLINE,
+                TraceVersions.DYNAMIC, TraceVersionResolver.DEFAULT_REPOSITORY_URL);
+        final ApplicationModuleModel appModule = createApplicationModuleModel(buildFile);
+
+        final Map<String, String> state = inlineInjector.injectTrace(appModule);
+
+        assertThat(state.get(TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME), equalTo("present"));
+        assertThat(state.get(TraceInjector.TRACE_GRADLE_PLUGIN_ID), equalTo("injected"));
+        assertThat(FileUtils.readFileToString(buildFile, Charset.defaultCharset()),
+                containsString("\napply plugin: \"io.bitrise.trace.plugin\""));
+        assertThat(inlineInjector.verifyTrace(appModule), equalTo(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void appliesTraceGradlePlugin_applySites() {
+        assertThat(appliesTraceGradlePlugin("apply plugin: 'io.bitrise.trace.plugin'\n", false), is(true));
+        assertThat(appliesTraceGradlePlugin("apply(plugin = \"io.bitrise.trace.plugin\")\n", true), is(true));
+        assertThat(appliesTraceGradlePlugin("plugins {\n    id 'io.bitrise.trace.plugin'\n}\n", false), is(true));
+        assertThat(appliesTraceGradlePlugin("plugins {\n    id(\"io.bitrise.trace.plugin\")\n}\n", true), is(true));
+        assertThat(appliesTraceGradlePlugin("apply from: \"tracePlugin.gradle\"\n", false), is(true));
+        assertThat(appliesTraceGradlePlugin("repositories {" + TRACE_REPOSITORY + "\n}\n", false), is(false));
+    }
+
+    private static boolean appliesTraceGradlePlugin(final String content, final boolean kotlin) {
+        return TraceInjector.appliesTraceGradlePlugin(BuildScriptIndex.of(CharBuffer.wrap(content), kotlin));
+    }
+
+    @Test
+    public void injectTrace_inlineRepeatedInjectionDoesNotTouchTheFile() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle.kts");
+        FileUtils.writeStringToFile(buildFile, "plugins {\n    id(\"com.android.application\")\n}\n",
+                Charset.defaultCharset());
+        final TraceInjector inlineInjector = new TraceInjector(InjectionLogger.NONE, InjectionMode.INLINE,
+                TraceVersions.DYNAMIC, TraceVersionResolver.DEFAULT_REPOSITORY_URL);
+        inlineInjector.injectTrace(createApplicationModuleModel(buildFile));
+        final String injected = FileUtils.readFileToString(buildFile, Charset.defaultCharset());
+        Files.setLastModifiedTime(buildFile.toPath(), FileTime.fromMillis(10_000));
+
+        // the model is captured before the injection, like after restoring a cached workspace
+        final Map<String, String> state = inlineInjector.injectTrace(createApplicationModuleModel(buildFile));
+
+        assertThat(FileUtils.readFileToString(buildFile, Charset.defaultCharset()), equalTo(injected));
+        assertThat(Files.getLastModifiedTime(buildFile.toPath()).toMillis(), is(10_000L));
+        assertThat(TraceInjector.getInjectionResult(state), equalTo("skipped"));
+    }
+
+    @Test
+    public void injectTrace_inlineRepeatedInjectionRepairsAPartialInjection() throws IOException {
+        final File buildFile = tempFolder.newFile("build.gradle");
+        FileUtils.writeStringToFile(buildFile, "apply plugin: 'com.android.application'\n", Charset.defaultCharset());
+        final TraceInjector inlineInjector = new TraceInjector(InjectionLogger.NONE, InjectionMode.INLINE,
+                TraceVersions.DYNAMIC, TraceVersionResolver.DEFAULT_REPOSITORY_URL);
+        inlineInjector.injectTrace(createApplicationModuleModel(buildFile));
+        final String injected = FileUtils.readFileToString(buildFile, Charset.defaultCharset());
+        // an earlier run was interrupted after writing the dependencies, before applying the plugin
+        final String partial = injected.replace(TraceInjector.getTraceGradlePluginApply(false), "");
+        FileUtils.writeStringToFile(buildFile, partial, Charset.defaultCharset());
+
+        final Map<String, String> repaired = inlineInjector.injectTrace(createApplicationModuleModel(buildFile));
+        final Map<String, String> repeated = inlineInjector.injectTrace(createApplicationModuleModel(buildFile));
+
+        assertThat(repaired.get(TraceInjector.TRACE_SDK_DEPENDENCY_NAME), equalTo("present"));
+        assertThat(repaired.get(TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME), equalTo("present"));
+        assertThat(repaired.get(TraceInjector.TRACE_GRADLE_PLUGIN_ID), equalTo("injected"));
+        assertThat(TraceInjector.getInjectionResult(repeated), equalTo("skipped"));
+        assertThat(FileUtils.readFileToString(buildFile, Charset.defaultCharset()), equalTo(injected));
+        assertThat(inlineInjector.verifyTrace(createApplicationModuleModel(buildFile)),
+                equalTo(Collections.<String>emptyList()));
+    }
+    //endregion
+
+    //region toStringLiteral tests
+    @Test
+    public void toStringLiteral_specialCharactersAreEscaped() {
+        assertThat(TraceInjector.toStringLiteral("a\"b\\c$d"), equalTo("\"a\\\"b\\\\c\\$d\""));
+    }
+    //endregion
+}
@@ -0,0 +1,71 @@
+package io.bitrise.trace.step;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Test cases for {@link TraceOverheadReport}.
+ */
+public class TraceOverheadReportTest {
+
+    //region getVariant tests
+    @Test
+    public void getVariant_longestMatch() {
+        assertThat(TraceOverheadReport.getVariant("uploadFreeDebugTraceMapping",
+                Arrays.asList("debug", "freeDebug", "release")), equalTo("freeDebug"));
+    }
+
+    @Test
+    public void getVariant_noMatch() {
+        assertThat(TraceOverheadReport.getVariant("traceSetup", Collections.singletonList("debug")),
+                equalTo("other"));
+    }
+    //endregion
+
+    //region getBucket tests
+    @Test
+    public void getBucket_bounds() {
+        assertThat(TraceOverheadReport.getBucket(0), is(0));
+        assertThat(TraceOverheadReport.getBucket(9), is(0));
+        assertThat(TraceOverheadReport.getBucket(10), is(1));
+        assertThat(TraceOverheadReport.getBucket(999), is(2));
+        assertThat(TraceOverheadReport.getBucket(10_000), is(4));
+    }
+    //endregion
+
+    //region toJson tests
+    @Test
+    public void toJson_empty() {
+        assertThat(new TraceOverheadReport().toJson(), equalTo("{\n  \"modules\": {},\n  \"variants\": {}\n}\n"));
+    }
+
+    @Test
+    public void toJson_modulesAndVariants() {
+        final TraceOverheadReport report = new TraceOverheadReport();
+        report.addConfigurationTime(":app", 1_000);
+        report.addConfigurationTime(":app", 500);
+        report.setTraceTaskCount(":app", 2);
+        report.addTaskExecution("release", 150);
+        report.addTaskExecution("debug", 5);
+        report.addTaskExecution("debug", 40);
+
+        assertThat(report.toJson(), equalTo("{\n"
+                + "  \"modules\": {\n"
+                + "    \":app\": {\"configurationNanos\": 1500, \"traceTasks\": 2}\n"
+                + "  },\n"
+                + "  \"variants\": {\n"
+                + "    \"debug\": {\"tasks\": 2, \"totalMillis\": 45, \"histogram\": {\"<10ms\": 1, \"<100ms\": 1, "
+                + "\"<1s\": 0, \"<10s\": 0, \">=10s\": 0}},\n"
+                + "    \"release\": {\"tasks\": 1, \"totalMillis\": 150, \"histogram\": {\"<10ms\": 0, \"<100ms\": 0, "
+                + "\"<1s\": 1, \"<10s\": 0, \">=10s\": 0}}\n"
+                + "  }\n"
+                + "}\n"));
+    }
+    //endregion
+}
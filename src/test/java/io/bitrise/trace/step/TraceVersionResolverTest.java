@@ -0,0 +1,161 @@
+package io.bitrise.trace.step;
+
+import org.gradle.internal.impldep.org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Test cases for {@link TraceVersionResolver}, with a local file based Maven repository.
+ */
+public class TraceVersionResolverTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String SDK = TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME + ":"
+            + TraceInjector.TRACE_SDK_DEPENDENCY_NAME;
+    private static final String GRADLE_PLUGIN = TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_GROUP_NAME + ":"
+            + TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME;
+
+    private File repository;
+    private File lockFile;
+    private TraceVersionResolver resolver;
+
+    @Before
+    public void setUp() throws IOException {
+        repository = tempFolder.newFolder("repository");
+        lockFile = new File(tempFolder.newFolder("project"), TraceVersionResolver.LOCK_FILE_NAME);
+        resolver = new TraceVersionResolver(repository.toURI().toString(), InjectionLogger.NONE);
+    }
+
+    //region resolveLatestVersion tests
+    @Test
+    public void resolveLatestVersion_release() throws IOException {
+        writeMetadata(SDK, "<release>1.2.0</release>", "1.1.0", "1.2.0");
+
+        assertThat(resolver.resolveLatestVersion(TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME,
+                TraceInjector.TRACE_SDK_DEPENDENCY_NAME), equalTo("1.2.0"));
+    }
+
+    @Test
+    public void resolveLatestVersion_lastVersionWithoutRelease() throws IOException {
+        writeMetadata(SDK, "", "1.1.0", "1.2.0", "1.3.0-SNAPSHOT");
+
+        assertThat(resolver.resolveLatestVersion(TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME,
+                TraceInjector.TRACE_SDK_DEPENDENCY_NAME), equalTo("1.2.0"));
+    }
+
+    @Test(expected = IOException.class)
+    public void resolveLatestVersion_missingMetadata() throws IOException {
+        resolver.resolveLatestVersion(TraceInjector.TRACE_SDK_DEPENDENCY_GROUP_NAME,
+                TraceInjector.TRACE_SDK_DEPENDENCY_NAME);
+    }
+    //endregion
+
+    //region resolve tests
+    @Test
+    public void resolve_versionsArePinned() throws IOException {
+        writeMetadata(SDK, "<release>1.2.0</release>", "1.2.0");
+        writeMetadata(GRADLE_PLUGIN, "<release>0.3.0</release>", "0.3.0");
+
+        assertThat(resolver.resolve(lockFile, false), equalTo(new TraceVersions("1.2.0", "0.3.0")));
+        final String lockFileContent = FileUtils.readFileToString(lockFile, StandardCharsets.UTF_8);
+        assertThat(lockFileContent, containsString(TraceInjector.TRACE_SDK_DEPENDENCY_NAME + "=1.2.0\n"));
+        assertThat(lockFileContent, containsString(TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME + "=0.3.0\n"));
+    }
+
+    @Test
+    public void resolve_pinnedVersionsAreReused() throws IOException {
+        writeMetadata(SDK, "<release>1.2.0</release>", "1.2.0");
+        writeMetadata(GRADLE_PLUGIN, "<release>0.3.0</release>", "0.3.0");
+        resolver.resolve(lockFile, false);
+
+        writeMetadata(SDK, "<release>1.3.0</release>", "1.2.0", "1.3.0");
+
+        assertThat(resolver.resolve(lockFile, false), equalTo(new TraceVersions("1.2.0", "0.3.0")));
+    }
+
+    @Test
+    public void resolve_refresh() throws IOException {
+        writeMetadata(SDK, "<release>1.2.0</release>", "1.2.0");
+        writeMetadata(GRADLE_PLUGIN, "<release>0.3.0</release>", "0.3.0");
+        resolver.resolve(lockFile, false);
+
+        writeMetadata(SDK, "<release>1.3.0</release>", "1.2.0", "1.3.0");
+
+        assertThat(resolver.resolve(lockFile, true), equalTo(new TraceVersions("1.3.0", "0.3.0")));
+        assertThat(FileUtils.readFileToString(lockFile, StandardCharsets.UTF_8),
+                containsString(TraceInjector.TRACE_SDK_DEPENDENCY_NAME + "=1.3.0\n"));
+    }
+
+    @Test
+    public void resolve_unresolvableVersionIsDynamic() throws IOException {
+        writeMetadata(SDK, "<release>1.2.0</release>", "1.2.0");
+
+        final TraceVersions versions = resolver.resolve(lockFile, false);
+
+        assertThat(versions, equalTo(new TraceVersions("1.2.0", TraceInjector.TRACE_GRADLE_PLUGIN_VERSION)));
+        assertThat(FileUtils.readFileToString(lockFile, StandardCharsets.UTF_8),
+                not(containsString(TraceInjector.TRACE_GRADLE_PLUGIN_DEPENDENCY_NAME + "=")));
+    }
+
+    @Test
+    public void resolve_nothingToPin() throws IOException {
+        assertThat(resolver.resolve(lockFile, false), equalTo(TraceVersions.DYNAMIC));
+        assertThat(lockFile.exists(), is(false));
+    }
+
+    @Test
+    public void resolve_pinnedVersionIsInjected() throws IOException {
+        writeMetadata(SDK, "<release>1.2.0</release>", "1.2.0");
+        writeMetadata(GRADLE_PLUGIN, "<release>0.3.0</release>", "0.3.0");
+        final File buildFile = tempFolder.newFile("build.gradle");
+        FileUtils.writeStringToFile(buildFile, "apply plugin: 'com.android.application'\n", StandardCharsets.UTF_8);
+
+        new TraceInjector(InjectionLogger.NONE, InjectionMode.INLINE, resolver.resolve(lockFile, false),
+                repository.toURI().toString())
+                .injectTrace(new ApplicationModuleModel("app", ":app", tempFolder.getRoot(), buildFile,
+                        Collections.emptySet(), Collections.emptySet(),
+                        Collections.singleton(TraceInjector.ANDROID_APPLICATION_PLUGIN_ID)));
+
+        final String content = FileUtils.readFileToString(buildFile, StandardCharsets.UTF_8);
+        assertThat(content, containsString("\"io.bitrise.trace:trace-sdk:1.2.0\""));
+        assertThat(content, containsString(TraceInjector.getTraceGradlePluginDependency("0.3.0")));
+        assertThat(content.contains(":+"), is(false));
+    }
+    //endregion
+
+    /**
+     * Writes the "maven-metadata.xml" of an artifact into the local repository.
+     *
+     * @param coordinates the group and the name of the artifact, separated by a colon.
+     * @param release     the release element, or an empty String.
+     * @param versions    the versions of the artifact.
+     * @throws IOException when any I/O error occurs with the file.
+     */
+    private void writeMetadata(final String coordinates, final String release, final String... versions)
+            throws IOException {
+        final StringBuilder stringBuilder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<metadata>\n  <versioning>\n    ").append(release).append("\n    <versions>\n");
+        for (final String version : versions) {
+            stringBuilder.append("      <version>").append(version).append("</version>\n");
+        }
+        stringBuilder.append("    </versions>\n  </versioning>\n</metadata>\n");
+        final File directory = new File(repository, coordinates.replace('.', '/').replace(':', '/'));
+        FileUtils.writeStringToFile(new File(directory, "maven-metadata.xml"), stringBuilder.toString(),
+                StandardCharsets.UTF_8);
+    }
+}
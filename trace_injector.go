@@ -2,107 +2,322 @@ package main
 
 import (
 	"bytes"
+	"encoding/json"
 	"fmt"
 	"github.com/kballard/go-shellquote"
-	"io"
+	"io/ioutil"
 	"os"
 	"os/exec"
 	"path"
-	"path/filepath"
+	"sort"
 	"strings"
+	"time"
 )
 
-// Appends the TraceInjectorTask to the end of the root build.gradle.
-func appendTraceInjectorTaskToProject(path string) error {
-	f, err := os.OpenFile(path, os.O_APPEND|os.O_WRONLY, 0644)
-	if err != nil {
-		return fmt.Errorf("failed to open file on path \"%s\". %s", path, err)
-	}
+// Returned by runStaticTraceInjector when the project can not be injected without Gradle, so the Gradle task should
+// be used instead.
+type staticInjectionUnavailableError struct {
+	reason string
+}
 
-	defer func() {
-		err = f.Close()
-	}()
+func (e *staticInjectionUnavailableError) Error() string {
+	return e.reason
+}
 
-	c, err := getTraceInjectorTaskContent(path)
+// Builds the injector plugin jar (TraceInjectorPlugin, InjectTraceTask and the classes they use) from the sources of the
+// step, with the Gradle wrapper of the given project. The jar is built in the injector build of the step, not in the
+// project, so the buildSrc of the project and its caches are not touched, and later runs of the step reuse the jar.
+// The daemon properties of the project are passed on the command line, as the gradle.properties of the project is not
+// read outside of it, so the build starts the daemon that the injection and the later builds of the project reuse.
+// Returns the path of the jar.
+func buildInjectorPlugin(stepDir, projDir string) (string, error) {
+	buildDir := path.Join(stepDir, injectorPluginBuildDir)
+	daemonProperties, err := readDaemonProperties(projDir)
 	if err != nil {
-		return err
+		fmt.Printf("The daemon properties of the project are not passed to the injector plugin build. Reason: %s\n", err)
 	}
+	options := append([]string{"jar", "-p", buildDir}, daemonPropertyOptions(daemonProperties)...)
+	daemonsBefore := listRunningDaemons(projDir)
+	var out bytes.Buffer
+	cmd := exec.Command(path.Join(projDir, "./gradlew"), options...)
+	cmd.Stdout = &out
+	cmd.Stderr = &out
+	printCommand(cmd)
+	if err := cmd.Run(); err != nil {
+		return "", fmt.Errorf("failed to build the injector plugin. Error: %s\nOutput: %s", err, out.String())
+	}
+	fmt.Printf("Gradle daemon of the injector plugin build: %s\n",
+		daemonStatus(out.String(), options, daemonProperties, daemonsBefore, listRunningDaemons(projDir)))
 
-	if _, err := f.WriteString(c); err != nil {
-		return fmt.Errorf("failed to write content \"%s\" to file. Reason: %s", c, err)
+	jar := path.Join(buildDir, "build", "libs", fmt.Sprintf("%s-%s.jar", injectorPluginJarName, injectorPluginVersion))
+	if _, err := os.Stat(jar); err != nil {
+		return "", fmt.Errorf("the injector plugin jar is missing. Reason: %s", err)
 	}
-	return nil
+	return jar, nil
 }
 
-// Gets the string value for creating the TraceInjectorTask.
-func getTraceInjectorTaskContent(path string) (string, error) {
-	if strings.HasSuffix(path, kotlinBuildGradleSuffix) {
-		// tasks.register<io.bitrise.trace.step.InjectTraceTask>("injectTraceTask")
-		return fmt.Sprint("\n\ntasks.register<", injectTraceTaskClassName, ">(\"", injectTraceTaskName, "\")"), nil
-	} else if strings.HasSuffix(path, groovyBuildGradleSuffix) {
-		// task injectTraceTask(type: io.bitrise.trace.step.InjectTraceTask)
-		return fmt.Sprint("\n\ntask ", injectTraceTaskName, "(type: ", injectTraceTaskClassName, ")"), nil
+// Writes the init script that applies the injector plugin from the given jar on the root project, into the given
+// directory. Returns the path of the init script.
+func writeInjectorInitScript(dir, jar string) (string, error) {
+	p := path.Join(dir, injectorInitScriptName)
+	if err := ioutil.WriteFile(p, []byte(getInjectorInitScriptContent(jar)), 0644); err != nil {
+		return "", fmt.Errorf("failed to write the init script \"%s\". Reason: %s", p, err)
 	}
-	return "", fmt.Errorf("could not determine the language for gradle file at %s", path)
+	return p, nil
 }
 
-// Copies the TraceInjectorTask.java file from the steps source to the given projects buildSrc directory.
-func addTaskFile(stepDir, projDir string) error {
-	in, err := os.Open(path.Join(stepDir, injectTraceTaskFileSrcPath))
+// Gets the content of the init script that applies the injector plugin from the given jar on the root project.
+func getInjectorInitScriptContent(jar string) string {
+	quotedJar := "'" + strings.NewReplacer("\\", "\\\\", "'", "\\'").Replace(jar) + "'"
+	return fmt.Sprint("initscript {\n",
+		"    dependencies {\n",
+		"        classpath files(", quotedJar, ")\n",
+		"    }\n",
+		"}\n",
+		"\n",
+		"rootProject {\n",
+		"    apply plugin: ", injectorPluginClassName, "\n",
+		"}\n")
+}
+
+// Runs the TraceInjectorTask, applied with the given init script. This will inject the required dependencies and apply
+// the plugin for Trace in the given injection mode, with the given Trace repository, then verify them in the same
+// Gradle invocation. It runs in the project directory, so it uses the daemon properties of the project like the later
+// builds, and prints whether it has reused a daemon.
+func runTraceInjector(rootDir, options, injectionMode, traceRepositoryURL, initScript string) error {
+	optionSlice, err := shellquote.Split(options)
 	if err != nil {
-		return err
+		return fmt.Errorf("cannot parse Gradle Task Options, please make sure it is set correctly. Value: \"%s\". Error: %s ", options, err)
 	}
-	defer func() {
-		err = in.Close()
-	}()
 
-	dst := path.Join(projDir, injectTraceTaskFileDstPath)
-	e := os.MkdirAll(filepath.Dir(dst), os.ModePerm)
+	projDir, err := projectDir(rootDir)
+	if err != nil {
+		return fmt.Errorf("cannot start injector task. Reason: %s", err)
+	}
+
+	var stdOut bytes.Buffer
+	var stdErr bytes.Buffer
+	cmdSlice := []string{path.Join(projDir, "./gradlew"), ":" + injectTraceTaskName, injectTraceTaskVerifyOption,
+		injectionModeOption + strings.ToUpper(injectionMode), traceRepositoryURLOption + traceRepositoryURL,
+		initScriptOption, initScript, "-p", projDir}
+	cmdSlice = append(cmdSlice, optionSlice...)
+
+	daemonsBefore := listRunningDaemons(projDir)
+	cmd := exec.Command(cmdSlice[0], cmdSlice[1:]...)
+	printCommand(cmd)
+
+	cmd.Stdout = &stdOut
+	cmd.Stderr = &stdErr
+	e := cmd.Run()
 	if e != nil {
-		return e
+		return fmt.Errorf("InjectTraceTask failed. Error: %s\nConsole output: %s\nError output: %s", e, stdOut.String(), stdErr.String())
 	}
-	out, err := os.Create(dst)
+	fmt.Printf("Console output from InjectTrace task:\n%s", stdOut.String())
+	daemonProperties, err := readDaemonProperties(projDir)
 	if err != nil {
-		return err
+		fmt.Printf("The daemon properties of the project cannot be read. Reason: %s\n", err)
 	}
-	defer func() {
-		err = out.Close()
-	}()
+	fmt.Printf("Gradle daemon of the InjectTrace task: %s\n",
+		daemonStatus(stdOut.String()+stdErr.String(), cmdSlice, daemonProperties, daemonsBefore,
+			listRunningDaemons(projDir)))
+	for _, option := range optionSlice {
+		if strings.HasPrefix(option, "-Dorg.gradle.") || option == noDaemonOption {
+			fmt.Printf("The Gradle Task Options have \"%s\", the later builds of the project may not reuse the daemon "+
+				"of the InjectTrace task unless they are run with it too\n", option)
+		}
+	}
+	printInjectionMetrics(projDir)
 
-	_, err = io.Copy(out, in)
+	return nil
+}
+
+// Exports the path of the init script that the TraceInjectorTask has written in the init_script injection mode into the
+// traceInitScriptEnvName environment variable, so the later Gradle steps of the workflow can apply it with
+// "--init-script". Only the builds that are started with it get Trace, nothing is written into the Gradle user home.
+func exportTraceInitScript(rootDir string) error {
+	projDir, err := projectDir(rootDir)
 	if err != nil {
 		return err
 	}
-	return out.Close()
+	initScript := path.Join(projDir, traceInitScriptPath)
+	if _, err := os.Stat(initScript); err != nil {
+		return fmt.Errorf("the init script of the TraceInjectorTask is missing. Reason: %s", err)
+	}
+
+	cmd := exec.Command("envman", "add", "--key", traceInitScriptEnvName, "--value", initScript)
+	printCommand(cmd)
+	if out, err := cmd.CombinedOutput(); err != nil {
+		return fmt.Errorf("envman failed. Error: %s\nOutput: %s", err, out)
+	}
+	fmt.Printf("Run the later Gradle builds with \"%s %s\" (exported as $%s) to add Trace to them\n",
+		initScriptOption, initScript, traceInitScriptEnvName)
+	return nil
 }
 
-// Runs the TraceInjectorTask. This will inject the required dependencies and apply the plugin for Trace.
-func runTraceInjector(rootDir, options string) error {
-	optionSlice, err := shellquote.Split(options)
+// Runs the standalone Trace injector (InjectTraceCli), which discovers the application modules from the settings and
+// build files, injects Trace and verifies it, all without starting Gradle. The injector is compiled from the sources
+// of the step with the JDK of the machine. Returns a staticInjectionUnavailableError when the JDK is not available or
+// the project can not be resolved statically, in this case the project is not modified. The included builds are
+// injected too, unless the given Gradle options turn them off for the InjectTrace task.
+func runStaticTraceInjector(rootDir, gradleOptions, injectionMode, traceRepositoryURL string) error {
+	projDir, err := projectDir(rootDir)
 	if err != nil {
-		return fmt.Errorf("cannot parse Gradle Task Options, please make sure it is set correctly. Value: \"%s\". Error: %s ", options, err)
+		return fmt.Errorf("cannot start injector. Reason: %s", err)
+	}
+	optionSlice, err := shellquote.Split(gradleOptions)
+	if err != nil {
+		return fmt.Errorf("cannot start injector. Reason: %s", err)
+	}
+	stepSrc, err := env(stepSrcDirEnvName)
+	if err != nil {
+		return err
 	}
 
-	projDir, err := projectDir(rootDir)
+	javac, err := jdkTool("javac")
 	if err != nil {
-		return fmt.Errorf("cannot start injector task. Reason: %s", err)
+		return &staticInjectionUnavailableError{err.Error()}
+	}
+	java, err := jdkTool("java")
+	if err != nil {
+		return &staticInjectionUnavailableError{err.Error()}
 	}
 
+	classesDir, err := ioutil.TempDir("", "trace-injector")
+	if err != nil {
+		return err
+	}
+	defer func() {
+		_ = os.RemoveAll(classesDir)
+	}()
+
+	srcDir := path.Join(stepSrc, injectTraceCliSrcDir)
+	var compileOut bytes.Buffer
+	compile := exec.Command(javac, "-d", classesDir, "-sourcepath", srcDir,
+		path.Join(srcDir, injectTraceCliSrcFile))
+	compile.Stdout = &compileOut
+	compile.Stderr = &compileOut
+	printCommand(compile)
+	if err := compile.Run(); err != nil {
+		return &staticInjectionUnavailableError{fmt.Sprintf("failed to compile the injector: %s\n%s", err, compileOut.String())}
+	}
+	compileInjectionEvents(javac, stepSrc, classesDir)
+
 	var stdOut bytes.Buffer
 	var stdErr bytes.Buffer
-	cmdSlice := []string{path.Join(projDir, "./gradlew"), injectTraceTaskName, "-p", projDir}
-	cmdSlice = append(cmdSlice, optionSlice...)
-
-	cmd := exec.Command(cmdSlice[0], cmdSlice[1:]...)
+	args := []string{"-cp", classesDir, injectTraceCliClassName, injectionModeOption + injectionMode,
+		traceRepositoryURLOption + traceRepositoryURL}
+	for _, option := range optionSlice {
+		if option == noIncludedBuildsGradleOption {
+			args = append(args, noIncludedBuildsOption)
+		}
+	}
+	cmd := exec.Command(java, append(args, projDir)...)
 	printCommand(cmd)
-
 	cmd.Stdout = &stdOut
 	cmd.Stderr = &stdErr
 	e := cmd.Run()
+	fmt.Printf("Console output from Trace injector:\n%s", stdOut.String())
 	if e != nil {
-		return fmt.Errorf("InjectTraceTask failed. Error: %s\nConsole output: %s\nError output: %s", e, stdOut.String(), stdErr.String())
+		if exitErr, ok := e.(*exec.ExitError); ok && exitErr.ExitCode() == injectTraceCliUnresolvableExitCode {
+			return &staticInjectionUnavailableError{stdErr.String()}
+		}
+		return fmt.Errorf("trace injector failed. Error: %s\nError output: %s", e, stdErr.String())
 	}
-    fmt.Printf("Console output from InjectTrace task:\n%s", stdOut.String())
-
+	printInjectionMetrics(projDir)
 	return nil
 }
+
+// Compiles the JFR events of the injector into the given classes directory. They need the jdk.jfr API, which Java 8
+// only has from update 262, without it the injector runs without them.
+func compileInjectionEvents(javac, stepSrc, classesDir string) {
+	var compileOut bytes.Buffer
+	compile := exec.Command(javac, "-d", classesDir, "-cp", classesDir,
+		path.Join(stepSrc, injectionEventsSrcDir, injectionEventsSrcFile))
+	compile.Stdout = &compileOut
+	compile.Stderr = &compileOut
+	printCommand(compile)
+	if err := compile.Run(); err != nil {
+		fmt.Printf("The JDK has no Flight Recorder API, the injector runs without JFR events. Reason: %s\n", err)
+	}
+}
+
+// Gets the path of the given JDK tool, from JAVA_HOME if it is set, from the PATH otherwise.
+func jdkTool(name string) (string, error) {
+	if javaHome := os.Getenv(javaHomeEnvName); javaHome != "" {
+		tool := path.Join(javaHome, "bin", name)
+		if _, err := os.Stat(tool); err == nil {
+			return tool, nil
+		}
+	}
+	tool, err := exec.LookPath(name)
+	if err != nil {
+		return "", fmt.Errorf("could not find %s, please make sure a JDK is installed. Reason: %s", name, err)
+	}
+	return tool, nil
+}
+
+// The metrics report of an injection, see InjectionMetrics.toJson() of the injector.
+type injectionMetrics struct {
+	Phases   map[string]phaseMetrics `json:"phases"`
+	Counters map[string]int64        `json:"counters"`
+}
+
+// The runs, the total wall time and the I/O of a phase of the injection.
+type phaseMetrics struct {
+	Count        int64 `json:"count"`
+	WallNanos    int64 `json:"wallNanos"`
+	FilesRead    int64 `json:"filesRead"`
+	BytesRead    int64 `json:"bytesRead"`
+	FilesWritten int64 `json:"filesWritten"`
+	BytesWritten int64 `json:"bytesWritten"`
+}
+
+// Prints the summary of the metrics report that the injection has written into the given project directory. A missing
+// or invalid report does not fail the step, as the injection itself has succeeded.
+func printInjectionMetrics(projDir string) {
+	p := path.Join(projDir, injectionMetricsReportPath)
+	content, err := ioutil.ReadFile(p)
+	if err != nil {
+		fmt.Printf("Trace injection metrics are not available. Reason: %s\n", err)
+		return
+	}
+	metrics, err := parseInjectionMetrics(content)
+	if err != nil {
+		fmt.Printf("Trace injection metrics \"%s\" are invalid. Reason: %s\n", p, err)
+		return
+	}
+	fmt.Printf("Trace injection metrics:\n%s", formatInjectionMetrics(metrics))
+}
+
+// Parses the JSON metrics report of an injection.
+func parseInjectionMetrics(content []byte) (injectionMetrics, error) {
+	var metrics injectionMetrics
+	err := json.Unmarshal(content, &metrics)
+	return metrics, err
+}
+
+// Formats the metrics of an injection, one line for each phase and counter, sorted by their names.
+func formatInjectionMetrics(metrics injectionMetrics) string {
+	phaseNames := make([]string, 0, len(metrics.Phases))
+	for name := range metrics.Phases {
+		phaseNames = append(phaseNames, name)
+	}
+	sort.Strings(phaseNames)
+	counterNames := make([]string, 0, len(metrics.Counters))
+	for name := range metrics.Counters {
+		counterNames = append(counterNames, name)
+	}
+	sort.Strings(counterNames)
+
+	var b strings.Builder
+	for _, name := range phaseNames {
+		p := metrics.Phases[name]
+		fmt.Fprintf(&b, "  %s: %d run(s) in %s, read %d file(s) (%d bytes), wrote %d file(s) (%d bytes)\n", name,
+			p.Count, time.Duration(p.WallNanos).Round(time.Microsecond), p.FilesRead, p.BytesRead, p.FilesWritten,
+			p.BytesWritten)
+	}
+	for _, name := range counterNames {
+		fmt.Fprintf(&b, "  %s: %d\n", name, metrics.Counters[name])
+	}
+	return b.String()
+}
@@ -0,0 +1,51 @@
+package main
+
+import (
+	"testing"
+)
+
+func Test_getInjectorInitScriptContent(t *testing.T) {
+	tests := []struct {
+		name string
+		jar  string
+		want string
+	}{
+		{"simple_path", "/step/injector/build/libs/trace-injector-0.0.3.jar",
+			"initscript {\n    dependencies {\n        classpath files('/step/injector/build/libs/trace-injector-0.0.3.jar')\n    }\n}\n\nrootProject {\n    apply plugin: io.bitrise.trace.step.TraceInjectorPlugin\n}\n"},
+		{"special_characters", `C:\step's dir\trace-injector-0.0.3.jar`,
+			"initscript {\n    dependencies {\n        classpath files('C:\\\\step\\'s dir\\\\trace-injector-0.0.3.jar')\n    }\n}\n\nrootProject {\n    apply plugin: io.bitrise.trace.step.TraceInjectorPlugin\n}\n"},
+	}
+	for _, tt := range tests {
+		t.Run(tt.name, func(t *testing.T) {
+			if got := getInjectorInitScriptContent(tt.jar); got != tt.want {
+				t.Errorf("getInjectorInitScriptContent() = %v, want %v", got, tt.want)
+			}
+		})
+	}
+}
+
+func Test_formatInjectionMetrics(t *testing.T) {
+	content := []byte(`{
+  "phases": {
+    "write": {"count": 1, "wallNanos": 2500000, "filesRead": 0, "bytesRead": 0, "filesWritten": 1, "bytesWritten": 120},
+    "discovery": {"count": 1, "wallNanos": 15000000, "filesRead": 0, "bytesRead": 0, "filesWritten": 0, "bytesWritten": 0}
+  },
+  "counters": {
+    "dependenciesVisited": 12,
+    "applicationModules": 1
+  }
+}
+`)
+	want := "  discovery: 1 run(s) in 15ms, read 0 file(s) (0 bytes), wrote 0 file(s) (0 bytes)\n" +
+		"  write: 1 run(s) in 2.5ms, read 0 file(s) (0 bytes), wrote 1 file(s) (120 bytes)\n" +
+		"  applicationModules: 1\n" +
+		"  dependenciesVisited: 12\n"
+
+	metrics, err := parseInjectionMetrics(content)
+	if err != nil {
+		t.Fatalf("parseInjectionMetrics() error = %v", err)
+	}
+	if got := formatInjectionMetrics(metrics); got != want {
+		t.Errorf("formatInjectionMetrics() = %v, want %v", got, want)
+	}
+}